@@ -16,6 +16,7 @@ package com.google.blockly.android;
 
 import android.app.Activity;
 import android.content.Context;
+import android.support.annotation.Nullable;
 import android.support.v4.app.FragmentManager;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
@@ -173,6 +174,24 @@ public class BlocklyActivityHelper {
         return mController.closeFlyouts();
     }
 
+    /**
+     * Starts loading the code generator with the given block definitions and generators once the
+     * main thread is idle, so the first {@link #requestCodeGeneration} does not wait for it. The
+     * generator is loaded again after each {@link #onResume()}, since {@link #onPause()} unloads
+     * it. See {@link CodeGeneratorManager#prewarm}.
+     *
+     * @param blockDefinitionsJsonPaths The asset path to the JSON block definitions.
+     * @param generatorsJsPaths The asset paths to the JavaScript generators, and optionally the
+     *                          JavaScript block extension/mutator sources.
+     * @param callback Optional callback notified when the generator is ready.
+     */
+    public void prewarmCodeGenerator(
+            List<String> blockDefinitionsJsonPaths,
+            List<String> generatorsJsPaths,
+            @Nullable CodeGeneratorManager.PrewarmCallback callback) {
+        mCodeGeneratorManager.prewarm(blockDefinitionsJsonPaths, generatorsJsPaths, callback);
+    }
+
     /**
      * Requests code generation using the blocks in the {@link Workspace}/{@link WorkspaceFragment}.
      *
@@ -0,0 +1,208 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.codegen;
+
+import android.content.Context;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process-wide cache of the merged block definitions JSON passed to the code generator page.
+ * Merging several definition files requires parsing and reserializing all of them, so the result
+ * is kept in memory for the life of the process. It is also written to the app's cache directory,
+ * keyed by the file names and a hash of their contents, so later processes only need to read and
+ * hash the assets. Writing the merged definitions of a list of files deletes the previous versions
+ * for the same files.
+ */
+class BlockDefinitionsCache {
+    private static final String TAG = "BlockDefinitionsCache";
+    private static final String CACHE_DIR = "blockly_definitions";
+
+    // Asset file lists, joined in order, to merged definitions. Assets cannot change while the
+    // process is running.
+    private static final Map<String, String> sMemoryCache = new HashMap<>();
+
+    private BlockDefinitionsCache() {
+    }
+
+    /**
+     * Returns the contents of the block definition files merged into a single JSON array, in
+     * order. A single file is returned as is. Called from the JavaScript bridge thread.
+     *
+     * @param context The context used to read assets and find the cache directory.
+     * @param filenames The asset paths of the block definition files.
+     * @return The merged JSON array, or an empty string if a file could not be read or parsed.
+     */
+    static String getMergedDefinitions(Context context, List<String> filenames) {
+        if (filenames.isEmpty()) {
+            return "";
+        }
+        String memoryKey = joinFilenames(filenames);
+        synchronized (sMemoryCache) {
+            String cached = sMemoryCache.get(memoryKey);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        String merged;
+        String filename = null;
+        try {
+            if (filenames.size() == 1) {
+                // Pass in contents without parsing.
+                filename = filenames.get(0);
+                merged = new String(CacheFiles.readAsset(context, filename), "UTF-8");
+            } else {
+                byte[][] contents = new byte[filenames.size()][];
+                for (int i = 0; i < filenames.size(); ++i) {
+                    filename = filenames.get(i);
+                    contents[i] = CacheFiles.readAsset(context, filename);
+                }
+                filename = null;
+                String diskPrefix = getDiskPrefix(filenames);
+                File diskFile = new File(getDiskDir(context),
+                        diskPrefix + getContentKey(memoryKey, contents) + ".json");
+                merged = readFile(diskFile);
+                if (merged == null) {
+                    merged = merge(filenames, contents);
+                    writeFile(diskFile, diskPrefix, merged);
+                }
+            }
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "Error reading block definitions file \"" + filename + "\"", e);
+            return "";
+        }
+
+        synchronized (sMemoryCache) {
+            sMemoryCache.put(memoryKey, merged);
+        }
+        return merged;
+    }
+
+    /**
+     * Clears the in-memory cache. Disk entries are left, since they are keyed by content.
+     */
+    @VisibleForTesting
+    static void clearMemoryCache() {
+        synchronized (sMemoryCache) {
+            sMemoryCache.clear();
+        }
+    }
+
+    private static String merge(List<String> filenames, byte[][] contents)
+            throws IOException, JSONException {
+        JSONArray allBlocks = new JSONArray();
+        for (int i = 0; i < contents.length; ++i) {
+            JSONArray fileBlocks;
+            try {
+                fileBlocks = new JSONArray(new String(contents[i], "UTF-8"));
+            } catch (JSONException e) {
+                throw new JSONException("Error parsing \"" + filenames.get(i) + "\": "
+                        + e.getMessage());
+            }
+            for (int j = 0; j < fileBlocks.length(); ++j) {
+                allBlocks.put(fileBlocks.getJSONObject(j));
+            }
+        }
+        return allBlocks.toString();
+    }
+
+    private static String joinFilenames(List<String> filenames) {
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < filenames.size(); ++i) {
+            if (i > 0) {
+                joined.append(';');
+            }
+            joined.append(filenames.get(i));
+        }
+        return joined.toString();
+    }
+
+    /**
+     * @return The directory of the merged definitions on disk.
+     */
+    @VisibleForTesting
+    static File getDiskDir(Context context) {
+        return new File(context.getCacheDir(), CACHE_DIR);
+    }
+
+    /**
+     * @return The prefix of the names of all disk files for the given definition files.
+     */
+    @VisibleForTesting
+    static String getDiskPrefix(List<String> filenames) {
+        MessageDigest digest = CacheFiles.newDigest();
+        CacheFiles.update(digest, joinFilenames(filenames));
+        return CacheFiles.toHex(digest.digest()) + "-";
+    }
+
+    private static String getContentKey(String filenames, byte[][] contents) {
+        MessageDigest digest = CacheFiles.newDigest();
+        CacheFiles.update(digest, filenames);
+        for (int i = 0; i < contents.length; ++i) {
+            digest.update((byte) 0);
+            digest.update(contents[i]);
+        }
+        return CacheFiles.toHex(digest.digest());
+    }
+
+    private static String readFile(File file) {
+        try {
+            return CacheFiles.readFile(file);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read cached block definitions " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the merged definitions, and deletes the files of previous versions of the same
+     * definition files, which have the same prefix.
+     */
+    private static void writeFile(File file, String prefix, String merged) {
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(TAG, "Unable to create cache directory " + dir);
+            return;
+        }
+        try {
+            CacheFiles.writeFile(file, merged);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write cached block definitions " + file, e);
+            return;
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File other : files) {
+                String name = other.getName();
+                if (name.startsWith(prefix) && !name.endsWith(CacheFiles.TEMP_SUFFIX)
+                        && !other.equals(file) && !other.delete()) {
+                    Log.w(TAG, "Unable to delete cached block definitions " + other);
+                }
+            }
+        }
+    }
+}
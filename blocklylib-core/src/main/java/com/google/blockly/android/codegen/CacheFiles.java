@@ -0,0 +1,153 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.codegen;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hashing and file helpers shared by the content-addressed caches of this package.
+ */
+final class CacheFiles {
+    /** The suffix of files that are being written. */
+    static final String TEMP_SUFFIX = ".tmp";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private CacheFiles() {
+    }
+
+    /**
+     * @return A new SHA-256 digest.
+     */
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);  // Required on all devices.
+        }
+    }
+
+    /**
+     * Adds a string to a digest, as UTF-8.
+     */
+    static void update(MessageDigest digest, String value) {
+        try {
+            digest.update(value.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);  // Required on all devices.
+        }
+    }
+
+    /**
+     * @param hash The bytes of a hash.
+     * @return The hash as a lowercase hexadecimal string, usable as a file name.
+     */
+    static String toHex(byte[] hash) {
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; ++i) {
+            hex[2 * i] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX_DIGITS[hash[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * @param context The context of the assets.
+     * @param filename The path of the asset.
+     * @return The contents of the asset.
+     * @throws IOException If the asset could not be read.
+     */
+    static byte[] readAsset(Context context, String filename) throws IOException {
+        InputStream input = context.getAssets().open(filename);
+        try {
+            return readFully(input);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * @param file The file to read.
+     * @return The contents of the file as UTF-8, or null if it does not exist.
+     * @throws IOException If the file exists but could not be read.
+     */
+    @Nullable
+    static String readFile(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        InputStream input = new FileInputStream(file);
+        try {
+            return new String(readFully(input), "UTF-8");
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Writes a string to a file as UTF-8. Writes to a temporary file first, so a partial write is
+     * never read back.
+     *
+     * @param file The file to write, in an existing directory.
+     * @param content The content of the file.
+     * @throws IOException If the file could not be written.
+     */
+    static void writeFile(File file, String content) throws IOException {
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        try {
+            OutputStream output = new FileOutputStream(temp);
+            try {
+                output.write(content.getBytes("UTF-8"));
+            } finally {
+                output.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Unable to rename " + temp + " to " + file);
+            }
+        } finally {
+            if (temp.exists()) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * @param input The stream to read, which is not closed.
+     * @return All remaining bytes of the stream.
+     * @throws IOException If the stream could not be read.
+     */
+    static byte[] readFully(InputStream input) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(input.available(), 32));
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            bytes.write(buffer, 0, count);
+        }
+        return bytes.toByteArray();
+    }
+}
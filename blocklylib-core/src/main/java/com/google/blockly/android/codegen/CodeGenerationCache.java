@@ -0,0 +1,448 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.codegen;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Content-addressed cache of generated code. Used by {@link CodeGeneratorManager} to return the
+ * code for an unchanged workspace without a round trip through the {@link CodeGeneratorService}.
+ * <p/>
+ * Results are kept in memory with least recently used eviction, keyed by the workspace XML and
+ * the names of the block definition and generator files, which cannot change while the process
+ * is running. The key is not hashed, so building and looking it up costs little more than a copy
+ * of the XML on the calling thread. Results can also be written to a directory so they survive
+ * process restarts. Files on disk are keyed by a hash of the XML and the contents of the
+ * definition and generator files, so a changed file, such as after an app update, never returns
+ * stale code. The disk tier is bounded by size, removing the least recently used files first,
+ * and is only read and written on a background thread.
+ */
+public class CodeGenerationCache {
+    private static final String TAG = "CodeGenerationCache";
+    private static final long DISK_THREAD_KEEP_ALIVE_SECONDS = 10;
+
+    /** The default memory budget, in characters of keys and generated code. */
+    public static final int DEFAULT_MAX_MEMORY_CHARS = 512 * 1024;
+    /** The default disk budget, in bytes of generated code. */
+    public static final long DEFAULT_MAX_DISK_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * Callback for disk lookups.
+     */
+    interface DiskLookupCallback {
+        /**
+         * Called on the main thread when the lookup finished.
+         *
+         * @param code The cached code, or null if not found.
+         */
+        void onDiskLookupFinished(@Nullable String code);
+    }
+
+    private final LruCache<String, String> mMemoryCache;
+    private final Context mContext;
+    private final File mDiskDir;
+    private final long mMaxDiskBytes;
+    private final ThreadPoolExecutor mDiskExecutor;
+    private final Handler mMainHandler;
+
+    // Disk tier state, only accessed on the disk thread. File names to sizes, in least recently
+    // used order. Loaded by the first disk task.
+    private LinkedHashMap<String, Long> mDiskEntries = null;
+    private long mDiskBytes = 0;
+    // Definition set keys to the hash of the contents of their files.
+    private final Map<String, byte[]> mContentHashes = new HashMap<>();
+
+    private int mHits = 0;
+    private int mMisses = 0;
+
+    /**
+     * Creates a memory-only cache.
+     *
+     * @param maxMemoryChars The maximum total length of the keys and cached code kept in memory.
+     */
+    public CodeGenerationCache(int maxMemoryChars) {
+        this(null, maxMemoryChars, null, 0);
+    }
+
+    /**
+     * @param context The context used to read the block definition and generator assets, which
+     *                are hashed to key the files on disk. May be null for a memory-only cache.
+     * @param maxMemoryChars The maximum total length of the keys and cached code kept in memory.
+     * @param diskDir The directory used to persist generated code, or null for a memory-only
+     *                cache. Created if it does not exist. Files in it that are not cached code
+     *                may be deleted.
+     * @param maxDiskBytes The maximum total size of the files on disk. See
+     *                     {@link #DEFAULT_MAX_DISK_BYTES}.
+     */
+    public CodeGenerationCache(@Nullable Context context, int maxMemoryChars,
+                               @Nullable File diskDir, long maxDiskBytes) {
+        mMemoryCache = new LruCache<String, String>(maxMemoryChars) {
+            @Override
+            protected int sizeOf(String key, String code) {
+                // Keys hold the workspace XML, so they count towards the budget.
+                return key.length() + code.length();
+            }
+        };
+        if (diskDir != null) {
+            if (context == null) {
+                throw new IllegalArgumentException("A disk cache requires a context.");
+            }
+            if (maxDiskBytes <= 0) {
+                throw new IllegalArgumentException("The disk budget must be positive.");
+            }
+            mContext = context.getApplicationContext();
+            mDiskDir = diskDir;
+            mMaxDiskBytes = maxDiskBytes;
+            // A single thread, so disk tasks run in order, which stops when idle.
+            mDiskExecutor = new ThreadPoolExecutor(0, 1, DISK_THREAD_KEEP_ALIVE_SECONDS,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+            mMainHandler = new Handler(Looper.getMainLooper());
+        } else {
+            mContext = null;
+            mDiskDir = null;
+            mMaxDiskBytes = 0;
+            mDiskExecutor = null;
+            mMainHandler = null;
+        }
+    }
+
+    /**
+     * @param request A code generation request.
+     * @return The key identifying the request's XML, block definitions, and generators.
+     */
+    public static String getCacheKey(CodeGenerationRequest request) {
+        // Hashed only on the disk thread, to name the file of the result.
+        String setKey = request.getDefinitionSetKey();
+        String xml = request.getXml();
+        return new StringBuilder(setKey.length() + 1 + xml.length())
+                .append(setKey).append('\0').append(xml).toString();
+    }
+
+    /**
+     * Looks up previously generated code in memory. Code on disk is looked up by
+     * {@link CodeGeneratorManager}, on a background thread.
+     *
+     * @param key The key from {@link #getCacheKey(CodeGenerationRequest)}.
+     * @return The cached code, or null if not found in memory.
+     */
+    @Nullable
+    public String get(String key) {
+        String code = mMemoryCache.get(key);
+        synchronized (this) {
+            if (code != null) {
+                ++mHits;
+            } else if (mDiskDir == null) {
+                ++mMisses;
+            }
+        }
+        return code;
+    }
+
+    /**
+     * Stores generated code in memory. Empty results, which indicate a generation error, are not
+     * cached. Results of requests are also written to disk by {@link CodeGeneratorManager}.
+     *
+     * @param key The key from {@link #getCacheKey(CodeGenerationRequest)}.
+     * @param code The generated code.
+     */
+    public void put(String key, String code) {
+        if (code == null || code.isEmpty()) {
+            return;
+        }
+        mMemoryCache.put(key, code);
+    }
+
+    /**
+     * Removes all cached code from memory and disk. Files are deleted on the background thread.
+     */
+    public void clear() {
+        mMemoryCache.evictAll();
+        if (mDiskDir != null) {
+            mDiskExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    File[] files = mDiskDir.listFiles();
+                    if (files != null) {
+                        for (File file : files) {
+                            if (!file.delete()) {
+                                Log.w(TAG, "Unable to delete " + file);
+                            }
+                        }
+                    }
+                    mDiskEntries = new LinkedHashMap<>(16, 0.75f, true);
+                    mDiskBytes = 0;
+                }
+            });
+        }
+    }
+
+    /**
+     * @return The number of lookups that found cached code.
+     */
+    public synchronized int getHitCount() {
+        return mHits;
+    }
+
+    /**
+     * @return The number of lookups that did not find cached code.
+     */
+    public synchronized int getMissCount() {
+        return mMisses;
+    }
+
+    /**
+     * @return True if code is also cached on disk.
+     */
+    boolean hasDiskTier() {
+        return mDiskDir != null;
+    }
+
+    /**
+     * Looks up the code of a request on disk, on the background thread. Code that is found is
+     * also moved into memory.
+     *
+     * @param request The request to look up.
+     * @param key The key from {@link #getCacheKey(CodeGenerationRequest)}.
+     * @param callback The callback for the result, called on the main thread.
+     */
+    void getFromDisk(final CodeGenerationRequest request, final String key,
+                     final DiskLookupCallback callback) {
+        mDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final String code = readFromDisk(request, key);
+                synchronized (CodeGenerationCache.this) {
+                    if (code != null) {
+                        ++mHits;
+                    } else {
+                        ++mMisses;
+                    }
+                }
+                if (code != null) {
+                    mMemoryCache.put(key, code);
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onDiskLookupFinished(code);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Stores the generated code of a request in memory, and on disk if enabled. May be called on
+     * any thread.
+     *
+     * @param request The request that generated the code.
+     * @param key The key from {@link #getCacheKey(CodeGenerationRequest)}.
+     * @param code The generated code.
+     */
+    void put(final CodeGenerationRequest request, final String key, final String code) {
+        if (code == null || code.isEmpty()) {
+            return;
+        }
+        mMemoryCache.put(key, code);
+        if (mDiskDir != null) {
+            mDiskExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    writeToDisk(request, key, code);
+                }
+            });
+        }
+    }
+
+    /**
+     * Blocks until all pending disk reads and writes finished.
+     */
+    @VisibleForTesting
+    void waitForDiskTasks() throws InterruptedException {
+        if (mDiskDir == null) {
+            return;
+        }
+        final CountDownLatch latch = new CountDownLatch(1);
+        mDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        latch.await();
+    }
+
+    @Nullable
+    private String readFromDisk(CodeGenerationRequest request, String key) {
+        String filename = getDiskFilename(request, key);
+        if (filename == null) {
+            return null;
+        }
+        loadDiskEntries();
+        File file = new File(mDiskDir, filename);
+        String code;
+        try {
+            code = CacheFiles.readFile(file);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read cached code from " + file, e);
+            return null;
+        }
+        if (code != null) {
+            // Marks the entry as recently used, also for later processes.
+            if (mDiskEntries.get(filename) == null) {
+                mDiskEntries.put(filename, file.length());
+                mDiskBytes += file.length();
+            }
+            file.setLastModified(System.currentTimeMillis());
+        }
+        return code;
+    }
+
+    private void writeToDisk(CodeGenerationRequest request, String key, String code) {
+        String filename = getDiskFilename(request, key);
+        if (filename == null) {
+            return;
+        }
+        loadDiskEntries();
+        File file = new File(mDiskDir, filename);
+        try {
+            CacheFiles.writeFile(file, code);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write cached code to " + file, e);
+            return;
+        }
+        Long previousSize = mDiskEntries.put(filename, file.length());
+        mDiskBytes += file.length() - (previousSize == null ? 0 : previousSize);
+        trimDiskEntries();
+    }
+
+    /**
+     * Lists the files on disk in least recently used order, the first time the disk is accessed.
+     */
+    private void loadDiskEntries() {
+        if (mDiskEntries != null) {
+            return;
+        }
+        mDiskEntries = new LinkedHashMap<>(16, 0.75f, true);
+        mDiskBytes = 0;
+        if (!mDiskDir.isDirectory() && !mDiskDir.mkdirs()) {
+            Log.w(TAG, "Unable to create cache directory " + mDiskDir);
+            return;
+        }
+        File[] files = mDiskDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        final Map<File, Long> lastModified = new HashMap<>();
+        List<File> sorted = new ArrayList<>(files.length);
+        for (File file : files) {
+            if (file.getName().endsWith(CacheFiles.TEMP_SUFFIX)) {
+                file.delete();  // Left by a write that did not finish.
+            } else {
+                lastModified.put(file, file.lastModified());
+                sorted.add(file);
+            }
+        }
+        Collections.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long aModified = lastModified.get(a);
+                long bModified = lastModified.get(b);
+                return aModified < bModified ? -1 : (aModified == bModified ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < sorted.size(); ++i) {
+            File file = sorted.get(i);
+            mDiskEntries.put(file.getName(), file.length());
+            mDiskBytes += file.length();
+        }
+        trimDiskEntries();
+    }
+
+    /**
+     * Deletes the least recently used files until the disk tier is within its budget.
+     */
+    private void trimDiskEntries() {
+        Iterator<Map.Entry<String, Long>> iter = mDiskEntries.entrySet().iterator();
+        while (mDiskBytes > mMaxDiskBytes && iter.hasNext()) {
+            Map.Entry<String, Long> eldest = iter.next();
+            File file = new File(mDiskDir, eldest.getKey());
+            if (file.exists() && !file.delete()) {
+                Log.w(TAG, "Unable to delete " + file);
+                continue;
+            }
+            mDiskBytes -= eldest.getValue();
+            iter.remove();
+        }
+    }
+
+    /**
+     * @return The name of the request's file on disk, from its key and the contents of its block
+     *         definition and generator files, or null if a file could not be read.
+     */
+    @Nullable
+    private String getDiskFilename(CodeGenerationRequest request, String key) {
+        String setKey = request.getDefinitionSetKey();
+        byte[] contentHash = mContentHashes.get(setKey);
+        if (contentHash == null) {
+            List<String> filenames = new ArrayList<>(request.getBlockDefinitionsFilenames());
+            filenames.addAll(request.getBlockGeneratorsFilenames());
+            Collections.sort(filenames);
+            MessageDigest digest = CacheFiles.newDigest();
+            String filename = null;
+            try {
+                for (int i = 0; i < filenames.size(); ++i) {
+                    filename = filenames.get(i);
+                    CacheFiles.update(digest, filename);
+                    digest.update((byte) 0);
+                    digest.update(CacheFiles.readAsset(mContext, filename));
+                    digest.update((byte) 0);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to read \"" + filename + "\". Not cached on disk.", e);
+                return null;
+            }
+            contentHash = digest.digest();
+            mContentHashes.put(setKey, contentHash);
+        }
+        MessageDigest digest = CacheFiles.newDigest();
+        CacheFiles.update(digest, key);
+        digest.update(contentHash);
+        return CacheFiles.toHex(digest.digest());
+    }
+}
@@ -15,6 +15,10 @@
 
 package com.google.blockly.android.codegen;
 
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -25,6 +29,18 @@ public class CodeGenerationRequest {
     private final String mBlocklyXml;
     private final List<String> mBlockDefinitionsFilenames;
     private final List<String> mBlockGeneratorsFilenames;
+    private final String mRequestKey;
+    private volatile boolean mCancelled = false;
+    // Optional cache for the generated code, set by CodeGeneratorManager.
+    private CodeGenerationCache mResultCache = null;
+    private String mResultCacheKey = null;
+    // Optional statistics, set by CodeGeneratorManager.
+    private CodeGenerationStats mStats = null;
+    private boolean mFinished = false;
+    private volatile long mEnqueueNanos = 0;
+    private volatile long mDispatchNanos = 0;
+    private volatile long mReadyNanos = 0;
+    private volatile long mFinishNanos = 0;
 
     /**
      * Constructor for a code generation request.
@@ -38,6 +54,27 @@ public class CodeGenerationRequest {
      */
     public CodeGenerationRequest(String xml, CodeGeneratorCallback callback,
             List<String> blockDefinitionsFilenames, List<String> blockGeneratorsFilenames) {
+        this(xml, callback, blockDefinitionsFilenames, blockGeneratorsFilenames, null);
+    }
+
+    /**
+     * Constructor for a code generation request that supersedes any earlier request with the same
+     * key. When a keyed request is submitted, earlier requests with the same key that have not
+     * finished are cancelled, so only the latest result is delivered. Use one key per workspace
+     * when generating code on every edit.
+     *
+     * @param xml The xml of a full workspace for which code should be generated.
+     * @param callback A callback specifying what to do with the generated code. If it implements
+     * {@link CancellableCallback}, it will be notified if the request is superseded.
+     * @param blockDefinitionsFilenames The paths of the js files containing block definitions,
+     * relative to file:///android_assets/background_compiler.html.
+     * @param blockGeneratorsFilenames The path of the js file containing block generators, relative
+     * to file:///android_assets/background_compiler.html.
+     * @param requestKey The key identifying the requests that supersede each other, or null.
+     */
+    public CodeGenerationRequest(String xml, CodeGeneratorCallback callback,
+            List<String> blockDefinitionsFilenames, List<String> blockGeneratorsFilenames,
+            @Nullable String requestKey) {
         if (xml == null || xml.isEmpty()) {
             throw new IllegalArgumentException("The blockly workspace string must not be empty " +
                     "or null.");
@@ -46,6 +83,7 @@ public class CodeGenerationRequest {
         mBlocklyXml = xml;
         mBlockDefinitionsFilenames = blockDefinitionsFilenames;
         mBlockGeneratorsFilenames = blockGeneratorsFilenames;
+        mRequestKey = requestKey;
     }
 
     public CodeGeneratorCallback getCallback() {
@@ -64,6 +102,181 @@ public class CodeGenerationRequest {
         return mBlockGeneratorsFilenames;
     }
 
+    /**
+     * @return The key of the requests this request supersedes, or null if it is not keyed.
+     */
+    @Nullable
+    public String getRequestKey() {
+        return mRequestKey;
+    }
+
+    /**
+     * @return A key identifying the request's block definitions and generators, regardless of
+     *         their order.
+     */
+    String getDefinitionSetKey() {
+        StringBuilder key = new StringBuilder();
+        appendSorted(key, mBlockDefinitionsFilenames);
+        key.append('|');
+        appendSorted(key, mBlockGeneratorsFilenames);
+        return key.toString();
+    }
+
+    /**
+     * @return True if this request was superseded by a newer request with the same key.
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * @return The {@link System#nanoTime()} the request was enqueued, or 0 if it has not been.
+     */
+    public long getEnqueueTimeNanos() {
+        return mEnqueueNanos;
+    }
+
+    /**
+     * @return The {@link System#nanoTime()} the request was dispatched to a generator WebView, or
+     *         0 if it has not been.
+     */
+    public long getDispatchTimeNanos() {
+        return mDispatchNanos;
+    }
+
+    /**
+     * @return The {@link System#nanoTime()} the generator WebView had loaded the page and the
+     *         request's definitions and started generating code, or 0 if it has not.
+     */
+    public long getReadyTimeNanos() {
+        return mReadyNanos;
+    }
+
+    /**
+     * @return The {@link System#nanoTime()} the result was delivered, or 0 if it has not been.
+     */
+    public long getFinishTimeNanos() {
+        return mFinishNanos;
+    }
+
+    /**
+     * @param other Another request.
+     * @return True if this request is keyed, and a newer request with the same key supersedes it.
+     */
+    boolean isSupersededBy(CodeGenerationRequest other) {
+        return mRequestKey != null && other != this && mRequestKey.equals(other.mRequestKey);
+    }
+
+    /**
+     * Cancels the request and notifies the callback, if it implements {@link CancellableCallback}.
+     * The callback will not receive a result, even if the request is already being processed.
+     */
+    void cancel() {
+        synchronized (this) {
+            if (mCancelled) {
+                return;
+            }
+            mCancelled = true;
+        }
+        if (mCallback instanceof CancellableCallback) {
+            ((CancellableCallback) mCallback).onCodeGenerationCancelled();
+        }
+        if (mDispatchNanos == 0) {
+            // Removed from the queue, so no result will be delivered.
+            finish();
+        }
+    }
+
+    /**
+     * Sets the cache that will store the generated code, even if the request is cancelled.
+     *
+     * @param cache The cache to store the result in, or null to not store it.
+     * @param cacheKey The key from {@link CodeGenerationCache#getCacheKey(CodeGenerationRequest)}.
+     */
+    void setResultCache(CodeGenerationCache cache, String cacheKey) {
+        mResultCache = cache;
+        mResultCacheKey = cacheKey;
+    }
+
+    /**
+     * @param stats The statistics to record the request in.
+     */
+    void setStats(CodeGenerationStats stats) {
+        mStats = stats;
+        stats.onRequest();
+    }
+
+    void markEnqueued() {
+        if (mEnqueueNanos == 0) {
+            mEnqueueNanos = System.nanoTime();
+        }
+    }
+
+    void markQueueDepth(int queueDepth) {
+        if (mStats != null) {
+            mStats.onQueued(queueDepth);
+        }
+    }
+
+    void markDispatched() {
+        mDispatchNanos = System.nanoTime();
+    }
+
+    void markPageLoad() {
+        if (mStats != null) {
+            mStats.onPageLoad();
+        }
+    }
+
+    void markDefinitionLoad() {
+        if (mStats != null) {
+            mStats.onDefinitionLoad();
+        }
+    }
+
+    void markReady() {
+        mReadyNanos = System.nanoTime();
+    }
+
+    /**
+     * Delivers the generated code to the callback, unless the request was cancelled.
+     *
+     * @param generatedCode The generated code.
+     */
+    void deliverResult(String generatedCode) {
+        mFinishNanos = System.nanoTime();
+        if (mResultCache != null) {
+            mResultCache.put(this, mResultCacheKey, generatedCode);
+        }
+        if (!mCancelled && mCallback != null) {
+            mCallback.onFinishCodeGeneration(generatedCode);
+        }
+        finish();
+    }
+
+    private void finish() {
+        synchronized (this) {
+            if (mFinished) {
+                return;
+            }
+            mFinished = true;
+        }
+        if (mStats != null) {
+            mStats.onFinished(this);
+        }
+    }
+
+    private static void appendSorted(StringBuilder sb, List<String> filenames) {
+        List<String> sorted = new ArrayList<>(filenames);
+        Collections.sort(sorted);
+        for (int i = 0; i < sorted.size(); ++i) {
+            if (i > 0) {
+                sb.append(';');
+            }
+            sb.append(sorted.get(i));
+        }
+    }
+
     public interface CodeGeneratorCallback {
         /**
          * Called when finished generating code.
@@ -73,4 +286,14 @@ public class CodeGenerationRequest {
         void onFinishCodeGeneration(String generatedCode);
     }
 
+    /**
+     * Callback that is also told when a keyed request is superseded before it finishes.
+     */
+    public interface CancellableCallback extends CodeGeneratorCallback {
+        /**
+         * Called instead of {@link #onFinishCodeGeneration(String)} when the request was
+         * superseded by a newer request with the same key.
+         */
+        void onCodeGenerationCancelled();
+    }
 }
@@ -0,0 +1,226 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.codegen;
+
+import android.support.annotation.Nullable;
+
+/**
+ * Latency and load statistics for the code generation requests of a {@link CodeGeneratorManager},
+ * from {@link CodeGeneratorManager#getStats()}. Each request records when it was enqueued,
+ * dispatched to a generator WebView, ready to generate (page and definitions loaded), and
+ * finished. See the timing getters of {@link CodeGenerationRequest}.
+ * <p/>
+ * Thread-safe. Requests complete on the JavaScript bridge thread, so the {@link Listener} is
+ * usually called from that thread.
+ */
+public class CodeGenerationStats {
+    /**
+     * Notified as each request finishes, for apps that log or export individual timings.
+     */
+    public interface Listener {
+        /**
+         * Called when a request finishes, whether its result was delivered or it was cancelled.
+         *
+         * @param request The finished request, with its timings.
+         */
+        void onRequestFinished(CodeGenerationRequest request);
+    }
+
+    private Listener mListener = null;
+
+    private int mRequestCount = 0;
+    private int mCompletedCount = 0;
+    private int mCancelledCount = 0;
+    private int mCacheHitCount = 0;
+    private int mPageLoadCount = 0;
+    private int mDefinitionLoadCount = 0;
+    private int mMaxQueueDepth = 0;
+    private int mTimedCount = 0;
+    private long mTotalQueueNanos = 0;
+    private long mTotalSetupNanos = 0;
+    private long mTotalGenerationNanos = 0;
+    private long mTotalLatencyNanos = 0;
+    private long mMaxLatencyNanos = 0;
+
+    /**
+     * @param listener The listener for individual requests, or null.
+     */
+    public synchronized void setListener(@Nullable Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Clears all counts and totals.
+     */
+    public synchronized void reset() {
+        mRequestCount = mCompletedCount = mCancelledCount = mCacheHitCount = 0;
+        mPageLoadCount = mDefinitionLoadCount = mMaxQueueDepth = mTimedCount = 0;
+        mTotalQueueNanos = mTotalSetupNanos = mTotalGenerationNanos = 0;
+        mTotalLatencyNanos = mMaxLatencyNanos = 0;
+    }
+
+    /**
+     * @return The number of requests made, including cache hits.
+     */
+    public synchronized int getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * @return The number of requests whose result was delivered.
+     */
+    public synchronized int getCompletedCount() {
+        return mCompletedCount;
+    }
+
+    /**
+     * @return The number of requests cancelled by a newer request with the same key.
+     */
+    public synchronized int getCancelledCount() {
+        return mCancelledCount;
+    }
+
+    /**
+     * @return The number of requests answered by the manager's {@link CodeGenerationCache}.
+     */
+    public synchronized int getCacheHitCount() {
+        return mCacheHitCount;
+    }
+
+    /**
+     * @return The number of times a generator WebView loaded the generator page for a request.
+     */
+    public synchronized int getPageLoadCount() {
+        return mPageLoadCount;
+    }
+
+    /**
+     * @return The number of times a generator WebView loaded a set of block definitions and
+     *         generators for a request.
+     */
+    public synchronized int getDefinitionLoadCount() {
+        return mDefinitionLoadCount;
+    }
+
+    /**
+     * @return The largest number of requests waiting in the service queue when a request was
+     *         enqueued, including that request.
+     */
+    public synchronized int getMaxQueueDepth() {
+        return mMaxQueueDepth;
+    }
+
+    /**
+     * @return The average time requests waited in the queue before being dispatched to a WebView.
+     */
+    public synchronized long getAverageQueueNanos() {
+        return mTimedCount == 0 ? 0 : mTotalQueueNanos / mTimedCount;
+    }
+
+    /**
+     * @return The average time from dispatch until the WebView was ready to generate code,
+     *         including any page or definition loading.
+     */
+    public synchronized long getAverageSetupNanos() {
+        return mTimedCount == 0 ? 0 : mTotalSetupNanos / mTimedCount;
+    }
+
+    /**
+     * @return The average time spent generating code once the WebView was ready.
+     */
+    public synchronized long getAverageGenerationNanos() {
+        return mTimedCount == 0 ? 0 : mTotalGenerationNanos / mTimedCount;
+    }
+
+    /**
+     * @return The average time from enqueue until the result, for requests that were generated
+     *         by a WebView.
+     */
+    public synchronized long getAverageLatencyNanos() {
+        return mTimedCount == 0 ? 0 : mTotalLatencyNanos / mTimedCount;
+    }
+
+    /**
+     * @return The longest time from enqueue until the result, for requests that were generated by
+     *         a WebView.
+     */
+    public synchronized long getMaxLatencyNanos() {
+        return mMaxLatencyNanos;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CodeGenerationStats{requests=" + mRequestCount
+                + ", completed=" + mCompletedCount
+                + ", cancelled=" + mCancelledCount
+                + ", cacheHits=" + mCacheHitCount
+                + ", pageLoads=" + mPageLoadCount
+                + ", definitionLoads=" + mDefinitionLoadCount
+                + ", maxQueueDepth=" + mMaxQueueDepth
+                + ", avgQueueMs=" + getAverageQueueNanos() / 1000000f
+                + ", avgSetupMs=" + getAverageSetupNanos() / 1000000f
+                + ", avgGenerationMs=" + getAverageGenerationNanos() / 1000000f
+                + ", avgLatencyMs=" + getAverageLatencyNanos() / 1000000f
+                + ", maxLatencyMs=" + mMaxLatencyNanos / 1000000f + "}";
+    }
+
+    synchronized void onRequest() {
+        ++mRequestCount;
+    }
+
+    synchronized void onCacheHit() {
+        ++mCacheHitCount;
+    }
+
+    synchronized void onQueued(int queueDepth) {
+        mMaxQueueDepth = Math.max(mMaxQueueDepth, queueDepth);
+    }
+
+    synchronized void onPageLoad() {
+        ++mPageLoadCount;
+    }
+
+    synchronized void onDefinitionLoad() {
+        ++mDefinitionLoadCount;
+    }
+
+    void onFinished(CodeGenerationRequest request) {
+        Listener listener;
+        synchronized (this) {
+            if (request.isCancelled()) {
+                ++mCancelledCount;
+            } else {
+                ++mCompletedCount;
+            }
+            long ready = request.getReadyTimeNanos();
+            if (ready != 0) {
+                long enqueued = request.getEnqueueTimeNanos();
+                long dispatched = request.getDispatchTimeNanos();
+                long finished = request.getFinishTimeNanos();
+                ++mTimedCount;
+                mTotalQueueNanos += dispatched - enqueued;
+                mTotalSetupNanos += ready - dispatched;
+                mTotalGenerationNanos += finished - ready;
+                mTotalLatencyNanos += finished - enqueued;
+                mMaxLatencyNanos = Math.max(mMaxLatencyNanos, finished - enqueued);
+            }
+            listener = mListener;
+        }
+        if (listener != null) {
+            listener.onRequestFinished(request);
+        }
+    }
+}
@@ -19,10 +19,17 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
 
 /**
@@ -32,15 +39,57 @@ import java.util.Queue;
  */
 public class CodeGeneratorManager {
     private static final String TAG = "CodeGeneratorManager";
+    // An empty workspace, used to prewarm the generator without generating real code.
+    private static final String EMPTY_WORKSPACE_XML =
+            "<xml xmlns=\"http://www.w3.org/1999/xhtml\"></xml>";
+
+    /**
+     * Callback for {@link #prewarm}.
+     */
+    public interface PrewarmCallback {
+        /**
+         * Called on the main thread once the generator page and the requested block definitions
+         * and generators are loaded, and code generation has run once. Called again after each
+         * {@link #onResume()} that loads them again.
+         */
+        void onCodeGeneratorReady();
+    }
 
     private final Context mContext;
     private final Queue<CodeGenerationRequest> mStoredRequests;
+    // Requests waiting for a lookup in the cache's disk tier.
+    private final List<CodeGenerationRequest> mDiskLookupRequests = new ArrayList<>();
+    // Requests with cached code posted to the main thread, but not yet delivered.
+    private final List<CodeGenerationRequest> mCachedDeliveries = new ArrayList<>();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Files loaded by prewarm() after each resume, or null if not prewarming.
+    private List<String> mPrewarmDefinitions = null;
+    private List<String> mPrewarmGenerators = null;
+    private PrewarmCallback mPrewarmCallback = null;
+    private boolean mPrewarmScheduled = false;
+    private final MessageQueue.IdleHandler mPrewarmIdleHandler = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            mPrewarmScheduled = false;
+            if (mResumed && mPrewarmDefinitions != null) {
+                sendPrewarmRequest();
+            }
+            return false;  // Only run once per schedulePrewarm().
+        }
+    };
 
     private final ServiceConnection mCodeGenerationConnection;
     private CodeGeneratorService mGeneratorService;
 
     private boolean mResumed = false;
     private boolean mIsConnecting = false;
+    private int mMaxGeneratorContexts = CodeGeneratorService.DEFAULT_MAX_GENERATOR_CONTEXTS;
+    private int mMaxLoadedDefinitionSets =
+            CodeGeneratorService.DEFAULT_MAX_LOADED_DEFINITION_SETS;
+    private CodeGenerationCache mCache =
+            new CodeGenerationCache(CodeGenerationCache.DEFAULT_MAX_MEMORY_CHARS);
+    private final CodeGenerationStats mStats = new CodeGenerationStats();
 
     public CodeGeneratorManager(Context context) {
         this.mContext = context;
@@ -54,6 +103,8 @@ public class CodeGeneratorManager {
                         mContext.unbindService(mCodeGenerationConnection);
                     } else {
                         mGeneratorService = ((CodeGeneratorService.CodeGeneratorBinder) binder).getService();
+                        mGeneratorService.setMaxGeneratorContexts(mMaxGeneratorContexts);
+                        mGeneratorService.setMaxLoadedDefinitionSets(mMaxLoadedDefinitionSets);
 
                         while (!mStoredRequests.isEmpty()) {
                             executeCodeGenerationRequest(mStoredRequests.poll());
@@ -72,10 +123,15 @@ public class CodeGeneratorManager {
     }
 
     /**
-     * Unbind the underlying service (if it is bound).
+     * Unbind the underlying service (if it is bound). This discards any generator loaded by
+     * {@link #prewarm}, which is loaded again after the next {@link #onResume()}.
      */
     public void onPause() {
         mResumed = false;
+        if (mPrewarmScheduled) {
+            Looper.myQueue().removeIdleHandler(mPrewarmIdleHandler);
+            mPrewarmScheduled = false;
+        }
         if (isBound()) {
             mContext.unbindService(mCodeGenerationConnection);
         }
@@ -88,10 +144,139 @@ public class CodeGeneratorManager {
     public void onResume() {
         mResumed = true;
         mStoredRequests.clear();
+        if (mPrewarmDefinitions != null) {
+            schedulePrewarm();
+        }
+    }
+
+    /**
+     * Starts the code generator service, if needed, and loads the given block definitions and
+     * generators into one of its WebViews by generating code for an empty workspace. A later
+     * request with the same files then skips starting the service, loading the generator page and
+     * loading the definitions. Prewarming is opt-in, since the WebView uses a significant amount
+     * of memory.
+     * <p/>
+     * The generator is loaded once the main thread is idle, so it does not delay the first frames
+     * of the activity. Since {@link #onPause()} unbinds the service, it is loaded again when idle
+     * after each {@link #onResume()}, until {@link #cancelPrewarm()}. If called while paused, the
+     * generator is first loaded after the next {@link #onResume()}. Must be called on the main
+     * thread.
+     *
+     * @param blockDefinitionsFilenames The block definition files, as in
+     *                                  {@link CodeGenerationRequest}.
+     * @param blockGeneratorsFilenames The block generator files, as in
+     *                                 {@link CodeGenerationRequest}.
+     * @param callback Optional callback notified when the generator is ready.
+     */
+    public void prewarm(List<String> blockDefinitionsFilenames,
+                        List<String> blockGeneratorsFilenames,
+                        @Nullable PrewarmCallback callback) {
+        mPrewarmDefinitions = blockDefinitionsFilenames;
+        mPrewarmGenerators = blockGeneratorsFilenames;
+        mPrewarmCallback = callback;
+        if (mResumed) {
+            schedulePrewarm();
+        }
+    }
+
+    /**
+     * Stops loading the generator set by {@link #prewarm} after each {@link #onResume()}. A
+     * generator that is already loaded stays loaded until {@link #onPause()}.
+     */
+    public void cancelPrewarm() {
+        mPrewarmDefinitions = null;
+        mPrewarmGenerators = null;
+        mPrewarmCallback = null;
+        if (mPrewarmScheduled) {
+            Looper.myQueue().removeIdleHandler(mPrewarmIdleHandler);
+            mPrewarmScheduled = false;
+        }
+    }
+
+    /**
+     * Sets the maximum number of WebViews the service may use to generate code in parallel. Use
+     * more than one when requests with different block definitions or generators are interleaved,
+     * to avoid reloading the generator page between them.
+     *
+     * @param maxContexts The maximum number of WebViews. Must be at least 1.
+     */
+    public void setMaxGeneratorContexts(int maxContexts) {
+        if (maxContexts < 1) {
+            throw new IllegalArgumentException("Must allow at least one generator context.");
+        }
+        mMaxGeneratorContexts = maxContexts;
+        if (isBound()) {
+            mGeneratorService.setMaxGeneratorContexts(maxContexts);
+        }
+    }
+
+    /**
+     * Sets how many distinct sets of block definitions and generators each of the service's
+     * WebViews keeps loaded, so alternating between them does not reload the generator page.
+     *
+     * @param maxLoadedSets The maximum number of sets per WebView. Must be at least 1.
+     */
+    public void setMaxLoadedDefinitionSets(int maxLoadedSets) {
+        if (maxLoadedSets < 1) {
+            throw new IllegalArgumentException("Must allow at least one definition set.");
+        }
+        mMaxLoadedDefinitionSets = maxLoadedSets;
+        if (isBound()) {
+            mGeneratorService.setMaxLoadedDefinitionSets(maxLoadedSets);
+        }
+    }
+
+    /**
+     * @return The number of requests that reused definitions and generators already loaded in the
+     *     service, or 0 if the service is not bound.
+     */
+    public int getDefinitionSetCacheHits() {
+        return isBound() ? mGeneratorService.getDefinitionSetCacheHits() : 0;
+    }
+
+    /**
+     * @return The number of requests that loaded definitions and generators into the service, or
+     *     0 if the service is not bound.
+     */
+    public int getDefinitionSetCacheMisses() {
+        return isBound() ? mGeneratorService.getDefinitionSetCacheMisses() : 0;
+    }
+
+    /**
+     * Sets the cache used to return previously generated code for unchanged workspaces. By
+     * default, a memory-only {@link CodeGenerationCache} is used. If the cache has a disk tier,
+     * requests not found in memory are looked up on disk, on a background thread, before they
+     * are sent to the service.
+     *
+     * @param cache The cache to use, or null to always generate code.
+     */
+    public void setCodeGenerationCache(@Nullable CodeGenerationCache cache) {
+        mCache = cache;
+    }
+
+    /**
+     * @return The cache of generated code, or null if caching is disabled.
+     */
+    @Nullable
+    public CodeGenerationCache getCodeGenerationCache() {
+        return mCache;
+    }
+
+    /**
+     * @return The latency and load statistics of this manager's requests.
+     */
+    public CodeGenerationStats getStats() {
+        return mStats;
     }
 
     /**
-     * Calls the Service to request code generation for the workspace passed in.
+     * Calls the Service to request code generation for the workspace passed in. If the same
+     * workspace XML, block definitions, and generators were recently generated, the cached code is
+     * delivered to the callback on the main thread, never before this method returns.
+     * <p/>
+     * If the request has a {@link CodeGenerationRequest#getRequestKey() key}, any pending requests
+     * with the same key are cancelled, so that under rapid editing only the latest request is
+     * processed.
      *
      * @param codeGenerationRequest the request to generate code.
      */
@@ -104,16 +289,144 @@ public class CodeGeneratorManager {
             Log.w(TAG, "codeGenerationRequest was null");
             return;
         }
+        codeGenerationRequest.setStats(mStats);
+        codeGenerationRequest.markEnqueued();
+        if (mCache != null) {
+            String cacheKey = CodeGenerationCache.getCacheKey(codeGenerationRequest);
+            String cachedCode = mCache.get(cacheKey);
+            if (cachedCode != null) {
+                deliverCachedResult(codeGenerationRequest, cachedCode);
+                return;
+            }
+            codeGenerationRequest.setResultCache(mCache, cacheKey);
+            if (mCache.hasDiskTier()) {
+                lookUpOnDisk(mCache, codeGenerationRequest, cacheKey);
+                return;
+            }
+        }
+        sendRequest(codeGenerationRequest);
+    }
+
+    private void lookUpOnDisk(CodeGenerationCache cache, final CodeGenerationRequest request,
+                              String cacheKey) {
+        cancelSupersededRequests(request);
+        mDiskLookupRequests.add(request);
+        cache.getFromDisk(request, cacheKey, new CodeGenerationCache.DiskLookupCallback() {
+            @Override
+            public void onDiskLookupFinished(@Nullable String code) {
+                if (!mDiskLookupRequests.remove(request)) {
+                    return;  // Superseded by a newer request.
+                }
+                if (code != null) {
+                    deliverCachedResult(request, code);
+                } else if (!mResumed) {
+                    Log.w(TAG, "Paused during cache lookup. Request ignored.");
+                } else {
+                    sendRequest(request);
+                }
+            }
+        });
+    }
+
+    private void schedulePrewarm() {
+        if (!mPrewarmScheduled) {
+            Looper.myQueue().addIdleHandler(mPrewarmIdleHandler);
+            mPrewarmScheduled = true;
+        }
+    }
+
+    private void sendPrewarmRequest() {
+        final PrewarmCallback callback = mPrewarmCallback;
+        CodeGenerationRequest request = new CodeGenerationRequest(EMPTY_WORKSPACE_XML,
+                new CodeGenerationRequest.CodeGeneratorCallback() {
+                    @Override
+                    public void onFinishCodeGeneration(String generatedCode) {
+                        if (callback != null) {
+                            mMainHandler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    callback.onCodeGeneratorReady();
+                                }
+                            });
+                        }
+                    }
+                }, mPrewarmDefinitions, mPrewarmGenerators);
+        // Not recorded in the stats or cache, since it is not a real request.
+        if (isBound()) {
+            executeCodeGenerationRequest(request);
+        } else {
+            mStoredRequests.add(request);
+            if (!mIsConnecting) {
+                connectToService();
+            }
+        }
+    }
+
+    private void deliverCachedResult(final CodeGenerationRequest request, final String code) {
+        mStats.onCacheHit();
+        cancelSupersededRequests(request);
+        request.setResultCache(null, null);  // Already cached.
+        // Posted, so callbacks are called asynchronously whether or not the code was cached.
+        mCachedDeliveries.add(request);
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mCachedDeliveries.remove(request)) {  // Unless superseded.
+                    request.deliverResult(code);
+                }
+            }
+        });
+    }
+
+    private void sendRequest(CodeGenerationRequest request) {
         if (isBound()) {
-            executeCodeGenerationRequest(codeGenerationRequest);
+            executeCodeGenerationRequest(request);
         } else {
-            mStoredRequests.add(codeGenerationRequest);
+            cancelSupersededRequests(request);
+            mStoredRequests.add(request);
             if (!mIsConnecting) {
                 connectToService();
             }
         }
     }
 
+    /**
+     * Cancels stored, queued, looked up, and cached requests with the same key as the given
+     * request.
+     */
+    private void cancelSupersededRequests(CodeGenerationRequest request) {
+        if (request.getRequestKey() == null) {
+            return;
+        }
+        Iterator<CodeGenerationRequest> iter = mStoredRequests.iterator();
+        while (iter.hasNext()) {
+            CodeGenerationRequest stored = iter.next();
+            if (stored.isSupersededBy(request)) {
+                iter.remove();
+                stored.cancel();
+            }
+        }
+        iter = mDiskLookupRequests.iterator();
+        while (iter.hasNext()) {
+            CodeGenerationRequest lookingUp = iter.next();
+            if (lookingUp.isSupersededBy(request)) {
+                iter.remove();
+                lookingUp.cancel();
+            }
+        }
+        iter = mCachedDeliveries.iterator();
+        while (iter.hasNext()) {
+            CodeGenerationRequest cached = iter.next();
+            if (cached.isSupersededBy(request)) {
+                iter.remove();
+                cached.cancel();
+            }
+        }
+        if (isBound()) {
+            mGeneratorService.cancelSupersededRequests(request);
+        }
+    }
+
     private boolean isBound() {
         return mGeneratorService != null;
     }
@@ -18,73 +18,72 @@ package com.google.blockly.android.codegen;
 import android.app.Service;
 import android.content.Intent;
 import android.os.Binder;
-import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
-import android.support.annotation.VisibleForTesting;
 import android.text.TextUtils;
 import android.util.Log;
-import android.webkit.JavascriptInterface;
-import android.webkit.WebChromeClient;
-import android.webkit.WebView;
-import android.webkit.WebViewClient;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
- * Background service that uses a WebView to statically load the Web Blockly libraries and use them
- * to generate code.
+ * Background service that uses a pool of WebViews to statically load the Web Blockly libraries and
+ * use them to generate code.
+ * <p/>
+ * Each WebView in the pool keeps the last set of block definitions and generators it loaded.
+ * Requests are sent to an idle WebView that already has the matching files loaded, when available,
+ * so several requests can be processed in parallel without reloading pages. By default the pool
+ * has a single WebView. See {@link #setMaxGeneratorContexts(int)}.
  */
-public class CodeGeneratorService extends Service {
+public class CodeGeneratorService extends Service implements GeneratorContext.Listener {
     private static final String TAG = "CodeGeneratorService";
-    private static final String BLOCKLY_COMPILER_PAGE =
-            "file:///android_asset/background_compiler.html";
+
+    /** The default maximum number of WebViews used to generate code. */
+    public static final int DEFAULT_MAX_GENERATOR_CONTEXTS = 1;
+    /** The default number of definition sets each WebView keeps loaded. */
+    public static final int DEFAULT_MAX_LOADED_DEFINITION_SETS =
+            GeneratorContext.DEFAULT_MAX_LOADED_SETS;
 
     // Binder given to clients
     private final IBinder mBinder = new CodeGeneratorBinder();
     private final ArrayDeque<CodeGenerationRequest> mRequestQueue = new ArrayDeque<>();
-    private boolean mReady = false;
-    private WebView mWebview;
-    private CodeGenerationRequest.CodeGeneratorCallback mCallback;
+    // Only accessed on the main thread.
+    private final List<GeneratorContext> mContexts = new ArrayList<>();
+    private int mMaxContexts = DEFAULT_MAX_GENERATOR_CONTEXTS;
+    private int mMaxLoadedSets = DEFAULT_MAX_LOADED_DEFINITION_SETS;
+    // Counts from destroyed contexts.
+    private int mReleasedSetHits = 0;
+    private int mReleasedSetMisses = 0;
     private Handler mHandler;
-    private List<String> mDefinitions = new ArrayList<>();
-    private List<String> mGenerators = new ArrayList<>();
-    private String mAllBlocks;
+    private boolean mDestroyed = false;
+
+    private final Runnable mDispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dispatchRequests();
+        }
+    };
 
     @Override
     public void onCreate() {
         mHandler = new Handler();
-        mWebview = new WebView(this);
-        mWebview.getSettings().setJavaScriptEnabled(true);
-        mWebview.setWebChromeClient(new WebChromeClient());
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-            WebView.setWebContentsDebuggingEnabled(true);
-        }
-        mWebview.addJavascriptInterface(new BlocklyJavascriptInterface(),
-                "BlocklyJavascriptInterface");
+    }
 
-        mWebview.setWebViewClient(new WebViewClient() {
-            @Override
-            public void onPageFinished(WebView view, String url) {
-                synchronized (this) {
-                    mReady = true;
-                }
-                handleRequest();
-            }
-        });
-        mWebview.loadUrl(BLOCKLY_COMPILER_PAGE);
+    @Override
+    public void onDestroy() {
+        mDestroyed = true;
+        mHandler.removeCallbacks(mDispatchRunnable);
+        for (int i = 0; i < mContexts.size(); ++i) {
+            releaseContext(mContexts.get(i));
+        }
+        mContexts.clear();
+        synchronized (this) {
+            mRequestQueue.clear();
+        }
     }
 
     @Nullable
@@ -94,199 +93,220 @@ public class CodeGeneratorService extends Service {
     }
 
     /**
-     * Enqueues a {@link CodeGenerationRequest} and kicks off generation of the first request in the
-     * queue if no request is in progress.
+     * Sets the maximum number of WebViews used to generate code in parallel. Each WebView uses a
+     * significant amount of memory, so this should only be raised when requests with different
+     * block definitions or generators are interleaved, or when throughput matters. Lowering the
+     * limit releases idle WebViews above the limit. Must be called on the main thread.
+     *
+     * @param maxContexts The maximum number of WebViews. Must be at least 1.
+     */
+    public void setMaxGeneratorContexts(int maxContexts) {
+        if (maxContexts < 1) {
+            throw new IllegalArgumentException("Must allow at least one generator context.");
+        }
+        mMaxContexts = maxContexts;
+        for (int i = mContexts.size() - 1; i >= 0 && mContexts.size() > mMaxContexts; --i) {
+            GeneratorContext context = mContexts.get(i);
+            if (context.isIdle()) {
+                mContexts.remove(i);
+                releaseContext(context);
+            }
+        }
+    }
+
+    /**
+     * @return The maximum number of WebViews used to generate code in parallel.
+     */
+    public int getMaxGeneratorContexts() {
+        return mMaxContexts;
+    }
+
+    /**
+     * Sets how many distinct sets of block definitions and generators each WebView keeps loaded.
+     * Switching to a loaded set avoids reloading the generator page. Must be called on the main
+     * thread.
+     *
+     * @param maxLoadedSets The maximum number of sets per WebView. Must be at least 1.
+     */
+    public void setMaxLoadedDefinitionSets(int maxLoadedSets) {
+        if (maxLoadedSets < 1) {
+            throw new IllegalArgumentException("Must allow at least one definition set.");
+        }
+        mMaxLoadedSets = maxLoadedSets;
+        for (int i = 0; i < mContexts.size(); ++i) {
+            mContexts.get(i).setMaxLoadedSets(maxLoadedSets);
+        }
+    }
+
+    /**
+     * @return The number of requests whose definitions and generators were already loaded in the
+     *     WebView that processed them. Must be called on the main thread.
+     */
+    public int getDefinitionSetCacheHits() {
+        int hits = mReleasedSetHits;
+        for (int i = 0; i < mContexts.size(); ++i) {
+            hits += mContexts.get(i).getSetHits();
+        }
+        return hits;
+    }
+
+    /**
+     * @return The number of requests that required loading their definitions and generators into
+     *     a WebView. Must be called on the main thread.
+     */
+    public int getDefinitionSetCacheMisses() {
+        int misses = mReleasedSetMisses;
+        for (int i = 0; i < mContexts.size(); ++i) {
+            misses += mContexts.get(i).getSetMisses();
+        }
+        return misses;
+    }
+
+    /**
+     * Enqueues a {@link CodeGenerationRequest} and kicks off generation on an idle WebView if one
+     * is available. If the request has a {@link CodeGenerationRequest#getRequestKey() key}, queued
+     * and in-progress requests with the same key are cancelled.
      *
      * @param request The request to add to the queue.
      */
     public void requestCodeGeneration(CodeGenerationRequest request) {
+        cancelSupersededRequests(request);
+        request.markEnqueued();
+        int queueDepth;
         synchronized (this) {
             mRequestQueue.add(request);
+            queueDepth = mRequestQueue.size();
         }
-        handleRequest();
+        request.markQueueDepth(queueDepth);
+        mHandler.post(mDispatchRunnable);
     }
 
     /**
-     * If no {@link CodeGenerationRequest} instances are already being processed, kicks off
-     * generation of code for the first request in the queue.
+     * Cancels queued and in-progress requests with the same key as the given request.
+     *
+     * @param request The superseding request, which is not itself queued.
      */
-    private void handleRequest() {
+    void cancelSupersededRequests(final CodeGenerationRequest request) {
+        if (request.getRequestKey() == null) {
+            return;
+        }
+        List<CodeGenerationRequest> superseded = null;
         synchronized (this) {
-            if (mReady && mRequestQueue.size() > 0) {
-                mReady = false;
-                final CodeGenerationRequest request = mRequestQueue.pop();
-                if (TextUtils.isEmpty(request.getXml())) {
-                    Log.d(TAG, "Request xml was empty, skipping");
-                    mHandler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            handleRequest();
-                        }
-                    });
-                    return;
-                }
-                // Run on the main thread.
-                mHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        mCallback = request.getCallback();
-                        if (!equivalentLists(request.getBlockDefinitionsFilenames(), mDefinitions)
-                                || !equivalentLists(request.getBlockGeneratorsFilenames(),
-                                mGenerators)) {
-                             //Reload the page with the new block definitions.  Push the request
-                             //back onto the queue until the page is loaded.
-                            mDefinitions = request.getBlockDefinitionsFilenames();
-                            mGenerators = request.getBlockGeneratorsFilenames();
-                            mAllBlocks = null;
-                            mRequestQueue.addFirst(request);
-                            mWebview.loadUrl(BLOCKLY_COMPILER_PAGE);
-                        } else {
-                            String xml = request.getXml();
-                            String codeGenerationURL = buildCodeGenerationUrl(xml);
-                            if (codeGenerationURL != null) {
-                                mWebview.loadUrl(codeGenerationURL);
-                            }
-                        }
+            Iterator<CodeGenerationRequest> iter = mRequestQueue.iterator();
+            while (iter.hasNext()) {
+                CodeGenerationRequest queued = iter.next();
+                if (queued.isSupersededBy(request)) {
+                    if (superseded == null) {
+                        superseded = new ArrayList<>();
                     }
-                });
+                    superseded.add(queued);
+                    iter.remove();
+                }
             }
         }
+        if (superseded != null) {
+            for (int i = 0; i < superseded.size(); ++i) {
+                superseded.get(i).cancel();
+            }
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                cancelInProgress(request);
+            }
+        });
     }
 
     /**
-     * Builds the javascript: URL that invokes the code generation, given the XML string for the
-     * serialized blocks.
-     *
-     * @param xml
-     * @return The javascript: URL used to invoke code generation.
+     * Cancels requests being processed that are superseded by the given request. Their WebViews
+     * finish the work, but the results are dropped. Runs on the main thread.
      */
-    @Nullable
-    @VisibleForTesting
-    static String buildCodeGenerationUrl(String xml) {
-        if (Build.VERSION.SDK_INT <= Build.VERSION_CODES.JELLY_BEAN_MR2) {
-            // Prior to KitKat a different WebView was used that didn't handle
-            // special characters passed in to it. We skip the encoding on
-            // later versions to save time.
-            try {
-                String urlEncodedXml = URLEncoder.encode(xml, "UTF-8");
-                urlEncodedXml = urlEncodedXml.replace("+", "%20");
-                return "javascript:generateEscaped('" + urlEncodedXml + "');";
-            } catch (UnsupportedEncodingException e) {
-                Log.e(TAG, "Error encoding", e);
-                return null;
+    private void cancelInProgress(CodeGenerationRequest request) {
+        for (int i = 0; i < mContexts.size(); ++i) {
+            CodeGenerationRequest current = mContexts.get(i).getCurrentRequest();
+            if (current != null && current.isSupersededBy(request)) {
+                current.cancel();
             }
-        } else {
-            String jsEscapedXml = xml.replace("'", "\\'");
-            return "javascript:generate('" + jsEscapedXml + "');";
         }
     }
 
-    private class BlocklyJavascriptInterface {
-        @JavascriptInterface
-        public void execute(String program) {
-            CodeGenerationRequest.CodeGeneratorCallback cb;
+    @Override
+    public void onContextIdle(GeneratorContext context) {
+        // Usually called from the JavaScript bridge thread.
+        mHandler.post(mDispatchRunnable);
+    }
+
+    /**
+     * Assigns queued requests to idle generator contexts, in order. Preference is given to an idle
+     * context with the request's definitions and generators already loaded, then to a new context
+     * while the pool is below its limit, and finally to the least recently used idle context, which
+     * will reload. Runs on the main thread.
+     */
+    private void dispatchRequests() {
+        if (mDestroyed) {
+            return;
+        }
+        while (true) {
+            CodeGenerationRequest request;
             synchronized (this) {
-                cb = mCallback;
-                mReady = true;
-            }
-            if (cb != null) {
-                cb.onFinishCodeGeneration(program);
+                request = mRequestQueue.peek();
+                if (request == null) {
+                    return;
+                }
+                if (TextUtils.isEmpty(request.getXml())) {
+                    Log.d(TAG, "Request xml was empty, skipping");
+                    mRequestQueue.pop();
+                    continue;
+                }
             }
-            handleRequest();
-        }
-
-        @JavascriptInterface
-        public String getBlockGeneratorsFilenames() {
-            if (mGenerators == null || mGenerators.size() == 0) {
-                return "";
+            GeneratorContext context = findContextFor(request);
+            if (context == null) {
+                return;  // All contexts are busy. Continue when one becomes idle.
             }
-            StringBuilder combined = new StringBuilder(mGenerators.get(0));
-            for (int i = 1; i < mGenerators.size(); i++) {
-                combined.append(";");
-                combined.append(mGenerators.get(i));
+            synchronized (this) {
+                mRequestQueue.pop();
             }
-            return combined.toString();
+            request.markDispatched();
+            context.start(request, SystemClock.uptimeMillis());
         }
+    }
 
-        @JavascriptInterface
-        public String getBlockDefinitions() {
-            if (mAllBlocks != null) {
-                return mAllBlocks;
+    /**
+     * @return The best idle context for the request, or null if all contexts are busy.
+     */
+    @Nullable
+    private GeneratorContext findContextFor(CodeGenerationRequest request) {
+        GeneratorContext leastRecent = null;
+        for (int i = 0; i < mContexts.size(); ++i) {
+            GeneratorContext context = mContexts.get(i);
+            if (!context.isIdle()) {
+                continue;
             }
-            if (mDefinitions.isEmpty()) {
-                return "";
+            if (context.hasLoaded(request)) {
+                return context;
             }
-            if (mDefinitions.size() == 1) {
-                // Pass in contents without parsing.
-                String filename = mDefinitions.get(0);
-                try {
-                    return loadAssetAsUtf8(filename);
-                } catch (IOException e) {
-                    Log.e(TAG, "Couldn't find block definitions file \"" + filename + "\"");
-                    return "";
-                }
-            } else {
-                // Concatenate all definitions into a single stream.
-                JSONArray allBlocks = new JSONArray();
-                String filename = null;
-                try {
-                    if (mDefinitions != null) {
-                        Iterator<String> iter = mDefinitions.iterator();
-                        while (iter.hasNext()) {
-                            filename = iter.next();
-                            String contents = loadAssetAsUtf8(filename);
-                            JSONArray fileBlocks = new JSONArray(contents);
-                            for (int i = 0; i < fileBlocks.length(); ++i) {
-                                allBlocks.put(fileBlocks.getJSONObject(i));
-                            }
-                        }
-                    }
-                } catch (IOException|JSONException e) {
-                    Log.e(TAG, "Error reading block definitions file \"" + filename + "\"");
-                    return "";
-                }
-                mAllBlocks = allBlocks.toString();
-                return mAllBlocks;
+            if (leastRecent == null || context.getLastUsedTime() < leastRecent.getLastUsedTime()) {
+                leastRecent = context;
             }
         }
-    }
-
-    public class CodeGeneratorBinder extends Binder {
-        public CodeGeneratorService getService() {
-            return CodeGeneratorService.this;
+        if (mContexts.size() < mMaxContexts) {
+            GeneratorContext context = new GeneratorContext(this, this);
+            context.setMaxLoadedSets(mMaxLoadedSets);
+            mContexts.add(context);
+            return context;
         }
+        return leastRecent;
     }
 
-    private boolean equivalentLists(List<String> newDefinitions, List<String> oldDefinitions) {
-        LinkedList<String> checkList = new LinkedList<>(oldDefinitions);
-        for (String filename : newDefinitions) {
-            if (!checkList.remove(filename)) {
-                return false;
-            }
-        }
-        return checkList.isEmpty(); // If it is empty, all filenames were found / matched.
+    private void releaseContext(GeneratorContext context) {
+        mReleasedSetHits += context.getSetHits();
+        mReleasedSetMisses += context.getSetMisses();
+        context.destroy();
     }
 
-    private String loadAssetAsUtf8(String filename) throws IOException {
-        InputStream input = null;
-        try {
-            input = getAssets().open(filename);
-
-            int size = input.available();
-            byte[] buffer = new byte[size];
-            input.read(buffer);
-
-            return new String(buffer, "UTF-8");
-        } catch (IOException e) {
-            throw new IllegalArgumentException("Couldn't find asset file \"" + mDefinitions + "\"");
-        } finally {
-            if (input != null) {
-                try {
-                    input.close();
-                } catch (IOException e) {
-                    Log.w(TAG, "Unable to close asset file \"" + filename + "\"", e);
-                }
-            }
+    public class CodeGeneratorBinder extends Binder {
+        public CodeGeneratorService getService() {
+            return CodeGeneratorService.this;
         }
     }
 }
@@ -0,0 +1,405 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.codegen;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+import android.webkit.JavascriptInterface;
+import android.webkit.WebChromeClient;
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A single WebView running the Web Blockly code generators. Used by {@link CodeGeneratorService},
+ * which keeps a pool of them.
+ * <p/>
+ * The generator page is loaded once. Each distinct set of block definitions and generators is then
+ * loaded into the page under a numeric id, and the most recently used sets are kept so that
+ * switching back to one only swaps the JavaScript block and generator tables instead of reloading
+ * the page.
+ * <p/>
+ * All methods except the {@link JavascriptInterface} methods must be called on the main thread.
+ */
+class GeneratorContext {
+    private static final String TAG = "GeneratorContext";
+    private static final String BLOCKLY_COMPILER_PAGE =
+            "file:///android_asset/background_compiler.html";
+
+    /** The default number of definition sets kept loaded in the page. */
+    static final int DEFAULT_MAX_LOADED_SETS = 4;
+
+    private static final int PAGE_NOT_LOADED = 0;
+    private static final int PAGE_LOADING = 1;
+    private static final int PAGE_LOADED = 2;
+
+    /**
+     * Notified when a context finishes a request and can accept another.
+     */
+    interface Listener {
+        void onContextIdle(GeneratorContext context);
+    }
+
+    private final Context mContext;
+    private final Listener mListener;
+    private final Handler mHandler;
+    private final WebView mWebview;
+
+    // All guarded by this.
+    // CodeGenerationRequest#getDefinitionSetKey() to set ids, in access order for eviction.
+    private final LinkedHashMap<String, Integer> mLoadedSets = new LinkedHashMap<>(8, 0.75f, true);
+    private int mMaxLoadedSets = DEFAULT_MAX_LOADED_SETS;
+    private int mNextSetId = 1;
+    private int mActiveSetId = 0;
+    // The set being loaded into the page, read by the JavaScript interface.
+    private String mLoadingSetKey = null;
+    private List<String> mDefinitions = null;
+    private List<String> mGenerators = null;
+    private int mPageState = PAGE_NOT_LOADED;
+    private CodeGenerationRequest mCurrentRequest = null;
+    private int mCurrentRequestId = 0;
+    private long mLastUsedTime = 0;
+    private int mSetHits = 0;
+    private int mSetMisses = 0;
+
+    /**
+     * @param context The context used to create the WebView and load assets.
+     * @param listener Listener for when requests complete.
+     */
+    GeneratorContext(Context context, Listener listener) {
+        mContext = context;
+        mListener = listener;
+        mHandler = new Handler();
+
+        mWebview = new WebView(context);
+        mWebview.getSettings().setJavaScriptEnabled(true);
+        mWebview.setWebChromeClient(new WebChromeClient());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            WebView.setWebContentsDebuggingEnabled(true);
+        }
+        mWebview.addJavascriptInterface(new BlocklyJavascriptInterface(),
+                "BlocklyJavascriptInterface");
+        mWebview.setWebViewClient(new WebViewClient() {
+            @Override
+            public void onPageFinished(WebView view, String url) {
+                onPageLoaded();
+            }
+        });
+    }
+
+    /**
+     * @return True if no request is in progress.
+     */
+    synchronized boolean isIdle() {
+        return mCurrentRequest == null;
+    }
+
+    /**
+     * @return The request in progress, or null if idle.
+     */
+    @Nullable
+    synchronized CodeGenerationRequest getCurrentRequest() {
+        return mCurrentRequest;
+    }
+
+    /**
+     * @return The {@link android.os.SystemClock#uptimeMillis()} this context last started a
+     *         request.
+     */
+    synchronized long getLastUsedTime() {
+        return mLastUsedTime;
+    }
+
+    /**
+     * @return True if the block definitions and generators needed by the request are loaded, or
+     *         being loaded, into this context.
+     */
+    synchronized boolean hasLoaded(CodeGenerationRequest request) {
+        String key = request.getDefinitionSetKey();
+        // Uses containsKey() so routing checks do not affect the eviction order.
+        return mLoadedSets.containsKey(key) || key.equals(mLoadingSetKey);
+    }
+
+    /**
+     * Sets how many definition sets are kept loaded in the page. Least recently used sets beyond
+     * the limit are evicted the next time a set is loaded.
+     *
+     * @param maxLoadedSets The maximum number of sets. Must be at least 1.
+     */
+    synchronized void setMaxLoadedSets(int maxLoadedSets) {
+        mMaxLoadedSets = maxLoadedSets;
+    }
+
+    /**
+     * @return The number of requests whose definition set was already loaded in the page.
+     */
+    synchronized int getSetHits() {
+        return mSetHits;
+    }
+
+    /**
+     * @return The number of requests that required loading a definition set into the page.
+     */
+    synchronized int getSetMisses() {
+        return mSetMisses;
+    }
+
+    /**
+     * Starts generating code for the request, first loading the page or the request's block
+     * definitions and generators if needed. The context must be idle.
+     *
+     * @param request The request to process.
+     * @param uptimeMillis The current {@link android.os.SystemClock#uptimeMillis()}.
+     */
+    void start(CodeGenerationRequest request, long uptimeMillis) {
+        int pageState;
+        synchronized (this) {
+            if (mCurrentRequest != null) {
+                throw new IllegalStateException("Generator context is busy.");
+            }
+            mCurrentRequest = request;
+            ++mCurrentRequestId;
+            mLastUsedTime = uptimeMillis;
+            pageState = mPageState;
+            if (pageState == PAGE_NOT_LOADED) {
+                mPageState = PAGE_LOADING;
+            }
+        }
+        if (pageState == PAGE_NOT_LOADED) {
+            request.markPageLoad();
+            mWebview.loadUrl(BLOCKLY_COMPILER_PAGE);
+        } else if (pageState == PAGE_LOADED) {
+            prepareAndGenerate(request);
+        }
+        // Otherwise the request will start when the page finishes loading.
+    }
+
+    /**
+     * @return The WebView running the generator page.
+     */
+    @VisibleForTesting
+    WebView getWebView() {
+        return mWebview;
+    }
+
+    /**
+     * Releases the WebView. The context cannot be used afterward.
+     */
+    void destroy() {
+        mHandler.removeCallbacksAndMessages(null);
+        mWebview.destroy();
+    }
+
+    private void onPageLoaded() {
+        CodeGenerationRequest request;
+        synchronized (this) {
+            if (mPageState != PAGE_LOADING) {
+                return;
+            }
+            mPageState = PAGE_LOADED;
+            request = mCurrentRequest;
+        }
+        if (request != null) {
+            prepareAndGenerate(request);
+        }
+    }
+
+    /**
+     * Activates the request's definition set, loading it first if needed, and then generates code.
+     */
+    private void prepareAndGenerate(CodeGenerationRequest request) {
+        String key = request.getDefinitionSetKey();
+        Integer setId;
+        boolean load = false;
+        boolean activate = false;
+        synchronized (this) {
+            setId = mLoadedSets.get(key);
+            if (setId != null) {
+                ++mSetHits;
+                activate = (setId != mActiveSetId);
+                mActiveSetId = setId;
+            } else {
+                ++mSetMisses;
+                load = true;
+                setId = mNextSetId++;
+                mLoadingSetKey = key;
+                mDefinitions = request.getBlockDefinitionsFilenames();
+                mGenerators = request.getBlockGeneratorsFilenames();
+            }
+        }
+        if (load) {
+            request.markDefinitionLoad();
+            // Generation continues in onSetLoaded().
+            mWebview.loadUrl("javascript:load_set(" + setId + ");");
+            return;
+        }
+        if (activate) {
+            mWebview.loadUrl("javascript:activate_set(" + setId + ");");
+        }
+        generate(request);
+    }
+
+    /**
+     * Called on the main thread once the page has loaded the pending definition set.
+     */
+    private void onSetLoaded(int setId) {
+        CodeGenerationRequest request;
+        List<Integer> evicted = null;
+        synchronized (this) {
+            if (mLoadingSetKey == null) {
+                return;
+            }
+            mLoadedSets.put(mLoadingSetKey, setId);
+            mActiveSetId = setId;
+            mLoadingSetKey = null;
+            Iterator<Map.Entry<String, Integer>> iter = mLoadedSets.entrySet().iterator();
+            while (mLoadedSets.size() > mMaxLoadedSets && iter.hasNext()) {
+                Map.Entry<String, Integer> eldest = iter.next();
+                if (eldest.getValue() != setId) {
+                    if (evicted == null) {
+                        evicted = new ArrayList<>();
+                    }
+                    evicted.add(eldest.getValue());
+                    iter.remove();
+                }
+            }
+            request = mCurrentRequest;
+        }
+        if (evicted != null) {
+            for (int i = 0; i < evicted.size(); ++i) {
+                mWebview.loadUrl("javascript:evict_set(" + evicted.get(i) + ");");
+            }
+        }
+        if (request != null) {
+            generate(request);
+        }
+    }
+
+    private void generate(CodeGenerationRequest request) {
+        int requestId;
+        synchronized (this) {
+            if (request != mCurrentRequest) {
+                return;
+            }
+            requestId = mCurrentRequestId;
+        }
+        request.markReady();
+        mWebview.loadUrl(buildGenerateUrl(requestId));
+    }
+
+    /**
+     * Builds the javascript: URL that starts code generation. The page then fetches the request's
+     * XML through {@link BlocklyJavascriptInterface#getRequestXml(int)}, so the XML is never
+     * escaped into the URL and its size does not matter.
+     *
+     * @param requestId The id of the current request.
+     * @return The javascript: URL used to invoke code generation.
+     */
+    @VisibleForTesting
+    static String buildGenerateUrl(int requestId) {
+        return "javascript:generateRequest(" + requestId + ");";
+    }
+
+    private void finishRequest(String program) {
+        CodeGenerationRequest request;
+        synchronized (this) {
+            request = mCurrentRequest;
+            mCurrentRequest = null;
+        }
+        if (request != null) {
+            request.deliverResult(program);
+        }
+        mListener.onContextIdle(this);
+    }
+
+    private class BlocklyJavascriptInterface {
+        @JavascriptInterface
+        public void execute(String program) {
+            finishRequest(program);
+        }
+
+        @JavascriptInterface
+        public String getRequestXml(int requestId) {
+            synchronized (GeneratorContext.this) {
+                if (mCurrentRequest == null || requestId != mCurrentRequestId) {
+                    return null;
+                }
+                return mCurrentRequest.getXml();
+            }
+        }
+
+        /**
+         * Called by the page when it could not generate code for a request. Finishes the request
+         * with an empty result if it is still the current request.
+         */
+        @JavascriptInterface
+        public void reportError(int requestId, String message) {
+            boolean isCurrent;
+            synchronized (GeneratorContext.this) {
+                isCurrent = mCurrentRequest != null && requestId == mCurrentRequestId;
+            }
+            Log.e(TAG, message);
+            if (isCurrent) {
+                finishRequest("");
+            }
+        }
+
+        @JavascriptInterface
+        public void onDefinitionSetLoaded(final int setId) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onSetLoaded(setId);
+                }
+            });
+        }
+
+        @JavascriptInterface
+        public String getBlockGeneratorsFilenames() {
+            List<String> generators;
+            synchronized (GeneratorContext.this) {
+                generators = mGenerators;
+            }
+            if (generators == null || generators.size() == 0) {
+                return "";
+            }
+            StringBuilder combined = new StringBuilder(generators.get(0));
+            for (int i = 1; i < generators.size(); i++) {
+                combined.append(";");
+                combined.append(generators.get(i));
+            }
+            return combined.toString();
+        }
+
+        @JavascriptInterface
+        public String getBlockDefinitions() {
+            List<String> definitions;
+            synchronized (GeneratorContext.this) {
+                definitions = mDefinitions;
+            }
+            return BlockDefinitionsCache.getMergedDefinitions(mContext, definitions);
+        }
+    }
+}
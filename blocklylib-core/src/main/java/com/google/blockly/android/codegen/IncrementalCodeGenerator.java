@@ -0,0 +1,303 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.codegen;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+import com.google.blockly.android.control.BlocklyController;
+import com.google.blockly.android.control.BlocklyEvent;
+import com.google.blockly.model.Block;
+import com.google.blockly.model.BlocklySerializerException;
+import com.google.blockly.utils.BlocklyXmlHelper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates code for a workspace one root block at a time, reusing the code of block stacks that
+ * have not changed since the last request.
+ * <p/>
+ * Each root block is sent to the {@link CodeGeneratorManager} as its own request, and the
+ * resulting fragments are joined with newlines, in the position order that Web Blockly generates
+ * root blocks in (see {@code Blockly.Workspace.getTopBlocks(true)}). The generator listens to the
+ * controller's {@link BlocklyEvent}s to track which stacks changed. Unchanged stacks reuse their
+ * previous fragment without being serialized again. Changed stacks are regenerated, and may still
+ * be served by the manager's {@link CodeGenerationCache} if their content matches a previous
+ * version.
+ * <p/>
+ * Since each stack is generated in isolation, this is only appropriate for generators whose output
+ * for a stack does not depend on other stacks. For example, the JavaScript generator declares the
+ * variables used by each fragment at the top of that fragment, so a variable used in several
+ * stacks is declared more than once.
+ * <p/>
+ * All methods must be called on the main thread.
+ */
+public class IncrementalCodeGenerator {
+    private static final String FRAGMENT_SEPARATOR = "\n";
+
+    private final BlocklyController mController;
+    private final CodeGeneratorManager mManager;
+    private final List<String> mDefinitions;
+    private final List<String> mGenerators;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // Root block id to the fragment for that stack.
+    private final Map<String, Fragment> mFragments = new HashMap<>();
+    // Ids of blocks whose stack changed since the last request.
+    private final Set<String> mDirtyIds = new HashSet<>();
+    private int mRegeneratedCount = 0;
+
+    private final BlocklyController.EventsCallback mEventsCallback =
+            new BlocklyController.EventsCallback() {
+                @Override
+                public int getTypesBitmask() {
+                    return BlocklyEvent.TYPE_CREATE | BlocklyEvent.TYPE_DELETE
+                            | BlocklyEvent.TYPE_CHANGE | BlocklyEvent.TYPE_MOVE;
+                }
+
+                @Override
+                public void onEventGroup(List<BlocklyEvent> events) {
+                    for (int i = 0; i < events.size(); ++i) {
+                        BlocklyEvent event = events.get(i);
+                        if (event.getTypeId() == BlocklyEvent.TYPE_UI) {
+                            continue;
+                        }
+                        markDirty(event.getBlockId());
+                        if (event.getTypeId() == BlocklyEvent.TYPE_MOVE) {
+                            markDirty(((BlocklyEvent.MoveEvent) event).getOldParentId());
+                        }
+                    }
+                }
+            };
+
+    /**
+     * Creates a generator and starts tracking changes to the controller's workspace. Call
+     * {@link #release()} when done.
+     *
+     * @param controller The controller of the workspace to generate code for.
+     * @param manager The manager used to generate each fragment.
+     * @param blockDefinitionsFilenames The block definition files, as in
+     *                                  {@link CodeGenerationRequest}.
+     * @param blockGeneratorsFilenames The block generator files, as in
+     *                                 {@link CodeGenerationRequest}.
+     */
+    public IncrementalCodeGenerator(BlocklyController controller, CodeGeneratorManager manager,
+                                    List<String> blockDefinitionsFilenames,
+                                    List<String> blockGeneratorsFilenames) {
+        mController = controller;
+        mManager = manager;
+        mDefinitions = blockDefinitionsFilenames;
+        mGenerators = blockGeneratorsFilenames;
+        mController.addCallback(mEventsCallback);
+    }
+
+    /**
+     * Stops tracking changes and drops all cached fragments. Pending requests still complete.
+     */
+    public void release() {
+        mController.removeCallback(mEventsCallback);
+        invalidate();
+    }
+
+    /**
+     * Drops all cached fragments, so the next request regenerates every stack.
+     */
+    public void invalidate() {
+        mFragments.clear();
+        mDirtyIds.clear();
+    }
+
+    /**
+     * @return The number of stacks sent to the {@link CodeGeneratorManager} so far.
+     */
+    public int getRegeneratedFragmentCount() {
+        return mRegeneratedCount;
+    }
+
+    /**
+     * Generates code for the current workspace, regenerating only the stacks that changed since
+     * the previous request.
+     * <p/>
+     * Stacks whose previous result was empty, which indicates a generation error, are also
+     * regenerated. So are stacks still pending from an earlier request, since the manager may have
+     * dropped that request, for example while paused. An earlier request that was not dropped
+     * still delivers its own result.
+     *
+     * @param callback The callback for the complete program. Called on the main thread.
+     * @throws BlocklySerializerException If a changed stack cannot be serialized.
+     */
+    public void requestCodeGeneration(CodeGenerationRequest.CodeGeneratorCallback callback)
+            throws BlocklySerializerException {
+        List<Block> roots = new ArrayList<>(mController.getWorkspace().getRootBlocks());
+        // Join the fragments in the same order as the code of the whole workspace.
+        Collections.sort(roots, TopBlockOrder.BLOCKS);
+        Assembly assembly = new Assembly(roots.size(), callback);
+
+        Set<String> rootIds = new HashSet<>();
+        for (int i = 0; i < roots.size(); ++i) {
+            Block root = roots.get(i);
+            rootIds.add(root.getId());
+            Fragment fragment = mFragments.get(root.getId());
+            if (fragment == null || fragment.mRoot != root || !fragment.hasCode()
+                    || mDirtyIds.contains(root.getId())) {
+                fragment = new Fragment(root);
+                mFragments.put(root.getId(), fragment);
+                fragment.addWaiter(assembly, i);
+                requestFragment(fragment, BlocklyXmlHelper.writeBlockToXml(root));
+            } else {
+                fragment.addWaiter(assembly, i);
+            }
+        }
+        mDirtyIds.clear();
+
+        // Drop the fragments of stacks that were deleted or attached to other stacks.
+        Iterator<String> iter = mFragments.keySet().iterator();
+        while (iter.hasNext()) {
+            if (!rootIds.contains(iter.next())) {
+                iter.remove();
+            }
+        }
+        assembly.finishIfComplete();
+    }
+
+    private void requestFragment(final Fragment fragment, String xml) {
+        ++mRegeneratedCount;
+        mManager.requestCodeGeneration(new CodeGenerationRequest(xml,
+                new CodeGenerationRequest.CodeGeneratorCallback() {
+                    @Override
+                    public void onFinishCodeGeneration(final String generatedCode) {
+                        if (Looper.myLooper() == Looper.getMainLooper()) {
+                            fragment.setCode(generatedCode);
+                        } else {
+                            mHandler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    fragment.setCode(generatedCode);
+                                }
+                            });
+                        }
+                    }
+                }, mDefinitions, mGenerators));
+    }
+
+    private void markDirty(@Nullable String blockId) {
+        if (blockId == null) {
+            return;
+        }
+        mDirtyIds.add(blockId);
+        Block block = mController.getBlockFactory().getBlock(blockId);
+        if (block != null) {
+            mDirtyIds.add(block.getRootBlock().getId());
+        }
+    }
+
+    /**
+     * The generated code of one stack, or the pending request for it.
+     */
+    private static class Fragment {
+        final Block mRoot;
+        String mCode = null;
+        // Requests waiting for this fragment, with the index of the fragment in each.
+        List<Assembly> mWaiters = null;
+        List<Integer> mWaiterIndices = null;
+
+        Fragment(Block root) {
+            mRoot = root;
+        }
+
+        /**
+         * @return True if the fragment was generated without error, and can be reused.
+         */
+        boolean hasCode() {
+            return !TextUtils.isEmpty(mCode);
+        }
+
+        void addWaiter(Assembly assembly, int index) {
+            if (mCode != null) {
+                assembly.setFragment(index, mCode);
+                return;
+            }
+            if (mWaiters == null) {
+                mWaiters = new ArrayList<>();
+                mWaiterIndices = new ArrayList<>();
+            }
+            mWaiters.add(assembly);
+            mWaiterIndices.add(index);
+        }
+
+        void setCode(String code) {
+            mCode = code;
+            if (mWaiters != null) {
+                for (int i = 0; i < mWaiters.size(); ++i) {
+                    Assembly assembly = mWaiters.get(i);
+                    assembly.setFragment(mWaiterIndices.get(i), code);
+                    assembly.finishIfComplete();
+                }
+                mWaiters = null;
+                mWaiterIndices = null;
+            }
+        }
+    }
+
+    /**
+     * Collects the fragments of one request and joins them when all are available.
+     */
+    private static class Assembly {
+        final String[] mFragments;
+        final CodeGenerationRequest.CodeGeneratorCallback mCallback;
+        int mRemaining;
+        boolean mFinished = false;
+
+        Assembly(int fragmentCount, CodeGenerationRequest.CodeGeneratorCallback callback) {
+            mFragments = new String[fragmentCount];
+            mRemaining = fragmentCount;
+            mCallback = callback;
+        }
+
+        void setFragment(int index, String code) {
+            if (mFragments[index] == null) {
+                mFragments[index] = code;
+                --mRemaining;
+            }
+        }
+
+        void finishIfComplete() {
+            if (mRemaining > 0 || mFinished) {
+                return;
+            }
+            mFinished = true;
+            StringBuilder program = new StringBuilder();
+            for (int i = 0; i < mFragments.length; ++i) {
+                if (!TextUtils.isEmpty(mFragments[i])) {
+                    if (program.length() > 0) {
+                        program.append(FRAGMENT_SEPARATOR);
+                    }
+                    program.append(mFragments[i]);
+                }
+            }
+            mCallback.onFinishCodeGeneration(program.toString());
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.codegen;
+
+import android.support.annotation.Nullable;
+
+import com.google.blockly.model.BlockSnapshot;
+import com.google.blockly.model.WorkspaceSnapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Generates code in Java, without a WebView, using a generator function registered for each block
+ * type. An alternative to the {@link CodeGeneratorService} for apps that implement their
+ * generators in Java.
+ * <p/>
+ * The generator walks a {@link WorkspaceSnapshot} rather than the live blocks, so generation can
+ * run on any thread while the workspace continues to be edited. The registered
+ * {@link BlockGenerator}s build each block's code with {@link #valueToCode},
+ * {@link #statementToCode} and {@link BlockSnapshot#getFieldValue(String)}, much like the
+ * generators of Web Blockly.
+ * <p/>
+ * A generator can be shared between threads once all block generators are registered. It does
+ * not depend on the Android framework, so generators can be tested on the JVM with snapshots from
+ * {@link BlockSnapshot.Builder}.
+ */
+public class JavaCodeGenerator {
+    // java.util.logging rather than android.util.Log, which is not available on the JVM.
+    private static final Logger LOGGER = Logger.getLogger("JavaCodeGenerator");
+
+    /**
+     * Generates the code for one block type.
+     */
+    public interface BlockGenerator {
+        /**
+         * @param generator The generator, for generating the code of connected blocks.
+         * @param block The block to generate code for.
+         * @return The code for the block, not including the blocks that follow it. Value blocks
+         *         return an expression, and are responsible for any parentheses it needs.
+         */
+        String toCode(JavaCodeGenerator generator, BlockSnapshot block);
+    }
+
+    private final Map<String, BlockGenerator> mGenerators = new HashMap<>();
+    private String mIndent = "  ";
+
+    /**
+     * Registers the generator for a block type, replacing any previous generator for that type.
+     *
+     * @param blockType The type of block.
+     * @param generator The generator for the block type.
+     */
+    public void addBlockGenerator(String blockType, BlockGenerator generator) {
+        mGenerators.put(blockType, generator);
+    }
+
+    /**
+     * @param blockType The type of block.
+     * @return The generator for the block type, or null if none was registered.
+     */
+    @Nullable
+    public BlockGenerator getBlockGenerator(String blockType) {
+        return mGenerators.get(blockType);
+    }
+
+    /**
+     * @param indent The string prefixed to each line of code in a statement input. Two spaces by
+     *               default.
+     */
+    public void setIndent(String indent) {
+        mIndent = indent;
+    }
+
+    /**
+     * Generates code for the workspace and delivers it through the same callback contract as
+     * {@link CodeGeneratorService}: on error, the error is logged and the callback receives an
+     * empty string. Runs on the calling thread.
+     *
+     * @param workspace The snapshot to generate code for.
+     * @param callback The callback for the generated code.
+     */
+    public void generate(WorkspaceSnapshot workspace,
+                         CodeGenerationRequest.CodeGeneratorCallback callback) {
+        String code;
+        try {
+            code = workspaceToCode(workspace);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Error generating code.", e);
+            code = "";
+        }
+        callback.onFinishCodeGeneration(code);
+    }
+
+    /**
+     * Generates code for the workspace on the given executor. See
+     * {@link #generate(WorkspaceSnapshot, CodeGenerationRequest.CodeGeneratorCallback)}.
+     *
+     * @param workspace The snapshot to generate code for.
+     * @param callback The callback for the generated code, called on the executor's thread.
+     * @param executor The executor to generate code on.
+     */
+    public void generate(final WorkspaceSnapshot workspace,
+                         final CodeGenerationRequest.CodeGeneratorCallback callback,
+                         Executor executor) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                generate(workspace, callback);
+            }
+        });
+    }
+
+    /**
+     * @param workspace The snapshot to generate code for.
+     * @return The code of each root block stack, separated by newlines. Stacks are ordered by
+     *         position, in the same order as the generators of Web Blockly.
+     * @throws IllegalStateException If a block type has no generator.
+     */
+    public String workspaceToCode(WorkspaceSnapshot workspace) {
+        StringBuilder code = new StringBuilder();
+        List<BlockSnapshot> roots = new ArrayList<>(workspace.getRootBlocks());
+        Collections.sort(roots, TopBlockOrder.SNAPSHOTS);
+        for (int i = 0; i < roots.size(); ++i) {
+            String stackCode = blockToCode(roots.get(i));
+            if (!stackCode.isEmpty()) {
+                if (code.length() > 0) {
+                    code.append('\n');
+                }
+                code.append(stackCode);
+            }
+        }
+        return code.toString();
+    }
+
+    /**
+     * Generates the code for a block and all blocks that follow it. Disabled blocks are skipped.
+     *
+     * @param block The first block, or null.
+     * @return The generated code, or an empty string if the block is null.
+     * @throws IllegalStateException If a block type has no generator.
+     */
+    public String blockToCode(@Nullable BlockSnapshot block) {
+        StringBuilder code = new StringBuilder();
+        while (block != null) {
+            if (!block.isDisabledBlock()) {
+                BlockGenerator generator = mGenerators.get(block.getType());
+                if (generator == null) {
+                    throw new IllegalStateException(
+                            "No generator for block type \"" + block.getType() + "\".");
+                }
+                code.append(generator.toCode(this, block));
+            }
+            block = block.getNextBlock();
+        }
+        return code.toString();
+    }
+
+    /**
+     * @param block The block with the value input.
+     * @param inputName The name of the value input.
+     * @return The code of the block connected to the input, or an empty string if there is none.
+     */
+    public String valueToCode(BlockSnapshot block, String inputName) {
+        return blockToCode(block.getInputBlock(inputName));
+    }
+
+    /**
+     * @param block The block with the statement input.
+     * @param inputName The name of the statement input.
+     * @return The code of the blocks connected to the input, with each line indented, or an empty
+     *         string if there are none.
+     */
+    public String statementToCode(BlockSnapshot block, String inputName) {
+        return indent(blockToCode(block.getInputBlock(inputName)));
+    }
+
+    /**
+     * @param code The code to indent.
+     * @return The code with the indent prefixed to each non-empty line.
+     */
+    public String indent(String code) {
+        if (code.isEmpty()) {
+            return code;
+        }
+        StringBuilder indented = new StringBuilder(code.length() + mIndent.length() * 4);
+        int lineStart = 0;
+        while (lineStart < code.length()) {
+            int lineEnd = code.indexOf('\n', lineStart);
+            lineEnd = (lineEnd == -1) ? code.length() : lineEnd + 1;
+            if (code.charAt(lineStart) != '\n') {
+                indented.append(mIndent);
+            }
+            indented.append(code, lineStart, lineEnd);
+            lineStart = lineEnd;
+        }
+        return indented.toString();
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.codegen;
+
+import com.google.blockly.model.Block;
+import com.google.blockly.model.BlockSnapshot;
+
+import java.util.Comparator;
+
+/**
+ * The order in which the generators of Web Blockly visit root blocks, as in
+ * {@code Blockly.Workspace.getTopBlocks(true)}: top to bottom along a line slightly tilted by
+ * {@code Blockly.Workspace.SCAN_ANGLE}, so blocks at the same height are visited from the start
+ * of the line.
+ * <p/>
+ * Workspace x coordinates already increase away from the start of the line in RTL, so the same
+ * order applies to both directions. Blocks at the same position keep their relative order.
+ */
+final class TopBlockOrder {
+    // Math.sin(Blockly.Workspace.SCAN_ANGLE), with the angle of 3 degrees.
+    private static final double SCAN_OFFSET = Math.sin(Math.toRadians(3));
+
+    /** Orders root {@link Block}s. */
+    static final Comparator<Block> BLOCKS = new Comparator<Block>() {
+        @Override
+        public int compare(Block a, Block b) {
+            return compareKeys(a.getPosition().x, a.getPosition().y,
+                    b.getPosition().x, b.getPosition().y);
+        }
+    };
+
+    /** Orders root {@link BlockSnapshot}s. */
+    static final Comparator<BlockSnapshot> SNAPSHOTS = new Comparator<BlockSnapshot>() {
+        @Override
+        public int compare(BlockSnapshot a, BlockSnapshot b) {
+            return compareKeys(a.getX(), a.getY(), b.getX(), b.getY());
+        }
+    };
+
+    private TopBlockOrder() {
+    }
+
+    private static int compareKeys(float ax, float ay, float bx, float by) {
+        double aKey = ay + SCAN_OFFSET * ax;
+        double bKey = by + SCAN_OFFSET * bx;
+        return (aKey < bKey) ? -1 : ((aKey > bKey) ? 1 : 0);
+    }
+}
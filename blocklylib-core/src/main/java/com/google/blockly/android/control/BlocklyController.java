@@ -48,6 +48,7 @@ import com.google.blockly.model.BlockFactory;
 import com.google.blockly.model.BlocklyParserException;
 import com.google.blockly.model.BlocklySerializerException;
 import com.google.blockly.model.Connection;
+import com.google.blockly.model.Field;
 import com.google.blockly.model.FieldVariable;
 import com.google.blockly.model.Input;
 import com.google.blockly.model.Workspace;
@@ -105,6 +106,8 @@ public class BlocklyController {
     private final Workspace mWorkspace;
     private final ConnectionManager mConnectionManager;
     private final ArrayList<EventsCallback> mListeners = new ArrayList<>();
+    private FilteredEventDispatcher mFilteredListeners = null;
+    private EventRecorder mEventRecorder = null;
     private final ArrayList<BlocklyEvent> mPendingEvents = new ArrayList<>();
     private int mPendingEventsMask = 0;
     private int mEventCallbackMask = 0;
@@ -114,6 +117,8 @@ public class BlocklyController {
     private WorkspaceFragment mWorkspaceFragment = null;
     private Dragger mDragger;
     private VariableCallback mVariableCallback = null;
+    private UndoManager mUndoManager = null;
+    private EventReplayer mEventReplayer = null;
 
     private FlyoutController mFlyoutController = new FlyoutController(this);
 
@@ -479,19 +484,202 @@ public class BlocklyController {
     }
 
     /**
-     * Removes an events callback.
+     * Registers a callback for Blockly events that pass the given filter. The callback receives
+     * only the matching events of each event group, and is not called for groups without any.
+     * Filtered callbacks are indexed by their filter criteria, so the cost of dispatching an event
+     * does not grow with the number of unrelated filtered callbacks.
+     *
+     * @param callback The callback to add.
+     * @param filter The filter for events sent to the callback.
+     */
+    public void addCallback(EventsCallback callback, BlocklyEventFilter filter) {
+        if (mFilteredListeners == null) {
+            mFilteredListeners = new FilteredEventDispatcher(mModelFactory);
+        }
+        if (!mListeners.contains(callback) && !mFilteredListeners.contains(callback)) {
+            mFilteredListeners.add(callback, filter);
+            mEventCallbackMask |= callback.getTypesBitmask();
+        }
+    }
+
+    /**
+     * Removes an events callback, with or without a filter.
      *
      * @param callback The callback to remove.
      * @return True if the callback was found and removed.
      */
     public boolean removeCallback(EventsCallback callback) {
-        boolean found = mListeners.remove(callback);
+        boolean found = mListeners.remove(callback)
+                || (mFilteredListeners != null && mFilteredListeners.remove(callback));
         if (found) {
             recalculateListenerEventMask();
         }
         return found;
     }
 
+    /**
+     * Sets a recorder to capture every event group fired by this controller, with its timing.
+     * While a recorder is set, events of its types are created even if no callback handles them,
+     * except creates and deletes, which are recorded without serializing the block.
+     *
+     * @param recorder The recorder, or null to stop recording.
+     */
+    public void setEventRecorder(@Nullable EventRecorder recorder) {
+        mEventRecorder = recorder;
+        recalculateListenerEventMask();
+    }
+
+    /**
+     * @return The recorder set by {@link #setEventRecorder(EventRecorder)}, if any.
+     */
+    @Nullable
+    public EventRecorder getEventRecorder() {
+        return mEventRecorder;
+    }
+
+    /**
+     * Enables undo and redo for this controller, keeping at most {@code maxEventGroups} undo steps.
+     * Each event group fired by the controller is one step. Changing the limit trims the oldest
+     * steps. A limit of zero disables undo and clears the history.
+     *
+     * @param maxEventGroups The maximum number of undo steps to keep.
+     */
+    public void setUndoHistoryLimit(int maxEventGroups) {
+        if (maxEventGroups < 0) {
+            throw new IllegalArgumentException("Undo history limit may not be negative.");
+        }
+        if (maxEventGroups == 0) {
+            if (mUndoManager != null) {
+                removeCallback(mUndoManager);
+                mUndoManager = null;
+            }
+            return;
+        }
+        if (mUndoManager == null) {
+            mUndoManager = new UndoManager(this, maxEventGroups);
+            addCallback(mUndoManager);
+        } else {
+            mUndoManager.setMaxHistory(maxEventGroups);
+        }
+    }
+
+    /**
+     * @return True if undo is enabled and there is at least one step to undo.
+     */
+    public boolean canUndo() {
+        return mUndoManager != null && mUndoManager.canUndo();
+    }
+
+    /**
+     * @return True if undo is enabled and there is at least one undone step to redo.
+     */
+    public boolean canRedo() {
+        return mUndoManager != null && mUndoManager.canRedo();
+    }
+
+    /**
+     * Reverts the most recent event group recorded by the undo history. The reverting changes are
+     * fired to all {@link EventsCallback}s as a new event group, but are not recorded as a new undo
+     * step.
+     *
+     * @return True if a step was undone. Otherwise false.
+     * @see #setUndoHistoryLimit(int)
+     */
+    public boolean undo() {
+        checkPendingEventsEmpty();
+        if (mUndoManager == null) {
+            return false;
+        }
+        mUndoManager.setRecording(false);
+        try {
+            boolean undone = mUndoManager.undoImpl();
+            firePendingEvents();
+            return undone;
+        } finally {
+            mUndoManager.setRecording(true);
+        }
+    }
+
+    /**
+     * Re-applies the most recently undone event group.
+     *
+     * @return True if a step was redone. Otherwise false.
+     * @see #undo()
+     */
+    public boolean redo() {
+        checkPendingEventsEmpty();
+        if (mUndoManager == null) {
+            return false;
+        }
+        mUndoManager.setRecording(false);
+        try {
+            boolean redone = mUndoManager.redoImpl();
+            firePendingEvents();
+            return redone;
+        } finally {
+            mUndoManager.setRecording(true);
+        }
+    }
+
+    /**
+     * Discards all undo and redo steps, if undo is enabled.
+     */
+    public void clearUndoHistory() {
+        if (mUndoManager != null) {
+            mUndoManager.clear();
+        }
+    }
+
+    /**
+     * Applies events from another source, such as a collaborator's or mirrored workspace, to this
+     * controller's workspace. Events are applied in order. Consecutive events with the same group
+     * id are applied together, and the resulting changes are fired to the {@link EventsCallback}s
+     * as one event group. Replayed changes are not recorded in the undo history, and because the
+     * recorded local steps may no longer apply to the changed workspace, the undo history is
+     * cleared if any event changed the workspace.
+     * <p/>
+     * Blocks are referenced by id. Events for blocks that do not exist in the workspace, and
+     * {@link BlocklyEvent.UIEvent}s, are ignored.
+     *
+     * @param events The ordered events to apply.
+     * @return The number of events that changed the workspace.
+     */
+    public int applyEvents(List<BlocklyEvent> events) {
+        checkPendingEventsEmpty();
+        if (mEventReplayer == null) {
+            mEventReplayer = new EventReplayer(this);
+        }
+        if (mUndoManager != null) {
+            mUndoManager.setRecording(false);
+        }
+        try {
+            int applied = 0;
+            String groupId = null;
+            int count = events.size();
+            for (int i = 0; i < count; ++i) {
+                BlocklyEvent event = events.get(i);
+                String eventGroupId = event.getGroupId();
+                if (i > 0 && (TextUtils.isEmpty(eventGroupId)
+                        || !TextUtils.equals(eventGroupId, groupId))) {
+                    firePendingEvents();  // End of the prior group.
+                }
+                groupId = eventGroupId;
+                if (mEventReplayer.applyImpl(event)) {
+                    ++applied;
+                }
+            }
+            firePendingEvents();
+            if (applied > 0) {
+                clearUndoHistory();
+            }
+            return applied;
+        } finally {
+            if (mUndoManager != null) {
+                mUndoManager.setRecording(true);
+            }
+        }
+    }
+
     /**
      * Adds the provided block to the list of root blocks.  If the controller has an initialized
      * {@link WorkspaceView}, it will also create corresponding views.
@@ -789,7 +977,7 @@ public class BlocklyController {
      */
     // TODO(#56): Make this handle any block, not just root blocks.
     // TODO(#370): Handle isDeletable() in child blocks.
-    private boolean trashRootBlockImpl(Block block, boolean respectDeletable) {
+    /*package*/ boolean trashRootBlockImpl(Block block, boolean respectDeletable) {
         if (respectDeletable && !block.isDeletable()) {
             return false;
         }
@@ -801,6 +989,8 @@ public class BlocklyController {
 
             if (hasCallback(BlocklyEvent.TYPE_DELETE)) {
                 addPendingEvent(new BlocklyEvent.DeleteEvent(mWorkspace, block));
+            } else {
+                recordWithoutEvent(BlocklyEvent.TYPE_DELETE, block);
             }
         }
 
@@ -855,10 +1045,182 @@ public class BlocklyController {
         }
         if (hasCallback(BlocklyEvent.TYPE_CREATE)) {
             addPendingEvent(new BlocklyEvent.CreateEvent(mWorkspace, previouslyTrashedBlock));
+        } else {
+            recordWithoutEvent(BlocklyEvent.TYPE_CREATE, previouslyTrashedBlock);
         }
         return bg;
     }
 
+    /**
+     * Adds a previously removed block tree back into the workspace, restoring it from the trash if
+     * it is there. Used to revert deletions and re-apply creations. The following events may be
+     * added to the pending events:
+     * <ol>
+     *    <li>A create event for the restored block.</li>
+     * </ol>
+     *
+     * @param block The root {@link Block} of the tree to restore.
+     * @return True if the block was restored. False if it was already in the workspace.
+     */
+    /*package*/ boolean restoreBlockTreeImpl(Block block) {
+        if (mWorkspace.getTrashCategory().getBlocks().contains(block)) {
+            addBlockFromTrashImpl(block);
+            return true;
+        }
+        if (block.getParentBlock() != null || mWorkspace.isRootBlock(block)) {
+            return false;
+        }
+        addRootBlockImpl(block, null, true);
+        return true;
+    }
+
+    /**
+     * Moves a block (and its descendants) to a parent connection, or to a position at the root of
+     * the workspace. Used to apply and revert {@link BlocklyEvent.MoveEvent}s. The following events
+     * will be added to the pending events:
+     * <ol>
+     *    <li>A move of the block to the workspace if it was connected
+     *        (via {@link #extractBlockAsRootImpl}).</li>
+     *    <li>A move of the block to the parent connection (via {@link #connectImpl}), or to the
+     *        new workspace position.</li>
+     * </ol>
+     *
+     * @param block The {@link Block} to move. Must be in the workspace.
+     * @param parentConnection The next or input {@link Connection} to connect the block to, or
+     *                         null to leave the block as a root block.
+     * @param x The workspace x position to use if {@code parentConnection} is null.
+     * @param y The workspace y position to use if {@code parentConnection} is null.
+     */
+    /*package*/ void moveBlockImpl(Block block, @Nullable Connection parentConnection,
+                                   float x, float y) {
+        extractBlockAsRootImpl(block, false);
+        if (parentConnection != null) {
+            Connection upwardsConnection = block.getUpwardsConnection();
+            if (upwardsConnection == null) {
+                throw new IllegalArgumentException("Block " + block.getId()
+                        + " has no previous or output connection.");
+            }
+            connectImpl(upwardsConnection, parentConnection);
+        } else {
+            BlocklyEvent.MoveEvent moveEvent = null;
+            if (hasCallback(BlocklyEvent.TYPE_MOVE)) {
+                moveEvent = new BlocklyEvent.MoveEvent(mWorkspace, block);
+            }
+            block.setPosition(x, y);
+            BlockGroup rootBlockGroup = mHelper.getRootBlockGroup(block);
+            if (mWorkspaceView != null && rootBlockGroup != null) {
+                // Update UI
+                rootBlockGroup.bringToFront();
+                rootBlockGroup.updateAllConnectorLocations();
+                rootBlockGroup.requestLayout();
+            }
+            if (moveEvent != null) {
+                moveEvent.recordNew(block);
+                addPendingEvent(moveEvent);
+            }
+        }
+    }
+
+    /**
+     * Moves a block (and its descendants) to the named input of a parent block, the parent's next
+     * connection, or a position at the root of the workspace, as described by a
+     * {@link BlocklyEvent.MoveEvent}. See {@link #moveBlockImpl(Block, Connection, float, float)}
+     * for the events added to the pending events.
+     *
+     * @param block The {@link Block} to move. Must be in the workspace.
+     * @param parent The new parent {@link Block}, or null to leave the block as a root block.
+     * @param inputName The name of the parent's input to connect to, or null for the parent's
+     *                  next connection.
+     * @param x The workspace x position to use if {@code parent} is null.
+     * @param y The workspace y position to use if {@code parent} is null.
+     */
+    /*package*/ void moveBlockImpl(Block block, @Nullable Block parent, @Nullable String inputName,
+                                   float x, float y) {
+        Connection parentConnection = null;
+        if (parent != null) {
+            if (inputName == null) {
+                parentConnection = parent.getNextConnection();
+            } else {
+                Input input = parent.getInputByName(inputName);
+                parentConnection = (input == null) ? null : input.getConnection();
+            }
+            if (parentConnection == null) {
+                throw new IllegalStateException("Connection \"" + inputName
+                        + "\" not found on block " + parent.getId());
+            }
+        }
+        moveBlockImpl(block, parentConnection, x, y);
+    }
+
+    /**
+     * Changes a property of a block, as described by a {@link BlocklyEvent.ChangeEvent}. The
+     * following events may be added to the pending events:
+     * <ol>
+     *    <li>A change event for the property, if it was changed.</li>
+     * </ol>
+     *
+     * @param block The {@link Block} to change.
+     * @param element The {@link BlocklyEvent.ChangeElement} to change.
+     * @param fieldName The name of the field, if {@code element} is
+     *                  {@link BlocklyEvent#ELEMENT_FIELD}. Otherwise ignored.
+     * @param newValue The serialized new value.
+     * @return True if the change was applied. Otherwise false.
+     * @throws UnsupportedOperationException If {@code element} is
+     *                                       {@link BlocklyEvent#ELEMENT_MUTATE}, since blocks do
+     *                                       not support mutations yet.
+     * @throws IllegalArgumentException If {@code element} is not a change element.
+     */
+    /*package*/ boolean changeBlockImpl(Block block, @BlocklyEvent.ChangeElement String element,
+                                        @Nullable String fieldName, @Nullable String newValue) {
+        BlocklyEvent.ChangeEvent changeEvent;
+        switch (element) {
+            case BlocklyEvent.ELEMENT_FIELD:
+                Field field = block.getFieldByName(fieldName);
+                if (field == null) {
+                    Log.w(TAG, "Field \"" + fieldName + "\" not found on block " + block.getId());
+                    return false;
+                }
+                String oldValue = field.getSerializedValue();
+                if (!field.setFromString(newValue)) {
+                    return false;
+                }
+                changeEvent = BlocklyEvent.ChangeEvent.newFieldValueEvent(
+                        mWorkspace, block, field, oldValue, field.getSerializedValue());
+                break;
+            case BlocklyEvent.ELEMENT_COLLAPSED:
+                block.setCollapsed(Boolean.parseBoolean(newValue));
+                changeEvent = BlocklyEvent.ChangeEvent.newCollapsedStateEvent(mWorkspace, block);
+                break;
+            case BlocklyEvent.ELEMENT_DISABLED:
+                block.setDisabled(Boolean.parseBoolean(newValue));
+                changeEvent = BlocklyEvent.ChangeEvent.newDisabledStateEvent(mWorkspace, block);
+                break;
+            case BlocklyEvent.ELEMENT_INLINE:
+                block.setInputsInline(Boolean.parseBoolean(newValue));
+                changeEvent = BlocklyEvent.ChangeEvent.newInlineStateEvent(mWorkspace, block);
+                break;
+            case BlocklyEvent.ELEMENT_COMMENT:
+                String oldComment = block.getComment();
+                block.setComment(newValue);
+                changeEvent = BlocklyEvent.ChangeEvent.newCommentTextEvent(
+                        mWorkspace, block, oldComment, newValue);
+                break;
+            case BlocklyEvent.ELEMENT_MUTATE:
+                throw new UnsupportedOperationException(
+                        "Cannot change the mutation of block " + block.getId()
+                        + ": mutations are not supported.");
+            default:
+                throw new IllegalArgumentException("Unknown change element: " + element);
+        }
+
+        BlockGroup rootBlockGroup = mHelper.getRootBlockGroup(block);
+        if (rootBlockGroup != null) {
+            rootBlockGroup.requestLayout();
+        }
+        addPendingEvent(changeEvent);
+        return true;
+    }
+
     /**
      * Recursively unlinks models from the views, and disconnects the view tree including clearing
      * the parent {@link BlockGroup}.
@@ -934,6 +1296,7 @@ public class BlocklyController {
             unlinkViews(trashBlocks.get(i));
         }
         mWorkspace.resetWorkspace();
+        clearUndoHistory();
         if (mWorkspaceView != null) {
             mWorkspaceView.removeAllViews();
             initBlockViews();
@@ -983,8 +1346,12 @@ public class BlocklyController {
             }
             mWorkspaceView.addView(bg);
         }
-        if (isNewBlock && hasCallback(BlocklyEvent.TYPE_CREATE)) {
-            addPendingEvent(new BlocklyEvent.CreateEvent(mWorkspace, block));
+        if (isNewBlock) {
+            if (hasCallback(BlocklyEvent.TYPE_CREATE)) {
+                addPendingEvent(new BlocklyEvent.CreateEvent(mWorkspace, block));
+            } else {
+                recordWithoutEvent(BlocklyEvent.TYPE_CREATE, block);
+            }
         }
         return bg;
     }
@@ -1077,11 +1444,15 @@ public class BlocklyController {
      *
      * @param block The {@link Block} to look up and remove.
      */
-    private void removeBlockTreeImpl(Block block) {
+    /*package*/ void removeBlockTreeImpl(Block block) {
         extractBlockAsRootImpl(block, false);
         if (removeRootBlockImpl(block, true)) {
             unlinkViews(block);
-            addPendingEvent(new BlocklyEvent.DeleteEvent(getWorkspace(), block));
+            if (hasCallback(BlocklyEvent.TYPE_DELETE)) {
+                addPendingEvent(new BlocklyEvent.DeleteEvent(getWorkspace(), block));
+            } else {
+                recordWithoutEvent(BlocklyEvent.TYPE_DELETE, block);
+            }
         }
     }
 
@@ -1109,7 +1480,11 @@ public class BlocklyController {
         boolean result = removeRootBlockImpl(block, true);
         unlinkViews(block);
         if (result) {
-            addPendingEvent(new BlocklyEvent.DeleteEvent(getWorkspace(), block));
+            if (hasCallback(BlocklyEvent.TYPE_DELETE)) {
+                addPendingEvent(new BlocklyEvent.DeleteEvent(getWorkspace(), block));
+            } else {
+                recordWithoutEvent(BlocklyEvent.TYPE_DELETE, block);
+            }
         }
         return true;
     }
@@ -1157,7 +1532,10 @@ public class BlocklyController {
     private void connectToStatementImpl(Connection parentStatementConnection, Block toConnect) {
         // Store the state of toConnect in its original location.
         // TODO: (#342) move the event up to the impl method
-        BlocklyEvent.MoveEvent moveEvent = new BlocklyEvent.MoveEvent(mWorkspace, toConnect);
+        BlocklyEvent.MoveEvent moveEvent = null;
+        if (hasCallback(BlocklyEvent.TYPE_MOVE)) {
+            moveEvent = new BlocklyEvent.MoveEvent(mWorkspace, toConnect);
+        }
 
         Block remainderBlock = parentStatementConnection.getTargetBlock();
         BlocklyEvent.MoveEvent remainderMove = null;
@@ -1168,8 +1546,10 @@ public class BlocklyController {
                 removeBlockTreeImpl(remainderBlock);
                 remainderBlock = null;
             } else {
-                // Store the original location of the remainder.
-                remainderMove = new BlocklyEvent.MoveEvent(mWorkspace, remainderBlock);
+                if (hasCallback(BlocklyEvent.TYPE_MOVE)) {
+                    // Store the original location of the remainder.
+                    remainderMove = new BlocklyEvent.MoveEvent(mWorkspace, remainderBlock);
+                }
 
                 // Disconnect the remainder and we'll reattach it below
                 parentStatementConnection.disconnect();
@@ -1182,8 +1562,10 @@ public class BlocklyController {
 
         // Connect the new block to the parent
         connectAsInput(parentStatementConnection, toConnect.getPreviousConnection());
-        moveEvent.recordNew(toConnect);
-        addPendingEvent(moveEvent);
+        if (moveEvent != null) {
+            moveEvent.recordNew(toConnect);
+            addPendingEvent(moveEvent);
+        }
 
         // Reconnecting the remainder must be done after connecting the parent so that the parent
         // is considered in the workspace during connection checks.
@@ -1197,7 +1579,8 @@ public class BlocklyController {
                 addRootBlockImpl(
                         remainderBlock, mHelper.getParentBlockGroup(remainderBlock), false);
 
-                bumpBlockImpl(parentStatementConnection, remainderBlock.getPreviousConnection());
+                offsetBumpedBlock(
+                        parentStatementConnection, remainderBlock.getPreviousConnection());
             } else {
                 // Connect the remainder
                 connectAfter(lastBlock, remainderBlock);
@@ -1227,6 +1610,7 @@ public class BlocklyController {
         BlockGroup inferiorBlockGroup = mHelper.getParentBlockGroup(inferior);
         Block remainderBlock = superior.getNextBlock();
         BlockGroup remainderGroup = null;
+        BlocklyEvent.MoveEvent remainderMove = null;
 
         // To splice between two blocks, just need another call to connectAfter.
         if (remainderBlock != null) {
@@ -1235,6 +1619,10 @@ public class BlocklyController {
                 removeBlockTreeImpl(remainderBlock);
                 remainderBlock = null;
             } else {
+                if (hasCallback(BlocklyEvent.TYPE_MOVE)) {
+                    // Store the original location of the remainder.
+                    remainderMove = new BlocklyEvent.MoveEvent(mWorkspace, remainderBlock);
+                }
                 // Disconnect the remainder and save it for later
                 remainderGroup = (superiorBlockGroup == null) ? null :
                         superiorBlockGroup.extractBlocksAsNewGroup(remainderBlock);
@@ -1254,12 +1642,17 @@ public class BlocklyController {
             if (lastBlock.getNextConnection() == null) {
                 // Nothing to connect to.  Bump and add to root.
                 addRootBlockImpl(remainderBlock, remainderGroup, false);
-                bumpBlockImpl(inferior.getPreviousConnection(),
+                offsetBumpedBlock(inferior.getPreviousConnection(),
                         remainderBlock.getPreviousConnection());
             } else {
                 // Connect the remainder
                 connectAfter(lastBlock, superiorBlockGroup, remainderBlock, remainderGroup);
             }
+
+            if (remainderMove != null) {
+                remainderMove.recordNew(remainderBlock);
+                addPendingEvent(remainderMove);
+            }
         }
     }
 
@@ -1307,6 +1700,7 @@ public class BlocklyController {
         BlockGroup childBlockGroup = mHelper.getParentBlockGroup(child);
 
         Connection previousTargetConnection = null;
+        BlocklyEvent.MoveEvent previousTargetMove = null;
         if (parentConn.isConnected()) {
             previousTargetConnection = parentConn.getTargetConnection();
             // If there was a shadow block here delete it from the hierarchy and forget about it.
@@ -1314,6 +1708,11 @@ public class BlocklyController {
                 removeBlockTreeImpl(previousTargetConnection.getBlock());
                 previousTargetConnection = null;
             } else {
+                if (hasCallback(BlocklyEvent.TYPE_MOVE)) {
+                    // Store the original location of the block being spliced out.
+                    previousTargetMove = new BlocklyEvent.MoveEvent(
+                            mWorkspace, previousTargetConnection.getBlock());
+                }
                 // Otherwise just disconnect for now
                 parentConn.disconnect();
                 if (parentInputView != null) {
@@ -1338,11 +1737,16 @@ public class BlocklyController {
                 BlockGroup previousTargetGroup =
                         mHelper.getParentBlockGroup(previousTargetBlock);
                 addRootBlockImpl(previousTargetBlock, previousTargetGroup, false);
-                bumpBlockImpl(parentConn, previousTargetConnection);
+                offsetBumpedBlock(parentConn, previousTargetConnection);
             } else {
                 // Connect the previous part
                 connectAsInput(lastInputConnection, previousTargetConnection);
             }
+
+            if (previousTargetMove != null) {
+                previousTargetMove.recordNew(previousTargetBlock);
+                addPendingEvent(previousTargetMove);
+            }
         }
 
         if (mWorkspaceView != null && parentInputView != null) {
@@ -1477,21 +1881,37 @@ public class BlocklyController {
         }
         Block block = blockConnection.getBlock();
         Block newParentBlock = otherConnection.getBlock();
+        // Statement connections add their own move events in connectToStatementImpl().
+        BlocklyEvent.MoveEvent moveEvent = null;
+        Block movedBlock = null;
 
         switch (blockConnection.getType()) {
             case Connection.CONNECTION_TYPE_OUTPUT:
+                movedBlock = block;
+                if (hasCallback(BlocklyEvent.TYPE_MOVE)) {
+                    moveEvent = new BlocklyEvent.MoveEvent(mWorkspace, movedBlock);
+                }
                 removeRootBlockImpl(block, false);
                 connectAsInput(otherConnection, blockConnection);
                 break;
             case Connection.CONNECTION_TYPE_PREVIOUS:
-                removeRootBlockImpl(block, false);
                 if (otherConnection.isStatementInput()) {
+                    removeRootBlockImpl(block, false);
                     connectToStatementImpl(otherConnection, block);
                 } else {
+                    movedBlock = block;
+                    if (hasCallback(BlocklyEvent.TYPE_MOVE)) {
+                        moveEvent = new BlocklyEvent.MoveEvent(mWorkspace, movedBlock);
+                    }
+                    removeRootBlockImpl(block, false);
                     connectAfter(newParentBlock, block);
                 }
                 break;
             case Connection.CONNECTION_TYPE_NEXT:
+                if (!blockConnection.isStatementInput() && hasCallback(BlocklyEvent.TYPE_MOVE)) {
+                    movedBlock = newParentBlock;
+                    moveEvent = new BlocklyEvent.MoveEvent(mWorkspace, movedBlock);
+                }
                 if (!otherConnection.isConnected()) {
                     removeRootBlockImpl(newParentBlock, false);
                 }
@@ -1502,6 +1922,10 @@ public class BlocklyController {
                 }
                 break;
             case Connection.CONNECTION_TYPE_INPUT:
+                movedBlock = newParentBlock;
+                if (hasCallback(BlocklyEvent.TYPE_MOVE)) {
+                    moveEvent = new BlocklyEvent.MoveEvent(mWorkspace, movedBlock);
+                }
                 if (!otherConnection.isConnected()) {
                     removeRootBlockImpl(newParentBlock, false);
                 }
@@ -1510,6 +1934,10 @@ public class BlocklyController {
             default:
                 break;
         }
+        if (moveEvent != null) {
+            moveEvent.recordNew(movedBlock);
+            addPendingEvent(moveEvent);
+        }
 
         BlockGroup rootBlockGroup = mHelper.getRootBlockGroup(block);
         if (rootBlockGroup != null) {
@@ -1518,13 +1946,33 @@ public class BlocklyController {
     }
 
     /**
-     * Implements {@link #bumpBlock(Connection, Connection)}. This is not responsible for firing
-     * events.
+     * Implements {@link #bumpBlock(Connection, Connection)}. A move of the bumped root block is
+     * added to the pending events.
      *
      * @param staticConnection The original connection of the block.
      * @param impingingConnection The connection of the block to offset.
      */
     private void bumpBlockImpl(Connection staticConnection, Connection impingingConnection) {
+        Block rootBlock = impingingConnection.getBlock().getRootBlock();
+        BlocklyEvent.MoveEvent moveEvent = null;
+        if (hasCallback(BlocklyEvent.TYPE_MOVE)) {
+            moveEvent = new BlocklyEvent.MoveEvent(mWorkspace, rootBlock);
+        }
+        offsetBumpedBlock(staticConnection, impingingConnection);
+        if (moveEvent != null) {
+            moveEvent.recordNew(rootBlock);
+            addPendingEvent(moveEvent);
+        }
+    }
+
+    /**
+     * Offsets the root block of impingingConnection away from staticConnection without adding an
+     * event, for callers that record the move of the block themselves.
+     *
+     * @param staticConnection The original connection of the block.
+     * @param impingingConnection The connection of the block to offset.
+     */
+    private void offsetBumpedBlock(Connection staticConnection, Connection impingingConnection) {
         Block rootBlock = impingingConnection.getBlock().getRootBlock();
         BlockGroup impingingBlockGroup = mHelper.getRootBlockGroup(rootBlock);
 
@@ -1539,7 +1987,7 @@ public class BlocklyController {
             // Update UI
             impingingBlockGroup.bringToFront();
             impingingBlockGroup.updateAllConnectorLocations();
-            mWorkspaceView.requestLayout();
+            impingingBlockGroup.requestLayout();
         }
     }
 
@@ -1622,6 +2070,16 @@ public class BlocklyController {
         return (mEventCallbackMask & typeQueryBitMask) != 0;
     }
 
+    /**
+     * Records a create or delete that no callback handles with the event recorder, if any, without
+     * building the event.
+     */
+    private void recordWithoutEvent(@BlocklyEvent.EventType int type, Block block) {
+        if (mEventRecorder != null) {
+            mEventRecorder.recordWithoutEvent(type, block.getId());
+        }
+    }
+
     private void addPendingEvent(BlocklyEvent event) {
         mPendingEvents.add(event);
         mPendingEventsMask |= event.getTypeId();
@@ -1632,9 +2090,18 @@ public class BlocklyController {
         for (EventsCallback listener : mListeners) {
             mEventCallbackMask |= listener.getTypesBitmask();
         }
+        if (mFilteredListeners != null) {
+            mEventCallbackMask |= mFilteredListeners.getTypesBitmask();
+        }
+        if (mEventRecorder != null) {
+            // Creates and deletes serialize their blocks, so the recorder does without them.
+            mEventCallbackMask |= mEventRecorder.getTypesBitmask()
+                    & ~(BlocklyEvent.TYPE_CREATE | BlocklyEvent.TYPE_DELETE);
+        }
     }
 
     private void firePendingEvents() {
+        long startNanos = (mEventRecorder == null) ? 0 : System.nanoTime();
         List<BlocklyEvent> unmodifiableEventList = null;
         for (EventsCallback listener : mListeners) {
             if ((mPendingEventsMask & listener.getTypesBitmask()) != 0) {
@@ -1644,6 +2111,13 @@ public class BlocklyController {
                 listener.onEventGroup(unmodifiableEventList);
             }
         }
+        if (mFilteredListeners != null && !mPendingEvents.isEmpty()) {
+            mFilteredListeners.dispatch(mPendingEvents, mPendingEventsMask);
+        }
+        if (mEventRecorder != null) {
+            mEventRecorder.recordGroup(
+                    mPendingEvents, startNanos, System.nanoTime() - startNanos);
+        }
 
         mPendingEvents.clear();
         mPendingEventsMask = 0;
@@ -1669,6 +2143,7 @@ public class BlocklyController {
         private CategorySelectorUI mCategoryUi;
         private BlockListUI mTrashUi;
         private View mTrashIcon;
+        private int mUndoHistoryLimit = 0;
 
         // TODO: Should these be part of the style?
         private int mToolboxResId;
@@ -1750,6 +2225,19 @@ public class BlocklyController {
             return this;
         }
 
+        /**
+         * Enables undo and redo on the new controller, keeping at most {@code maxEventGroups}
+         * steps. Undo is disabled by default.
+         *
+         * @param maxEventGroups The maximum number of undo steps, or zero to disable undo.
+         * @return this
+         * @see BlocklyController#setUndoHistoryLimit(int)
+         */
+        public Builder setUndoHistoryLimit(int maxEventGroups) {
+            mUndoHistoryLimit = maxEventGroups;
+            return this;
+        }
+
         /**
          * Add a set of block definitions to load from a resource file. These will be added to the
          * set of all known blocks, but will not appear in the user's toolbox unless they are also
@@ -1941,6 +2429,7 @@ public class BlocklyController {
             controller.setToolboxUi(mToolbox, mCategoryUi);
             controller.setTrashIcon(mTrashIcon);
             controller.setVariableCallback(mVariableCallback);
+            controller.setUndoHistoryLimit(mUndoHistoryLimit);
 
             return controller;
         }
@@ -656,23 +656,27 @@ public abstract class BlocklyEvent {
             mOldInputName = null;
             mOldPositionX = mOldPositionY = 0;
 
-            String newCoordinateStr = json.optString(JSON_NEW_COORDINATE);
+            mNewParentId = json.optString(JSON_NEW_PARENT_ID, null);
+            mNewInputName = json.optString(JSON_NEW_INPUT_NAME, null);
+            String newCoordinateStr = json.optString(JSON_NEW_COORDINATE, null);
             if (newCoordinateStr != null) {
-                // JSON coordinates are always integers, separated by a comma.
+                // JSON coordinates are separated by a comma.
                 int comma = newCoordinateStr.indexOf(',');
                 if (comma == -1) {
                     throw new JSONException(
                             "Invalid " + JSON_NEW_COORDINATE + ": " + newCoordinateStr);
                 }
                 try {
-                    mNewPositionX = Integer.parseInt(newCoordinateStr.substring(0, comma));
-                    mNewPositionY = Integer.parseInt(newCoordinateStr.substring(comma + 1));
+                    mNewPositionX = Float.parseFloat(newCoordinateStr.substring(0, comma));
+                    mNewPositionY = Float.parseFloat(newCoordinateStr.substring(comma + 1));
                 } catch (NumberFormatException e) {
                     throw new JSONException(
                             "Invalid " + JSON_NEW_COORDINATE + ": " + newCoordinateStr);
                 }
-            } else {
-
+                mHasNewPosition = true;
+            } else if (mNewParentId == null) {
+                throw new JSONException(TYPENAME_MOVE + " requires " + JSON_NEW_PARENT_ID
+                        + " or " + JSON_NEW_COORDINATE);
             }
         }
 
@@ -693,12 +697,11 @@ public abstract class BlocklyEvent {
                 mNewParentId = null;
                 mNewInputName = null;
             } else {
+                // Statement inputs are also next connections, so check for an input instead of
+                // the connection type.
+                Input parentInput = parentConnection.getInput();
                 mNewParentId = parentConnection.getBlock().getId();
-                if (parentConnection.getType() == Connection.CONNECTION_TYPE_NEXT) {
-                    mNewInputName = null;
-                } else {
-                    mNewInputName = parentConnection.getInput().getName();
-                }
+                mNewInputName = parentInput == null ? null : parentInput.getName();
                 mHasNewPosition = false;
                 mNewPositionX = mNewPositionY = -1;
             }
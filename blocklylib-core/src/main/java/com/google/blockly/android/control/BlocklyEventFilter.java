@@ -0,0 +1,191 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.control;
+
+import android.support.annotation.Nullable;
+
+import com.google.blockly.model.Block;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Describes the subset of {@link BlocklyEvent}s an {@link BlocklyController.EventsCallback} is
+ * interested in, for use with
+ * {@link BlocklyController#addCallback(BlocklyController.EventsCallback, BlocklyEventFilter)}.
+ * <p/>
+ * Each criteria that is set must match for an event to pass the filter. Within a criteria, any of
+ * the values may match. For example, a filter with two block ids and one field name passes field
+ * changes of that name on either block. An event's type must always match the callback's
+ * {@link BlocklyController.EventsCallback#getTypesBitmask()}.
+ */
+public final class BlocklyEventFilter {
+    private final Set<String> mBlockIds;
+    private final Set<String> mBlockTypes;
+    private final Set<String> mFieldNames;
+    private final String mSubtreeRootId;
+
+    private BlocklyEventFilter(Builder builder) {
+        mBlockIds = unmodifiableCopy(builder.mBlockIds);
+        mBlockTypes = unmodifiableCopy(builder.mBlockTypes);
+        mFieldNames = unmodifiableCopy(builder.mFieldNames);
+        mSubtreeRootId = builder.mSubtreeRootId;
+    }
+
+    /**
+     * @return The ids of blocks whose events pass this filter, or an empty set for any block.
+     */
+    public Set<String> getBlockIds() {
+        return mBlockIds;
+    }
+
+    /**
+     * @return The types of blocks whose events pass this filter, or an empty set for any type.
+     */
+    public Set<String> getBlockTypes() {
+        return mBlockTypes;
+    }
+
+    /**
+     * @return The names of fields whose change events pass this filter, or an empty set for any
+     *         event. If set, only {@link BlocklyEvent.ChangeEvent}s of fields will pass.
+     */
+    public Set<String> getFieldNames() {
+        return mFieldNames;
+    }
+
+    /**
+     * @return The id of the block whose descendant's events (including its own) pass this filter,
+     *         or null for any block.
+     */
+    @Nullable
+    public String getSubtreeRootId() {
+        return mSubtreeRootId;
+    }
+
+    /**
+     * Tests a single event against the filter.
+     *
+     * @param event The event to test.
+     * @param block The block the event refers to, if it still exists.
+     * @param oldParent The prior parent of the block, if {@code event} is a
+     *                  {@link BlocklyEvent.MoveEvent} from a parent that still exists.
+     * @return True if the event passes the filter.
+     */
+    boolean matches(BlocklyEvent event, @Nullable Block block, @Nullable Block oldParent) {
+        if (!mBlockIds.isEmpty() && !mBlockIds.contains(event.getBlockId())) {
+            return false;
+        }
+        if (!mFieldNames.isEmpty()) {
+            if (event.getTypeId() != BlocklyEvent.TYPE_CHANGE) {
+                return false;
+            }
+            String fieldName = ((BlocklyEvent.ChangeEvent) event).getFieldName();
+            if (fieldName == null || !mFieldNames.contains(fieldName)) {
+                return false;
+            }
+        }
+        if (!mBlockTypes.isEmpty() && (block == null || !mBlockTypes.contains(block.getType()))) {
+            return false;
+        }
+        if (mSubtreeRootId != null && !mSubtreeRootId.equals(event.getBlockId())
+                && !isInSubtree(block == null ? null : block.getParentBlock())
+                && !isInSubtree(oldParent)) {  // Blocks moved out of the subtree.
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return True if the block is the subtree root or one of its descendants.
+     */
+    private boolean isInSubtree(@Nullable Block block) {
+        while (block != null) {
+            if (mSubtreeRootId.equals(block.getId())) {
+                return true;
+            }
+            block = block.getParentBlock();
+        }
+        return false;
+    }
+
+    private static Set<String> unmodifiableCopy(Set<String> set) {
+        if (set.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(new HashSet<>(set));
+    }
+
+    /**
+     * Builder for {@link BlocklyEventFilter}s.
+     */
+    public static class Builder {
+        private final Set<String> mBlockIds = new HashSet<>();
+        private final Set<String> mBlockTypes = new HashSet<>();
+        private final Set<String> mFieldNames = new HashSet<>();
+        private String mSubtreeRootId = null;
+
+        /**
+         * Passes events that refer to the given block.
+         *
+         * @param blockId The id of the block.
+         * @return this
+         */
+        public Builder addBlockId(String blockId) {
+            mBlockIds.add(blockId);
+            return this;
+        }
+
+        /**
+         * Passes events that refer to blocks of the given type.
+         *
+         * @param blockType The type name of the block, such as "controls_if".
+         * @return this
+         */
+        public Builder addBlockType(String blockType) {
+            mBlockTypes.add(blockType);
+            return this;
+        }
+
+        /**
+         * Passes change events for fields with the given name.
+         *
+         * @param fieldName The name of the field.
+         * @return this
+         */
+        public Builder addFieldName(String fieldName) {
+            mFieldNames.add(fieldName);
+            return this;
+        }
+
+        /**
+         * Passes events that refer to the given block or its descendants, including blocks moved
+         * out of the subtree.
+         *
+         * @param rootBlockId The id of the root of the subtree, or null for any block.
+         * @return this
+         */
+        public Builder setSubtreeRoot(@Nullable String rootBlockId) {
+            mSubtreeRootId = rootBlockId;
+            return this;
+        }
+
+        public BlocklyEventFilter build() {
+            return new BlocklyEventFilter(this);
+        }
+    }
+}
@@ -0,0 +1,432 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.control;
+
+import android.support.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Fixed-size ring buffer of the most recent {@link BlocklyEvent}s fired by a
+ * {@link BlocklyController}, for diagnosing what happened before a crash or slowdown. Attach with
+ * {@link BlocklyController#setEventRecorder(EventRecorder)}.
+ * <p/>
+ * Each event is stored as a handful of primitive and string fields in preallocated arrays, along
+ * with the monotonic time its group was fired and how long the listeners took to process the
+ * group. Strings are shared with the events, so recording does not allocate. Event XML is not
+ * kept.
+ * <p/>
+ * Only events of the recorder's types are kept. Creates and deletes are recorded by type and
+ * block id alone, so that a recorder does not make the controller serialize every block it adds
+ * or removes while no callback wants those events. Within their group, they are listed first.
+ * <p/>
+ * The buffer can be written to a file with {@link #dumpToFile(File)} and loaded back for offline
+ * analysis with {@link #readFromFile(File)}.
+ */
+public class EventRecorder {
+    private static final int FILE_MAGIC = 0x424c4552;  // "BLER"
+    private static final int FILE_VERSION = 1;
+
+    private final int mCapacity;
+    private final int mTypesBitmask;
+
+    // Parallel arrays, indexed by entry.
+    private final long[] mTimestampsNanos;
+    private final long[] mDurationsNanos;
+    private final int[] mGroupSequence;
+    private final int[] mTypes;
+    private final String[] mBlockIds;
+    private final String[] mDetails;
+    private final String[] mValues;
+
+    private int mNextIndex = 0;
+    private int mSize = 0;
+    private int mGroupCount = 0;
+    // Entries recorded without an event, waiting for the timing of their group.
+    private int mUnfiredCount = 0;
+
+    /**
+     * Creates a recorder of events of all types.
+     *
+     * @param capacity The maximum number of events to keep. Older events are overwritten.
+     */
+    public EventRecorder(int capacity) {
+        this(capacity, BlocklyEvent.TYPE_ALL);
+    }
+
+    /**
+     * @param capacity The maximum number of events to keep. Older events are overwritten.
+     * @param typesBitmask The {@link BlocklyEvent.EventType}s to record.
+     */
+    public EventRecorder(int capacity, int typesBitmask) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+        mCapacity = capacity;
+        mTypesBitmask = typesBitmask;
+        mTimestampsNanos = new long[capacity];
+        mDurationsNanos = new long[capacity];
+        mGroupSequence = new int[capacity];
+        mTypes = new int[capacity];
+        mBlockIds = new String[capacity];
+        mDetails = new String[capacity];
+        mValues = new String[capacity];
+    }
+
+    /**
+     * @return The maximum number of events kept.
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * @return The {@link BlocklyEvent.EventType}s recorded.
+     */
+    public int getTypesBitmask() {
+        return mTypesBitmask;
+    }
+
+    /**
+     * @return The number of events currently held.
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * Records all events of a group.
+     *
+     * @param events The event group.
+     * @param timestampNanos The {@link System#nanoTime()} when the group was fired.
+     * @param durationNanos The time the listeners took to process the group.
+     */
+    public synchronized void recordGroup(List<BlocklyEvent> events, long timestampNanos,
+                                         long durationNanos) {
+        // Complete the entries of the group recorded without events.
+        int unfired = Math.min(mUnfiredCount, mSize);
+        for (int i = 1; i <= unfired; ++i) {
+            int index = (mNextIndex - i + mCapacity) % mCapacity;
+            mTimestampsNanos[index] = timestampNanos;
+            mDurationsNanos[index] = durationNanos;
+        }
+        boolean recorded = mUnfiredCount > 0;
+        mUnfiredCount = 0;
+
+        int group = mGroupCount;
+        int count = events.size();
+        for (int i = 0; i < count; ++i) {
+            BlocklyEvent event = events.get(i);
+            if ((event.getTypeId() & mTypesBitmask) == 0) {
+                continue;
+            }
+            int index = nextIndex();
+            mTimestampsNanos[index] = timestampNanos;
+            mDurationsNanos[index] = durationNanos;
+            mGroupSequence[index] = group;
+            mTypes[index] = event.getTypeId();
+            mBlockIds[index] = event.getBlockId();
+            setDetails(index, event);
+            recorded = true;
+        }
+        if (recorded) {
+            ++mGroupCount;
+        }
+    }
+
+    /**
+     * Records an event of the group being built by the controller, without the event itself. Used
+     * for creates and deletes while no callback handles them, which avoids serializing the block.
+     * The entry is timed by the next call to {@link #recordGroup}.
+     *
+     * @param type The {@link BlocklyEvent.EventType} of the event.
+     * @param blockId The id of the created or deleted block.
+     */
+    synchronized void recordWithoutEvent(int type, String blockId) {
+        if ((type & mTypesBitmask) == 0) {
+            return;
+        }
+        int index = nextIndex();
+        mTimestampsNanos[index] = mDurationsNanos[index] = 0;
+        mGroupSequence[index] = mGroupCount;
+        mTypes[index] = type;
+        mBlockIds[index] = blockId;
+        mDetails[index] = mValues[index] = null;
+        ++mUnfiredCount;
+    }
+
+    /**
+     * Discards all recorded events.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < mCapacity; ++i) {
+            // Release string references.
+            mBlockIds[i] = mDetails[i] = mValues[i] = null;
+        }
+        mNextIndex = 0;
+        mSize = 0;
+        mUnfiredCount = 0;
+    }
+
+    /**
+     * @return A copy of the recorded events, oldest first.
+     */
+    public synchronized List<Entry> getEntries() {
+        List<Entry> entries = new ArrayList<>(mSize);
+        int start = (mNextIndex - mSize + mCapacity) % mCapacity;
+        for (int i = 0; i < mSize; ++i) {
+            int index = (start + i) % mCapacity;
+            entries.add(new Entry(mTimestampsNanos[index], mDurationsNanos[index],
+                    mGroupSequence[index], mTypes[index], mBlockIds[index], mDetails[index],
+                    mValues[index]));
+        }
+        return entries;
+    }
+
+    /**
+     * Writes the recorded events, oldest first, to a file that can be loaded with
+     * {@link #readFromFile(File)}.
+     *
+     * @param file The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public void dumpToFile(File file) throws IOException {
+        OutputStream os = new FileOutputStream(file);
+        try {
+            writeTo(os);
+        } finally {
+            os.close();
+        }
+    }
+
+    /**
+     * Writes the recorded events, oldest first, to the stream. The stream is not closed.
+     *
+     * @param os The stream to write to.
+     * @throws IOException If the stream cannot be written.
+     */
+    public void writeTo(OutputStream os) throws IOException {
+        List<Entry> entries = getEntries();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+        out.writeInt(FILE_MAGIC);
+        out.writeInt(FILE_VERSION);
+        out.writeInt(entries.size());
+        for (Entry entry : entries) {
+            out.writeLong(entry.mTimestampNanos);
+            out.writeLong(entry.mDurationNanos);
+            out.writeInt(entry.mGroupSequence);
+            out.writeInt(entry.mType);
+            writeNullableString(out, entry.mBlockId);
+            writeNullableString(out, entry.mDetail);
+            writeNullableString(out, entry.mValue);
+        }
+        out.flush();
+    }
+
+    /**
+     * Loads events written by {@link #dumpToFile(File)}.
+     *
+     * @param file The file to read.
+     * @return The recorded events, oldest first.
+     * @throws IOException If the file cannot be read or is not a recorder dump.
+     */
+    public static List<Entry> readFromFile(File file) throws IOException {
+        InputStream is = new FileInputStream(file);
+        try {
+            return readFrom(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Loads events written by {@link #writeTo(OutputStream)}. The stream is not closed.
+     *
+     * @param is The stream to read.
+     * @return The recorded events, oldest first.
+     * @throws IOException If the stream cannot be read or is not a recorder dump.
+     */
+    public static List<Entry> readFrom(InputStream is) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+        if (in.readInt() != FILE_MAGIC) {
+            throw new IOException("Not an event recorder dump.");
+        }
+        int version = in.readInt();
+        if (version != FILE_VERSION) {
+            throw new IOException("Unsupported event recorder dump version " + version);
+        }
+        int count = in.readInt();
+        List<Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            long timestamp = in.readLong();
+            long duration = in.readLong();
+            int group = in.readInt();
+            int type = in.readInt();
+            String blockId = readNullableString(in);
+            String detail = readNullableString(in);
+            String value = readNullableString(in);
+            entries.add(new Entry(timestamp, duration, group, type, blockId, detail, value));
+        }
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * @return The index of the next entry, which is overwritten if the buffer is full.
+     */
+    private int nextIndex() {
+        int index = mNextIndex;
+        mNextIndex = (index + 1) % mCapacity;
+        if (mSize < mCapacity) {
+            ++mSize;
+        }
+        return index;
+    }
+
+    /**
+     * Stores the type specific fields of the event: the element and new value of changes and UI
+     * events, and the new parent of moves.
+     */
+    private void setDetails(int index, BlocklyEvent event) {
+        switch (event.getTypeId()) {
+            case BlocklyEvent.TYPE_CHANGE:
+                BlocklyEvent.ChangeEvent change = (BlocklyEvent.ChangeEvent) event;
+                mDetails[index] = (change.getFieldName() != null)
+                        ? change.getFieldName() : change.getElement();
+                mValues[index] = change.getNewValue();
+                break;
+            case BlocklyEvent.TYPE_MOVE:
+                BlocklyEvent.MoveEvent move = (BlocklyEvent.MoveEvent) event;
+                mDetails[index] = move.getNewParentId();
+                mValues[index] = move.getNewInputName();
+                break;
+            case BlocklyEvent.TYPE_UI:
+                BlocklyEvent.UIEvent ui = (BlocklyEvent.UIEvent) event;
+                mDetails[index] = ui.getElement();
+                mValues[index] = ui.getNewValue();
+                break;
+            default:
+                mDetails[index] = null;
+                mValues[index] = null;
+                break;
+        }
+    }
+
+    private static void writeNullableString(DataOutputStream out, @Nullable String str)
+            throws IOException {
+        out.writeBoolean(str != null);
+        if (str != null) {
+            out.writeUTF(str);
+        }
+    }
+
+    @Nullable
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * A single recorded event.
+     */
+    public static final class Entry {
+        private final long mTimestampNanos;
+        private final long mDurationNanos;
+        private final int mGroupSequence;
+        private final int mType;
+        private final String mBlockId;
+        private final String mDetail;
+        private final String mValue;
+
+        Entry(long timestampNanos, long durationNanos, int groupSequence, int type,
+              @Nullable String blockId, @Nullable String detail, @Nullable String value) {
+            mTimestampNanos = timestampNanos;
+            mDurationNanos = durationNanos;
+            mGroupSequence = groupSequence;
+            mType = type;
+            mBlockId = blockId;
+            mDetail = detail;
+            mValue = value;
+        }
+
+        /**
+         * @return The {@link System#nanoTime()} when the event's group was fired.
+         */
+        public long getTimestampNanos() {
+            return mTimestampNanos;
+        }
+
+        /**
+         * @return The time the listeners took to process the event's group.
+         */
+        public long getDurationNanos() {
+            return mDurationNanos;
+        }
+
+        /**
+         * @return The sequence number of the event's group. Events of the same group share it.
+         */
+        public int getGroupSequence() {
+            return mGroupSequence;
+        }
+
+        /**
+         * @return The {@link BlocklyEvent.EventType} of the event.
+         */
+        public int getType() {
+            return mType;
+        }
+
+        @Nullable
+        public String getBlockId() {
+            return mBlockId;
+        }
+
+        /**
+         * @return The field name or element of change events, the element of UI events, or the
+         *         new parent id of move events.
+         */
+        @Nullable
+        public String getDetail() {
+            return mDetail;
+        }
+
+        /**
+         * @return The new value of change and UI events, or the new input name of move events.
+         */
+        @Nullable
+        public String getValue() {
+            return mValue;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{group=" + mGroupSequence + ", type=" + mType + ", block=" + mBlockId
+                    + ", detail=" + mDetail + ", value=" + mValue + ", t=" + mTimestampNanos
+                    + "ns, duration=" + mDurationNanos + "ns}";
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.control;
+
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.google.blockly.model.Block;
+import com.google.blockly.model.BlockFactory;
+import com.google.blockly.model.BlocklyParserException;
+import com.google.blockly.model.WorkspacePoint;
+import com.google.blockly.utils.BlocklyXmlHelper;
+
+import java.util.List;
+
+/**
+ * Applies {@link BlocklyEvent}s from another source, such as a collaborator's workspace, to the
+ * workspace of a {@link BlocklyController}. Used via
+ * {@link BlocklyController#applyEvents(java.util.List)}.
+ * <p/>
+ * Blocks are found by id using {@link BlockFactory#getBlock(String)}, without searching the
+ * workspace. Events that refer to unknown blocks are skipped. A create is skipped only if one of
+ * its blocks is still in the workspace, so blocks deleted earlier in the stream can be created
+ * again with the same ids.
+ * <p/>
+ * Blocks do not support mutations yet, so change events of
+ * {@link BlocklyEvent#ELEMENT_MUTATE mutations} are skipped with a warning.
+ */
+class EventReplayer {
+    private static final String TAG = "EventReplayer";
+
+    private final BlocklyController mController;
+    private final WorkspacePoint mTempPosition = new WorkspacePoint();
+
+    /**
+     * @param controller The controller to apply changes through.
+     */
+    EventReplayer(BlocklyController controller) {
+        mController = controller;
+    }
+
+    /**
+     * Applies a single event. Must be called from {@link BlocklyController#applyEvents}, which
+     * fires the resulting events.
+     *
+     * @param event The event to apply.
+     * @return True if the event was applied to the workspace. Otherwise false.
+     */
+    boolean applyImpl(BlocklyEvent event) {
+        try {
+            switch (event.getTypeId()) {
+                case BlocklyEvent.TYPE_CREATE:
+                    return applyCreate((BlocklyEvent.CreateEvent) event);
+                case BlocklyEvent.TYPE_DELETE:
+                    return applyDelete(event);
+                case BlocklyEvent.TYPE_MOVE:
+                    return applyMove((BlocklyEvent.MoveEvent) event);
+                case BlocklyEvent.TYPE_CHANGE:
+                    return applyChange((BlocklyEvent.ChangeEvent) event);
+                default:
+                    // UI events do not change the workspace.
+                    return false;
+            }
+        } catch (BlocklyParserException | IllegalArgumentException | IllegalStateException
+                | UnsupportedOperationException e) {
+            Log.w(TAG, "Failed to apply " + event.getTypeName() + " event for block "
+                    + event.getBlockId(), e);
+            return false;
+        }
+    }
+
+    private boolean applyCreate(BlocklyEvent.CreateEvent event) {
+        List<String> ids = event.getIds();
+        for (int i = 0; i < ids.size(); ++i) {
+            Block existing = getBlock(ids.get(i));
+            if (existing != null && isInWorkspace(existing)) {
+                // Already created, probably by this workspace.
+                return false;
+            }
+        }
+        // Deleted blocks may still be referenced, such as by the trash, and their ids would
+        // otherwise be refused by the factory.
+        BlockFactory factory = mController.getBlockFactory();
+        for (int i = 0; i < ids.size(); ++i) {
+            factory.clearPriorBlockReference(ids.get(i));
+        }
+        Block block = BlocklyXmlHelper.loadOneBlockFromXml(event.getXml(), factory);
+        return block != null && mController.restoreBlockTreeImpl(block);
+    }
+
+    private boolean applyDelete(BlocklyEvent event) {
+        Block block = findBlock(event.getBlockId());
+        if (block == null) {
+            return false;
+        }
+        mController.removeBlockTreeImpl(block);
+        return true;
+    }
+
+    private boolean applyMove(BlocklyEvent.MoveEvent event) {
+        Block block = findBlock(event.getBlockId());
+        if (block == null) {
+            return false;
+        }
+        String parentId = event.getNewParentId();
+        if (parentId != null) {
+            Block parent = findBlock(parentId);
+            if (parent == null) {
+                return false;
+            }
+            mController.moveBlockImpl(block, parent, event.getNewInputName(), 0, 0);
+        } else if (event.getNewWorkspacePosition(mTempPosition)) {
+            mController.moveBlockImpl(block, null, null, mTempPosition.x, mTempPosition.y);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private boolean applyChange(BlocklyEvent.ChangeEvent event) {
+        Block block = findBlock(event.getBlockId());
+        return block != null && mController.changeBlockImpl(
+                block, event.getElement(), event.getFieldName(), event.getNewValue());
+    }
+
+    @Nullable
+    private Block getBlock(String blockId) {
+        return TextUtils.isEmpty(blockId) ? null : mController.getBlockFactory().getBlock(blockId);
+    }
+
+    /**
+     * @param blockId The id of the block to find.
+     * @return The block with the given id, if it exists and is not in the trash. Otherwise null.
+     */
+    @Nullable
+    private Block findBlock(String blockId) {
+        Block block = getBlock(blockId);
+        if (block == null) {
+            Log.w(TAG, "Block " + blockId + " not found.");
+            return null;
+        }
+        if (!isInWorkspace(block)) {
+            Log.w(TAG, "Block " + blockId + " is not in the workspace.");
+            return null;
+        }
+        return block;
+    }
+
+    private boolean isInWorkspace(Block block) {
+        return mController.getWorkspace().isRootBlock(block.getRootBlock());
+    }
+}
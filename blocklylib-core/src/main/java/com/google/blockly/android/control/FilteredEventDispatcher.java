@@ -0,0 +1,246 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.control;
+
+import android.support.annotation.Nullable;
+import android.support.v4.util.SimpleArrayMap;
+
+import com.google.blockly.model.Block;
+import com.google.blockly.model.BlockFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Dispatches event groups to callbacks registered with a {@link BlocklyEventFilter}. Each callback
+ * receives only the events of a group that pass its filter, and is not called if none do.
+ * <p/>
+ * Subscriptions are indexed by a single criteria of their filter (block id, subtree root, field
+ * name, or block type, in that order of preference), so each event is only tested against the
+ * subscriptions that could possibly match it.
+ */
+class FilteredEventDispatcher {
+    private final BlockFactory mBlockFactory;
+
+    private final SimpleArrayMap<String, List<Subscription>> mByBlockId = new SimpleArrayMap<>();
+    private final SimpleArrayMap<String, List<Subscription>> mBySubtreeRoot =
+            new SimpleArrayMap<>();
+    private final SimpleArrayMap<String, List<Subscription>> mByFieldName = new SimpleArrayMap<>();
+    private final SimpleArrayMap<String, List<Subscription>> mByBlockType = new SimpleArrayMap<>();
+    private final List<Subscription> mUnindexed = new ArrayList<>();
+    private final List<Subscription> mAll = new ArrayList<>();
+
+    // Subscriptions with at least one matching event in the current group.
+    private final ArrayList<Subscription> mMatched = new ArrayList<>();
+    private int mTypesBitmask = 0;
+    private int mEventIndex = 0;
+
+    /**
+     * @param blockFactory The factory used to find the blocks referenced by events.
+     */
+    FilteredEventDispatcher(BlockFactory blockFactory) {
+        mBlockFactory = blockFactory;
+    }
+
+    /**
+     * @return The union of all subscribed callbacks' event types.
+     */
+    int getTypesBitmask() {
+        return mTypesBitmask;
+    }
+
+    /**
+     * Adds a subscription. Callbacks are assumed to be unique.
+     */
+    void add(BlocklyController.EventsCallback callback, BlocklyEventFilter filter) {
+        Subscription sub = new Subscription(callback, filter);
+        mAll.add(sub);
+        if (!filter.getBlockIds().isEmpty()) {
+            for (String blockId : filter.getBlockIds()) {
+                addToIndex(mByBlockId, blockId, sub);
+            }
+        } else if (filter.getSubtreeRootId() != null) {
+            addToIndex(mBySubtreeRoot, filter.getSubtreeRootId(), sub);
+        } else if (!filter.getFieldNames().isEmpty()) {
+            for (String fieldName : filter.getFieldNames()) {
+                addToIndex(mByFieldName, fieldName, sub);
+            }
+        } else if (!filter.getBlockTypes().isEmpty()) {
+            for (String blockType : filter.getBlockTypes()) {
+                addToIndex(mByBlockType, blockType, sub);
+            }
+        } else {
+            mUnindexed.add(sub);
+        }
+        mTypesBitmask |= callback.getTypesBitmask();
+    }
+
+    /**
+     * @return True if the callback was subscribed and has been removed.
+     */
+    boolean remove(BlocklyController.EventsCallback callback) {
+        Subscription sub = null;
+        for (int i = 0; i < mAll.size(); ++i) {
+            if (mAll.get(i).mCallback == callback) {
+                sub = mAll.remove(i);
+                break;
+            }
+        }
+        if (sub == null) {
+            return false;
+        }
+        removeFromIndex(mByBlockId, sub);
+        removeFromIndex(mBySubtreeRoot, sub);
+        removeFromIndex(mByFieldName, sub);
+        removeFromIndex(mByBlockType, sub);
+        mUnindexed.remove(sub);
+
+        mTypesBitmask = 0;
+        for (int i = 0; i < mAll.size(); ++i) {
+            mTypesBitmask |= mAll.get(i).mCallback.getTypesBitmask();
+        }
+        return true;
+    }
+
+    boolean contains(BlocklyController.EventsCallback callback) {
+        for (int i = 0; i < mAll.size(); ++i) {
+            if (mAll.get(i).mCallback == callback) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sends each subscribed callback the events of the group that pass its filter.
+     *
+     * @param events The event group.
+     * @param eventsMask The union of the types of {@code events}.
+     */
+    void dispatch(List<BlocklyEvent> events, int eventsMask) {
+        if ((eventsMask & mTypesBitmask) == 0) {
+            return;
+        }
+        int count = events.size();
+        for (int i = 0; i < count; ++i) {
+            BlocklyEvent event = events.get(i);
+            ++mEventIndex;
+            Block block = (event.getBlockId() == null) ? null
+                    : mBlockFactory.getBlock(event.getBlockId());
+            Block oldParent = null;
+            if (event.getTypeId() == BlocklyEvent.TYPE_MOVE) {
+                String oldParentId = ((BlocklyEvent.MoveEvent) event).getOldParentId();
+                oldParent = (oldParentId == null) ? null : mBlockFactory.getBlock(oldParentId);
+            }
+
+            offer(mByBlockId.get(event.getBlockId()), event, block, oldParent);
+            if (!mBySubtreeRoot.isEmpty()) {
+                offer(mBySubtreeRoot.get(event.getBlockId()), event, block, oldParent);
+                offerToAncestors(block == null ? null : block.getParentBlock(),
+                        event, block, oldParent);
+                offerToAncestors(oldParent, event, block, oldParent);
+            }
+            if (!mByFieldName.isEmpty() && event.getTypeId() == BlocklyEvent.TYPE_CHANGE) {
+                String fieldName = ((BlocklyEvent.ChangeEvent) event).getFieldName();
+                if (fieldName != null) {
+                    offer(mByFieldName.get(fieldName), event, block, oldParent);
+                }
+            }
+            if (!mByBlockType.isEmpty() && block != null) {
+                offer(mByBlockType.get(block.getType()), event, block, oldParent);
+            }
+            offer(mUnindexed, event, block, oldParent);
+        }
+
+        if (mMatched.isEmpty()) {
+            return;
+        }
+        // Copy, in case callbacks add or remove subscriptions.
+        Subscription[] matched = mMatched.toArray(new Subscription[mMatched.size()]);
+        mMatched.clear();
+        for (Subscription sub : matched) {
+            List<BlocklyEvent> subEvents = new ArrayList<>(sub.mEvents);
+            sub.mEvents.clear();
+            sub.mCallback.onEventGroup(Collections.unmodifiableList(subEvents));
+        }
+    }
+
+    /**
+     * Offers the event to subscriptions for the subtrees rooted at {@code ancestor} and each of its
+     * ancestors.
+     */
+    private void offerToAncestors(@Nullable Block ancestor, BlocklyEvent event,
+                                  @Nullable Block block, @Nullable Block oldParent) {
+        while (ancestor != null) {
+            offer(mBySubtreeRoot.get(ancestor.getId()), event, block, oldParent);
+            ancestor = ancestor.getParentBlock();
+        }
+    }
+
+    private void offer(@Nullable List<Subscription> subs, BlocklyEvent event,
+                       @Nullable Block block, @Nullable Block oldParent) {
+        if (subs == null) {
+            return;
+        }
+        int count = subs.size();
+        for (int i = 0; i < count; ++i) {
+            Subscription sub = subs.get(i);
+            if (sub.mLastEventIndex == mEventIndex
+                    || (sub.mCallback.getTypesBitmask() & event.getTypeId()) == 0
+                    || !sub.mFilter.matches(event, block, oldParent)) {
+                continue;
+            }
+            sub.mLastEventIndex = mEventIndex;
+            if (sub.mEvents.isEmpty()) {
+                mMatched.add(sub);
+            }
+            sub.mEvents.add(event);
+        }
+    }
+
+    private static void addToIndex(SimpleArrayMap<String, List<Subscription>> index, String key,
+                                   Subscription sub) {
+        List<Subscription> subs = index.get(key);
+        if (subs == null) {
+            subs = new ArrayList<>();
+            index.put(key, subs);
+        }
+        subs.add(sub);
+    }
+
+    private static void removeFromIndex(SimpleArrayMap<String, List<Subscription>> index,
+                                        Subscription sub) {
+        for (int i = index.size() - 1; i >= 0; --i) {
+            List<Subscription> subs = index.valueAt(i);
+            if (subs.remove(sub) && subs.isEmpty()) {
+                index.removeAt(i);
+            }
+        }
+    }
+
+    private static final class Subscription {
+        final BlocklyController.EventsCallback mCallback;
+        final BlocklyEventFilter mFilter;
+        final ArrayList<BlocklyEvent> mEvents = new ArrayList<>();
+        int mLastEventIndex = 0;
+
+        Subscription(BlocklyController.EventsCallback callback, BlocklyEventFilter filter) {
+            mCallback = callback;
+            mFilter = filter;
+        }
+    }
+}
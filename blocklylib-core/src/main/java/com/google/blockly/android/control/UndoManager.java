@@ -0,0 +1,443 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.control;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.blockly.model.Block;
+import com.google.blockly.model.Input;
+import com.google.blockly.model.WorkspacePoint;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the event groups fired by a {@link BlocklyController} so they can be reverted and
+ * re-applied. Each event group is one undo step, and at most {@code maxHistory} steps are kept.
+ * <p/>
+ * Steps do not keep the {@link BlocklyEvent}s or their XML. Instead, each event is reduced to a
+ * compact {@link Record} that references the affected {@link Block}s directly. Deleted blocks are
+ * retained by reference (just like the trash), so undoing a deletion or a large paste does not
+ * serialize or parse any XML.
+ * <p/>
+ * Blocks do not support mutations yet, so change events of
+ * {@link BlocklyEvent#ELEMENT_MUTATE mutations} are not recorded, and undoing a step only reverts
+ * its other events.
+ * <p/>
+ * Undo and redo are applied through the controller's Impl methods via
+ * {@link BlocklyController#undo()} and {@link BlocklyController#redo()}.
+ */
+class UndoManager implements BlocklyController.EventsCallback {
+    private static final String TAG = "UndoManager";
+
+    private static final int UNDOABLE_TYPES = BlocklyEvent.TYPE_CREATE | BlocklyEvent.TYPE_DELETE
+            | BlocklyEvent.TYPE_MOVE | BlocklyEvent.TYPE_CHANGE;
+
+    private final BlocklyController mController;
+    // Most recent steps are at the head of each deque.
+    private final ArrayDeque<Record[]> mUndoSteps = new ArrayDeque<>();
+    private final ArrayDeque<Record[]> mRedoSteps = new ArrayDeque<>();
+    private final ArrayList<Record> mTempRecords = new ArrayList<>();
+    private final WorkspacePoint mTempPosition = new WorkspacePoint();
+
+    private int mMaxHistory;
+    private boolean mRecording = true;
+
+    /**
+     * @param controller The controller to record events from and apply changes through.
+     * @param maxHistory The maximum number of undo steps to keep.
+     */
+    UndoManager(BlocklyController controller, int maxHistory) {
+        mController = controller;
+        setMaxHistory(maxHistory);
+    }
+
+    @Override
+    public int getTypesBitmask() {
+        return UNDOABLE_TYPES;
+    }
+
+    @Override
+    public void onEventGroup(List<BlocklyEvent> events) {
+        if (!mRecording) {
+            return;
+        }
+
+        mTempRecords.clear();
+        int count = events.size();
+        for (int i = 0; i < count; ++i) {
+            Record record = newRecord(events.get(i));
+            if (record != null) {
+                mTempRecords.add(record);
+            }
+        }
+        if (mTempRecords.isEmpty()) {
+            return;
+        }
+
+        mUndoSteps.push(mTempRecords.toArray(new Record[mTempRecords.size()]));
+        mTempRecords.clear();
+        mRedoSteps.clear();
+        trimHistory();
+    }
+
+    /**
+     * @param maxHistory The maximum number of undo steps to keep. Older steps are discarded.
+     */
+    void setMaxHistory(int maxHistory) {
+        if (maxHistory <= 0) {
+            throw new IllegalArgumentException("maxHistory must be positive.");
+        }
+        mMaxHistory = maxHistory;
+        trimHistory();
+    }
+
+    /**
+     * Enables or disables recording. Recording is disabled while undo and redo steps are applied,
+     * so the resulting event group is not recorded as a new step.
+     *
+     * @param recording Whether to record event groups.
+     */
+    void setRecording(boolean recording) {
+        mRecording = recording;
+    }
+
+    boolean canUndo() {
+        return !mUndoSteps.isEmpty();
+    }
+
+    boolean canRedo() {
+        return !mRedoSteps.isEmpty();
+    }
+
+    /**
+     * @return The number of steps that can be undone.
+     */
+    int getUndoCount() {
+        return mUndoSteps.size();
+    }
+
+    /**
+     * @return The number of steps that can be redone.
+     */
+    int getRedoCount() {
+        return mRedoSteps.size();
+    }
+
+    /**
+     * Discards all undo and redo steps.
+     */
+    void clear() {
+        mUndoSteps.clear();
+        mRedoSteps.clear();
+    }
+
+    /**
+     * Reverts the most recent step, in reverse event order. Must be called from
+     * {@link BlocklyController#undo()}, which fires the resulting events.
+     * <p/>
+     * If the workspace no longer matches the step, the history is cleared. The step is checked
+     * before any change is made, and if reverting a record still fails, the records already
+     * reverted are re-applied, so the workspace is not left partially reverted.
+     *
+     * @return True if a step was reverted. False if there was no step or it could not be reverted.
+     */
+    boolean undoImpl() {
+        Record[] step = mUndoSteps.poll();
+        if (step == null) {
+            return false;
+        }
+        for (int i = 0; i < step.length; ++i) {
+            if (!canMove(step[i], true)) {
+                Log.e(TAG, "Cannot undo event group. Clearing undo history.");
+                clear();
+                return false;
+            }
+        }
+
+        int i = step.length - 1;
+        try {
+            for (; i >= 0; --i) {
+                revert(step[i]);
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to undo event group. Clearing undo history.", e);
+            try {
+                for (int j = i + 1; j < step.length; ++j) {
+                    apply(step[j]);
+                }
+            } catch (RuntimeException rollbackException) {
+                Log.e(TAG, "Failed to restore the workspace after failed undo.", rollbackException);
+            }
+            clear();
+            return false;
+        }
+        mRedoSteps.push(step);
+        return true;
+    }
+
+    /**
+     * Re-applies the most recently reverted step, in original event order. Must be called from
+     * {@link BlocklyController#redo()}, which fires the resulting events. Failures are handled as
+     * in {@link #undoImpl()}.
+     *
+     * @return True if a step was re-applied. False if there was no step or it could not be
+     *         re-applied.
+     */
+    boolean redoImpl() {
+        Record[] step = mRedoSteps.poll();
+        if (step == null) {
+            return false;
+        }
+        for (int i = 0; i < step.length; ++i) {
+            if (!canMove(step[i], false)) {
+                Log.e(TAG, "Cannot redo event group. Clearing undo history.");
+                clear();
+                return false;
+            }
+        }
+
+        int i = 0;
+        try {
+            for (; i < step.length; ++i) {
+                apply(step[i]);
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to redo event group. Clearing undo history.", e);
+            try {
+                for (int j = i - 1; j >= 0; --j) {
+                    revert(step[j]);
+                }
+            } catch (RuntimeException rollbackException) {
+                Log.e(TAG, "Failed to restore the workspace after failed redo.", rollbackException);
+            }
+            clear();
+            return false;
+        }
+        mUndoSteps.push(step);
+        trimHistory();
+        return true;
+    }
+
+    /**
+     * Checks that the connection a move record would connect its block to still exists.
+     *
+     * @param record The record to check. Records of other types are not checked.
+     * @param toOld Whether the block would be moved to its old location, for undo, or its new
+     *              location, for redo.
+     * @return False if the block cannot be moved.
+     */
+    private static boolean canMove(Record record, boolean toOld) {
+        if (record.mType != BlocklyEvent.TYPE_MOVE) {
+            return true;
+        }
+        Block parent = toOld ? record.mOldParent : record.mNewParent;
+        if (parent == null) {
+            return true;  // Moved to the workspace root.
+        }
+        if (record.mBlock.getUpwardsConnection() == null) {
+            return false;
+        }
+        String inputName = toOld ? record.mOldInputName : record.mNewInputName;
+        if (inputName == null) {
+            return parent.getNextConnection() != null;
+        }
+        Input input = parent.getInputByName(inputName);
+        return input != null && input.getConnection() != null;
+    }
+
+    private void revert(Record record) {
+        switch (record.mType) {
+            case BlocklyEvent.TYPE_CREATE:
+                mController.removeBlockTreeImpl(record.mBlock);
+                break;
+            case BlocklyEvent.TYPE_DELETE:
+                mController.restoreBlockTreeImpl(record.mBlock);
+                break;
+            case BlocklyEvent.TYPE_MOVE:
+                mController.moveBlockImpl(record.mBlock, record.mOldParent, record.mOldInputName,
+                        record.mOldX, record.mOldY);
+                break;
+            case BlocklyEvent.TYPE_CHANGE:
+                mController.changeBlockImpl(record.mBlock, record.mElement, record.mFieldName,
+                        record.mOldValue);
+                break;
+        }
+    }
+
+    private void apply(Record record) {
+        switch (record.mType) {
+            case BlocklyEvent.TYPE_CREATE:
+                mController.restoreBlockTreeImpl(record.mBlock);
+                break;
+            case BlocklyEvent.TYPE_DELETE:
+                if (record.mTrashed) {
+                    mController.trashRootBlockImpl(record.mBlock, false);
+                } else {
+                    mController.removeBlockTreeImpl(record.mBlock);
+                }
+                break;
+            case BlocklyEvent.TYPE_MOVE:
+                mController.moveBlockImpl(record.mBlock, record.mNewParent, record.mNewInputName,
+                        record.mNewX, record.mNewY);
+                break;
+            case BlocklyEvent.TYPE_CHANGE:
+                mController.changeBlockImpl(record.mBlock, record.mElement, record.mFieldName,
+                        record.mNewValue);
+                break;
+        }
+    }
+
+    /**
+     * @param event The event to record.
+     * @return A compact record of the event, or null if the event cannot be undone.
+     */
+    @Nullable
+    private Record newRecord(BlocklyEvent event) {
+        if ((event.getTypeId() & UNDOABLE_TYPES) == 0) {
+            return null;
+        }
+        Block block = findBlock(event.getBlockId());
+        if (block == null) {
+            Log.w(TAG, "Block " + event.getBlockId() + " not found. Event cannot be undone.");
+            return null;
+        }
+
+        Record record = new Record(event.getTypeId(), block);
+        switch (event.getTypeId()) {
+            case BlocklyEvent.TYPE_DELETE:
+                record.mTrashed =
+                        mController.getWorkspace().getTrashCategory().getBlocks().contains(block);
+                break;
+            case BlocklyEvent.TYPE_MOVE:
+                BlocklyEvent.MoveEvent move = (BlocklyEvent.MoveEvent) event;
+                if (move.getOldParentId() != null) {
+                    record.mOldParent = findBlock(move.getOldParentId());
+                    if (record.mOldParent == null) {
+                        return null;
+                    }
+                    record.mOldInputName = move.getOldInputName();
+                } else if (move.getOldWorkspacePosition(mTempPosition)) {
+                    record.mOldX = mTempPosition.x;
+                    record.mOldY = mTempPosition.y;
+                }
+                if (move.getNewParentId() != null) {
+                    record.mNewParent = findBlock(move.getNewParentId());
+                    if (record.mNewParent == null) {
+                        return null;
+                    }
+                    record.mNewInputName = move.getNewInputName();
+                } else if (move.getNewWorkspacePosition(mTempPosition)) {
+                    record.mNewX = mTempPosition.x;
+                    record.mNewY = mTempPosition.y;
+                }
+                break;
+            case BlocklyEvent.TYPE_CHANGE:
+                BlocklyEvent.ChangeEvent change = (BlocklyEvent.ChangeEvent) event;
+                if (change.getElement().equals(BlocklyEvent.ELEMENT_MUTATE)) {
+                    return null;  // Not supported by changeBlockImpl().
+                }
+                record.mElement = change.getElement();
+                record.mFieldName = change.getFieldName();
+                record.mOldValue = change.getOldValue();
+                record.mNewValue = change.getNewValue();
+                break;
+        }
+        return record;
+    }
+
+    /**
+     * Finds a block by id, first via the {@link com.google.blockly.model.BlockFactory}'s block
+     * references, falling back to a search of the workspace for blocks not created by the factory.
+     */
+    @Nullable
+    private Block findBlock(String blockId) {
+        Block block = mController.getBlockFactory().getBlock(blockId);
+        if (block != null) {
+            return block;
+        }
+        List<Block> rootBlocks = mController.getWorkspace().getRootBlocks();
+        for (int i = 0; i < rootBlocks.size(); ++i) {
+            Block found = findBlock(rootBlocks.get(i), blockId);
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    private static Block findBlock(Block root, String blockId) {
+        if (root.getId().equals(blockId)) {
+            return root;
+        }
+        List<Input> inputs = root.getInputs();
+        for (int i = 0; i < inputs.size(); ++i) {
+            Block child = inputs.get(i).getConnectedBlock();
+            Block found = (child == null) ? null : findBlock(child, blockId);
+            if (found != null) {
+                return found;
+            }
+        }
+        Block next = root.getNextBlock();
+        return (next == null) ? null : findBlock(next, blockId);
+    }
+
+    /**
+     * Removes the oldest undo steps beyond {@link #mMaxHistory}.
+     */
+    private void trimHistory() {
+        while (mUndoSteps.size() > mMaxHistory) {
+            mUndoSteps.removeLast();
+        }
+        while (mRedoSteps.size() > mMaxHistory) {
+            mRedoSteps.removeLast();
+        }
+    }
+
+    /**
+     * Compact, undoable form of a single {@link BlocklyEvent}. Only the fields relevant to
+     * {@link #mType} are assigned.
+     */
+    private static final class Record {
+        final int mType;
+        final Block mBlock;
+
+        // Delete
+        boolean mTrashed;
+
+        // Move
+        Block mOldParent;
+        String mOldInputName;
+        float mOldX, mOldY;
+        Block mNewParent;
+        String mNewInputName;
+        float mNewX, mNewY;
+
+        // Change
+        String mElement;
+        String mFieldName;
+        String mOldValue;
+        String mNewValue;
+
+        Record(int type, Block block) {
+            mType = type;
+            mBlock = block;
+        }
+    }
+}
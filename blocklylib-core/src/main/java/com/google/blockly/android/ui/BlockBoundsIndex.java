@@ -0,0 +1,296 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.ui;
+
+import android.graphics.Rect;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Spatial index of the bounds of root {@link BlockGroup}s, used by {@link WorkspaceView} to find
+ * the groups near the viewport without visiting every block. Bounds are bucketed into a uniform
+ * grid of square cells, so a query only visits the cells it overlaps.
+ * <p/>
+ * The union of all bounds is maintained incrementally. Each edge coordinate is counted in a sorted
+ * map, so adding, moving, or removing an item takes logarithmic time, without rescanning the other
+ * items, and {@link #getUnion(Rect)} takes constant time.
+ *
+ * @param <T> The type of the indexed items.
+ */
+class BlockBoundsIndex<T> {
+    /** The default width and height of a grid cell, in pixels. */
+    static final int DEFAULT_CELL_SIZE = 1024;
+
+    private final int mCellSize;
+    private final Map<T, Entry> mEntries = new IdentityHashMap<>();
+    // Cell key to the entries overlapping that cell.
+    private final Map<Long, List<Entry>> mCells = new HashMap<>();
+    // Edge coordinate to the number of items with that edge, for items with non-empty bounds.
+    private final TreeMap<Integer, Integer> mLefts = new TreeMap<>();
+    private final TreeMap<Integer, Integer> mTops = new TreeMap<>();
+    private final TreeMap<Integer, Integer> mRights = new TreeMap<>();
+    private final TreeMap<Integer, Integer> mBottoms = new TreeMap<>();
+    private final Rect mUnion = new Rect();
+    private boolean mUnionValid = true;
+
+    BlockBoundsIndex() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * @param cellSize The width and height of a grid cell, in pixels.
+     */
+    BlockBoundsIndex(int cellSize) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("Cell size must be positive.");
+        }
+        mCellSize = cellSize;
+    }
+
+    /**
+     * Sets the bounds of an item, adding it to the index if needed.
+     *
+     * @param item The item.
+     * @param left The left edge of the item's bounds.
+     * @param top The top edge of the item's bounds.
+     * @param right The right edge of the item's bounds.
+     * @param bottom The bottom edge of the item's bounds.
+     * @return True if the item was added or its bounds changed.
+     */
+    boolean update(T item, int left, int top, int right, int bottom) {
+        Entry entry = mEntries.get(item);
+        if (entry == null) {
+            entry = new Entry(item);
+            mEntries.put(item, entry);
+        } else {
+            Rect bounds = entry.mBounds;
+            if (bounds.left == left && bounds.top == top
+                    && bounds.right == right && bounds.bottom == bottom) {
+                return false;
+            }
+            removeFromCells(entry);
+            removeEdges(bounds);
+        }
+        entry.mBounds.set(left, top, right, bottom);
+        addToCells(entry);
+        addEdges(entry.mBounds);
+        return true;
+    }
+
+    /**
+     * @param item The item.
+     * @return The indexed bounds of the item, or null if it is not in the index. The returned rect
+     *         must not be modified.
+     */
+    @Nullable
+    Rect getBounds(T item) {
+        Entry entry = mEntries.get(item);
+        return entry == null ? null : entry.mBounds;
+    }
+
+    /**
+     * @param item The item to remove.
+     * @return True if the item was in the index.
+     */
+    boolean remove(T item) {
+        Entry entry = mEntries.remove(item);
+        if (entry == null) {
+            return false;
+        }
+        removeFromCells(entry);
+        removeEdges(entry.mBounds);
+        return true;
+    }
+
+    /**
+     * Removes all items.
+     */
+    void clear() {
+        mEntries.clear();
+        mCells.clear();
+        mLefts.clear();
+        mTops.clear();
+        mRights.clear();
+        mBottoms.clear();
+        mUnion.setEmpty();
+        mUnionValid = true;
+    }
+
+    /**
+     * @return The number of items in the index.
+     */
+    int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Finds the items whose bounds intersect an area. Items with empty bounds are never found.
+     *
+     * @param area The area to search.
+     * @param out The collection to add the found items to. Should be a set, since items spanning
+     *            several cells are otherwise added once per cell.
+     */
+    void query(Rect area, Collection<T> out) {
+        if (area.isEmpty()) {
+            return;
+        }
+        int minX = cellIndex(area.left);
+        int maxX = cellIndex(area.right - 1);
+        int minY = cellIndex(area.top);
+        int maxY = cellIndex(area.bottom - 1);
+        if ((long) (maxX - minX + 1) * (maxY - minY + 1) > mCells.size()) {
+            // Fewer occupied cells than cells in the area.
+            for (List<Entry> cell : mCells.values()) {
+                addIntersecting(cell, area, out);
+            }
+            return;
+        }
+        for (int x = minX; x <= maxX; ++x) {
+            for (int y = minY; y <= maxY; ++y) {
+                List<Entry> cell = mCells.get(cellKey(x, y));
+                if (cell != null) {
+                    addIntersecting(cell, area, out);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param outRect The rect to store the union of all indexed bounds in. Set empty if there are
+     *                no items.
+     * @return {@code outRect}
+     */
+    Rect getUnion(Rect outRect) {
+        if (!mUnionValid) {
+            if (mLefts.isEmpty()) {
+                mUnion.setEmpty();
+            } else {
+                mUnion.set(mLefts.firstKey(), mTops.firstKey(),
+                        mRights.lastKey(), mBottoms.lastKey());
+            }
+            mUnionValid = true;
+        }
+        outRect.set(mUnion);
+        return outRect;
+    }
+
+    private void addEdges(Rect bounds) {
+        if (bounds.isEmpty()) {
+            return;
+        }
+        increment(mLefts, bounds.left);
+        increment(mTops, bounds.top);
+        increment(mRights, bounds.right);
+        increment(mBottoms, bounds.bottom);
+        mUnionValid = false;
+    }
+
+    private void removeEdges(Rect bounds) {
+        if (bounds.isEmpty()) {
+            return;
+        }
+        decrement(mLefts, bounds.left);
+        decrement(mTops, bounds.top);
+        decrement(mRights, bounds.right);
+        decrement(mBottoms, bounds.bottom);
+        mUnionValid = false;
+    }
+
+    private static void increment(TreeMap<Integer, Integer> counts, int edge) {
+        Integer count = counts.get(edge);
+        counts.put(edge, count == null ? 1 : count + 1);
+    }
+
+    private static void decrement(TreeMap<Integer, Integer> counts, int edge) {
+        Integer count = counts.get(edge);
+        if (count == null || count == 1) {
+            counts.remove(edge);
+        } else {
+            counts.put(edge, count - 1);
+        }
+    }
+
+    private void addIntersecting(List<Entry> cell, Rect area, Collection<T> out) {
+        for (int i = 0; i < cell.size(); ++i) {
+            Entry entry = cell.get(i);
+            if (Rect.intersects(entry.mBounds, area)) {
+                out.add(entry.mItem);
+            }
+        }
+    }
+
+    private void addToCells(Entry entry) {
+        Rect bounds = entry.mBounds;
+        if (bounds.isEmpty()) {
+            return;
+        }
+        for (int x = cellIndex(bounds.left); x <= cellIndex(bounds.right - 1); ++x) {
+            for (int y = cellIndex(bounds.top); y <= cellIndex(bounds.bottom - 1); ++y) {
+                long key = cellKey(x, y);
+                List<Entry> cell = mCells.get(key);
+                if (cell == null) {
+                    cell = new ArrayList<>();
+                    mCells.put(key, cell);
+                }
+                cell.add(entry);
+            }
+        }
+    }
+
+    private void removeFromCells(Entry entry) {
+        Rect bounds = entry.mBounds;
+        if (bounds.isEmpty()) {
+            return;
+        }
+        for (int x = cellIndex(bounds.left); x <= cellIndex(bounds.right - 1); ++x) {
+            for (int y = cellIndex(bounds.top); y <= cellIndex(bounds.bottom - 1); ++y) {
+                long key = cellKey(x, y);
+                List<Entry> cell = mCells.get(key);
+                if (cell != null) {
+                    cell.remove(entry);
+                    if (cell.isEmpty()) {
+                        mCells.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    private int cellIndex(int coordinate) {
+        // Rounds toward negative infinity, so negative coordinates get their own cells.
+        return (int) Math.floor((double) coordinate / mCellSize);
+    }
+
+    private static long cellKey(int x, int y) {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+
+    private class Entry {
+        final T mItem;
+        final Rect mBounds = new Rect();
+
+        Entry(T item) {
+            mItem = item;
+        }
+    }
+}
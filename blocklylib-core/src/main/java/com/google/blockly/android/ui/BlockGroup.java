@@ -16,7 +16,10 @@
 package com.google.blockly.android.ui;
 
 import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Rect;
 import android.view.View;
+import android.view.ViewParent;
 
 import com.google.blockly.model.Block;
 import com.google.blockly.model.WorkspacePoint;
@@ -31,6 +34,8 @@ public class BlockGroup extends NonPropagatingViewGroup {
     private final WorkspaceHelper mWorkspaceHelper;
 
     private int mNextBlockVerticalOffset;
+    // Set when a block in this group is laid out or redrawn. See BlockGroupLayerCache.
+    private boolean mContentChanged = true;
 
     /**
      * Creates a BlockGroup to wrap one or more BlockViews. App developers should not call this
@@ -58,6 +63,8 @@ public class BlockGroup extends NonPropagatingViewGroup {
 
     @Override
     public void onMeasure(int widthSpec, int heightSpec) {
+        final RenderingProfiler profiler = mWorkspaceHelper.getRenderingProfiler();
+        final long startNanos = (profiler == null) ? 0 : profiler.begin();
         boolean rtl = mWorkspaceHelper.useRtl();
         mNextBlockVerticalOffset = 0;
 
@@ -92,6 +99,31 @@ public class BlockGroup extends NonPropagatingViewGroup {
             mNextBlockVerticalOffset += childBlockView.getNextBlockVerticalOffset();
         }
         setMeasuredDimension(width, height);
+        if (profiler != null) {
+            profiler.end(RenderingProfiler.VIEW_BLOCK_GROUP, RenderingProfiler.PHASE_MEASURE,
+                    startNanos);
+        }
+    }
+
+    @Override
+    public void requestLayout() {
+        mContentChanged = true;
+        ViewParent parent = getParent();
+        if (parent instanceof WorkspaceView) {
+            ((WorkspaceView) parent).onBlockGroupLayoutRequested(this);
+        }
+        super.requestLayout();
+    }
+
+    /**
+     * Records that a block in this group will be redrawn, before passing the invalidation up.
+     * Starting with Android O, hardware accelerated invalidations no longer pass through this
+     * method, so only layout changes are seen.
+     */
+    @Override
+    public ViewParent invalidateChildInParent(int[] location, Rect dirty) {
+        mContentChanged = true;
+        return super.invalidateChildInParent(location, dirty);
     }
 
     @Override
@@ -106,6 +138,8 @@ public class BlockGroup extends NonPropagatingViewGroup {
 
     @Override
     protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        final RenderingProfiler profiler = mWorkspaceHelper.getRenderingProfiler();
+        final long startNanos = (profiler == null) ? 0 : profiler.begin();
         int childCount = getChildCount();
         boolean rtl = mWorkspaceHelper.useRtl();
         int x = rtl ? getMeasuredWidth() : 0;
@@ -131,6 +165,22 @@ public class BlockGroup extends NonPropagatingViewGroup {
         }
         // After we finish laying out we need to update the locations of the connectors
         updateAllConnectorLocations();
+        if (profiler != null) {
+            profiler.end(RenderingProfiler.VIEW_BLOCK_GROUP, RenderingProfiler.PHASE_LAYOUT,
+                    startNanos);
+        }
+    }
+
+    @Override
+    protected void dispatchDraw(Canvas canvas) {
+        final RenderingProfiler profiler = mWorkspaceHelper.getRenderingProfiler();
+        if (profiler == null) {
+            super.dispatchDraw(canvas);
+            return;
+        }
+        final long startNanos = profiler.begin();
+        super.dispatchDraw(canvas);
+        profiler.end(RenderingProfiler.VIEW_BLOCK_GROUP, RenderingProfiler.PHASE_DRAW, startNanos);
     }
 
     /**
@@ -217,6 +267,15 @@ public class BlockGroup extends NonPropagatingViewGroup {
         removeAllViews();
     }
 
+    /**
+     * @return Whether a block in this group was laid out or redrawn since the last call.
+     */
+    boolean consumeContentChanged() {
+        boolean changed = mContentChanged;
+        mContentChanged = false;
+        return changed;
+    }
+
     /**
      * @return The vertical offset from the top of this view to the position of the next block
      * <em>below</em> this group.
@@ -0,0 +1,215 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.ui;
+
+import android.view.View;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Renders idle root {@link BlockGroup}s into hardware layers, so panning and zooming a workspace
+ * composites the cached layers instead of drawing every block, input, and field again. Without
+ * hardware acceleration, the layers are bitmaps.
+ * <p/>
+ * A group is given a layer once it is visible and has not changed for a number of frames. A
+ * change to its blocks, such as a layout or an invalidated highlight, removes the layer until the
+ * group is idle again, so groups being edited are not rendered twice. The estimated memory of all
+ * layers is kept within a budget, by removing the layers of the least recently visible groups.
+ */
+class BlockGroupLayerCache {
+    /** The default number of frames a group must be unchanged before it is cached. */
+    static final int DEFAULT_IDLE_FRAMES = 10;
+
+    // Layers larger than this may exceed the maximum texture size.
+    private static final int MAX_LAYER_DIMENSION = 2048;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    // Cached groups to their layers, in least recently visible order.
+    private final LinkedHashMap<BlockGroup, Layer> mLayers = new LinkedHashMap<>(16, 0.75f, true);
+    // Groups to the number of frames they have been visible and unchanged.
+    private final Map<BlockGroup, Integer> mIdleFrames = new HashMap<>();
+
+    private long mBudgetBytes;
+    private int mIdleFramesThreshold = DEFAULT_IDLE_FRAMES;
+    private long mUsedBytes = 0;
+    private int mFrame = 0;
+
+    /**
+     * @param budgetBytes The maximum estimated memory of all layers.
+     */
+    BlockGroupLayerCache(long budgetBytes) {
+        mBudgetBytes = budgetBytes;
+    }
+
+    /**
+     * Sets the memory budget, removing layers as needed to stay within it.
+     *
+     * @param budgetBytes The maximum estimated memory of all layers.
+     */
+    void setBudget(long budgetBytes) {
+        mBudgetBytes = budgetBytes;
+        trimTo(budgetBytes, false);
+    }
+
+    /**
+     * @param idleFrames The number of frames a group must be visible and unchanged before it is
+     *                   cached.
+     */
+    void setIdleFrames(int idleFrames) {
+        mIdleFramesThreshold = idleFrames;
+    }
+
+    /**
+     * @return The estimated memory used by all layers, in bytes.
+     */
+    long getUsedBytes() {
+        return mUsedBytes;
+    }
+
+    /**
+     * @return The number of groups with a layer.
+     */
+    int getCachedCount() {
+        return mLayers.size();
+    }
+
+    /**
+     * @param group A root block group.
+     * @return Whether the group is rendered into a layer.
+     */
+    boolean isCached(BlockGroup group) {
+        return mLayers.containsKey(group);
+    }
+
+    /**
+     * Updates the layers before a frame is drawn.
+     *
+     * @param visibleGroups The groups visible in this frame.
+     */
+    void onPreDraw(Collection<BlockGroup> visibleGroups) {
+        ++mFrame;
+        // Mark the visible layers first, so they are not removed to make room for new ones.
+        for (BlockGroup group : visibleGroups) {
+            Layer layer = mLayers.get(group);
+            if (layer != null) {
+                layer.mLastVisibleFrame = mFrame;
+            }
+        }
+
+        for (BlockGroup group : visibleGroups) {
+            if (group.getVisibility() != View.VISIBLE) {
+                continue;
+            }
+            if (group.consumeContentChanged()) {
+                mIdleFrames.put(group, 0);
+                removeLayer(group);
+                continue;
+            }
+            if (mLayers.containsKey(group)) {
+                continue;
+            }
+
+            Integer idleFrames = mIdleFrames.get(group);
+            int frames = (idleFrames == null) ? 1 : idleFrames + 1;
+            mIdleFrames.put(group, frames);
+            if (frames >= mIdleFramesThreshold) {
+                addLayer(group);
+            }
+        }
+    }
+
+    /**
+     * Removes a group's layer and idle state, such as when the group is removed from the workspace.
+     *
+     * @param group The group to forget.
+     */
+    void remove(BlockGroup group) {
+        removeLayer(group);
+        mIdleFrames.remove(group);
+    }
+
+    /**
+     * Removes all layers.
+     */
+    void clear() {
+        trimTo(0, false);
+        mIdleFrames.clear();
+    }
+
+    private void addLayer(BlockGroup group) {
+        int width = group.getWidth();
+        int height = group.getHeight();
+        if (width <= 0 || height <= 0
+                || width > MAX_LAYER_DIMENSION || height > MAX_LAYER_DIMENSION) {
+            return;
+        }
+        int bytes = width * height * BYTES_PER_PIXEL;
+        if (bytes > mBudgetBytes) {
+            return;
+        }
+        if (!trimTo(mBudgetBytes - bytes, true)) {
+            return;  // The visible layers already fill the budget.
+        }
+        group.setLayerType(View.LAYER_TYPE_HARDWARE, null);
+        mLayers.put(group, new Layer(bytes, mFrame));
+        mUsedBytes += bytes;
+    }
+
+    private void removeLayer(BlockGroup group) {
+        Layer layer = mLayers.remove(group);
+        if (layer != null) {
+            mUsedBytes -= layer.mBytes;
+            group.setLayerType(View.LAYER_TYPE_NONE, null);
+        }
+    }
+
+    /**
+     * Removes the layers of the least recently visible groups until the used memory is within the
+     * given size.
+     *
+     * @param maxBytes The memory to stay within.
+     * @param keepVisible Whether to stop at the layers visible in the current frame.
+     * @return True if the used memory is within {@code maxBytes}.
+     */
+    private boolean trimTo(long maxBytes, boolean keepVisible) {
+        Iterator<Map.Entry<BlockGroup, Layer>> iter = mLayers.entrySet().iterator();
+        while (mUsedBytes > maxBytes && iter.hasNext()) {
+            Map.Entry<BlockGroup, Layer> eldest = iter.next();
+            if (keepVisible && eldest.getValue().mLastVisibleFrame == mFrame) {
+                break;  // All remaining layers are visible.
+            }
+            iter.remove();
+            mUsedBytes -= eldest.getValue().mBytes;
+            eldest.getKey().setLayerType(View.LAYER_TYPE_NONE, null);
+            mIdleFrames.remove(eldest.getKey());
+        }
+        return mUsedBytes <= maxBytes;
+    }
+
+    private static class Layer {
+        final int mBytes;
+        int mLastVisibleFrame;
+
+        Layer(int bytes, int frame) {
+            mBytes = bytes;
+            mLastVisibleFrame = frame;
+        }
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.ui;
+
+import android.support.annotation.IntDef;
+
+import com.google.blockly.model.Block;
+
+import java.lang.annotation.Retention;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import static java.lang.annotation.RetentionPolicy.SOURCE;
+
+/**
+ * Measures how long the {@link WorkspaceView}, its {@link BlockGroup}s, and its block views take to
+ * measure, lay out, and draw, per frame and per block type. Profiling is opt-in: set a profiler on
+ * the {@link WorkspaceHelper} with {@link WorkspaceHelper#setRenderingProfiler}. Without one, the
+ * views only check for the profiler and skip all timing.
+ * <p/>
+ * Each duration is a self time: the time spent in nested profiled views, such as the blocks
+ * connected to the inputs of a block, is attributed to those views only. The durations of all view
+ * types therefore add up to the time spent rendering the workspace. With hardware acceleration,
+ * draw times are the time to record the views' display lists, not to render them.
+ * <p/>
+ * A frame is everything measured and laid out in one traversal of the view hierarchy, plus what is
+ * drawn in it. Its statistics are available from {@link #getLastFrame()} once the next frame
+ * begins. Blocks in flyouts that share the workspace's helper are counted in the frame in which
+ * they are rendered.
+ * <p/>
+ * The profiler must only be used from the main thread.
+ */
+public class RenderingProfiler {
+    @Retention(SOURCE)
+    @IntDef({VIEW_WORKSPACE, VIEW_BLOCK_GROUP, VIEW_BLOCK})
+    public @interface ViewType {}
+    /** The {@link WorkspaceView}. */
+    public static final int VIEW_WORKSPACE = 0;
+    /** All {@link BlockGroup}s. */
+    public static final int VIEW_BLOCK_GROUP = 1;
+    /** All block views, including their inputs and fields. */
+    public static final int VIEW_BLOCK = 2;
+    private static final int VIEW_TYPE_COUNT = 3;
+
+    @Retention(SOURCE)
+    @IntDef({PHASE_MEASURE, PHASE_LAYOUT, PHASE_DRAW})
+    public @interface Phase {}
+    /** {@code onMeasure()} of the views. */
+    public static final int PHASE_MEASURE = 0;
+    /** {@code onLayout()} of the views. */
+    public static final int PHASE_LAYOUT = 1;
+    /** Drawing the views and their children. */
+    public static final int PHASE_DRAW = 2;
+    private static final int PHASE_COUNT = 3;
+
+    /** The default frame time above which a frame is counted as janky, about one 60 Hz frame. */
+    public static final long DEFAULT_JANK_THRESHOLD_NANOS = 16000000L;
+
+    // Measures and layouts are recorded in mLayoutFrame, draws in mDrawFrame. The traversal of
+    // each frame measures and lays out before it draws, so mLayoutFrame becomes mDrawFrame when
+    // drawing begins, and mDrawFrame is complete when the next frame begins drawing.
+    private FrameStats mLayoutFrame = new FrameStats();
+    private FrameStats mDrawFrame = new FrameStats();
+    private final FrameStats mLastFrame = new FrameStats();
+    private long mFrameCount = 0;
+    private long mJankFrameCount = 0;
+    private long mJankThresholdNanos = DEFAULT_JANK_THRESHOLD_NANOS;
+
+    // Time spent in nested profiled views, for each view currently being profiled.
+    private long[] mNestedNanos = new long[16];
+    private int mDepth = 0;
+
+    private final HashMap<String, BlockTypeStats> mBlockTypeStats = new HashMap<>();
+
+    private static final Comparator<BlockTypeStats> SLOWEST_FIRST =
+            new Comparator<BlockTypeStats>() {
+                @Override
+                public int compare(BlockTypeStats first, BlockTypeStats second) {
+                    long firstNanos = first.getAverageNanos();
+                    long secondNanos = second.getAverageNanos();
+                    return (firstNanos == secondNanos) ? 0 : (firstNanos > secondNanos ? -1 : 1);
+                }
+            };
+
+    /**
+     * Starts timing a measure, layout, or draw of a view. Must be followed by a call to
+     * {@link #end} or {@link #endBlock} for the same view.
+     *
+     * @return The start time to pass to {@link #end} or {@link #endBlock}.
+     */
+    public long begin() {
+        if (mDepth == mNestedNanos.length) {
+            long[] nestedNanos = new long[2 * mDepth];
+            System.arraycopy(mNestedNanos, 0, nestedNanos, 0, mDepth);
+            mNestedNanos = nestedNanos;
+        }
+        mNestedNanos[mDepth++] = 0;
+        return System.nanoTime();
+    }
+
+    /**
+     * Records a measure, layout, or draw of a view since the matching call to {@link #begin()}.
+     *
+     * @param viewType The type of view.
+     * @param phase The rendering phase.
+     * @param startNanos The start time returned by {@link #begin()}.
+     * @return The self time of the view, in nanoseconds.
+     */
+    public long end(@ViewType int viewType, @Phase int phase, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        if (mDepth == 0) {
+            return 0;  // Not started, such as when the profiler was set during a traversal.
+        }
+        long selfNanos = nanos - mNestedNanos[--mDepth];
+        if (mDepth > 0) {
+            mNestedNanos[mDepth - 1] += nanos;
+        }
+        FrameStats frame = (phase == PHASE_DRAW) ? mDrawFrame : mLayoutFrame;
+        frame.mNanos[viewType][phase] += selfNanos;
+        ++frame.mCounts[viewType][phase];
+        return selfNanos;
+    }
+
+    /**
+     * Records a measure, layout, or draw of a block view since the matching call to
+     * {@link #begin()}, for the frame and for the statistics of the block's type.
+     *
+     * @param block The block of the view.
+     * @param phase The rendering phase.
+     * @param startNanos The start time returned by {@link #begin()}.
+     */
+    public void endBlock(Block block, @Phase int phase, long startNanos) {
+        long selfNanos = end(VIEW_BLOCK, phase, startNanos);
+        String type = block.getType();
+        BlockTypeStats stats = mBlockTypeStats.get(type);
+        if (stats == null) {
+            stats = new BlockTypeStats(type);
+            mBlockTypeStats.put(type, stats);
+        }
+        ++stats.mCount;
+        stats.mTotalNanos += selfNanos;
+        stats.mMaxNanos = Math.max(stats.mMaxNanos, selfNanos);
+    }
+
+    /**
+     * @param thresholdNanos The frame time above which a frame is counted as janky, in
+     *                       nanoseconds. See {@link #getJankFrameCount()}.
+     */
+    public void setJankThresholdNanos(long thresholdNanos) {
+        if (thresholdNanos <= 0) {
+            throw new IllegalArgumentException("Threshold must be positive.");
+        }
+        mJankThresholdNanos = thresholdNanos;
+    }
+
+    /**
+     * @return The frame time above which a frame is counted as janky, in nanoseconds.
+     */
+    public long getJankThresholdNanos() {
+        return mJankThresholdNanos;
+    }
+
+    /**
+     * @return The statistics of the last complete frame. The returned object is updated in place
+     *         when the next frame completes.
+     */
+    public FrameStats getLastFrame() {
+        return mLastFrame;
+    }
+
+    /**
+     * @return The number of frames completed since this profiler was created or reset.
+     */
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @return The number of completed frames that took longer than the jank threshold.
+     */
+    public long getJankFrameCount() {
+        return mJankFrameCount;
+    }
+
+    /**
+     * Returns the block types with the highest average self time per measure, layout, or draw of
+     * one block, since this profiler was created or reset.
+     *
+     * @param maxCount The maximum number of block types to return.
+     * @return The slowest block types, slowest first.
+     */
+    public List<BlockTypeStats> getSlowestBlockTypes(int maxCount) {
+        List<BlockTypeStats> stats = new ArrayList<>(mBlockTypeStats.size());
+        getSlowestBlockTypes(maxCount, stats);
+        return stats;
+    }
+
+    /**
+     * Same as {@link #getSlowestBlockTypes(int)}, but fills a list provided by the caller, so it
+     * can be reused.
+     *
+     * @param maxCount The maximum number of block types to return.
+     * @param outStats The list to fill with the slowest block types, slowest first. Cleared first.
+     */
+    public void getSlowestBlockTypes(int maxCount, List<BlockTypeStats> outStats) {
+        outStats.clear();
+        outStats.addAll(mBlockTypeStats.values());
+        Collections.sort(outStats, SLOWEST_FIRST);
+        for (int i = outStats.size() - 1; i >= maxCount; --i) {
+            outStats.remove(i);
+        }
+    }
+
+    /**
+     * Clears all frame and block type statistics.
+     */
+    public void reset() {
+        mLayoutFrame.clear();
+        mDrawFrame.clear();
+        mLastFrame.clear();
+        mFrameCount = 0;
+        mJankFrameCount = 0;
+        mBlockTypeStats.clear();
+    }
+
+    /**
+     * Called before each frame is drawn, after it was measured and laid out. Completes the
+     * previous frame, if anything was rendered in it.
+     *
+     * @return True if a frame was completed.
+     */
+    boolean onPreDraw() {
+        boolean completed = false;
+        if (!mDrawFrame.isEmpty()) {
+            mLastFrame.copyFrom(mDrawFrame);
+            ++mFrameCount;
+            if (mLastFrame.getTotalNanos() > mJankThresholdNanos) {
+                ++mJankFrameCount;
+            }
+            completed = true;
+        }
+        FrameStats drawFrame = mLayoutFrame;
+        mLayoutFrame = mDrawFrame;
+        mLayoutFrame.clear();
+        mDrawFrame = drawFrame;
+        mDepth = 0;
+        return completed;
+    }
+
+    /**
+     * The durations and view counts of one frame.
+     */
+    public static final class FrameStats {
+        private final long[][] mNanos = new long[VIEW_TYPE_COUNT][PHASE_COUNT];
+        private final int[][] mCounts = new int[VIEW_TYPE_COUNT][PHASE_COUNT];
+
+        FrameStats() {
+        }
+
+        /**
+         * @return The self time of all views of the type in the phase, in nanoseconds.
+         */
+        public long getNanos(@ViewType int viewType, @Phase int phase) {
+            return mNanos[viewType][phase];
+        }
+
+        /**
+         * @return The number of times views of the type were measured, laid out, or drawn.
+         */
+        public int getCount(@ViewType int viewType, @Phase int phase) {
+            return mCounts[viewType][phase];
+        }
+
+        /**
+         * @return The self time of all views in the phase, in nanoseconds.
+         */
+        public long getPhaseNanos(@Phase int phase) {
+            long nanos = 0;
+            for (int viewType = 0; viewType < VIEW_TYPE_COUNT; ++viewType) {
+                nanos += mNanos[viewType][phase];
+            }
+            return nanos;
+        }
+
+        /**
+         * @return The time spent rendering the workspace in this frame, in nanoseconds.
+         */
+        public long getTotalNanos() {
+            long nanos = 0;
+            for (int phase = 0; phase < PHASE_COUNT; ++phase) {
+                nanos += getPhaseNanos(phase);
+            }
+            return nanos;
+        }
+
+        boolean isEmpty() {
+            for (int viewType = 0; viewType < VIEW_TYPE_COUNT; ++viewType) {
+                for (int phase = 0; phase < PHASE_COUNT; ++phase) {
+                    if (mCounts[viewType][phase] != 0) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        void clear() {
+            for (int viewType = 0; viewType < VIEW_TYPE_COUNT; ++viewType) {
+                for (int phase = 0; phase < PHASE_COUNT; ++phase) {
+                    mNanos[viewType][phase] = 0;
+                    mCounts[viewType][phase] = 0;
+                }
+            }
+        }
+
+        void copyFrom(FrameStats other) {
+            for (int viewType = 0; viewType < VIEW_TYPE_COUNT; ++viewType) {
+                System.arraycopy(other.mNanos[viewType], 0, mNanos[viewType], 0, PHASE_COUNT);
+                System.arraycopy(other.mCounts[viewType], 0, mCounts[viewType], 0, PHASE_COUNT);
+            }
+        }
+    }
+
+    /**
+     * The rendering times of all blocks of one type.
+     */
+    public static final class BlockTypeStats {
+        private final String mType;
+        private int mCount = 0;
+        private long mTotalNanos = 0;
+        private long mMaxNanos = 0;
+
+        BlockTypeStats(String type) {
+            mType = type;
+        }
+
+        /**
+         * @return The block type.
+         */
+        public String getType() {
+            return mType;
+        }
+
+        /**
+         * @return The number of measures, layouts, and draws of blocks of this type.
+         */
+        public int getCount() {
+            return mCount;
+        }
+
+        /**
+         * @return The self time of all measures, layouts, and draws, in nanoseconds.
+         */
+        public long getTotalNanos() {
+            return mTotalNanos;
+        }
+
+        /**
+         * @return The longest self time of a single measure, layout, or draw, in nanoseconds.
+         */
+        public long getMaxNanos() {
+            return mMaxNanos;
+        }
+
+        /**
+         * @return The average self time of a measure, layout, or draw, in nanoseconds.
+         */
+        public long getAverageNanos() {
+            return mCount == 0 ? 0 : mTotalNanos / mCount;
+        }
+    }
+}
@@ -343,8 +343,7 @@ public class VirtualWorkspaceView extends NonPropagatingViewGroup {
         }
 
         // Shift the wrapped view's position to follow scrolling along. The scrolling of view
-        // content is controlled by setTranslationX() and setTranslationY() in this.scrollTo()
-        // below.
+        // content is controlled by scrolling the wrapped view in this.scrollTo() below.
         final int offsetX = getScrollX();
         final int offsetY = getScrollY();
         mWorkspaceView.layout((offsetX), (offsetY),
@@ -409,14 +408,19 @@ public class VirtualWorkspaceView extends NonPropagatingViewGroup {
         // Update and show scroll bars.
         super.scrollTo(x, y);
 
-        // Set view offset in the virtual workspace and request layout of the WorkspaceView with the
-        // new offset. The view offset is the location of the top-left pixel displayed in this view
-        // in virtual workspace coordinates, regardless of RTL vs. LTR mode.
-        mWorkspaceView.getWorkspaceHelper()
-                .setVirtualWorkspaceViewOffset(
-                        (int) (x / mViewScale), /* virtual coords. */
-                        (int) (y / mViewScale));
-        mWorkspaceView.requestLayout();
+        // Set view offset in the virtual workspace. The view offset is the location of the top-left
+        // pixel displayed in this view in virtual workspace coordinates, regardless of RTL vs. LTR
+        // mode.
+        int offsetX = (int) (x / mViewScale);  /* virtual coords. */
+        int offsetY = (int) (y / mViewScale);
+        mWorkspaceView.getWorkspaceHelper().setVirtualWorkspaceViewOffset(offsetX, offsetY);
+
+        // Pan without a layout pass. The WorkspaceView is moved to follow the scroll position, as
+        // in onLayout(), and its content is scrolled by the view offset. Block groups are laid out
+        // without the offset, so they do not need to be measured or laid out again.
+        mWorkspaceView.offsetLeftAndRight(x - mWorkspaceView.getLeft());
+        mWorkspaceView.offsetTopAndBottom(y - mWorkspaceView.getTop());
+        mWorkspaceView.scrollTo(offsetX, offsetY);
     }
 
     /**
@@ -655,6 +659,11 @@ public class VirtualWorkspaceView extends NonPropagatingViewGroup {
 
             mWorkspaceView.setScaleX(mViewScale);
             mWorkspaceView.setScaleY(mViewScale);
+            if (mViewScale != oldViewScale) {
+                // The size of the WorkspaceView depends on the scale. Panning alone does not
+                // require a layout pass.
+                mWorkspaceView.requestLayout();
+            }
 
             // Compute scroll offsets based on difference between original and new scaling factor
             // and the focus point where the gesture started. This makes sure that the scroll offset
@@ -81,6 +81,7 @@ public class WorkspaceHelper {
     private BlockViewFactory mViewFactory;
     private float mDensity;
     private boolean mRtl;
+    private RenderingProfiler mRenderingProfiler = null;
 
     /**
      * Create a helper for creating and doing calculations for views in the workspace.
@@ -164,6 +165,25 @@ public class WorkspaceHelper {
         return null;
     }
 
+    /**
+     * Sets the profiler that records the rendering times of the workspace and its blocks. Off by
+     * default.
+     *
+     * @param profiler The profiler to record to, or null to stop profiling.
+     */
+    public void setRenderingProfiler(@Nullable RenderingProfiler profiler) {
+        mRenderingProfiler = profiler;
+    }
+
+    /**
+     * @return The profiler that records the rendering times of the workspace and its blocks, or
+     *         null if rendering is not profiled.
+     */
+    @Nullable
+    public RenderingProfiler getRenderingProfiler() {
+        return mRenderingProfiler;
+    }
+
     /**
      * Set the offset of the virtual workspace view.
      * <p/>
@@ -309,6 +329,12 @@ public class WorkspaceHelper {
             throw new IllegalStateException(
                     "No WorkspaceView or RecyclerView found among view's parents.");
         }
+        if (viewParent instanceof WorkspaceView) {
+            // Root block groups are positioned without the virtual view offset, which is applied
+            // by scrolling the WorkspaceView.
+            leftRelativeToWorkspace -= ((View) viewParent).getScrollX();
+            topRelativeToWorkspace -= ((View) viewParent).getScrollY();
+        }
 
         viewPosition.x = leftRelativeToWorkspace;
         viewPosition.y = topRelativeToWorkspace;
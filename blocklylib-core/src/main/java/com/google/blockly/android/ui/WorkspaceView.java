@@ -16,24 +16,58 @@
 package com.google.blockly.android.ui;
 
 import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
 import android.graphics.Rect;
 import android.support.annotation.NonNull;
 import android.util.AttributeSet;
 import android.view.View;
 import android.view.ViewConfiguration;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.view.ViewTreeObserver;
 
 import com.google.blockly.android.control.BlocklyController;
+import com.google.blockly.model.Block;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Handles updating the viewport into the workspace and is the parent view for all blocks. This view
  * is responsible for handling drags. A drag on the workspace will move the viewport and a drag on a
  * block or stack of blocks will drag those within the workspace.
+ * <p/>
+ * The bounds of the root {@link BlockGroup}s are kept in a spatial index, which is only updated for
+ * groups that were added, or that requested a layout because their blocks changed or moved. After
+ * moving a root block with {@link Block#setPosition}, request a layout of its group. With
+ * visibility culling (see {@link #setVisibilityCullingEnabled(boolean)}), only the groups near the
+ * viewport are laid out and drawn. Other groups stay attached as invisible children.
+ * <p/>
+ * Idle block groups can also be rendered into hardware layers, so panning and zooming does not
+ * redraw every block. See {@link #setBlockLayerCacheBudget(long)}.
+ * <p/>
+ * When zoomed out below the level of detail scale, blocks are drawn as simplified coloured shapes
+ * without their fields. See {@link #setLevelOfDetailScale(float)}.
+ * <p/>
+ * The rendering times of this view and its blocks can be profiled with a
+ * {@link RenderingProfiler}, and shown in an overlay. See
+ * {@link #setRenderingProfilerOverlayEnabled(boolean)}.
  */
 public class WorkspaceView extends NonPropagatingViewGroup {
     private static final String TAG = "WorkspaceView";
 
     public static final String BLOCK_GROUP_CLIP_DATA_LABEL = "BlockGroupClipData";
 
+    private static final int DEFAULT_CULLING_MARGIN_DP = 256;
+    private static final int PROFILER_OVERLAY_TEXT_SIZE_DP = 12;
+    private static final int PROFILER_OVERLAY_BACKGROUND_COLOR = 0xA0000000;
+    private static final int PROFILER_OVERLAY_SLOWEST_TYPES = 3;
+    private static final String[] PROFILER_PHASE_NAMES = {"Measure", "Layout", "Draw"};
+
     private final ViewPoint mTemp = new ViewPoint();
     // Distance threshold for detecting drag gestures.
     private final float mTouchSlop;
@@ -41,6 +75,65 @@ public class WorkspaceView extends NonPropagatingViewGroup {
     // are used to determine ranges and offsets for scrolling.
     private final Rect mBlocksBoundingBox = new Rect();
 
+    // Bounds of the root block groups, in view coordinates without scroll offset. Maintains
+    // mBlocksBoundingBox and finds the groups near the viewport when culling.
+    private final BlockBoundsIndex<BlockGroup> mBoundsIndex = new BlockBoundsIndex<>();
+    // Groups added or changed since the last measure pass, whose bounds need to be updated.
+    private final Set<BlockGroup> mChangedGroups = new HashSet<>();
+    private final List<BlockGroup> mTempChangedGroups = new ArrayList<>();
+    private OnHierarchyChangeListener mOnHierarchyChangeListener = null;
+
+    // Visibility culling state.
+    private Set<BlockGroup> mShownGroups = new HashSet<>();
+    private Set<BlockGroup> mPreviouslyShownGroups = new HashSet<>();
+    // Groups hidden because they are outside of the viewport.
+    private final Set<BlockGroup> mHiddenGroups = new HashSet<>();
+    private final Rect mViewport = new Rect();
+    private boolean mVisibilityCulling = false;
+    private int mCullingMargin;
+
+    // Layer caching of idle block groups. Null when disabled.
+    private BlockGroupLayerCache mLayerCache = null;
+    private int mLayerCacheIdleFrames = BlockGroupLayerCache.DEFAULT_IDLE_FRAMES;
+    private final Set<BlockGroup> mVisibleGroups = new HashSet<>();
+    private final Rect mVisibleRect = new Rect();
+    private final ViewTreeObserver.OnPreDrawListener mPreDrawListener =
+            new ViewTreeObserver.OnPreDrawListener() {
+                @Override
+                public boolean onPreDraw() {
+                    if (mLayerCache != null && !isDrawingLevelOfDetail()) {
+                        updateLayerCache();
+                    }
+                    RenderingProfiler profiler = getRenderingProfiler();
+                    if (profiler != null && profiler.onPreDraw() && mProfilerOverlayEnabled
+                            && profiler.getLastFrame().getCount(RenderingProfiler.VIEW_WORKSPACE,
+                                    RenderingProfiler.PHASE_DRAW) == 0) {
+                        // Blocks were redrawn without this view, so the overlay is out of date.
+                        invalidate();
+                    }
+                    return true;
+                }
+            };
+
+    // Level of detail rendering. Disabled while zero.
+    private float mLevelOfDetailScale = 0f;
+    private final Paint mLevelOfDetailPaint = new Paint();
+
+    // Rendering profiler overlay.
+    private boolean mProfilerOverlayEnabled = false;
+    private final Paint mProfilerTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mProfilerBackgroundPaint = new Paint();
+    private final Paint.FontMetrics mProfilerFontMetrics = new Paint.FontMetrics();
+    // Text of the overlay, only rebuilt when the profiler completes a frame, in reused buffers.
+    private final StringBuilder[] mProfilerLines =
+            new StringBuilder[1 + PROFILER_PHASE_NAMES.length + PROFILER_OVERLAY_SLOWEST_TYPES];
+    private final List<RenderingProfiler.BlockTypeStats> mProfilerSlowestTypes =
+            new ArrayList<>();
+    private int mProfilerLineCount = 0;
+    private float mProfilerLinesWidth = 0;
+    private RenderingProfiler mProfilerLinesSource = null;
+    private long mProfilerLinesFrameCount = -1;
+
     private BlocklyController mController = null;
     private WorkspaceHelper mHelper = null;
     private Dragger mDragger;
@@ -57,37 +150,93 @@ public class WorkspaceView extends NonPropagatingViewGroup {
         super(context, attrs, defStyleAttr);
         float touchSlop = ViewConfiguration.get(context).getScaledTouchSlop();
         mTouchSlop = touchSlop;
+        float density = context.getResources().getDisplayMetrics().density;
+        mCullingMargin = (int) (DEFAULT_CULLING_MARGIN_DP * density);
+        mProfilerTextPaint.setColor(Color.WHITE);
+        mProfilerTextPaint.setTextSize(PROFILER_OVERLAY_TEXT_SIZE_DP * density);
+        mProfilerBackgroundPaint.setColor(PROFILER_OVERLAY_BACKGROUND_COLOR);
+        for (int i = 0; i < mProfilerLines.length; ++i) {
+            mProfilerLines[i] = new StringBuilder();
+        }
+        super.setOnHierarchyChangeListener(new OnHierarchyChangeListener() {
+            @Override
+            public void onChildViewAdded(View parent, View child) {
+                if (child instanceof BlockGroup) {
+                    mChangedGroups.add((BlockGroup) child);
+                }
+                if (mOnHierarchyChangeListener != null) {
+                    mOnHierarchyChangeListener.onChildViewAdded(parent, child);
+                }
+            }
+
+            @Override
+            public void onChildViewRemoved(View parent, View child) {
+                if (child instanceof BlockGroup) {
+                    onBlockGroupRemoved((BlockGroup) child);
+                }
+                if (mOnHierarchyChangeListener != null) {
+                    mOnHierarchyChangeListener.onChildViewRemoved(parent, child);
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets a listener for children being added or removed. The listener is called in addition to
+     * this view's own tracking of its block groups.
+     */
+    @Override
+    public void setOnHierarchyChangeListener(OnHierarchyChangeListener listener) {
+        mOnHierarchyChangeListener = listener;
     }
 
     @Override
     public void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        final RenderingProfiler profiler = getRenderingProfiler();
+        final long startNanos = (profiler == null) ? 0 : profiler.begin();
         int width = MeasureSpec.getSize(widthMeasureSpec);
         int height = MeasureSpec.getSize(heightMeasureSpec);
 
-        mBlocksBoundingBox.setEmpty();
-        int childCount = getChildCount();
-        for (int i = 0; i < childCount; i++) {
-            BlockGroup blockGroup = (BlockGroup) getChildAt(i);
-            blockGroup.measure(MeasureSpec.UNSPECIFIED, MeasureSpec.UNSPECIFIED);
-
-            // Determine this BlockGroup's bounds in view coordinates and extend boundaries
-            // accordingly. Do NOT use mHelper.workspaceToVirtualViewCoordinates below, since we
-            // want the bounding box independent of scroll offset.
-            mHelper.workspaceToVirtualViewDelta(blockGroup.getFirstBlockPosition(), mTemp);
-            if (mHelper.useRtl()) {
-                mTemp.x -= blockGroup.getMeasuredWidth();
-            }
+        // Only new or changed groups are measured. The bounds of all other groups are unchanged.
+        if (!mChangedGroups.isEmpty()) {
+            // Measuring a group may request another layout of it, for the next pass.
+            mTempChangedGroups.addAll(mChangedGroups);
+            mChangedGroups.clear();
+            for (int i = 0; i < mTempChangedGroups.size(); i++) {
+                BlockGroup blockGroup = mTempChangedGroups.get(i);
+                blockGroup.measure(MeasureSpec.UNSPECIFIED, MeasureSpec.UNSPECIFIED);
 
-            mBlocksBoundingBox.union(mTemp.x, mTemp.y,
-                    mTemp.x + blockGroup.getMeasuredWidth(),
-                    mTemp.y + blockGroup.getMeasuredHeight());
+                // Determine this BlockGroup's bounds in view coordinates and update the index,
+                // which maintains the bounding box. Do NOT use
+                // mHelper.workspaceToVirtualViewCoordinates below, since we want the bounding box
+                // independent of scroll offset.
+                mHelper.workspaceToVirtualViewDelta(blockGroup.getFirstBlockPosition(), mTemp);
+                if (mHelper.useRtl()) {
+                    mTemp.x -= blockGroup.getMeasuredWidth();
+                }
+                mBoundsIndex.update(blockGroup, mTemp.x, mTemp.y,
+                        mTemp.x + blockGroup.getMeasuredWidth(),
+                        mTemp.y + blockGroup.getMeasuredHeight());
+            }
+            mTempChangedGroups.clear();
+            mBoundsIndex.getUnion(mBlocksBoundingBox);
         }
 
         setMeasuredDimension(width, height);
+        if (profiler != null) {
+            profiler.end(RenderingProfiler.VIEW_WORKSPACE, RenderingProfiler.PHASE_MEASURE,
+                    startNanos);
+        }
     }
 
     @Override
     protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        final RenderingProfiler profiler = getRenderingProfiler();
+        final long startNanos = (profiler == null) ? 0 : profiler.begin();
+        if (mVisibilityCulling) {
+            queryShownGroups(r - l, b - t);
+        }
+
         int childCount = getChildCount();
 
         for (int i = 0; i < childCount; i++) {
@@ -97,19 +246,288 @@ public class WorkspaceView extends NonPropagatingViewGroup {
             }
             if (child instanceof BlockGroup) {
                 BlockGroup bg = (BlockGroup) child;
-
-                // Get view coordinates of child from its workspace coordinates. Note that unlike
-                // onMeasure() above, workspaceToVirtualViewCoordinates() must be used for
-                // conversion here, so view scroll offset is properly applied for positioning.
-                mHelper.workspaceToVirtualViewCoordinates(bg.getFirstBlockPosition(), mTemp);
-                if (mHelper.useRtl()) {
-                    mTemp.x -= bg.getMeasuredWidth();
+                if (mVisibilityCulling) {
+                    boolean shown = mShownGroups.contains(bg);
+                    setHiddenOffscreen(bg, !shown);
+                    // Hidden groups are laid out when they are shown again, unless their content
+                    // changed and their blocks need updated positions.
+                    if (!shown && !bg.isLayoutRequested()) {
+                        continue;
+                    }
                 }
+                layoutBlockGroup(bg);
+            }
+        }
+        if (isDrawingLevelOfDetail()) {
+            // The simplified shapes are drawn by this view, from the positions of its descendants.
+            invalidate();
+        }
+        if (profiler != null) {
+            profiler.end(RenderingProfiler.VIEW_WORKSPACE, RenderingProfiler.PHASE_LAYOUT,
+                    startNanos);
+        }
+    }
+
+    /**
+     * Shows and lays out the block groups scrolled into the viewport, and hides those scrolled out
+     * of it, when culling. Scrolling does not otherwise require a layout pass, since the block
+     * groups are positioned without the scroll offset.
+     */
+    @Override
+    protected void onScrollChanged(int l, int t, int oldl, int oldt) {
+        super.onScrollChanged(l, t, oldl, oldt);
+        if (!mVisibilityCulling || isLayoutRequested()) {
+            return;  // Any pending layout pass updates the shown groups.
+        }
+
+        Set<BlockGroup> previouslyShown = mShownGroups;
+        mShownGroups = mPreviouslyShownGroups;
+        mPreviouslyShownGroups = previouslyShown;
+        queryShownGroups(getWidth(), getHeight());
+
+        for (BlockGroup bg : mPreviouslyShownGroups) {
+            if (!mShownGroups.contains(bg)) {
+                setHiddenOffscreen(bg, true);
+            }
+        }
+        for (BlockGroup bg : mShownGroups) {
+            if (mHiddenGroups.contains(bg)) {
+                setHiddenOffscreen(bg, false);
+                // The group may have moved while hidden.
+                layoutBlockGroup(bg);
+            }
+        }
+        mPreviouslyShownGroups.clear();
+    }
+
+    /**
+     * Enables or disables visibility culling. When enabled, only the {@link BlockGroup}s that
+     * intersect the viewport, extended by the culling margin, are laid out and shown.
+     * <p/>
+     * Other groups are not detached. They remain children of this view as {@link View#INVISIBLE}
+     * views, so their blocks stay connected to the workspace. This only reduces the layout and draw
+     * cost of off-screen groups. Their views are still kept in memory, and are still visited by
+     * the framework wherever it iterates the children of this view.
+     * <p/>
+     * Recommended for large workspaces.
+     *
+     * @param enabled Whether to hide the block groups outside of the viewport. Off by default.
+     */
+    public void setVisibilityCullingEnabled(boolean enabled) {
+        if (enabled == mVisibilityCulling) {
+            return;
+        }
+        mVisibilityCulling = enabled;
+        if (!enabled) {
+            for (BlockGroup bg : mHiddenGroups) {
+                bg.setVisibility(VISIBLE);
+            }
+            mHiddenGroups.clear();
+            mShownGroups.clear();
+        }
+        requestLayout();
+    }
+
+    /**
+     * @return Whether only the block groups near the viewport are laid out and shown.
+     */
+    public boolean isVisibilityCullingEnabled() {
+        return mVisibilityCulling;
+    }
+
+    /**
+     * Sets how far outside of the viewport block groups are still laid out and shown with
+     * visibility culling, so they are ready to draw when scrolled into view.
+     *
+     * @param marginPx The margin around the viewport, in pixels of this view.
+     */
+    public void setVisibilityCullingMargin(int marginPx) {
+        if (marginPx < 0) {
+            throw new IllegalArgumentException("Margin must not be negative.");
+        }
+        mCullingMargin = marginPx;
+        if (mVisibilityCulling) {
+            requestLayout();
+        }
+    }
+
+    /**
+     * @return The number of block groups currently hidden because they are outside of the viewport.
+     */
+    public int getHiddenBlockGroupCount() {
+        return mHiddenGroups.size();
+    }
 
-                child.layout(mTemp.x, mTemp.y,
-                        mTemp.x + bg.getMeasuredWidth(), mTemp.y + bg.getMeasuredHeight());
+    /**
+     * Enables rendering of idle block groups into hardware layers (or bitmaps, without hardware
+     * acceleration). A visible group that has not been laid out or redrawn for a number of frames
+     * is drawn into a layer, and panning or zooming then only composites the layer. Any change to
+     * the group's blocks, including highlights, removes its layer until the group is idle again.
+     * <p/>
+     * Layers are not used while the workspace is zoomed in past unit scale, since they would be
+     * scaled up and blurry.
+     *
+     * @param budgetBytes The maximum estimated memory for all layers, removing the layers of the
+     *                    least recently visible groups when exceeded. Zero, the default, disables
+     *                    layer caching.
+     */
+    public void setBlockLayerCacheBudget(long budgetBytes) {
+        if (budgetBytes <= 0) {
+            if (mLayerCache != null) {
+                mLayerCache.clear();
+                mLayerCache = null;
             }
+        } else if (mLayerCache == null) {
+            mLayerCache = new BlockGroupLayerCache(budgetBytes);
+            mLayerCache.setIdleFrames(mLayerCacheIdleFrames);
+            invalidate();
+        } else {
+            mLayerCache.setBudget(budgetBytes);
+        }
+    }
+
+    /**
+     * @param idleFrames The number of frames a block group must be visible and unchanged before it
+     *                   is rendered into a layer. See {@link #setBlockLayerCacheBudget(long)}.
+     */
+    public void setBlockLayerCacheIdleFrames(int idleFrames) {
+        if (idleFrames < 1) {
+            throw new IllegalArgumentException("Idle frames must be positive.");
+        }
+        mLayerCacheIdleFrames = idleFrames;
+        if (mLayerCache != null) {
+            mLayerCache.setIdleFrames(idleFrames);
+        }
+    }
+
+    /**
+     * @return The estimated memory used by block group layers, in bytes.
+     */
+    public long getBlockLayerCacheSize() {
+        return mLayerCache == null ? 0 : mLayerCache.getUsedBytes();
+    }
+
+    /**
+     * Sets the scale below which blocks are drawn as simplified shapes. Each block is drawn as a
+     * rectangle of its bounds in the block's colour, and fields, text, and block backgrounds are
+     * not drawn at all. This keeps frame times low when zoomed out on large workspaces, where the
+     * fields are too small to read. Touch handling is unchanged.
+     *
+     * @param scale The scale of this view below which to draw simplified blocks. Zero, the
+     *              default, disables level of detail rendering.
+     */
+    public void setLevelOfDetailScale(float scale) {
+        if (scale < 0) {
+            throw new IllegalArgumentException("Scale must not be negative.");
         }
+        mLevelOfDetailScale = scale;
+        invalidate();
+    }
+
+    /**
+     * @return The scale below which blocks are drawn as simplified shapes.
+     */
+    public float getLevelOfDetailScale() {
+        return mLevelOfDetailScale;
+    }
+
+    /**
+     * @return Whether blocks are currently drawn as simplified shapes.
+     */
+    public boolean isDrawingLevelOfDetail() {
+        return getScaleX() < mLevelOfDetailScale;
+    }
+
+    @Override
+    public void setScaleX(float scaleX) {
+        boolean wasDrawingLevelOfDetail = isDrawingLevelOfDetail();
+        super.setScaleX(scaleX);
+        if (wasDrawingLevelOfDetail != isDrawingLevelOfDetail()) {
+            // Changing the scale alone does not redraw this view's content.
+            invalidate();
+        }
+    }
+
+    @Override
+    public ViewParent invalidateChildInParent(int[] location, Rect dirty) {
+        if (isDrawingLevelOfDetail()) {
+            // A changed block is redrawn by this view, not by its own view.
+            invalidate();
+        }
+        return super.invalidateChildInParent(location, dirty);
+    }
+
+    /**
+     * Starting with Android O, hardware accelerated invalidations of descendants are passed up
+     * through this method instead of {@link #invalidateChildInParent}. It is not available to
+     * call as super while compiling against SDK 25, so this view is invalidated instead, which
+     * marks this view dirty and passes the invalidation up just like the super implementation,
+     * but also redraws this view's own content. That is required anyway while drawing the level
+     * of detail shapes.
+     */
+    // @Override (API 26)
+    public void onDescendantInvalidated(View child, View target) {
+        invalidate();
+    }
+
+    @Override
+    protected void dispatchDraw(Canvas canvas) {
+        final RenderingProfiler profiler = getRenderingProfiler();
+        final long startNanos = (profiler == null) ? 0 : profiler.begin();
+        if (!isDrawingLevelOfDetail()) {
+            super.dispatchDraw(canvas);
+        } else {
+            // Only the groups in the index that intersect the visible region are drawn. The canvas
+            // is already translated by the scroll offset.
+            queryVisibleGroups();
+            for (BlockGroup bg : mVisibleGroups) {
+                if (bg.getVisibility() == VISIBLE) {
+                    drawLevelOfDetail(canvas, bg);
+                }
+            }
+        }
+        if (profiler != null) {
+            profiler.end(RenderingProfiler.VIEW_WORKSPACE, RenderingProfiler.PHASE_DRAW,
+                    startNanos);
+            if (mProfilerOverlayEnabled) {
+                drawProfilerOverlay(canvas, profiler);
+            }
+        }
+    }
+
+    /**
+     * Shows the statistics of the last frame recorded by the {@link RenderingProfiler} of the
+     * workspace helper, and the slowest block types, over the top-left corner of this view. The
+     * overlay is only drawn while a profiler is set with
+     * {@link WorkspaceHelper#setRenderingProfiler}, and its own drawing is not profiled.
+     *
+     * @param enabled Whether to show the overlay. Off by default.
+     */
+    public void setRenderingProfilerOverlayEnabled(boolean enabled) {
+        mProfilerOverlayEnabled = enabled;
+        invalidate();
+    }
+
+    /**
+     * @return Whether the rendering profiler overlay is shown.
+     */
+    public boolean isRenderingProfilerOverlayEnabled() {
+        return mProfilerOverlayEnabled;
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        getViewTreeObserver().addOnPreDrawListener(mPreDrawListener);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        getViewTreeObserver().removeOnPreDrawListener(mPreDrawListener);
+        if (mLayerCache != null) {
+            mLayerCache.clear();
+        }
+        super.onDetachedFromWindow();
     }
 
     /**
@@ -151,4 +569,227 @@ public class WorkspaceView extends NonPropagatingViewGroup {
         outRect.set(mBlocksBoundingBox);
         return outRect;
     }
+
+    /**
+     * Positions a block group from its workspace coordinates. Unlike the virtual view coordinates
+     * used elsewhere, the position does not include the virtual view offset, which is applied by
+     * scrolling this view. See {@link VirtualWorkspaceView#scrollTo(int, int)}.
+     */
+    private void layoutBlockGroup(BlockGroup bg) {
+        mHelper.workspaceToVirtualViewDelta(bg.getFirstBlockPosition(), mTemp);
+        if (mHelper.useRtl()) {
+            mTemp.x -= bg.getMeasuredWidth();
+        }
+        bg.layout(mTemp.x, mTemp.y,
+                mTemp.x + bg.getMeasuredWidth(), mTemp.y + bg.getMeasuredHeight());
+    }
+
+    /**
+     * Finds the block groups that intersect the viewport, extended by the culling margin.
+     */
+    private void queryShownGroups(int width, int height) {
+        // The viewport is the scrolled region of this view, in the coordinates of the index.
+        int scrollX = getScrollX();
+        int scrollY = getScrollY();
+        mViewport.set(scrollX - mCullingMargin, scrollY - mCullingMargin,
+                scrollX + width + mCullingMargin, scrollY + height + mCullingMargin);
+        mShownGroups.clear();
+        mBoundsIndex.query(mViewport, mShownGroups);
+    }
+
+    /**
+     * Called by a root block group when it requests a layout, because its blocks changed or its
+     * root block moved, so its bounds are updated in the next measure pass.
+     */
+    void onBlockGroupLayoutRequested(BlockGroup bg) {
+        mChangedGroups.add(bg);
+    }
+
+    /**
+     * Removes a block group from the bounds index, so the bounding box is updated without waiting
+     * for the next measure pass. The group may be added back later, such as from the trash, so it
+     * is also shown if it was hidden.
+     */
+    private void onBlockGroupRemoved(BlockGroup bg) {
+        if (mBoundsIndex.remove(bg)) {
+            mBoundsIndex.getUnion(mBlocksBoundingBox);
+        }
+        mShownGroups.remove(bg);
+        mChangedGroups.remove(bg);
+        setHiddenOffscreen(bg, false);
+        if (mLayerCache != null) {
+            mLayerCache.remove(bg);
+        }
+    }
+
+    /**
+     * Passes the block groups visible in the next frame to the layer cache.
+     */
+    private void updateLayerCache() {
+        if (getScaleX() > 1f) {
+            mLayerCache.clear();
+            return;
+        }
+        queryVisibleGroups();
+        mLayerCache.onPreDraw(mVisibleGroups);
+    }
+
+    /**
+     * Finds the block groups that intersect the visible region of this view.
+     */
+    private void queryVisibleGroups() {
+        int scrollX = getScrollX();
+        int scrollY = getScrollY();
+        mVisibleRect.set(scrollX, scrollY, scrollX + getWidth(), scrollY + getHeight());
+        mVisibleGroups.clear();
+        mBoundsIndex.query(mVisibleRect, mVisibleGroups);
+    }
+
+    private RenderingProfiler getRenderingProfiler() {
+        return (mHelper == null) ? null : mHelper.getRenderingProfiler();
+    }
+
+    /**
+     * Draws the profiler statistics in the top-left corner of the visible region, in unscaled
+     * pixels.
+     */
+    private void drawProfilerOverlay(Canvas canvas, RenderingProfiler profiler) {
+        if (profiler != mProfilerLinesSource
+                || profiler.getFrameCount() != mProfilerLinesFrameCount) {
+            updateProfilerLines(profiler);
+        }
+
+        Paint.FontMetrics metrics = mProfilerFontMetrics;
+        mProfilerTextPaint.getFontMetrics(metrics);
+        float lineHeight = metrics.descent - metrics.ascent;
+        float padding = lineHeight / 4;
+
+        int saveCount = canvas.save();
+        // Undo the scroll offset and the scale of this view, so the overlay stays in place.
+        canvas.translate(getScrollX(), getScrollY());
+        canvas.scale(1 / getScaleX(), 1 / getScaleY());
+        canvas.drawRect(0, 0, mProfilerLinesWidth + 2 * padding,
+                mProfilerLineCount * lineHeight + 2 * padding, mProfilerBackgroundPaint);
+        for (int i = 0; i < mProfilerLineCount; ++i) {
+            StringBuilder line = mProfilerLines[i];
+            canvas.drawText(line, 0, line.length(), padding,
+                    padding + i * lineHeight - metrics.ascent, mProfilerTextPaint);
+        }
+        canvas.restoreToCount(saveCount);
+    }
+
+    /**
+     * Rebuilds the text of the profiler overlay from the last frame of the profiler, reusing the
+     * line buffers.
+     */
+    private void updateProfilerLines(RenderingProfiler profiler) {
+        mProfilerLinesSource = profiler;
+        mProfilerLinesFrameCount = profiler.getFrameCount();
+        RenderingProfiler.FrameStats frame = profiler.getLastFrame();
+
+        StringBuilder line = mProfilerLines[0];
+        line.setLength(0);
+        line.append("Frame ");
+        appendDecimal(line, frame.getTotalNanos() / 1e6, 2);
+        line.append(" ms, ").append(profiler.getJankFrameCount()).append(" of ")
+                .append(profiler.getFrameCount()).append(" janky");
+        int count = 1;
+        for (int phase = 0; phase < PROFILER_PHASE_NAMES.length; ++phase) {
+            line = mProfilerLines[count++];
+            line.setLength(0);
+            line.append(PROFILER_PHASE_NAMES[phase]).append(' ');
+            appendDecimal(line, frame.getPhaseNanos(phase) / 1e6, 2);
+            line.append(" ms: ")
+                    .append(frame.getCount(RenderingProfiler.VIEW_BLOCK_GROUP, phase))
+                    .append(" groups, ")
+                    .append(frame.getCount(RenderingProfiler.VIEW_BLOCK, phase))
+                    .append(" blocks");
+        }
+        profiler.getSlowestBlockTypes(PROFILER_OVERLAY_SLOWEST_TYPES, mProfilerSlowestTypes);
+        for (int i = 0; i < mProfilerSlowestTypes.size(); ++i) {
+            RenderingProfiler.BlockTypeStats stats = mProfilerSlowestTypes.get(i);
+            line = mProfilerLines[count++];
+            line.setLength(0);
+            line.append(stats.getType()).append(' ');
+            appendDecimal(line, stats.getAverageNanos() / 1e3, 1);
+            line.append(" us avg, ");
+            appendDecimal(line, stats.getMaxNanos() / 1e3, 1);
+            line.append(" us max");
+        }
+        mProfilerLineCount = count;
+
+        mProfilerLinesWidth = 0;
+        for (int i = 0; i < count; ++i) {
+            line = mProfilerLines[i];
+            mProfilerLinesWidth = Math.max(mProfilerLinesWidth,
+                    mProfilerTextPaint.measureText(line, 0, line.length()));
+        }
+    }
+
+    /**
+     * Appends a non-negative value with a fixed number of decimals, like
+     * {@code String.format("%.2f")} but without allocating.
+     */
+    private static void appendDecimal(StringBuilder out, double value, int decimals) {
+        long scale = 1;
+        for (int i = 0; i < decimals; ++i) {
+            scale *= 10;
+        }
+        long scaled = Math.round(value * scale);
+        out.append(scaled / scale);
+        if (decimals > 0) {
+            long fraction = scaled % scale;
+            out.append('.');
+            for (long digit = scale / 10; digit > 1 && digit > fraction; digit /= 10) {
+                out.append('0');
+            }
+            out.append(fraction);
+        }
+    }
+
+    /**
+     * Draws the blocks in a view as rectangles of their colour, recursing through the input views
+     * and block groups of the blocks, but skipping all other views, such as fields.
+     *
+     * @param canvas The canvas, in the coordinates of the view's parent.
+     * @param view A {@link BlockGroup}, {@link BlockView}, or {@link InputView}.
+     */
+    private void drawLevelOfDetail(Canvas canvas, View view) {
+        int saveCount = canvas.save();
+        canvas.translate(view.getLeft(), view.getTop());
+        if (view instanceof BlockView) {
+            Block block = ((BlockView) view).getBlock();
+            if (block != null) {
+                mLevelOfDetailPaint.setColor(block.getColor());
+                canvas.drawRect(0, 0, view.getWidth(), view.getHeight(), mLevelOfDetailPaint);
+            }
+        }
+        if (view instanceof ViewGroup) {
+            ViewGroup group = (ViewGroup) view;
+            int childCount = group.getChildCount();
+            for (int i = 0; i < childCount; i++) {
+                View child = group.getChildAt(i);
+                if (child.getVisibility() == VISIBLE && (child instanceof BlockGroup
+                        || child instanceof BlockView || child instanceof InputView)) {
+                    drawLevelOfDetail(canvas, child);
+                }
+            }
+        }
+        canvas.restoreToCount(saveCount);
+    }
+
+    /**
+     * Hides or shows a block group outside of the viewport. Groups hidden for another reason, such
+     * as while being dragged, are left alone.
+     */
+    private void setHiddenOffscreen(BlockGroup bg, boolean hidden) {
+        if (hidden) {
+            if (bg.getVisibility() == VISIBLE) {
+                mHiddenGroups.add(bg);
+                bg.setVisibility(INVISIBLE);
+            }
+        } else if (mHiddenGroups.remove(bg)) {
+            bg.setVisibility(VISIBLE);
+        }
+    }
 }
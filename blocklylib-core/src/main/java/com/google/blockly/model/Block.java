@@ -26,6 +26,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Base class for a Blockly Block.
@@ -62,6 +63,12 @@ public class Block {
     // Keep track of whether inputsInline has ever been changed.
     private boolean mInputsInlineModified = false;
 
+    /** Incremented whenever the block's own state changes. See {@link #getContentVersion()}. */
+    private int mContentVersion = 0;
+    /** Source of unique tree versions, shared by all blocks. See {@link #getTreeVersion()}. */
+    private static final AtomicInteger TREE_VERSIONS = new AtomicInteger();
+    private int mTreeVersion = TREE_VERSIONS.incrementAndGet();
+
     /** Position of the block in the workspace. Only serialized for the root block. */
     private WorkspacePoint mPosition;
 
@@ -256,7 +263,10 @@ public class Block {
      * @param disabled
      */
     public void setDisabled(boolean disabled) {
-        mDisabled = disabled;
+        if (mDisabled != disabled) {
+            mDisabled = disabled;
+            onContentChanged();
+        }
     }
 
     /**
@@ -275,7 +285,10 @@ public class Block {
      * @param collapsed Whether the block should be collapsed.
      */
     public void setCollapsed(boolean collapsed) {
-        mCollapsed = collapsed;
+        if (mCollapsed != collapsed) {
+            mCollapsed = collapsed;
+            onContentChanged();
+        }
     }
 
     /**
@@ -349,7 +362,10 @@ public class Block {
      * @param comment The text of the comment.
      */
     public void setComment(String comment) {
-        mComment = comment;
+        if (!TextUtils.equals(mComment, comment)) {
+            mComment = comment;
+            onContentChanged();
+        }
     }
 
     /**
@@ -385,7 +401,62 @@ public class Block {
      */
     public void setInputsInline(boolean inputsInline) {
         mInputsInlineModified = true;
-        mInputsInline = inputsInline;
+        if (mInputsInline != inputsInline) {
+            mInputsInline = inputsInline;
+            onContentChanged();
+        }
+    }
+
+    /**
+     * Returns a counter that changes whenever this block's own state changes: its field values,
+     * comment, shadow state, disabled, collapsed and inline states, and which blocks are connected
+     * to its connections. It does not track the block's position or changes within the connected
+     * blocks. Used to detect changes without comparing the block's content.
+     *
+     * @return The current content version of this block.
+     */
+    public int getContentVersion() {
+        return mContentVersion;
+    }
+
+    /**
+     * Returns a version that changes whenever the content version of this block or of any block
+     * connected below it changes, including the blocks that follow it. Versions are unique across
+     * all blocks, so an unchanged version also means the same block instance. Used to skip
+     * unchanged subtrees without walking them.
+     *
+     * @return The current tree version of this block.
+     */
+    public int getTreeVersion() {
+        return mTreeVersion;
+    }
+
+    /**
+     * Increments the content version, and assigns a new tree version to this block and all of its
+     * ancestors.
+     */
+    private void onContentChanged() {
+        ++mContentVersion;
+        int treeVersion = TREE_VERSIONS.incrementAndGet();
+        Block block = this;
+        while (block != null) {
+            block.mTreeVersion = treeVersion;
+            block = block.getParentBlock();
+        }
+    }
+
+    /**
+     * Called by the block's fields when their value changes.
+     */
+    void onFieldValueChanged() {
+        onContentChanged();
+    }
+
+    /**
+     * Called by the block's connections when they are connected or disconnected.
+     */
+    void onConnectionChanged() {
+        onContentChanged();
     }
 
     /**
@@ -709,6 +780,7 @@ public class Block {
 
         // State change is valid. Proceed.
         mIsShadow = isShadow;
+        onContentChanged();
     }
 
     /**
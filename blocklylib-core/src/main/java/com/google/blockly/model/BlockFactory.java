@@ -150,6 +150,19 @@ public class BlockFactory {
         return block;
     }
 
+    /**
+     * Looks up a block previously created by this factory, via {@link #obtainBlock}.  The block may
+     * or may not be part of a workspace.
+     *
+     * @param uuid The id of the block.
+     * @return The block with the given id, or null if it was never created or no longer exists.
+     */
+    @Nullable
+    public Block getBlock(String uuid) {
+        WeakReference<Block> ref = mBlockRefs.get(uuid);
+        return (ref == null) ? null : ref.get();
+    }
+
     /**
      * @return The list of known blocks that can be created.
      */
@@ -680,6 +693,16 @@ public class BlockFactory {
         mBlockRefs.clear();
     }
 
+    /**
+     * Removes the reference to a previous block, so that a new block can be created with its id.
+     * The previous block must no longer be part of a workspace.
+     *
+     * @param uuid The id of the block.
+     */
+    public void clearPriorBlockReference(String uuid) {
+        mBlockRefs.remove(uuid);
+    }
+
     /** @return Number of blocks added to the factory. */
     private int loadBlocks(InputStream blockIs) throws IOException {
         int blockAddedCount = 0;
@@ -0,0 +1,475 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.model;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable copy of a {@link Block} and its descendants, as part of a {@link WorkspaceSnapshot}.
+ * Unchanged subtrees are shared between successive snapshots, so snapshots can be compared by
+ * identity to find what changed. Safe to read from any thread.
+ * <p/>
+ * Snapshots can also be assembled with a {@link Builder}, without a {@link BlockFactory} or live
+ * blocks, such as to test code generators on the JVM.
+ */
+public final class BlockSnapshot {
+    private static final String[] EMPTY_STRINGS = new String[0];
+    private static final BlockSnapshot[] EMPTY_CHILDREN = new BlockSnapshot[0];
+
+    private final String mId;
+    private final String mType;
+    private final int mContentVersion;
+    private final int mTreeVersion;
+    private final boolean mIsShadow;
+    private final boolean mDisabled;
+    private final boolean mCollapsed;
+    private final boolean mInputsInline;
+    private final String mComment;
+    private final boolean mIsRoot;
+    private final float mX;
+    private final float mY;
+
+    // Named fields, in order.
+    private final String[] mFieldNames;
+    private final String[] mFieldValues;
+    // One entry per input with a connection, in order. Entries may be null.
+    private final String[] mInputNames;
+    private final BlockSnapshot[] mInputBlocks;
+    private final BlockSnapshot mNext;
+
+    private BlockSnapshot(Block block, boolean isRoot, BlockSnapshot[] inputBlocks,
+                          @Nullable BlockSnapshot next) {
+        mId = block.getId();
+        mType = block.getType();
+        mContentVersion = block.getContentVersion();
+        mTreeVersion = block.getTreeVersion();
+        mIsShadow = block.isShadow();
+        mDisabled = block.isDisabledBlock();
+        mCollapsed = block.isCollapsed();
+        mInputsInline = block.getInputsInline();
+        mComment = block.getComment();
+        mIsRoot = isRoot;
+        mX = isRoot ? block.getPosition().x : 0;
+        mY = isRoot ? block.getPosition().y : 0;
+        mInputBlocks = inputBlocks;
+        mNext = next;
+
+        List<Input> inputs = block.getInputs();
+        ArrayList<String> fieldNames = null;
+        ArrayList<String> fieldValues = null;
+        String[] inputNames = (inputBlocks.length == 0) ? EMPTY_STRINGS
+                : new String[inputBlocks.length];
+        int connectionIndex = 0;
+        for (int i = 0; i < inputs.size(); ++i) {
+            Input input = inputs.get(i);
+            if (input.getConnection() != null) {
+                inputNames[connectionIndex++] = input.getName();
+            }
+            List<Field> fields = input.getFields();
+            for (int j = 0; j < fields.size(); ++j) {
+                Field field = fields.get(j);
+                if (field.getName() != null) {
+                    if (fieldNames == null) {
+                        fieldNames = new ArrayList<>();
+                        fieldValues = new ArrayList<>();
+                    }
+                    fieldNames.add(field.getName());
+                    fieldValues.add(field.getSerializedValue());
+                }
+            }
+        }
+        mInputNames = inputNames;
+        mFieldNames = (fieldNames == null) ? EMPTY_STRINGS
+                : fieldNames.toArray(new String[fieldNames.size()]);
+        mFieldValues = (fieldValues == null) ? EMPTY_STRINGS
+                : fieldValues.toArray(new String[fieldValues.size()]);
+    }
+
+    private BlockSnapshot(Builder builder) {
+        mId = builder.mId;
+        mType = builder.mType;
+        mContentVersion = 0;
+        mTreeVersion = 0;
+        mIsShadow = builder.mIsShadow;
+        mDisabled = builder.mDisabled;
+        mCollapsed = builder.mCollapsed;
+        mInputsInline = builder.mInputsInline;
+        mComment = builder.mComment;
+        mIsRoot = builder.mIsRoot;
+        mX = builder.mX;
+        mY = builder.mY;
+        mFieldNames = builder.mFieldNames.toArray(new String[builder.mFieldNames.size()]);
+        mFieldValues = builder.mFieldValues.toArray(new String[builder.mFieldValues.size()]);
+        mInputNames = builder.mInputNames.toArray(new String[builder.mInputNames.size()]);
+        mInputBlocks =
+                builder.mInputBlocks.toArray(new BlockSnapshot[builder.mInputBlocks.size()]);
+        mNext = builder.mNext;
+    }
+
+    /**
+     * Creates a snapshot of the block and its descendants, reusing the unchanged parts of a
+     * previous snapshot of the same block.
+     *
+     * @param block The block to snapshot.
+     * @param isRoot Whether the block is a root block, and its position should be kept.
+     * @param previous A previous snapshot of the block, or null.
+     * @return {@code previous} if the block and its descendants are unchanged. Otherwise, a new
+     *         snapshot sharing any unchanged descendants.
+     */
+    static BlockSnapshot update(Block block, boolean isRoot, @Nullable BlockSnapshot previous) {
+        if (previous != null && previous.mTreeVersion == block.getTreeVersion()) {
+            // Nothing changed in the block or below it, so its descendants are not visited.
+            if (isPlacementUnchanged(previous, block, isRoot)) {
+                return previous;
+            }
+            return new BlockSnapshot(block, isRoot, previous.mInputBlocks, previous.mNext);
+        }
+        if (previous != null && !previous.mId.equals(block.getId())) {
+            previous = null;
+        }
+
+        Block nextBlock = block.getNextBlock();
+        BlockSnapshot next = (nextBlock == null) ? null
+                : update(nextBlock, false, previous == null ? null : previous.mNext);
+
+        // Only allocates a new children array at the first changed child.
+        List<Input> inputs = block.getInputs();
+        int connectedCount = countConnectedInputs(inputs);
+        BlockSnapshot[] prevChildren = (previous == null
+                || previous.mInputBlocks.length != connectedCount) ? null : previous.mInputBlocks;
+        BlockSnapshot[] children = null;
+        int connectionIndex = 0;
+        for (int i = 0; i < inputs.size(); ++i) {
+            Input input = inputs.get(i);
+            if (input.getConnection() == null) {
+                continue;
+            }
+            BlockSnapshot prevChild = (prevChildren == null) ? null : prevChildren[connectionIndex];
+            Block childBlock = input.getConnectedBlock();
+            BlockSnapshot child = (childBlock == null) ? null
+                    : update(childBlock, false, prevChild);
+            if (children == null && (prevChildren == null || child != prevChild)) {
+                children = new BlockSnapshot[connectedCount];
+                if (prevChildren != null) {
+                    System.arraycopy(prevChildren, 0, children, 0, connectionIndex);
+                }
+            }
+            if (children != null) {
+                children[connectionIndex] = child;
+            }
+            ++connectionIndex;
+        }
+
+        if (children == null) {
+            // No connected inputs, or all children are unchanged.
+            if (prevChildren != null && next == previous.mNext
+                    && isUnchanged(previous, block, isRoot)) {
+                return previous;
+            }
+            children = (prevChildren != null) ? prevChildren : EMPTY_CHILDREN;
+        }
+        return new BlockSnapshot(block, isRoot, children, next);
+    }
+
+    /**
+     * @return Whether the block's own state matches the snapshot, ignoring connected blocks.
+     */
+    private static boolean isUnchanged(BlockSnapshot snapshot, Block block, boolean isRoot) {
+        return snapshot.mContentVersion == block.getContentVersion()
+                && isPlacementUnchanged(snapshot, block, isRoot);
+    }
+
+    /**
+     * @return Whether the block is still a root block at the same position, or still not a root
+     *         block, as in the snapshot.
+     */
+    private static boolean isPlacementUnchanged(BlockSnapshot snapshot, Block block,
+                                                boolean isRoot) {
+        if (snapshot.mIsRoot != isRoot) {
+            return false;
+        }
+        return !isRoot || (snapshot.mX == block.getPosition().x
+                && snapshot.mY == block.getPosition().y);
+    }
+
+    private static int countConnectedInputs(List<Input> inputs) {
+        int count = 0;
+        for (int i = 0; i < inputs.size(); ++i) {
+            if (inputs.get(i).getConnection() != null) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    public String getId() {
+        return mId;
+    }
+
+    public String getType() {
+        return mType;
+    }
+
+    /**
+     * @return The {@link Block#getContentVersion()} at the time of the snapshot.
+     */
+    public int getContentVersion() {
+        return mContentVersion;
+    }
+
+    /**
+     * @return The {@link Block#getTreeVersion()} at the time of the snapshot, or 0 if the snapshot
+     *         was built with a {@link Builder}.
+     */
+    public int getTreeVersion() {
+        return mTreeVersion;
+    }
+
+    public boolean isShadow() {
+        return mIsShadow;
+    }
+
+    /**
+     * @return Whether this block was disabled. Does not check ancestors.
+     */
+    public boolean isDisabledBlock() {
+        return mDisabled;
+    }
+
+    public boolean isCollapsed() {
+        return mCollapsed;
+    }
+
+    public boolean getInputsInline() {
+        return mInputsInline;
+    }
+
+    @Nullable
+    public String getComment() {
+        return mComment;
+    }
+
+    /**
+     * @return The workspace x position, if this is a root block. Otherwise 0.
+     */
+    public float getX() {
+        return mX;
+    }
+
+    /**
+     * @return The workspace y position, if this is a root block. Otherwise 0.
+     */
+    public float getY() {
+        return mY;
+    }
+
+    /**
+     * @return The number of named fields.
+     */
+    public int getFieldCount() {
+        return mFieldNames.length;
+    }
+
+    public String getFieldName(int index) {
+        return mFieldNames[index];
+    }
+
+    /**
+     * @return The serialized value of the field, as returned by {@link Field#getSerializedValue()}.
+     */
+    public String getFieldValue(int index) {
+        return mFieldValues[index];
+    }
+
+    /**
+     * @param fieldName The name of a field.
+     * @return The serialized value of the named field, or null if not found.
+     */
+    @Nullable
+    public String getFieldValue(String fieldName) {
+        for (int i = 0; i < mFieldNames.length; ++i) {
+            if (mFieldNames[i].equals(fieldName)) {
+                return mFieldValues[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The number of value and statement inputs.
+     */
+    public int getInputCount() {
+        return mInputBlocks.length;
+    }
+
+    public String getInputName(int index) {
+        return mInputNames[index];
+    }
+
+    /**
+     * @return The block connected to the value or statement input, or null if empty.
+     */
+    @Nullable
+    public BlockSnapshot getInputBlock(int index) {
+        return mInputBlocks[index];
+    }
+
+    /**
+     * @param inputName The name of a value or statement input.
+     * @return The block connected to the named input, or null if empty or not found.
+     */
+    @Nullable
+    public BlockSnapshot getInputBlock(String inputName) {
+        for (int i = 0; i < mInputNames.length; ++i) {
+            if (inputName.equals(mInputNames[i])) {
+                return mInputBlocks[i];
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    public BlockSnapshot getNextBlock() {
+        return mNext;
+    }
+
+    /**
+     * @param blockId The id of the block to find.
+     * @return This block or the descendant with the given id, or null if not found.
+     */
+    @Nullable
+    public BlockSnapshot findBlock(String blockId) {
+        if (mId.equals(blockId)) {
+            return this;
+        }
+        for (int i = 0; i < mInputBlocks.length; ++i) {
+            BlockSnapshot found = (mInputBlocks[i] == null) ? null
+                    : mInputBlocks[i].findBlock(blockId);
+            if (found != null) {
+                return found;
+            }
+        }
+        return (mNext == null) ? null : mNext.findBlock(blockId);
+    }
+
+    /**
+     * Builds a {@link BlockSnapshot} from its values rather than from a live {@link Block}. Built
+     * snapshots have a content and tree version of 0.
+     */
+    public static final class Builder {
+        private final String mId;
+        private final String mType;
+        private boolean mIsShadow = false;
+        private boolean mDisabled = false;
+        private boolean mCollapsed = false;
+        private boolean mInputsInline = false;
+        private String mComment = null;
+        private boolean mIsRoot = false;
+        private float mX = 0;
+        private float mY = 0;
+        private final ArrayList<String> mFieldNames = new ArrayList<>();
+        private final ArrayList<String> mFieldValues = new ArrayList<>();
+        private final ArrayList<String> mInputNames = new ArrayList<>();
+        private final ArrayList<BlockSnapshot> mInputBlocks = new ArrayList<>();
+        private BlockSnapshot mNext = null;
+
+        /**
+         * @param id The id of the block.
+         * @param type The type of the block.
+         */
+        public Builder(String id, String type) {
+            if (id == null || type == null) {
+                throw new IllegalArgumentException("Block id and type must not be null.");
+            }
+            mId = id;
+            mType = type;
+        }
+
+        public Builder setShadow(boolean isShadow) {
+            mIsShadow = isShadow;
+            return this;
+        }
+
+        public Builder setDisabled(boolean disabled) {
+            mDisabled = disabled;
+            return this;
+        }
+
+        public Builder setCollapsed(boolean collapsed) {
+            mCollapsed = collapsed;
+            return this;
+        }
+
+        public Builder setInputsInline(boolean inputsInline) {
+            mInputsInline = inputsInline;
+            return this;
+        }
+
+        public Builder setComment(@Nullable String comment) {
+            mComment = comment;
+            return this;
+        }
+
+        /**
+         * Makes the block a root block at the given workspace position.
+         */
+        public Builder setPosition(float x, float y) {
+            mIsRoot = true;
+            mX = x;
+            mY = y;
+            return this;
+        }
+
+        /**
+         * Adds a named field, after the fields already added.
+         *
+         * @param name The name of the field.
+         * @param value The serialized value, as returned by {@link Field#getSerializedValue()}.
+         */
+        public Builder addField(String name, String value) {
+            mFieldNames.add(name);
+            mFieldValues.add(value);
+            return this;
+        }
+
+        /**
+         * Adds a value or statement input, after the inputs already added.
+         *
+         * @param name The name of the input.
+         * @param block The block connected to the input, or null if empty.
+         */
+        public Builder addInput(String name, @Nullable BlockSnapshot block) {
+            mInputNames.add(name);
+            mInputBlocks.add(block);
+            return this;
+        }
+
+        /**
+         * @param next The block connected to the next connection, or null.
+         */
+        public Builder setNext(@Nullable BlockSnapshot next) {
+            mNext = next;
+            return this;
+        }
+
+        public BlockSnapshot build() {
+            return new BlockSnapshot(this);
+        }
+    }
+}
@@ -356,10 +356,16 @@ public class Connection implements Cloneable {
 
     private void connectInternal(Connection target) {
         mTargetConnection = target;
+        if (mBlock != null) {
+            mBlock.onConnectionChanged();
+        }
     }
 
     private void disconnectInternal() {
         mTargetConnection = null;
+        if (mBlock != null) {
+            mBlock.onConnectionChanged();
+        }
     }
 
     @VisibleForTesting
@@ -209,6 +209,9 @@ public abstract class Field extends Observable<Field.Observer> implements Clonea
     }
 
     protected void fireValueChanged(String oldText, String newText) {
+        if (mBlock != null) {
+            mBlock.onFieldValueChanged();
+        }
         for (int i = 0; i < mObservers.size(); i++) {
             mObservers.get(i).onValueChanged(this, oldText, newText);
         }
@@ -53,6 +53,7 @@ public class Workspace {
 
     private FlyoutCategory mFlyoutCategory;
     private FlyoutCategory mTrashCategory = new FlyoutCategory();
+    private WorkspaceSnapshot mSnapshot = null;
 
     /**
      * Create a workspace.
@@ -312,6 +313,19 @@ public class Workspace {
         BlocklyXmlHelper.writeToXml(mRootBlocks, os);
     }
 
+    /**
+     * Returns an immutable snapshot of the workspace's blocks, for use on other threads. Repeated
+     * calls return the same snapshot until the blocks change, and new snapshots share all
+     * unchanged block trees with the prior snapshot. Must be called on the thread that modifies
+     * the blocks (usually the main thread).
+     *
+     * @return A snapshot of the current blocks.
+     */
+    public WorkspaceSnapshot getSnapshot() {
+        mSnapshot = WorkspaceSnapshot.update(mRootBlocks, mSnapshot);
+        return mSnapshot;
+    }
+
     /**
      * Reset the workspace view when changing workspaces.  Removes old views and creates all
      * necessary new views.
@@ -0,0 +1,143 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.model;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, versioned copy of the blocks in a {@link Workspace}, from
+ * {@link Workspace#getSnapshot()}. Background consumers, such as code generation or linting, can
+ * read a snapshot from any thread while the UI continues to modify the live blocks.
+ * <p/>
+ * Each new snapshot shares the {@link BlockSnapshot}s of unchanged block trees with the previous
+ * snapshot, so creating one only copies the blocks that changed (and their ancestors). Unchanged
+ * trees are recognized by their {@link Block#getTreeVersion() tree version} without being walked.
+ */
+public final class WorkspaceSnapshot {
+    private static final WorkspaceSnapshot EMPTY =
+            new WorkspaceSnapshot(0, Collections.<BlockSnapshot>emptyList());
+
+    private final int mVersion;
+    private final List<BlockSnapshot> mRootBlocks;
+
+    private WorkspaceSnapshot(int version, List<BlockSnapshot> rootBlocks) {
+        mVersion = version;
+        mRootBlocks = rootBlocks;
+    }
+
+    /**
+     * Creates a snapshot of root blocks built with {@link BlockSnapshot.Builder}, without a
+     * {@link Workspace}. Its version is 0.
+     *
+     * @param rootBlocks The root blocks, each with a position.
+     */
+    public WorkspaceSnapshot(List<BlockSnapshot> rootBlocks) {
+        this(0, Collections.unmodifiableList(new ArrayList<>(rootBlocks)));
+    }
+
+    /**
+     * Creates a snapshot of the given root blocks.
+     *
+     * @param rootBlocks The root blocks of the workspace.
+     * @param previous The previous snapshot of the same workspace, or null.
+     * @return {@code previous} if nothing has changed. Otherwise, a new snapshot with the next
+     *         version, sharing all unchanged block trees with {@code previous}.
+     */
+    static WorkspaceSnapshot update(List<Block> rootBlocks, @Nullable WorkspaceSnapshot previous) {
+        if (previous == null) {
+            previous = EMPTY;
+        }
+        List<BlockSnapshot> prevRoots = previous.mRootBlocks;
+        int count = rootBlocks.size();
+        BlockSnapshot[] roots = null;
+        // Previous roots by id, only built once a root is not at its previous index.
+        Map<String, BlockSnapshot> prevRootsById = null;
+        for (int i = 0; i < count; ++i) {
+            Block block = rootBlocks.get(i);
+            String id = block.getId();
+            BlockSnapshot prevRoot = null;
+            if (i < prevRoots.size() && prevRoots.get(i).getId().equals(id)) {
+                prevRoot = prevRoots.get(i);
+            } else if (!prevRoots.isEmpty()) {
+                if (prevRootsById == null) {
+                    prevRootsById = indexById(prevRoots);
+                }
+                prevRoot = prevRootsById.get(id);
+            }
+            BlockSnapshot root = BlockSnapshot.update(block, true, prevRoot);
+            if (roots == null && (count != prevRoots.size() || root != prevRoots.get(i))) {
+                roots = new BlockSnapshot[count];
+                for (int j = 0; j < i; ++j) {
+                    roots[j] = prevRoots.get(j);
+                }
+            }
+            if (roots != null) {
+                roots[i] = root;
+            }
+        }
+        if (roots == null && count == prevRoots.size()) {
+            return previous;
+        }
+        List<BlockSnapshot> rootList = (roots == null) ? Collections.<BlockSnapshot>emptyList()
+                : Collections.unmodifiableList(Arrays.asList(roots));
+        return new WorkspaceSnapshot(previous.mVersion + 1, rootList);
+    }
+
+    private static Map<String, BlockSnapshot> indexById(List<BlockSnapshot> snapshots) {
+        Map<String, BlockSnapshot> byId = new HashMap<>(snapshots.size() * 2);
+        for (int i = 0; i < snapshots.size(); ++i) {
+            BlockSnapshot snapshot = snapshots.get(i);
+            byId.put(snapshot.getId(), snapshot);
+        }
+        return byId;
+    }
+
+    /**
+     * @return The version of this snapshot. Increases with every change to the workspace.
+     */
+    public int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return The root blocks, in the same order as {@link Workspace#getRootBlocks()}.
+     */
+    public List<BlockSnapshot> getRootBlocks() {
+        return mRootBlocks;
+    }
+
+    /**
+     * @param blockId The id of the block to find.
+     * @return The snapshot of the block with the given id, or null if not found.
+     */
+    @Nullable
+    public BlockSnapshot findBlock(String blockId) {
+        for (int i = 0; i < mRootBlocks.size(); ++i) {
+            BlockSnapshot found = mRootBlocks.get(i).findBlock(blockId);
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+}
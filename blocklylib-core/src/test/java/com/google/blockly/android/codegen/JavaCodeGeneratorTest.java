@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.blockly.android.codegen;
+
+import com.google.blockly.model.BlockSnapshot;
+import com.google.blockly.model.WorkspaceSnapshot;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * JVM unit tests for {@link JavaCodeGenerator}, using snapshots built without live blocks.
+ */
+public class JavaCodeGeneratorTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private JavaCodeGenerator mGenerator;
+
+    @Before
+    public void setUp() {
+        mGenerator = new JavaCodeGenerator();
+        mGenerator.addBlockGenerator("math_number", new JavaCodeGenerator.BlockGenerator() {
+            @Override
+            public String toCode(JavaCodeGenerator generator, BlockSnapshot block) {
+                return block.getFieldValue("NUM");
+            }
+        });
+        mGenerator.addBlockGenerator("print", new JavaCodeGenerator.BlockGenerator() {
+            @Override
+            public String toCode(JavaCodeGenerator generator, BlockSnapshot block) {
+                return "print(" + generator.valueToCode(block, "VALUE") + ");\n";
+            }
+        });
+        mGenerator.addBlockGenerator("loop", new JavaCodeGenerator.BlockGenerator() {
+            @Override
+            public String toCode(JavaCodeGenerator generator, BlockSnapshot block) {
+                return "{\n" + generator.statementToCode(block, "DO") + "}\n";
+            }
+        });
+    }
+
+    @Test
+    public void testNestedBlocks() {
+        BlockSnapshot second = print("second", null).build();
+        BlockSnapshot first = print("first", number("number", "42")).setNext(second).build();
+        BlockSnapshot loop = new BlockSnapshot.Builder("loop", "loop")
+                .addInput("DO", first)
+                .setPosition(0, 0)
+                .build();
+
+        assertThat(mGenerator.workspaceToCode(workspace(loop)))
+                .isEqualTo("{\n  print(42);\n  print();\n}\n");
+    }
+
+    @Test
+    public void testDisabledBlockSkipped() {
+        BlockSnapshot second = print("second", null).build();
+        BlockSnapshot first = print("first", null)
+                .setDisabled(true)
+                .setNext(second)
+                .setPosition(0, 0)
+                .build();
+
+        assertThat(mGenerator.workspaceToCode(workspace(first))).isEqualTo("print();\n");
+    }
+
+    @Test
+    public void testStacksInPositionOrder() {
+        // Listed in a different order than they appear on the workspace.
+        BlockSnapshot lower = print("lower", number("a", "3")).setPosition(0, 200).build();
+        BlockSnapshot upper = print("upper", number("b", "2")).setPosition(300, 0).build();
+        BlockSnapshot upperStart = print("upperStart", number("c", "1")).setPosition(0, 0).build();
+
+        assertThat(mGenerator.workspaceToCode(workspace(lower, upper, upperStart)))
+                .isEqualTo("print(1);\n\nprint(2);\n\nprint(3);\n");
+    }
+
+    @Test
+    public void testMissingGeneratorThrows() {
+        BlockSnapshot block = new BlockSnapshot.Builder("first", "unknown")
+                .setPosition(0, 0)
+                .build();
+        thrown.expect(IllegalStateException.class);
+        mGenerator.workspaceToCode(workspace(block));
+    }
+
+    @Test
+    public void testGenerateReportsErrorAsEmptyCode() {
+        BlockSnapshot block = new BlockSnapshot.Builder("first", "unknown")
+                .setPosition(0, 0)
+                .build();
+        final List<String> results = new ArrayList<>();
+        mGenerator.generate(workspace(block), new CodeGenerationRequest.CodeGeneratorCallback() {
+            @Override
+            public void onFinishCodeGeneration(String generatedCode) {
+                results.add(generatedCode);
+            }
+        });
+        assertThat(results).containsExactly("");
+    }
+
+    @Test
+    public void testIndent() {
+        mGenerator.setIndent("\t");
+        assertThat(mGenerator.indent("a\n\nb\n")).isEqualTo("\ta\n\n\tb\n");
+        assertThat(mGenerator.indent("")).isEqualTo("");
+    }
+
+    private static BlockSnapshot.Builder print(String id, BlockSnapshot value) {
+        return new BlockSnapshot.Builder(id, "print").addInput("VALUE", value);
+    }
+
+    private static BlockSnapshot number(String id, String value) {
+        return new BlockSnapshot.Builder(id, "math_number").addField("NUM", value).build();
+    }
+
+    private static WorkspaceSnapshot workspace(BlockSnapshot... roots) {
+        return new WorkspaceSnapshot(Arrays.asList(roots));
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.blockly.android.ui.vector;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.support.annotation.Nullable;
+import android.support.v4.content.ContextCompat;
+
+import com.google.blockly.android.control.ConnectionManager;
+import com.google.blockly.android.ui.BlockTouchHandler;
+import com.google.blockly.android.ui.ViewPoint;
+import com.google.blockly.android.ui.WorkspaceHelper;
+import com.google.blockly.android.ui.vertical.BlockView;
+import com.google.blockly.android.ui.vertical.InputView;
+import com.google.blockly.android.ui.vertical.PatchManager;
+import com.google.blockly.model.Block;
+import com.google.blockly.model.Input;
+
+import java.util.List;
+
+/**
+ * Draws a block as a single vector outline. The block is measured and laid out by the vertical
+ * {@link BlockView}, and the outline is traced from the same measures, so it is drawn with one
+ * fill and one stroke instead of several 9-patches and fill rects. Only the connectors and their
+ * highlight patches are placed by the vertical {@link BlockView}.
+ */
+@SuppressLint("ViewConstructor")
+public class VectorBlockView extends BlockView {
+    private static final float STROKE_VALUE_MULTIPLIER = 0.7f;
+
+    private final PatchManager mPatchManager;
+
+    // Connector shapes.
+    private final int mNotchOffset;
+    private final int mNotchWidth;
+    private final int mNotchDepth;
+    private final int mTabOffset;
+    private final int mTabHeight;
+    private final int mTabDepth;
+    private final int mTabSlope;
+
+    // The outline of the block, in view coordinates. Rebuilt when the block is measured again.
+    private final Path mOutline = new Path();
+    private final Matrix mRtlMirror = new Matrix();
+    private final Paint mFillPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mStrokePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mHighlightPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    /**
+     * Create a new VectorBlockView and associated InputViews for the given block.
+     * <p>
+     * App developers should not call this constructor directly.  Instead use
+     * {@link VectorBlockViewFactory#buildBlockViewTree}.
+     *
+     * @param context The context for creating this view.
+     * @param helper The {@link WorkspaceHelper} that manages the block sizes on in this Activity.
+     * @param factory The {@link VectorBlockViewFactory} that is building this view.
+     * @param block The {@link Block} represented by this view.
+     * @param inputViews The {@link InputView} contained in this view.
+     * @param connectionManager The {@link ConnectionManager} to update when moving connections.
+     * @param touchHandler The optional handler for forwarding touch events on this block to the
+     *                     {@link com.google.blockly.android.ui.Dragger}.
+     */
+    protected VectorBlockView(Context context, WorkspaceHelper helper,
+                              VectorBlockViewFactory factory, Block block,
+                              List<InputView> inputViews, ConnectionManager connectionManager,
+                              @Nullable BlockTouchHandler touchHandler) {
+        super(context, helper, factory, block, inputViews, connectionManager, touchHandler);
+        mPatchManager = factory.getPatchManager();
+
+        Resources res = context.getResources();
+        mNotchDepth = mPatchManager.getNextConnectorHeight();
+        mNotchOffset = res.getDimensionPixelSize(R.dimen.vector_notch_offset);
+        // The notch must be wide enough for both of its sloped sides.
+        mNotchWidth = Math.max(
+                res.getDimensionPixelSize(R.dimen.vector_notch_width), 3 * mNotchDepth);
+        mTabDepth = mPatchManager.getOutputConnectorWidth();
+        mTabOffset = res.getDimensionPixelSize(R.dimen.vector_tab_offset);
+        mTabHeight = res.getDimensionPixelSize(R.dimen.vector_tab_height);
+        mTabSlope = mTabHeight / 4;
+
+        int fillColor = getFillColor();
+        float hsv[] = new float[3];
+        Color.colorToHSV(fillColor, hsv);
+        hsv[2] *= STROKE_VALUE_MULTIPLIER;
+
+        mFillPaint.setStyle(Paint.Style.FILL);
+        mFillPaint.setColor(fillColor);
+        mStrokePaint.setStyle(Paint.Style.STROKE);
+        mStrokePaint.setColor(Color.HSVToColor(hsv));
+        mStrokePaint.setStrokeWidth(res.getDimension(R.dimen.vector_stroke_width));
+        mHighlightPaint.setStyle(Paint.Style.STROKE);
+        mHighlightPaint.setColor(ContextCompat.getColor(context, R.color.vector_block_highlight));
+        mHighlightPaint.setStrokeWidth(res.getDimension(R.dimen.vector_highlight_stroke_width));
+    }
+
+    /**
+     * Traces the outline along with the connectors, so it is only rebuilt when the block was
+     * measured again.
+     */
+    @Override
+    protected void layoutPatchesAndConnectors() {
+        super.layoutPatchesAndConnectors();
+        buildOutline();
+    }
+
+    /**
+     * @return False, the outline replaces the fill rects and the fill and border patches.
+     */
+    @Override
+    protected boolean placesBlockPatches() {
+        return false;
+    }
+
+    @Override
+    protected void onDraw(Canvas c) {
+        c.drawPath(mOutline, mFillPaint);
+        c.drawPath(mOutline, mStrokePaint);
+    }
+
+    /**
+     * Draws the entire block highlight as a stroke of the outline. Connection highlights are drawn
+     * by the vertical {@link BlockView}.
+     *
+     * @param c The canvas to draw on.
+     */
+    @Override
+    protected void drawHighlights(Canvas c) {
+        if (isEntireBlockHighlighted()) {
+            c.drawPath(mOutline, mHighlightPaint);
+        } else {
+            super.drawHighlights(c);
+        }
+    }
+
+    /**
+     * @return The outline of the block, in view coordinates, as of the last layout.
+     */
+    public Path getOutline() {
+        return mOutline;
+    }
+
+    /**
+     * Traces the outline of the block, clockwise from the top left corner in LTR mode, and adds
+     * the cutouts of inline Value inputs as holes. In RTL mode, the outline is then mirrored w.r.t.
+     * the right-hand side of the block area.
+     */
+    private void buildOutline() {
+        final Path path = mOutline;
+        path.rewind();
+
+        final boolean inline = mBlock.getInputsInline();
+        final int startX = getOutputConnectorMargin();
+        final int xFrom = startX + mPatchManager.getBlockStartPadding();
+        int inlineRowIdx = 0;
+        int xTo = startX + (inline ? getInlineRowWidth(inlineRowIdx) : getBlockContentWidth());
+
+        // Top side, with the notch for the "Previous" connector.
+        path.moveTo(startX, 0);
+        if (mBlock.getPreviousConnection() != null) {
+            addNotch(startX, 0);
+        }
+        path.lineTo(xTo, 0);
+
+        // End side, down through the inputs.
+        for (int i = 0; i < mInputCount; ++i) {
+            final InputView inputView = mInputViews.get(i);
+            final ViewPoint inputLayoutOrigin = mInputLayoutOrigins.get(i);
+            switch (inputView.getInput().getType()) {
+                case Input.TYPE_VALUE: {
+                    if (!inline) {
+                        addValueInputNotch(xTo, inputLayoutOrigin.y);
+                    }
+                    break;
+                }
+                case Input.TYPE_STATEMENT: {
+                    int xToBottom = xTo;
+                    if (inline) {
+                        ++inlineRowIdx;
+                        xToBottom = startX + getInlineRowWidth(inlineRowIdx);
+                    }
+                    int innerX = xFrom + inputView.getFieldLayoutWidth()
+                            + mPatchManager.getStatementInputPadding();
+                    int innerTop =
+                            inputLayoutOrigin.y + mPatchManager.getStatementTopThickness();
+                    int innerBottom = inputLayoutOrigin.y
+                            + Math.max(inputView.getTotalChildHeight(),
+                                    inputView.getMeasuredHeight())
+                            - mPatchManager.getStatementBottomThickness();
+
+                    path.lineTo(xTo, innerTop);
+                    addTab(innerX, innerTop);
+                    path.lineTo(innerX, innerTop);
+                    path.lineTo(innerX, innerBottom);
+                    path.lineTo(xToBottom, innerBottom);
+                    xTo = xToBottom;
+                    break;
+                }
+                default:
+                    break;
+            }
+        }
+        path.lineTo(xTo, getBlockContentHeight());
+
+        // Bottom side, with the tab for the "Next" connector.
+        if (mBlock.getNextConnection() != null) {
+            addTab(startX, getBlockContentHeight());
+        }
+        path.lineTo(startX, getBlockContentHeight());
+
+        // Start side, with the tab for the "Output" connector.
+        if (mBlock.getOutputConnection() != null) {
+            path.lineTo(startX, mTabOffset + mTabHeight);
+            path.lineTo(startX - mTabDepth, mTabOffset + mTabHeight - mTabSlope);
+            path.lineTo(startX - mTabDepth, mTabOffset + mTabSlope);
+            path.lineTo(startX, mTabOffset);
+        }
+        path.close();
+
+        // Cutouts for inline Value inputs, counter-clockwise so they are not filled.
+        if (inline) {
+            for (int i = 0; i < mInputCount; ++i) {
+                final InputView inputView = mInputViews.get(i);
+                if (inputView.getInput().getType() != Input.TYPE_VALUE) {
+                    continue;
+                }
+                final ViewPoint inputLayoutOrigin = mInputLayoutOrigins.get(i);
+                int cutoutX = xFrom + inputLayoutOrigin.x + inputView.getInlineInputX();
+                int cutoutY = inputLayoutOrigin.y + getBlockTopPadding();
+                path.addRect(cutoutX, cutoutY, cutoutX + inputView.getTotalChildWidth(),
+                        cutoutY + inputView.getTotalChildHeight(), Path.Direction.CCW);
+            }
+        }
+
+        if (mHelper.useRtl()) {
+            mRtlMirror.setScale(-1, 1);
+            mRtlMirror.postTranslate(mBlockViewSize.x, 0);
+            path.transform(mRtlMirror);
+        }
+    }
+
+    /**
+     * Adds the notch for a "Previous" connector, tracing left to right along a top side.
+     *
+     * @param x The start of the side.
+     * @param y The vertical position of the side.
+     */
+    private void addNotch(int x, int y) {
+        int notchLeft = x + mNotchOffset;
+        int notchRight = notchLeft + mNotchWidth;
+        mOutline.lineTo(notchLeft, y);
+        mOutline.lineTo(notchLeft + mNotchDepth, y + mNotchDepth);
+        mOutline.lineTo(notchRight - mNotchDepth, y + mNotchDepth);
+        mOutline.lineTo(notchRight, y);
+    }
+
+    /**
+     * Adds the tab for a "Next" connector, tracing right to left along a bottom side. The tab fits
+     * the notch of a connected block whose start is at the same position.
+     *
+     * @param x The start of the side.
+     * @param y The vertical position of the side.
+     */
+    private void addTab(int x, int y) {
+        int tabLeft = x + mNotchOffset;
+        int tabRight = tabLeft + mNotchWidth;
+        mOutline.lineTo(tabRight, y);
+        mOutline.lineTo(tabRight - mNotchDepth, y + mNotchDepth);
+        mOutline.lineTo(tabLeft + mNotchDepth, y + mNotchDepth);
+        mOutline.lineTo(tabLeft, y);
+    }
+
+    /**
+     * Adds the notch for an external Value input, tracing down along the end side. The notch fits
+     * the "Output" tab of a connected block.
+     *
+     * @param x The horizontal position of the end side.
+     * @param inputTop The top of the input.
+     */
+    private void addValueInputNotch(int x, int inputTop) {
+        int notchTop = inputTop + mTabOffset;
+        int notchBottom = notchTop + mTabHeight;
+        mOutline.lineTo(x, notchTop);
+        mOutline.lineTo(x - mTabDepth, notchTop + mTabSlope);
+        mOutline.lineTo(x - mTabDepth, notchBottom - mTabSlope);
+        mOutline.lineTo(x, notchBottom);
+    }
+}
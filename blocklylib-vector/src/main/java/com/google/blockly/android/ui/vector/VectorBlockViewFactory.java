@@ -0,0 +1,58 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.blockly.android.ui.vector;
+
+import android.content.Context;
+
+import com.google.blockly.android.control.ConnectionManager;
+import com.google.blockly.android.ui.BlockTouchHandler;
+import com.google.blockly.android.ui.BlockViewFactory;
+import com.google.blockly.android.ui.WorkspaceHelper;
+import com.google.blockly.android.ui.vertical.BlockView;
+import com.google.blockly.android.ui.vertical.InputView;
+import com.google.blockly.android.ui.vertical.VerticalBlockViewFactory;
+import com.google.blockly.model.Block;
+
+import java.util.List;
+
+/**
+ * Constructs vertical stacking blocks that are drawn as vector outlines instead of 9-patches. The
+ * blocks are measured and laid out exactly like those of {@link VerticalBlockViewFactory}, and use
+ * the same fields and inputs, but each block is drawn from a single {@link android.graphics.Path}.
+ */
+public class VectorBlockViewFactory extends VerticalBlockViewFactory {
+    public VectorBlockViewFactory(Context context, WorkspaceHelper helper) {
+        this(context, helper, 0);
+    }
+
+    /**
+     * @param context The application or activity's {@link Context}.
+     * @param helper The {@link WorkspaceHelper} associated with the workspace.
+     * @param workspaceTheme The theme resource id for the block styles.
+     */
+    public VectorBlockViewFactory(Context context, WorkspaceHelper helper, int workspaceTheme) {
+        super(context, helper, workspaceTheme);
+    }
+
+    /** Implements {@link BlockViewFactory#buildBlockView}. */
+    @Override
+    protected BlockView buildBlockView(Block block, List<InputView> inputViews,
+                                       ConnectionManager connectionManager,
+                                       BlockTouchHandler touchHandler) {
+        return new VectorBlockView(mContext, mHelper, this, block, inputViews,
+                connectionManager, touchHandler);
+    }
+}
@@ -20,7 +20,6 @@ import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.ColorFilter;
-import android.graphics.LightingColorFilter;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
@@ -32,12 +31,14 @@ import com.google.blockly.android.control.ConnectionManager;
 import com.google.blockly.android.ui.Dragger;
 import com.google.blockly.android.ui.AbstractBlockView;
 import com.google.blockly.android.ui.BlockTouchHandler;
+import com.google.blockly.android.ui.RenderingProfiler;
 import com.google.blockly.android.ui.ViewPoint;
 import com.google.blockly.android.ui.WorkspaceHelper;
 import com.google.blockly.model.Block;
 import com.google.blockly.model.Input;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -62,28 +63,52 @@ public class BlockView extends AbstractBlockView<InputView> {
     private int mMaxStatementFieldsWidth;
     // Vertical offset for positioning the "Next" block (if one exists).
     private int mNextBlockVerticalOffset;
-    // List of widths of multi-field rows when rendering inline inputs.
-    private final ArrayList<Integer> mInlineRowWidth = new ArrayList<>();
+    // Widths of multi-field rows when rendering inline inputs. Kept in a growing array rather than
+    // a list, so measuring again does not box the widths.
+    private int[] mInlineRowWidth = new int[2];
+    private int mInlineRowCount = 0;
 
     // Objects for drawing the block.
     private final PatchManager mPatchManager;
-    private final ArrayList<Drawable> mBlockPatches = new ArrayList<>();
+    // Patches are shared by all blocks, via the PatchManager, and placed when drawn.
+    private final ArrayList<PlacedPatch> mBlockPatches = new ArrayList<>();
     // Overlay patches used to draw a selection border when mHighlightBlock is true.
-    private final ArrayList<Drawable> mBlockBorderPatches = new ArrayList<>();
-    @Nullable private Drawable mOutputConnectorHighlightPatch = null;
-    @Nullable private Drawable mPreviousConnectorHighlightPatch = null;
-    @Nullable private Drawable mNextConnectionHighlightPatch = null;
-    private final ArrayList<Drawable> mInputConnectionHighlightPatches = new ArrayList<>();
+    private final ArrayList<PlacedPatch> mBlockBorderPatches = new ArrayList<>();
+    @Nullable private PlacedPatch mOutputConnectorHighlightPatch = null;
+    @Nullable private PlacedPatch mPreviousConnectorHighlightPatch = null;
+    @Nullable private PlacedPatch mNextConnectionHighlightPatch = null;
+    private final ArrayList<PlacedPatch> mInputConnectionHighlightPatches = new ArrayList<>();
 
     private final ArrayList<Rect> mFillRects = new ArrayList<>();
     @Nullable private Rect mNextFillRect = null;
+    // Whether the last layout placed the fill rects and the fill and border patches. See
+    // placesBlockPatches().
+    private boolean mPlacesBlockPatches = true;
+
+    // Placed patches and fill rects are reused across layouts, so laying out the patches again does
+    // not allocate once the pools have grown to the block's size. Each layout takes objects from
+    // the start of the pools.
+    private final ArrayList<PlacedPatch> mPatchPool = new ArrayList<>();
+    private int mPatchPoolUsed = 0;
+    private final ArrayList<Rect> mFillRectPool = new ArrayList<>();
+    private int mFillRectPoolUsed = 0;
     private ColorFilter mBlockColorFilter;
+    private int mBlockPatchColor;
     private final Paint mFillPaint = new Paint();
     private final boolean mUseHat;
     private int mBlockTopPadding;
 
     private final Rect tempRect = new Rect(); // Only use in main thread functions.
 
+    // Measurement cache. The measured sizes and input positions are reused while the block's
+    // content version and the measure specs are unchanged, and none of its inputs need a layout.
+    private boolean mHasMeasureCache = false;
+    private int mCachedContentVersion;
+    private int mCachedWidthMeasureSpec;
+    private int mCachedHeightMeasureSpec;
+    // Whether the patches and connector offsets are up to date with the last measure pass.
+    private boolean mPatchesLaidOut = false;
+
     /**
      * Create a new BlockView and associated InputViews for the given block using the
      * WorkspaceHelper's provided style.
@@ -119,6 +144,18 @@ public class BlockView extends AbstractBlockView<InputView> {
         initDrawingObjects();
     }
 
+    @Override
+    public void draw(Canvas canvas) {
+        final RenderingProfiler profiler = mHelper.getRenderingProfiler();
+        if (profiler == null) {
+            super.draw(canvas);
+            return;
+        }
+        final long startNanos = profiler.begin();
+        super.draw(canvas);
+        profiler.endBlock(mBlock, RenderingProfiler.PHASE_DRAW, startNanos);
+    }
+
     @Override
     protected void onDraw(Canvas c) {
         for (int i = 0; i < mFillRects.size(); ++i) {
@@ -146,11 +183,28 @@ public class BlockView extends AbstractBlockView<InputView> {
 
     /**
      * Measure all children (i.e., block inputs) and compute their sizes and relative positions
-     * for use in {@link #onLayout}.
+     * for use in {@link #onLayout}. If nothing about the block changed since the last measure
+     * pass, the previous sizes and positions are used without measuring the inputs again.
      */
     // TODO(#144): Move to AbstractBlockView, using abstract methods for calls. After #133
     @Override
     public void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        final RenderingProfiler profiler = mHelper.getRenderingProfiler();
+        final long startNanos = (profiler == null) ? 0 : profiler.begin();
+        if (!isMeasureCacheValid(widthMeasureSpec, heightMeasureSpec)) {
+            measureBlock(widthMeasureSpec, heightMeasureSpec);
+        }
+        setMeasuredDimension(mBlockViewSize.x, mBlockViewSize.y);
+        if (profiler != null) {
+            profiler.endBlock(mBlock, RenderingProfiler.PHASE_MEASURE, startNanos);
+        }
+    }
+
+    /**
+     * Measures all inputs and computes the block size and the input positions, and stores the
+     * measure specs for the measurement cache.
+     */
+    private void measureBlock(int widthMeasureSpec, int heightMeasureSpec) {
         mBlockTopPadding = mPatchManager.computeBlockTopPadding(mBlock);
 
         if (getBlock().getInputsInline()) {
@@ -172,7 +226,38 @@ public class BlockView extends AbstractBlockView<InputView> {
             mOutputConnectorMargin = 0;
         }
 
-        setMeasuredDimension(mBlockViewSize.x, mBlockViewSize.y);
+        mHasMeasureCache = true;
+        mCachedContentVersion = mBlock.getContentVersion();
+        mCachedWidthMeasureSpec = widthMeasureSpec;
+        mCachedHeightMeasureSpec = heightMeasureSpec;
+        mPatchesLaidOut = false;
+    }
+
+    /**
+     * Invalidates the measurement cache, so the next measure pass measures all inputs again.
+     */
+    @Override
+    public void requestLayout() {
+        mHasMeasureCache = false;
+        super.requestLayout();
+    }
+
+    /**
+     * @return True if the sizes and input positions from the last measure pass are still valid for
+     *         the given measure specs.
+     */
+    private boolean isMeasureCacheValid(int widthMeasureSpec, int heightMeasureSpec) {
+        if (!mHasMeasureCache || mCachedContentVersion != mBlock.getContentVersion()
+                || mCachedWidthMeasureSpec != widthMeasureSpec
+                || mCachedHeightMeasureSpec != heightMeasureSpec) {
+            return false;
+        }
+        for (int i = 0; i < mInputCount; ++i) {
+            if (mInputViews.get(i).isLayoutRequested()) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -195,6 +280,8 @@ public class BlockView extends AbstractBlockView<InputView> {
     @Override
     public void onLayout(boolean changed, int left, int top, int right, int bottom) {
         // Note that layout must be done regardless of the value of the "changed" parameter.
+        final RenderingProfiler profiler = mHelper.getRenderingProfiler();
+        final long startNanos = (profiler == null) ? 0 : profiler.begin();
         boolean rtl = mHelper.useRtl();
         int rtlSign = rtl ? -1 : +1;
 
@@ -217,8 +304,53 @@ public class BlockView extends AbstractBlockView<InputView> {
                     rowTop + inputView.getMeasuredHeight());
         }
 
-        layoutPatchesAndConnectors();
+        // Moving the block does not change its shape, so the patches are only laid out again after
+        // the block was measured again.
+        if (!mPatchesLaidOut) {
+            layoutPatchesAndConnectors();
+            mPatchesLaidOut = true;
+        }
         updateConnectorLocations();
+        if (profiler != null) {
+            profiler.endBlock(mBlock, RenderingProfiler.PHASE_LAYOUT, startNanos);
+        }
+    }
+
+    /**
+     * @return The colour of the block's fill, including any adjustment for shadow blocks.
+     */
+    protected int getFillColor() {
+        return mBlockPatchColor;
+    }
+
+    /**
+     * @return The width of the block's content, not including the output connector margin. With
+     * inline inputs, see {@link #getInlineRowWidth(int)} instead.
+     */
+    protected int getBlockContentWidth() {
+        return mBlockContentWidth;
+    }
+
+    /**
+     * @return The height of the block's content, not including the "Next" connector.
+     */
+    protected int getBlockContentHeight() {
+        return mBlockContentHeight;
+    }
+
+    /**
+     * @return The thickness of the block's top boundary, which depends on its connectors.
+     */
+    protected int getBlockTopPadding() {
+        return mBlockTopPadding;
+    }
+
+    /**
+     * @param row The index of a section of inline inputs, separated by Statement inputs.
+     * @return The width of the block's content for the section.
+     */
+    protected int getInlineRowWidth(int row) {
+        return mInlineRowWidth[row];
     }
 
     /**
@@ -283,7 +415,7 @@ public class BlockView extends AbstractBlockView<InputView> {
      *
      * @param c The canvas to draw on.
      */
-    private void drawHighlights(Canvas c) {
+    protected void drawHighlights(Canvas c) {
         if (isEntireBlockHighlighted()) {
             // Draw entire block highlighted..
             for (int i = 0; i < mBlockBorderPatches.size(); ++i) {
@@ -307,7 +439,7 @@ public class BlockView extends AbstractBlockView<InputView> {
                 final Input input = mHighlightedConnection.getInput();
                 for (int i = 0; i < mInputViews.size(); ++i) {
                     if (mInputViews.get(i).getInput() == input) {
-                        Drawable connectionHighlight = mInputConnectionHighlightPatches.get(i);
+                        PlacedPatch connectionHighlight = mInputConnectionHighlightPatches.get(i);
                         if (connectionHighlight != null) {
                             connectionHighlight.draw(c);
                         }
@@ -357,7 +489,7 @@ public class BlockView extends AbstractBlockView<InputView> {
         int rowHeight = 0;
         int maxRowWidth = 0;
 
-        mInlineRowWidth.clear();
+        mInlineRowCount = 0;
         for (int i = 0; i < inputViewsSize; i++) {
             InputView inputView = mInputViews.get(i);
 
@@ -374,7 +506,7 @@ public class BlockView extends AbstractBlockView<InputView> {
                 inputView.setFieldLayoutWidth(mMaxStatementFieldsWidth);
 
                 // New row BEFORE each Statement input.
-                mInlineRowWidth.add(Math.max(rowLeft,
+                addInlineRowWidth(Math.max(rowLeft,
                         mMaxStatementFieldsWidth + mPatchManager.mStatementInputIndent));
 
                 rowTop += rowHeight;
@@ -441,7 +573,7 @@ public class BlockView extends AbstractBlockView<InputView> {
         }
 
         // Push width of last input row.
-        mInlineRowWidth.add(Math.max(rowLeft,
+        addInlineRowWidth(Math.max(rowLeft,
                 mMaxStatementFieldsWidth + mPatchManager.mStatementInputIndent));
 
         // Block width is the computed width of the widest input row, and at least mMinBlockWidth.
@@ -458,6 +590,16 @@ public class BlockView extends AbstractBlockView<InputView> {
         mBlockContentHeight = Math.max(mPatchManager.mMinBlockHeight, rowTop);
     }
 
+    /**
+     * Appends the width of the next inline row, growing the array of widths if needed.
+     */
+    private void addInlineRowWidth(int width) {
+        if (mInlineRowCount == mInlineRowWidth.length) {
+            mInlineRowWidth = Arrays.copyOf(mInlineRowWidth, 2 * mInlineRowCount);
+        }
+        mInlineRowWidth[mInlineRowCount++] = width;
+    }
+
     /**
      * Measure view and its children with external inputs.
      * <p>
@@ -592,23 +734,24 @@ public class BlockView extends AbstractBlockView<InputView> {
             blockColour = Color.HSVToColor(hsv);
         }
 
-        // Highlight color channels are added to each color-multiplied color channel, and since the
-        // patches are 50% gray, the addition should be 50% of the base value.
-        final int highlight = Color.argb(255, Color.red(blockColour) / 2,
-                Color.green(blockColour) / 2, Color.blue(blockColour) / 2);
-        mBlockColorFilter = new LightingColorFilter(blockColour, highlight);
+        mBlockPatchColor = blockColour;
+        mBlockColorFilter = mPatchManager.getColorFilter(blockColour);
 
         mFillPaint.setColor(blockColour);
         mFillPaint.setStyle(Paint.Style.FILL);
     }
 
     /**
-     * Position patches for block rendering and connectors.
+     * Position patches for block rendering and connectors. Called from {@link #onLayout} only
+     * when the block was measured again.
      */
-    private void layoutPatchesAndConnectors() {
+    protected void layoutPatchesAndConnectors() {
+        mPlacesBlockPatches = placesBlockPatches();
         mBlockPatches.clear();
         mBlockBorderPatches.clear();
         mFillRects.clear();
+        mPatchPoolUsed = 0;
+        mFillRectPoolUsed = 0;
 
         boolean isShadow = mBlock.isShadow();
 
@@ -622,7 +765,7 @@ public class BlockView extends AbstractBlockView<InputView> {
         int xTo = mOutputConnectorMargin;
         int inlineRowIdx = 0;
         if (mBlock.getInputsInline()) {
-            xTo += mInlineRowWidth.get(inlineRowIdx);
+            xTo += mInlineRowWidth[inlineRowIdx];
         } else {
             xTo += mBlockContentWidth;
         }
@@ -677,7 +820,7 @@ public class BlockView extends AbstractBlockView<InputView> {
                     int xToBottom = xTo;
                     if (mBlock.getInputsInline()) {
                         ++inlineRowIdx;
-                        xToBottom = xFrom + mInlineRowWidth.get(inlineRowIdx) -
+                        xToBottom = xFrom + mInlineRowWidth[inlineRowIdx] -
                                 mPatchManager.mBlockStartPadding;
                     }
 
@@ -711,7 +854,7 @@ public class BlockView extends AbstractBlockView<InputView> {
         final NinePatchDrawable bottomStartDrawable =
                 getColoredPatchDrawable(bottomStartResourceId);
         final NinePatchDrawable bottomStartBorderDrawable =
-                mPatchManager.getPatchDrawable(bottomStartBorderResourceId);
+                mPatchManager.getSharedPatchDrawable(bottomStartBorderResourceId);
 
         mHelper.setRtlAwareBounds(tempRect,
                 /* this width */ mBlockViewSize.x,
@@ -719,22 +862,30 @@ public class BlockView extends AbstractBlockView<InputView> {
                 /* top */ topStartDrawable.getIntrinsicHeight(),
                 /* LTR end */ xTo,
                 /* bottom */ mBlockViewSize.y);
-        bottomStartDrawable.setBounds(tempRect);
-        bottomStartBorderDrawable.setBounds(tempRect);
 
         if (mBlock.getNextConnection() != null) {
-            mNextConnectionHighlightPatch =
-                    mPatchManager.getPatchDrawable(R.drawable.bottom_start_next_connection);
-            mNextConnectionHighlightPatch.setBounds(tempRect);
+            mNextConnectionHighlightPatch = obtainPlacedPatch(mPatchManager.getSharedPatchDrawable(
+                    R.drawable.bottom_start_next_connection), tempRect);
         }
 
-        mBlockPatches.add(bottomStartDrawable);
-        mBlockBorderPatches.add(bottomStartBorderDrawable);
+        addBlockPatch(bottomStartDrawable, tempRect);
+        addBlockBorderPatch(bottomStartBorderDrawable, tempRect);
 
         // Finish the final rect, if there is one.
         finishFillRect();
     }
 
+    /**
+     * Whether {@link #layoutPatchesAndConnectors()} places the fill rects and the fill and border
+     * patches drawn by {@link #onDraw} and {@link #drawHighlights}. Subclasses that draw the block
+     * themselves return false, so only the connectors and their highlight patches are placed.
+     *
+     * @return True by default.
+     */
+    protected boolean placesBlockPatches() {
+        return true;
+    }
+
     /**
      * Add the top-left corner drawable.
      *
@@ -750,32 +901,33 @@ public class BlockView extends AbstractBlockView<InputView> {
         // top-left corner.
         NinePatchDrawable topStartDrawable;
         NinePatchDrawable topStartBorderDrawable;
+        NinePatchDrawable connectionHighlightDrawable = null;
         if (mBlock.getPreviousConnection() != null) {
             mHelper.setPointMaybeFlip(mPreviousConnectorOffset, mOutputConnectorMargin, yTop);
             topStartDrawable = getColoredPatchDrawable(isShadow
                     ? R.drawable.top_start_previous_shadow : R.drawable.top_start_previous);
             topStartBorderDrawable =
-                    mPatchManager.getPatchDrawable(R.drawable.top_start_previous_border);
-            mPreviousConnectorHighlightPatch =
-                    mPatchManager.getPatchDrawable(R.drawable.top_start_previous_connection);
+                    mPatchManager.getSharedPatchDrawable(R.drawable.top_start_previous_border);
+            connectionHighlightDrawable =
+                    mPatchManager.getSharedPatchDrawable(R.drawable.top_start_previous_connection);
         } else if (mBlock.getOutputConnection() != null) {
             mHelper.setPointMaybeFlip(mOutputConnectorOffset, mOutputConnectorMargin, yTop);
             topStartDrawable = getColoredPatchDrawable(
                     isShadow ? R.drawable.top_start_output_shadow : R.drawable.top_start_output);
             topStartBorderDrawable =
-                    mPatchManager.getPatchDrawable(R.drawable.top_start_output_border);
-            mOutputConnectorHighlightPatch =
-                    mPatchManager.getPatchDrawable(R.drawable.top_start_output_connection);
+                    mPatchManager.getSharedPatchDrawable(R.drawable.top_start_output_border);
+            connectionHighlightDrawable =
+                    mPatchManager.getSharedPatchDrawable(R.drawable.top_start_output_connection);
         } else if (mUseHat) {
             topStartDrawable = getColoredPatchDrawable(
                     isShadow ? R.drawable.top_start_hat_shadow : R.drawable.top_start_hat);
             topStartBorderDrawable =
-                    mPatchManager.getPatchDrawable(R.drawable.top_start_hat_border);
+                    mPatchManager.getSharedPatchDrawable(R.drawable.top_start_hat_border);
         } else {
             topStartDrawable = getColoredPatchDrawable(
                     isShadow ? R.drawable.top_start_default_shadow : R.drawable.top_start_default);
             topStartBorderDrawable =
-                    mPatchManager.getPatchDrawable(R.drawable.top_start_default_border);
+                    mPatchManager.getSharedPatchDrawable(R.drawable.top_start_default_border);
         }
         mHelper.setRtlAwareBounds(tempRect,
                 /* this width */ mBlockViewSize.x,
@@ -783,17 +935,16 @@ public class BlockView extends AbstractBlockView<InputView> {
                 /* top */ 0,
                 /* LTR end */ xTo,
                 /* bottom */ topStartDrawable.getIntrinsicHeight());
-        topStartDrawable.setBounds(tempRect);
-        topStartBorderDrawable.setBounds(tempRect);
-        if (mPreviousConnectorHighlightPatch != null) {
-            mPreviousConnectorHighlightPatch.setBounds(tempRect);
-        }
-        if (mOutputConnectorHighlightPatch != null) {
-            mOutputConnectorHighlightPatch.setBounds(tempRect);
+        if (mBlock.getPreviousConnection() != null) {
+            mPreviousConnectorHighlightPatch =
+                    obtainPlacedPatch(connectionHighlightDrawable, tempRect);
+        } else if (mBlock.getOutputConnection() != null) {
+            mOutputConnectorHighlightPatch =
+                    obtainPlacedPatch(connectionHighlightDrawable, tempRect);
         }
 
-        mBlockPatches.add(topStartDrawable);
-        mBlockBorderPatches.add(topStartBorderDrawable);
+        addBlockPatch(topStartDrawable, tempRect);
+        addBlockBorderPatch(topStartBorderDrawable, tempRect);
         return topStartDrawable;
     }
 
@@ -813,7 +964,7 @@ public class BlockView extends AbstractBlockView<InputView> {
         final NinePatchDrawable inputDrawable = getColoredPatchDrawable(
                 isShadow ? R.drawable.dummy_input_shadow : R.drawable.dummy_input);
         final NinePatchDrawable inputBorderDrawable =
-                mPatchManager.getPatchDrawable(R.drawable.dummy_input_border);
+                mPatchManager.getSharedPatchDrawable(R.drawable.dummy_input_border);
         int width = inputDrawable.getIntrinsicWidth();
         if (mHasValueInput) {
             // Stretch the patch horizontally if this block has at least one value
@@ -829,10 +980,8 @@ public class BlockView extends AbstractBlockView<InputView> {
                 /* top */ inputLayoutOrigin.y + (inTopRow ? mBlockTopPadding : 0),
                 /* LTR end */ xTo,
                 /* bottom */ inputLayoutOrigin.y + inputView.getRowHeight());
-        inputDrawable.setBounds(tempRect);
-        inputBorderDrawable.setBounds(tempRect);
-        mBlockPatches.add(inputDrawable);
-        mBlockBorderPatches.add(inputBorderDrawable);
+        addBlockPatch(inputDrawable, tempRect);
+        addBlockBorderPatch(inputBorderDrawable, tempRect);
     }
 
     /**
@@ -855,9 +1004,9 @@ public class BlockView extends AbstractBlockView<InputView> {
         final NinePatchDrawable inputDrawable = getColoredPatchDrawable(isShadow
                 ? R.drawable.value_input_external_shadow : R.drawable.value_input_external);
         final NinePatchDrawable inputBorderDrawable =
-                mPatchManager.getPatchDrawable(R.drawable.value_input_external_border);
+                mPatchManager.getSharedPatchDrawable(R.drawable.value_input_external_border);
         final NinePatchDrawable connectionHighlightDrawable =
-                mPatchManager.getPatchDrawable(R.drawable.value_input_external_connection);
+                mPatchManager.getSharedPatchDrawable(R.drawable.value_input_external_connection);
 
         int patchLeft = xTo - inputDrawable.getIntrinsicWidth();
         int patchRight = xTo;
@@ -870,13 +1019,10 @@ public class BlockView extends AbstractBlockView<InputView> {
                 /* top */ connectorTop,
                 /* LTR end */ patchRight,
                 /* bottom */ connectorBottom);
-        inputDrawable.setBounds(tempRect);
-        inputBorderDrawable.setBounds(tempRect);
-        connectionHighlightDrawable.setBounds(tempRect);
-
-        mBlockPatches.add(inputDrawable);
-        mBlockBorderPatches.add(inputBorderDrawable);
-        mInputConnectionHighlightPatches.set(i, connectionHighlightDrawable);
+        addBlockPatch(inputDrawable, tempRect);
+        addBlockBorderPatch(inputBorderDrawable, tempRect);
+        mInputConnectionHighlightPatches.set(i,
+                obtainPlacedPatch(connectionHighlightDrawable, tempRect));
 
         if (i > 0) {
             // If this is not the first input in the block, then a gap above the
@@ -886,17 +1032,15 @@ public class BlockView extends AbstractBlockView<InputView> {
             final NinePatchDrawable boundaryGapDrawable =
                     getColoredPatchDrawable(R.drawable.dummy_input);
             final NinePatchDrawable boundaryGapBorderDrawable =
-                    mPatchManager.getPatchDrawable(R.drawable.dummy_input_border);
+                    mPatchManager.getSharedPatchDrawable(R.drawable.dummy_input_border);
             mHelper.setRtlAwareBounds(tempRect,
                     /* this width */  mBlockViewSize.x,
                     /* LTR start */ patchLeft,
                     /* top */ inputLayoutOrigin.y,
                     /* LTR end */patchRight,
                     /* bottom */ connectorTop);
-            boundaryGapDrawable.setBounds(tempRect);
-            boundaryGapBorderDrawable.setBounds(tempRect);
-            mBlockPatches.add(boundaryGapDrawable);
-            mBlockBorderPatches.add(boundaryGapBorderDrawable);
+            addBlockPatch(boundaryGapDrawable, tempRect);
+            addBlockBorderPatch(boundaryGapBorderDrawable, tempRect);
         }
     }
 
@@ -941,17 +1085,16 @@ public class BlockView extends AbstractBlockView<InputView> {
         final NinePatchDrawable inputDrawable = getColoredPatchDrawable(
                 isShadow ? R.drawable.value_input_inline_shadow : R.drawable.value_input_inline);
         final NinePatchDrawable connectionHighlightDrawable =
-                mPatchManager.getPatchDrawable(R.drawable.value_input_inline_connection);
+                mPatchManager.getSharedPatchDrawable(R.drawable.value_input_inline_connection);
         mHelper.setRtlAwareBounds(tempRect,
                 /* this width */  mBlockViewSize.x,
                 /* LTR start */ cutoutX,
                 /* top */ cutoutY,
                 /* LTR end */ cutoutX + inputView.getTotalChildWidth(),
                 /* bottom */ cutoutY + inputView.getTotalChildHeight());
-        inputDrawable.setBounds(tempRect);
-        connectionHighlightDrawable.setBounds(tempRect);
-        mBlockPatches.add(inputDrawable);
-        mInputConnectionHighlightPatches.set(i, connectionHighlightDrawable);
+        addBlockPatch(inputDrawable, tempRect);
+        mInputConnectionHighlightPatches.set(i,
+                obtainPlacedPatch(connectionHighlightDrawable, tempRect));
 
         // Fill below inline input cutout.
         final int cutoutEndX = cutoutX + inputView.getTotalChildWidth();
@@ -969,7 +1112,7 @@ public class BlockView extends AbstractBlockView<InputView> {
                 (mInputViews.get(nextI).getInput().getType() == Input.TYPE_STATEMENT)) {
             // Horizontal patch position is the position of inputs in the block, plus offset of the
             // current input in its row, plus padding before and after the input fields.
-            final int patchX = blockFromX + mInlineRowWidth.get(inlineRowIdx) -
+            final int patchX = blockFromX + mInlineRowWidth[inlineRowIdx] -
                     mPatchManager.mBlockTotalPaddingX;
 
             // Vertical patch position is the input layout origin, plus room for block boundary if
@@ -981,7 +1124,7 @@ public class BlockView extends AbstractBlockView<InputView> {
             final NinePatchDrawable blockFillDrawable = getColoredPatchDrawable(
                     isShadow ? R.drawable.dummy_input_shadow : R.drawable.dummy_input);
             final NinePatchDrawable blockFillBorderDrawable =
-                    mPatchManager.getPatchDrawable(R.drawable.dummy_input_border);
+                    mPatchManager.getSharedPatchDrawable(R.drawable.dummy_input_border);
 
             mHelper.setRtlAwareBounds(tempRect,
                     /* this width */  mBlockViewSize.x,
@@ -989,11 +1132,8 @@ public class BlockView extends AbstractBlockView<InputView> {
                     /* top */ patchY,
                     /* LTR end */ patchRight,
                     /* bottom */ cutoutEndY);
-            blockFillDrawable.setBounds(tempRect);
-            blockFillBorderDrawable.setBounds(tempRect);
-
-            mBlockPatches.add(blockFillDrawable);
-            mBlockBorderPatches.add(blockFillBorderDrawable);
+            addBlockPatch(blockFillDrawable, tempRect);
+            addBlockBorderPatch(blockFillBorderDrawable, tempRect);
 
             // Also at the end of the current input row, fill background up to
             // block boundary.
@@ -1027,9 +1167,9 @@ public class BlockView extends AbstractBlockView<InputView> {
         final NinePatchDrawable statementTopDrawable = getColoredPatchDrawable(
                 isShadow ? R.drawable.statementinput_top_shadow : R.drawable.statementinput_top);
         final NinePatchDrawable statementTopBorderDrawable =
-                mPatchManager.getPatchDrawable(R.drawable.statementinput_top_border);
+                mPatchManager.getSharedPatchDrawable(R.drawable.statementinput_top_border);
         final NinePatchDrawable statementConnectionHighlight =
-                mPatchManager.getPatchDrawable(R.drawable.statementinput_top_connection);
+                mPatchManager.getSharedPatchDrawable(R.drawable.statementinput_top_connection);
 
         mHelper.setRtlAwareBounds(tempRect,
                 /* this width */  mBlockViewSize.x,
@@ -1037,13 +1177,10 @@ public class BlockView extends AbstractBlockView<InputView> {
                 /* top */ inputLayoutOrigin.y,
                 /* LTR end */ xToAbove,
                 /* bottom */ inputLayoutOrigin.y + statementTopDrawable.getIntrinsicHeight());
-        statementTopDrawable.setBounds(tempRect);
-        statementTopBorderDrawable.setBounds(tempRect);
-        statementConnectionHighlight.setBounds(tempRect);
-
-        mBlockPatches.add(statementTopDrawable);
-        mBlockBorderPatches.add(statementTopBorderDrawable);
-        mInputConnectionHighlightPatches.set(i, statementConnectionHighlight);
+        addBlockPatch(statementTopDrawable, tempRect);
+        addBlockBorderPatch(statementTopBorderDrawable, tempRect);
+        mInputConnectionHighlightPatches.set(i,
+                obtainPlacedPatch(statementConnectionHighlight, tempRect));
 
         // Position patch for the bottom part of the Statement connector. The bottom
         // patch is stretched horizontally, like the top patch, but also vertically to
@@ -1052,7 +1189,7 @@ public class BlockView extends AbstractBlockView<InputView> {
         final NinePatchDrawable statementBottomDrawable = getColoredPatchDrawable(isShadow ?
                 R.drawable.statementinput_bottom_shadow : R.drawable.statementinput_bottom);
         final NinePatchDrawable statementBottomBorderDrawable =
-                mPatchManager.getPatchDrawable(R.drawable.statementinput_bottom_border);
+                mPatchManager.getSharedPatchDrawable(R.drawable.statementinput_bottom_border);
 
         final int connectorHeight =
                 Math.max(inputView.getTotalChildHeight(),
@@ -1064,11 +1201,8 @@ public class BlockView extends AbstractBlockView<InputView> {
                 /* top */ inputLayoutOrigin.y + statementTopDrawable.getIntrinsicHeight(),
                 /* LTR end */ xToBelow,
                 /* bottom */ inputLayoutOrigin.y + connectorHeight);
-        statementBottomDrawable.setBounds(tempRect);
-        statementBottomBorderDrawable.setBounds(tempRect);
-
-        mBlockPatches.add(statementBottomDrawable);
-        mBlockBorderPatches.add(statementBottomBorderDrawable);
+        addBlockPatch(statementBottomDrawable, tempRect);
+        addBlockBorderPatch(statementBottomBorderDrawable, tempRect);
     }
 
     /**
@@ -1094,6 +1228,9 @@ public class BlockView extends AbstractBlockView<InputView> {
      * @param bottom Bottom coordinate of the new rectangle.
      */
     private void fillRect(int left, int top, int right, int bottom) {
+        if (!mPlacesBlockPatches) {
+            return;
+        }
         if (mNextFillRect != null) {
             if ((mNextFillRect.left == left) && (mNextFillRect.right == right)) {
                 assert mNextFillRect.top <= top;  // New rectangle must not start above current.
@@ -1108,7 +1245,8 @@ public class BlockView extends AbstractBlockView<InputView> {
             }
         }
 
-        mNextFillRect = new Rect(left, top, right, bottom);
+        mNextFillRect = obtainFillRect();
+        mNextFillRect.set(left, top, right, bottom);
     }
 
     /**
@@ -1160,10 +1298,76 @@ public class BlockView extends AbstractBlockView<InputView> {
         }
     }
 
+    /**
+     * Adds a fill patch of the block, unless {@link #placesBlockPatches()} is false.
+     */
+    private void addBlockPatch(Drawable drawable, Rect bounds) {
+        if (mPlacesBlockPatches) {
+            mBlockPatches.add(obtainPlacedPatch(drawable, bounds));
+        }
+    }
+
+    /**
+     * Adds a border patch of the block, unless {@link #placesBlockPatches()} is false.
+     */
+    private void addBlockBorderPatch(Drawable drawable, Rect bounds) {
+        if (mPlacesBlockPatches) {
+            mBlockBorderPatches.add(obtainPlacedPatch(drawable, bounds));
+        }
+    }
+
+    /**
+     * @return A placed patch from the pool, set to the given drawable and bounds.
+     */
+    private PlacedPatch obtainPlacedPatch(Drawable drawable, Rect bounds) {
+        PlacedPatch patch;
+        if (mPatchPoolUsed < mPatchPool.size()) {
+            patch = mPatchPool.get(mPatchPoolUsed);
+        } else {
+            patch = new PlacedPatch();
+            mPatchPool.add(patch);
+        }
+        ++mPatchPoolUsed;
+        patch.set(drawable, bounds);
+        return patch;
+    }
+
+    /**
+     * @return A rect from the pool for filling the block background. Its bounds must be set.
+     */
+    private Rect obtainFillRect() {
+        Rect rect;
+        if (mFillRectPoolUsed < mFillRectPool.size()) {
+            rect = mFillRectPool.get(mFillRectPoolUsed);
+        } else {
+            rect = new Rect();
+            mFillRectPool.add(rect);
+        }
+        ++mFillRectPoolUsed;
+        return rect;
+    }
+
     private NinePatchDrawable getColoredPatchDrawable(int id) {
         // TODO: (#161) Use flat 9-patches for shadow blocks
-        NinePatchDrawable drawable = mPatchManager.getPatchDrawable(id);
-        drawable.setColorFilter(mBlockColorFilter);
-        return drawable;
+        return mPatchManager.getSharedColoredPatchDrawable(id, mBlockPatchColor);
+    }
+
+    /**
+     * A shared patch drawable and its bounds in this view. The bounds are applied to the drawable
+     * immediately before drawing it. Instances are pooled, see {@link #obtainPlacedPatch}.
+     */
+    private static class PlacedPatch {
+        Drawable mDrawable;
+        final Rect mBounds = new Rect();
+
+        void set(Drawable drawable, Rect bounds) {
+            mDrawable = drawable;
+            mBounds.set(bounds);
+        }
+
+        void draw(Canvas c) {
+            mDrawable.setBounds(mBounds);
+            mDrawable.draw(c);
+        }
     }
 }
@@ -150,7 +150,7 @@ public class InputView extends AbstractInputView {
     /**
      * @return Layout width for the fields in this input.
      */
-    int getFieldLayoutWidth() {
+    public int getFieldLayoutWidth() {
         return mFieldLayoutWidth;
     }
 
@@ -172,7 +172,7 @@ public class InputView extends AbstractInputView {
      * @return The height of the input row that this view is part of. Defaults to measured height
      * but can be overridden.
      */
-    int getRowHeight() {
+    public int getRowHeight() {
         return mRowHeight;
     }
 
@@ -186,14 +186,14 @@ public class InputView extends AbstractInputView {
     /**
      * @return Total width of all children connected to this input.
      */
-    int getTotalChildWidth() {
+    public int getTotalChildWidth() {
         return mConnectedGroupWidth;
     }
 
     /**
      * @return Total height of all children connected to this input.
      */
-    int getTotalChildHeight() {
+    public int getTotalChildHeight() {
         return mConnectedGroupHeight;
     }
 
@@ -220,7 +220,7 @@ public class InputView extends AbstractInputView {
     /**
      * Get horizontal position for inline connector in this input view.
      */
-    int getInlineInputX() {
+    public int getInlineInputX() {
         return getMeasuredWidth() - mPatchManager.mBlockTotalPaddingX - getTotalChildWidth();
     }
 
@@ -18,9 +18,14 @@ package com.google.blockly.android.ui.vertical;
 import android.content.Context;
 import android.content.res.Configuration;
 import android.content.res.Resources;
+import android.graphics.Color;
+import android.graphics.ColorFilter;
+import android.graphics.LightingColorFilter;
 import android.graphics.Rect;
 import android.graphics.drawable.NinePatchDrawable;
 import android.support.v4.content.ContextCompat;
+import android.util.LongSparseArray;
+import android.util.SparseArray;
 
 import com.google.blockly.model.Block;
 
@@ -28,6 +33,9 @@ import com.google.blockly.model.Block;
  * Helper class to load and manage 9-patches and other drawables. Each block shape is composed of
  * multiple shaded 9-patches that together make the overall shape. The PatchManager constructs new
  * drawables with shared backing bitmaps to minimize Blocky's memory footprint.
+ * <p/>
+ * Shared drawables are also cached for each patch and block colour, so laying out blocks does not
+ * load or tint any drawables. See {@link #getSharedColoredPatchDrawable(int, int)}.
  */
 public class PatchManager {
     private final Context mContext;
@@ -35,6 +43,13 @@ public class PatchManager {
 
     private final Rect mTempRect = new Rect();
 
+    // Shared drawables by patch id, and by patch id and block colour.
+    private final SparseArray<NinePatchDrawable> mSharedPatches = new SparseArray<>();
+    private final LongSparseArray<NinePatchDrawable> mSharedColoredPatches =
+            new LongSparseArray<>();
+    // Color filters by block colour.
+    private final SparseArray<ColorFilter> mColorFilters = new SparseArray<>();
+
     // Horizontal block padding - this space accomodates left and right block boundaries.
     int mBlockStartPadding;
     int mBlockEndPadding;
@@ -131,7 +146,66 @@ public class PatchManager {
      * @return The drawable for the requested patch.
      */
     public NinePatchDrawable getPatchDrawable(int id) {
-        return (NinePatchDrawable) ContextCompat.getDrawable(mContext, id);
+        return (NinePatchDrawable) getSharedPatchDrawable(id).getConstantState()
+                .newDrawable(mResources);
+    }
+
+    /**
+     * Get a shared patch drawable. The same instance is returned for every request of the patch,
+     * so callers must not modify it, other than setting its bounds immediately before drawing it.
+     *
+     * @param id The resource Id of the patch.
+     * @return The shared drawable for the requested patch.
+     */
+    public NinePatchDrawable getSharedPatchDrawable(int id) {
+        NinePatchDrawable drawable = mSharedPatches.get(id);
+        if (drawable == null) {
+            drawable = (NinePatchDrawable) ContextCompat.getDrawable(mContext, id);
+            mSharedPatches.put(id, drawable);
+        }
+        return drawable;
+    }
+
+    /**
+     * Get a shared patch drawable tinted with a block colour. The same instance is returned for
+     * every request of the patch and colour, and it shares its constant state and bitmap with all
+     * other drawables of the patch. Callers must not modify it, other than setting its bounds
+     * immediately before drawing it.
+     * <p/>
+     * Shadow blocks use their own patches and a lighter colour, so both are part of the key.
+     *
+     * @param id The resource Id of the patch.
+     * @param blockColor The colour to apply to the patch. See {@link #getColorFilter(int)}.
+     * @return The shared drawable for the requested patch and colour.
+     */
+    public NinePatchDrawable getSharedColoredPatchDrawable(int id, int blockColor) {
+        long key = ((long) id << 32) | (blockColor & 0xFFFFFFFFL);
+        NinePatchDrawable drawable = mSharedColoredPatches.get(key);
+        if (drawable == null) {
+            drawable = getPatchDrawable(id);
+            drawable.setColorFilter(getColorFilter(blockColor));
+            mSharedColoredPatches.put(key, drawable);
+        }
+        return drawable;
+    }
+
+    /**
+     * Get the shared {@link ColorFilter} that applies a block colour to the grayscale patches.
+     *
+     * @param blockColor The colour of the block.
+     * @return The color filter for the colour.
+     */
+    public ColorFilter getColorFilter(int blockColor) {
+        ColorFilter filter = mColorFilters.get(blockColor);
+        if (filter == null) {
+            // Highlight color channels are added to each color-multiplied color channel, and since
+            // the patches are 50% gray, the addition should be 50% of the base value.
+            final int highlight = Color.argb(255, Color.red(blockColor) / 2,
+                    Color.green(blockColor) / 2, Color.blue(blockColor) / 2);
+            filter = new LightingColorFilter(blockColor, highlight);
+            mColorFilters.put(blockColor, filter);
+        }
+        return filter;
     }
 
     /**
@@ -225,6 +299,49 @@ public class PatchManager {
         mBlockTotalPaddingX = mBlockStartPadding + mBlockEndPadding;
     }
 
+    /**
+     * @return The thickness of the start (left, in LTR mode) block boundary.
+     */
+    public int getBlockStartPadding() {
+        return mBlockStartPadding;
+    }
+
+    /**
+     * @return The width of the "Output" connector, beyond the start block boundary.
+     */
+    public int getOutputConnectorWidth() {
+        return mOutputConnectorWidth;
+    }
+
+    /**
+     * @return The height of the "Next" connector, below the bottom block boundary.
+     */
+    public int getNextConnectorHeight() {
+        return mNextConnectorHeight;
+    }
+
+    /**
+     * @return The padding between the fields of a Statement input and its connected blocks.
+     */
+    public int getStatementInputPadding() {
+        return mStatementInputPadding;
+    }
+
+    /**
+     * @return The offset of blocks connected to a Statement input, below the top of the input.
+     */
+    public int getStatementTopThickness() {
+        return mStatementTopThickness;
+    }
+
+    /**
+     * @return The offset between the bottom of the blocks connected to a Statement input and the
+     * bottom of the input.
+     */
+    public int getStatementBottomThickness() {
+        return mStatementBottomThickness;
+    }
+
     int computeBlockTopPadding(Block block) {
         if (block.getPreviousConnection() != null) {
             return mBlockTopPreviousPadding;
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.blockly.android.codegen;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+
+import org.json.JSONArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Unit tests for {@link BlockDefinitionsCache}.
+ */
+public class BlockDefinitionsCacheTest {
+    private static final List<String> FILES =
+            Arrays.asList("default/logic_blocks.json", "default/math_blocks.json");
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        BlockDefinitionsCache.clearMemoryCache();
+    }
+
+    @After
+    public void tearDown() {
+        BlockDefinitionsCache.clearMemoryCache();
+    }
+
+    @Test
+    public void testMergesInOrder() throws Exception {
+        JSONArray logic = new JSONArray(BlockDefinitionsCache.getMergedDefinitions(
+                mContext, Collections.singletonList(FILES.get(0))));
+        JSONArray math = new JSONArray(BlockDefinitionsCache.getMergedDefinitions(
+                mContext, Collections.singletonList(FILES.get(1))));
+        JSONArray merged = new JSONArray(BlockDefinitionsCache.getMergedDefinitions(
+                mContext, FILES));
+
+        assertThat(merged.length()).isEqualTo(logic.length() + math.length());
+        assertThat(merged.getJSONObject(0).getString("type"))
+                .isEqualTo(logic.getJSONObject(0).getString("type"));
+        assertThat(merged.getJSONObject(logic.length()).getString("type"))
+                .isEqualTo(math.getJSONObject(0).getString("type"));
+    }
+
+    @Test
+    public void testCachedAcrossCallsAndProcesses() {
+        String merged = BlockDefinitionsCache.getMergedDefinitions(mContext, FILES);
+        assertThat(BlockDefinitionsCache.getMergedDefinitions(mContext, FILES)).isSameAs(merged);
+
+        // Simulates a new process, which reads the merged file from disk.
+        BlockDefinitionsCache.clearMemoryCache();
+        assertThat(BlockDefinitionsCache.getMergedDefinitions(mContext, FILES)).isEqualTo(merged);
+    }
+
+    @Test
+    public void testWriteDeletesPreviousVersions() throws Exception {
+        File dir = BlockDefinitionsCache.getDiskDir(mContext);
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                assertThat(file.delete()).isTrue();
+            }
+        }
+        assertThat(dir.isDirectory() || dir.mkdirs()).isTrue();
+        File previous = new File(dir, BlockDefinitionsCache.getDiskPrefix(FILES) + "old.json");
+        File otherFiles = new File(dir, BlockDefinitionsCache.getDiskPrefix(
+                Collections.singletonList(FILES.get(0))) + "old.json");
+        assertThat(previous.createNewFile()).isTrue();
+        assertThat(otherFiles.createNewFile()).isTrue();
+
+        BlockDefinitionsCache.getMergedDefinitions(mContext, FILES);
+        assertThat(previous.exists()).isFalse();
+        assertThat(otherFiles.exists()).isTrue();
+        assertThat(dir.listFiles()).hasLength(2);
+        assertThat(otherFiles.delete()).isTrue();
+    }
+
+    @Test
+    public void testMissingFile() {
+        assertThat(BlockDefinitionsCache.getMergedDefinitions(mContext,
+                Arrays.asList(FILES.get(0), "default/no_such_file.json"))).isEmpty();
+        assertThat(BlockDefinitionsCache.getMergedDefinitions(mContext,
+                Collections.<String>emptyList())).isEmpty();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.blockly.android.codegen;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.support.test.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Unit tests for {@link CodeGenerationCache}.
+ */
+public class CodeGenerationCacheTest {
+    private static final String XML = "<xml><block type=\"math_number\"/></xml>";
+    private static final List<String> DEFINITIONS =
+            Collections.singletonList("default/logic_blocks.json");
+    private static final List<String> GENERATORS = Collections.singletonList("generators.js");
+    private static final List<String> GENERATOR_ASSETS =
+            Collections.singletonList("javascript_compressed.js");
+    private static final String CODE = "var x = 42;";
+
+    private Context mContext;
+    private File mDiskDir;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mDiskDir = new File(mContext.getCacheDir(), "CodeGenerationCacheTest");
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        CodeGenerationCache cache = newDiskCache(1);
+        cache.clear();
+        cache.waitForDiskTasks();
+    }
+
+    @Test
+    public void testKeyIgnoresFileOrder() {
+        String key = CodeGenerationCache.getCacheKey(newRequest(XML, Arrays.asList("a", "b")));
+        assertThat(CodeGenerationCache.getCacheKey(newRequest(XML, Arrays.asList("b", "a"))))
+                .isEqualTo(key);
+        assertThat(CodeGenerationCache.getCacheKey(newRequest(XML, Arrays.asList("a"))))
+                .isNotEqualTo(key);
+        assertThat(CodeGenerationCache.getCacheKey(
+                newRequest("<xml></xml>", Arrays.asList("a", "b")))).isNotEqualTo(key);
+    }
+
+    @Test
+    public void testMemoryEviction() {
+        // Room for two entries, counting both keys and code.
+        CodeGenerationCache cache = new CodeGenerationCache(10);
+        cache.put("a", "1234");
+        cache.put("b", "1234");
+        assertThat(cache.get("a")).isEqualTo("1234");  // Now most recently used.
+        cache.put("c", "1234");
+
+        assertThat(cache.get("b")).isNull();
+        assertThat(cache.get("a")).isEqualTo("1234");
+        assertThat(cache.get("c")).isEqualTo("1234");
+        assertThat(cache.getHitCount()).isEqualTo(3);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testEmptyResultNotCached() {
+        CodeGenerationCache cache = new CodeGenerationCache(10);
+        cache.put("key", "");
+        assertThat(cache.get("key")).isNull();
+    }
+
+    @Test
+    public void testDiskTier() throws InterruptedException {
+        CodeGenerationRequest request = newAssetRequest(XML);
+        String key = CodeGenerationCache.getCacheKey(request);
+        CodeGenerationCache writer = newDiskCache(1024);
+        writer.put(request, key, CODE);
+        writer.waitForDiskTasks();
+
+        // A new cache instance, as after a process restart.
+        CodeGenerationCache cache = newDiskCache(1024);
+        assertThat(cache.get(key)).isNull();
+        assertThat(getFromDisk(cache, request)).isEqualTo(CODE);
+        assertThat(cache.get(key)).isEqualTo(CODE);  // Moved into memory.
+
+        cache.clear();
+        assertThat(getFromDisk(cache, request)).isNull();
+    }
+
+    @Test
+    public void testDiskEviction() throws InterruptedException {
+        // Room for two results.
+        CodeGenerationCache cache = newDiskCache(2 * CODE.length());
+        CodeGenerationRequest first = newAssetRequest("<xml id=\"first\"></xml>");
+        CodeGenerationRequest second = newAssetRequest("<xml id=\"second\"></xml>");
+        CodeGenerationRequest third = newAssetRequest("<xml id=\"third\"></xml>");
+        cache.put(first, CodeGenerationCache.getCacheKey(first), CODE);
+        cache.put(second, CodeGenerationCache.getCacheKey(second), CODE);
+        assertThat(getFromDisk(cache, first)).isEqualTo(CODE);  // Now most recently used.
+        cache.put(third, CodeGenerationCache.getCacheKey(third), CODE);
+        cache.waitForDiskTasks();
+
+        assertThat(mDiskDir.listFiles()).hasLength(2);
+        assertThat(getFromDisk(cache, second)).isNull();
+        assertThat(getFromDisk(cache, first)).isEqualTo(CODE);
+        assertThat(getFromDisk(cache, third)).isEqualTo(CODE);
+    }
+
+    @Test
+    public void testUnreadableFilesNotCachedOnDisk() throws InterruptedException {
+        // The files of this request do not exist, so their contents cannot be hashed.
+        CodeGenerationRequest request = newRequest(XML, Collections.singletonList("missing.json"));
+        CodeGenerationCache cache = newDiskCache(1024);
+        cache.put(request, CodeGenerationCache.getCacheKey(request), CODE);
+        cache.waitForDiskTasks();
+
+        assertThat(cache.get(CodeGenerationCache.getCacheKey(request))).isEqualTo(CODE);
+        File[] files = mDiskDir.listFiles();
+        assertThat(files == null ? 0 : files.length).isEqualTo(0);
+    }
+
+    private CodeGenerationCache newDiskCache(long maxDiskBytes) {
+        return new CodeGenerationCache(mContext, 1024, mDiskDir, maxDiskBytes);
+    }
+
+    /**
+     * Looks up a request on disk, and waits for the result.
+     */
+    @Nullable
+    private static String getFromDisk(CodeGenerationCache cache, CodeGenerationRequest request)
+            throws InterruptedException {
+        final String[] result = new String[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+        cache.getFromDisk(request, CodeGenerationCache.getCacheKey(request),
+                new CodeGenerationCache.DiskLookupCallback() {
+                    @Override
+                    public void onDiskLookupFinished(@Nullable String code) {
+                        result[0] = code;
+                        latch.countDown();
+                    }
+                });
+        assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+        return result[0];
+    }
+
+    private static CodeGenerationRequest newAssetRequest(String xml) {
+        return new CodeGenerationRequest(xml, null, DEFINITIONS, GENERATOR_ASSETS);
+    }
+
+    private static CodeGenerationRequest newRequest(String xml, List<String> definitions) {
+        return new CodeGenerationRequest(xml, null, definitions, GENERATORS);
+    }
+}
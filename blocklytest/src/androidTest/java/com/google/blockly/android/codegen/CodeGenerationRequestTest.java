@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.blockly.android.codegen;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Unit tests for {@link CodeGenerationRequest}.
+ */
+public class CodeGenerationRequestTest {
+    private static final String XML = "<xml></xml>";
+    private static final List<String> FILES = Collections.singletonList("file.js");
+
+    @Test
+    public void testSupersededBySameKey() {
+        CodeGenerationRequest first = new CodeGenerationRequest(XML, null, FILES, FILES, "key");
+        CodeGenerationRequest second = new CodeGenerationRequest(XML, null, FILES, FILES, "key");
+        CodeGenerationRequest other = new CodeGenerationRequest(XML, null, FILES, FILES, "other");
+        CodeGenerationRequest unkeyed = new CodeGenerationRequest(XML, null, FILES, FILES);
+
+        assertThat(first.isSupersededBy(second)).isTrue();
+        assertThat(first.isSupersededBy(first)).isFalse();
+        assertThat(first.isSupersededBy(other)).isFalse();
+        assertThat(first.isSupersededBy(unkeyed)).isFalse();
+        assertThat(unkeyed.isSupersededBy(new CodeGenerationRequest(XML, null, FILES, FILES)))
+                .isFalse();
+    }
+
+    @Test
+    public void testCancelledRequestDropsResult() {
+        RecordingCallback callback = new RecordingCallback();
+        CodeGenerationRequest request =
+                new CodeGenerationRequest(XML, callback, FILES, FILES, "key");
+
+        request.cancel();
+        request.cancel();  // Only notifies once.
+        request.deliverResult("code");
+
+        assertThat(request.isCancelled()).isTrue();
+        assertThat(callback.mCancelCount).isEqualTo(1);
+        assertThat(callback.mResults).isEmpty();
+    }
+
+    @Test
+    public void testDeliverResult() {
+        RecordingCallback callback = new RecordingCallback();
+        CodeGenerationRequest request =
+                new CodeGenerationRequest(XML, callback, FILES, FILES, "key");
+
+        request.deliverResult("code");
+
+        assertThat(request.isCancelled()).isFalse();
+        assertThat(callback.mCancelCount).isEqualTo(0);
+        assertThat(callback.mResults).containsExactly("code");
+    }
+
+    private static class RecordingCallback implements CodeGenerationRequest.CancellableCallback {
+        final List<String> mResults = new ArrayList<>();
+        int mCancelCount = 0;
+
+        @Override
+        public void onFinishCodeGeneration(String generatedCode) {
+            mResults.add(generatedCode);
+        }
+
+        @Override
+        public void onCodeGenerationCancelled() {
+            ++mCancelCount;
+        }
+    }
+}
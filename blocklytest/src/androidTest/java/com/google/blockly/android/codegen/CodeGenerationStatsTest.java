@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.blockly.android.codegen;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Unit tests for {@link CodeGenerationStats}.
+ */
+public class CodeGenerationStatsTest {
+    private static final List<String> FILES = Collections.singletonList("file.js");
+
+    @Test
+    public void testCompletedRequestTimings() {
+        CodeGenerationStats stats = new CodeGenerationStats();
+        final List<CodeGenerationRequest> finished = new ArrayList<>();
+        stats.setListener(new CodeGenerationStats.Listener() {
+            @Override
+            public void onRequestFinished(CodeGenerationRequest request) {
+                finished.add(request);
+            }
+        });
+
+        CodeGenerationRequest request = newRequest(null);
+        request.setStats(stats);
+        request.markEnqueued();
+        request.markQueueDepth(3);
+        request.markDispatched();
+        request.markPageLoad();
+        request.markDefinitionLoad();
+        request.markReady();
+        request.deliverResult("code");
+
+        assertThat(finished).containsExactly(request);
+        assertThat(request.getDispatchTimeNanos()).isAtLeast(request.getEnqueueTimeNanos());
+        assertThat(request.getReadyTimeNanos()).isAtLeast(request.getDispatchTimeNanos());
+        assertThat(request.getFinishTimeNanos()).isAtLeast(request.getReadyTimeNanos());
+        assertThat(stats.getRequestCount()).isEqualTo(1);
+        assertThat(stats.getCompletedCount()).isEqualTo(1);
+        assertThat(stats.getPageLoadCount()).isEqualTo(1);
+        assertThat(stats.getDefinitionLoadCount()).isEqualTo(1);
+        assertThat(stats.getMaxQueueDepth()).isEqualTo(3);
+        assertThat(stats.getMaxLatencyNanos()).isEqualTo(
+                request.getFinishTimeNanos() - request.getEnqueueTimeNanos());
+        assertThat(stats.getAverageLatencyNanos()).isEqualTo(stats.getMaxLatencyNanos());
+
+        stats.reset();
+        assertThat(stats.getRequestCount()).isEqualTo(0);
+        assertThat(stats.getMaxLatencyNanos()).isEqualTo(0);
+    }
+
+    @Test
+    public void testCancelledRequests() {
+        CodeGenerationStats stats = new CodeGenerationStats();
+
+        // Cancelled while queued.
+        CodeGenerationRequest queued = newRequest("key");
+        queued.setStats(stats);
+        queued.markEnqueued();
+        queued.cancel();
+
+        // Cancelled while generating. Counted once, when the result arrives.
+        CodeGenerationRequest inProgress = newRequest("key");
+        inProgress.setStats(stats);
+        inProgress.markEnqueued();
+        inProgress.markDispatched();
+        inProgress.cancel();
+        assertThat(stats.getCancelledCount()).isEqualTo(1);
+        inProgress.markReady();
+        inProgress.deliverResult("code");
+
+        assertThat(stats.getRequestCount()).isEqualTo(2);
+        assertThat(stats.getCancelledCount()).isEqualTo(2);
+        assertThat(stats.getCompletedCount()).isEqualTo(0);
+    }
+
+    private static CodeGenerationRequest newRequest(String key) {
+        return new CodeGenerationRequest("<xml></xml>", null, FILES, FILES, key);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.blockly.android.codegen;
+
+import android.support.test.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Unit tests for the cached results of {@link CodeGeneratorManager}.
+ */
+public class CodeGeneratorManagerTest {
+    private static final String XML = "<xml><block type=\"math_number\"/></xml>";
+    private static final List<String> FILES = Collections.singletonList("file.js");
+    private static final String CODE = "42";
+
+    private CodeGeneratorManager mManager;
+    private final List<String> mResults = new ArrayList<>();
+    private final CodeGenerationRequest.CodeGeneratorCallback mCallback =
+            new CodeGenerationRequest.CodeGeneratorCallback() {
+                @Override
+                public void onFinishCodeGeneration(String generatedCode) {
+                    mResults.add(generatedCode);
+                }
+            };
+
+    @Before
+    public void setUp() {
+        mManager = new CodeGeneratorManager(InstrumentationRegistry.getTargetContext());
+    }
+
+    @Test
+    public void testCachedResultDeliveredAfterRequestReturns() {
+        final CodeGenerationRequest request =
+                new CodeGenerationRequest(XML, mCallback, FILES, FILES);
+        mManager.getCodeGenerationCache().put(CodeGenerationCache.getCacheKey(request), CODE);
+        final int[] resultsDuringRequest = new int[1];
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mManager.onResume();
+                mManager.requestCodeGeneration(request);
+                resultsDuringRequest[0] = mResults.size();
+            }
+        });
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+
+        assertThat(resultsDuringRequest[0]).isEqualTo(0);
+        assertThat(mResults).containsExactly(CODE);
+        assertThat(mManager.getStats().getCacheHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSupersededCachedResultNotDelivered() {
+        final CodeGenerationRequest first =
+                new CodeGenerationRequest(XML, mCallback, FILES, FILES, "key");
+        final CodeGenerationRequest second =
+                new CodeGenerationRequest(XML, mCallback, FILES, FILES, "key");
+        mManager.getCodeGenerationCache().put(CodeGenerationCache.getCacheKey(first), CODE);
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mManager.onResume();
+                mManager.requestCodeGeneration(first);
+                mManager.requestCodeGeneration(second);
+            }
+        });
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+
+        assertThat(first.isCancelled()).isTrue();
+        assertThat(mResults).containsExactly(CODE);
+    }
+}
@@ -0,0 +1,153 @@
+package com.google.blockly.android.codegen;
+
+import android.app.Instrumentation;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Unit tests for {@link GeneratorContext}.
+ */
+public class GeneratorContextTest {
+    private static final List<String> NO_FILES = Collections.emptyList();
+    private static final long TIMEOUT_SECONDS = 30;
+    /**
+     * The serialized blocks are fetched by the page through the JavaScript interface, so the
+     * javascript: URL only carries the request id and needs no escaping.
+     */
+    @Test
+    public void testGenerateUrlOnlyContainsRequestId() {
+        assertThat(GeneratorContext.buildGenerateUrl(7))
+                .isEqualTo("javascript:generateRequest(7);");
+    }
+
+    /**
+     * XML with characters that would need escaping in a URL or a JavaScript string literal is
+     * passed to the page through {@code getRequestXml()} unchanged.
+     */
+    @Test
+    public void testRequestXmlRoundTrip() throws InterruptedException {
+        final String xml = "<xml xmlns=\"http://www.w3.org/1999/xhtml\">\n"
+                + "  <block type=\"text\" id='a\\b'>"
+                + "<field name=\"TEXT\">He said \"it's\" C:\\path\\n\r\nnext');</field>"
+                + "</block>\n</xml>";
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        final GeneratorContext.Listener listener = new GeneratorContext.Listener() {
+            @Override
+            public void onContextIdle(GeneratorContext context) {
+            }
+        };
+        final GeneratorContext[] context = new GeneratorContext[1];
+        final ResultCallback loaded = new ResultCallback();
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                context[0] = new GeneratorContext(
+                        InstrumentationRegistry.getTargetContext(), listener);
+                context[0].start(new CodeGenerationRequest("<xml></xml>", loaded,
+                        NO_FILES, NO_FILES), SystemClock.uptimeMillis());
+            }
+        });
+        assertThat(loaded.await()).isNotNull();
+
+        final ResultCallback echoed = new ResultCallback();
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                // Replaces code generation with returning the XML fetched by the page.
+                context[0].getWebView().loadUrl("javascript:generate = function(xml) {"
+                        + " BlocklyJavascriptInterface.execute(xml); };");
+                context[0].start(new CodeGenerationRequest(xml, echoed, NO_FILES, NO_FILES),
+                        SystemClock.uptimeMillis());
+            }
+        });
+        try {
+            assertThat(echoed.await()).isEqualTo(xml);
+        } finally {
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    context[0].destroy();
+                }
+            });
+        }
+    }
+
+    /**
+     * A definitions file that is not valid JSON still finishes the request, and the context can
+     * take the next request.
+     */
+    @Test
+    public void testBadDefinitionsFileFinishesRequest() throws InterruptedException {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        final CountDownLatch idle = new CountDownLatch(2);
+        final GeneratorContext.Listener listener = new GeneratorContext.Listener() {
+            @Override
+            public void onContextIdle(GeneratorContext context) {
+                idle.countDown();
+            }
+        };
+        final GeneratorContext[] context = new GeneratorContext[1];
+        final ResultCallback bad = new ResultCallback();
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                context[0] = new GeneratorContext(
+                        InstrumentationRegistry.getTargetContext(), listener);
+                // The toolbox is XML, so parsing it as block definitions fails in the page.
+                context[0].start(new CodeGenerationRequest("<xml></xml>", bad,
+                        Collections.singletonList("default/toolbox.xml"), NO_FILES),
+                        SystemClock.uptimeMillis());
+            }
+        });
+        try {
+            assertThat(bad.await()).isEmpty();
+
+            final ResultCallback next = new ResultCallback();
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    assertThat(context[0].isIdle()).isTrue();
+                    context[0].start(new CodeGenerationRequest("<xml></xml>", next,
+                            NO_FILES, NO_FILES), SystemClock.uptimeMillis());
+                }
+            });
+            assertThat(next.await()).isNotNull();
+            assertThat(idle.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue();
+        } finally {
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    context[0].destroy();
+                }
+            });
+        }
+    }
+
+    /**
+     * Waits for the result of a request.
+     */
+    private static class ResultCallback implements CodeGenerationRequest.CodeGeneratorCallback {
+        private final CountDownLatch mLatch = new CountDownLatch(1);
+        private String mCode = null;
+
+        @Override
+        public void onFinishCodeGeneration(String generatedCode) {
+            mCode = generatedCode;
+            mLatch.countDown();
+        }
+
+        String await() throws InterruptedException {
+            assertThat(mLatch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue();
+            return mCode;
+        }
+    }
+}
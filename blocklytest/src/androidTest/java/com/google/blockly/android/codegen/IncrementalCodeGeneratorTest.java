@@ -0,0 +1,196 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.blockly.android.codegen;
+
+import com.google.blockly.android.BlocklyTestCase;
+import com.google.blockly.android.control.BlocklyController;
+import com.google.blockly.android.test.R;
+import com.google.blockly.model.Block;
+import com.google.blockly.model.BlockFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Unit tests for {@link IncrementalCodeGenerator}.
+ */
+public class IncrementalCodeGeneratorTest extends BlocklyTestCase {
+    private static final List<String> FILES = Collections.singletonList("file.js");
+    private static final Pattern BLOCK_ID = Pattern.compile("id=\"([^\"]*)\"");
+
+    private BlocklyController mController;
+    private BlockFactory mBlockFactory;
+    private FakeManager mManager;
+    private IncrementalCodeGenerator mGenerator;
+    private final List<String> mResults = new ArrayList<>();
+    private final CodeGenerationRequest.CodeGeneratorCallback mCallback =
+            new CodeGenerationRequest.CodeGeneratorCallback() {
+                @Override
+                public void onFinishCodeGeneration(String generatedCode) {
+                    mResults.add(generatedCode);
+                }
+            };
+
+    @Before
+    public void setUp() throws Exception {
+        configureForUIThread();
+        mController = new BlocklyController.Builder(getContext())
+                .addBlockDefinitions(R.raw.test_blocks)
+                .build();
+        mBlockFactory = mController.getBlockFactory();
+        mManager = new FakeManager();
+        mGenerator = new IncrementalCodeGenerator(mController, mManager, FILES, FILES);
+    }
+
+    @Test
+    public void testOnlyChangedStacksRegenerated() throws Exception {
+        Block first = mBlockFactory.obtainBlock("statement_no_input", "first");
+        Block second = mBlockFactory.obtainBlock("statement_value_input", "second");
+        mController.addRootBlock(first);
+        mController.addRootBlock(second);
+
+        mGenerator.requestCodeGeneration(mCallback);
+        assertThat(mManager.mRequestedRoots).containsExactly("first", "second").inOrder();
+        assertThat(mResults).containsExactly("first\nsecond");
+
+        mManager.mRequestedRoots.clear();
+        Block number = mBlockFactory.obtainBlock("math_number", "number");
+        mController.addRootBlock(number);
+        mController.connect(number.getOutputConnection(),
+                second.getInputByName("value").getConnection());
+        mGenerator.requestCodeGeneration(mCallback);
+
+        assertThat(mManager.mRequestedRoots).containsExactly("second");
+        assertThat(mGenerator.getRegeneratedFragmentCount()).isEqualTo(3);
+        assertThat(mResults.get(1)).isEqualTo("first\nsecond");
+    }
+
+    @Test
+    public void testUnchangedWorkspaceNotRegenerated() throws Exception {
+        mController.addRootBlock(mBlockFactory.obtainBlock("statement_no_input", "first"));
+        mGenerator.requestCodeGeneration(mCallback);
+        mManager.mRequestedRoots.clear();
+
+        mGenerator.requestCodeGeneration(mCallback);
+        assertThat(mManager.mRequestedRoots).isEmpty();
+        assertThat(mResults).containsExactly("first", "first").inOrder();
+    }
+
+    @Test
+    public void testDeletedStackDropped() throws Exception {
+        Block first = mBlockFactory.obtainBlock("statement_no_input", "first");
+        mController.addRootBlock(first);
+        mController.addRootBlock(mBlockFactory.obtainBlock("statement_no_input", "second"));
+        mGenerator.requestCodeGeneration(mCallback);
+        mManager.mRequestedRoots.clear();
+
+        mController.trashRootBlock(first);
+        mGenerator.requestCodeGeneration(mCallback);
+        assertThat(mManager.mRequestedRoots).isEmpty();
+        assertThat(mResults.get(1)).isEqualTo("second");
+    }
+
+    @Test
+    public void testDroppedStackRegenerated() throws Exception {
+        mController.addRootBlock(mBlockFactory.obtainBlock("statement_no_input", "first"));
+        mManager.mDropRequests = true;
+        mGenerator.requestCodeGeneration(mCallback);
+        assertThat(mManager.mRequestedRoots).containsExactly("first");
+        assertThat(mResults).isEmpty();
+
+        mManager.mDropRequests = false;
+        mManager.mRequestedRoots.clear();
+        mGenerator.requestCodeGeneration(mCallback);
+        assertThat(mManager.mRequestedRoots).containsExactly("first");
+        assertThat(mResults).containsExactly("first");
+    }
+
+    @Test
+    public void testFailedStackRegenerated() throws Exception {
+        mController.addRootBlock(mBlockFactory.obtainBlock("statement_no_input", "first"));
+        mController.addRootBlock(mBlockFactory.obtainBlock("statement_no_input", "second"));
+        mManager.mFailingRoots.add("first");
+        mGenerator.requestCodeGeneration(mCallback);
+        assertThat(mResults).containsExactly("second");
+
+        mManager.mFailingRoots.clear();
+        mManager.mRequestedRoots.clear();
+        mGenerator.requestCodeGeneration(mCallback);
+        assertThat(mManager.mRequestedRoots).containsExactly("first");
+        assertThat(mResults.get(1)).isEqualTo("first\nsecond");
+    }
+
+    /**
+     * Fragments are joined in the on-screen order of the stacks, as in the code of the whole
+     * workspace, not in the order the root blocks were added.
+     */
+    @Test
+    public void testStacksJoinedInPositionOrder() throws Exception {
+        Block lower = mBlockFactory.obtainBlock("statement_no_input", "lower");
+        lower.setPosition(0, 200);
+        Block upper = mBlockFactory.obtainBlock("statement_no_input", "upper");
+        upper.setPosition(300, 0);
+        Block upperStart = mBlockFactory.obtainBlock("statement_no_input", "upperStart");
+        upperStart.setPosition(0, 0);
+        mController.addRootBlock(lower);
+        mController.addRootBlock(upper);
+        mController.addRootBlock(upperStart);
+
+        mGenerator.requestCodeGeneration(mCallback);
+        assertThat(mResults).containsExactly("upperStart\nupper\nlower");
+
+        // Moving a stack reorders the fragments without regenerating any of them.
+        mManager.mRequestedRoots.clear();
+        lower.setPosition(0, -100);
+        mGenerator.requestCodeGeneration(mCallback);
+        assertThat(mManager.mRequestedRoots).isEmpty();
+        assertThat(mResults.get(1)).isEqualTo("lower\nupperStart\nupper");
+    }
+
+    /**
+     * Responds to each request with the id of the root block, without a service. Requests can be
+     * dropped without a response, and stacks can fail with an empty response.
+     */
+    private class FakeManager extends CodeGeneratorManager {
+        final List<String> mRequestedRoots = new ArrayList<>();
+        final List<String> mFailingRoots = new ArrayList<>();
+        boolean mDropRequests = false;
+
+        FakeManager() {
+            super(getContext());
+        }
+
+        @Override
+        public void requestCodeGeneration(CodeGenerationRequest request) {
+            Matcher matcher = BLOCK_ID.matcher(request.getXml());
+            assertThat(matcher.find()).isTrue();
+            String rootId = matcher.group(1);
+            mRequestedRoots.add(rootId);
+            if (!mDropRequests) {
+                request.getCallback().onFinishCodeGeneration(
+                        mFailingRoots.contains(rootId) ? "" : rootId);
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.blockly.android.codegen;
+
+import com.google.blockly.android.BlocklyTestCase;
+import com.google.blockly.android.control.BlocklyController;
+import com.google.blockly.android.test.R;
+import com.google.blockly.model.Block;
+import com.google.blockly.model.BlockFactory;
+import com.google.blockly.model.BlockSnapshot;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Unit tests for {@link JavaCodeGenerator}.
+ */
+public class JavaCodeGeneratorTest extends BlocklyTestCase {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private BlocklyController mController;
+    private BlockFactory mBlockFactory;
+    private JavaCodeGenerator mGenerator;
+
+    @Before
+    public void setUp() throws Exception {
+        configureForUIThread();
+        mController = new BlocklyController.Builder(getContext())
+                .addBlockDefinitions(R.raw.test_blocks)
+                .build();
+        mBlockFactory = mController.getBlockFactory();
+
+        mGenerator = new JavaCodeGenerator();
+        mGenerator.addBlockGenerator("math_number", new JavaCodeGenerator.BlockGenerator() {
+            @Override
+            public String toCode(JavaCodeGenerator generator, BlockSnapshot block) {
+                return block.getFieldValue("NUM");
+            }
+        });
+        mGenerator.addBlockGenerator("statement_value_input",
+                new JavaCodeGenerator.BlockGenerator() {
+                    @Override
+                    public String toCode(JavaCodeGenerator generator, BlockSnapshot block) {
+                        return "print(" + generator.valueToCode(block, "value") + ");\n";
+                    }
+                });
+        mGenerator.addBlockGenerator("statement_statement_input",
+                new JavaCodeGenerator.BlockGenerator() {
+                    @Override
+                    public String toCode(JavaCodeGenerator generator, BlockSnapshot block) {
+                        return "{\n" + generator.statementToCode(block, "statement input") + "}\n";
+                    }
+                });
+    }
+
+    @Test
+    public void testNestedBlocks() {
+        Block loop = mBlockFactory.obtainBlock("statement_statement_input", "loop");
+        Block first = mBlockFactory.obtainBlock("statement_value_input", "first");
+        Block second = mBlockFactory.obtainBlock("statement_value_input", "second");
+        Block number = mBlockFactory.obtainBlock("math_number", "number");
+        number.getFieldByName("NUM").setFromString("42");
+        mController.addRootBlock(loop);
+        mController.addRootBlock(first);
+        mController.addRootBlock(second);
+        mController.addRootBlock(number);
+        mController.connect(number.getOutputConnection(),
+                first.getInputByName("value").getConnection());
+        mController.connect(second.getPreviousConnection(), first.getNextConnection());
+        mController.connect(first.getPreviousConnection(),
+                loop.getInputByName("statement input").getConnection());
+
+        assertThat(mGenerator.workspaceToCode(mController.getWorkspace().getSnapshot()))
+                .isEqualTo("{\n  print(42);\n  print();\n}\n");
+    }
+
+    @Test
+    public void testDisabledBlockSkipped() {
+        Block first = mBlockFactory.obtainBlock("statement_value_input", "first");
+        Block second = mBlockFactory.obtainBlock("statement_value_input", "second");
+        mController.addRootBlock(first);
+        mController.addRootBlock(second);
+        mController.connect(second.getPreviousConnection(), first.getNextConnection());
+        first.setDisabled(true);
+
+        assertThat(mGenerator.workspaceToCode(mController.getWorkspace().getSnapshot()))
+                .isEqualTo("print();\n");
+    }
+
+    @Test
+    public void testMissingGeneratorThrows() {
+        mController.addRootBlock(mBlockFactory.obtainBlock("statement_no_input", "first"));
+        thrown.expect(IllegalStateException.class);
+        mGenerator.workspaceToCode(mController.getWorkspace().getSnapshot());
+    }
+
+    @Test
+    public void testGenerateReportsErrorAsEmptyCode() {
+        mController.addRootBlock(mBlockFactory.obtainBlock("statement_no_input", "first"));
+        final List<String> results = new ArrayList<>();
+        mGenerator.generate(mController.getWorkspace().getSnapshot(),
+                new CodeGenerationRequest.CodeGeneratorCallback() {
+                    @Override
+                    public void onFinishCodeGeneration(String generatedCode) {
+                        results.add(generatedCode);
+                    }
+                });
+        assertThat(results).containsExactly("");
+    }
+
+    @Test
+    public void testIndent() {
+        mGenerator.setIndent("\t");
+        assertThat(mGenerator.indent("a\n\nb\n")).isEqualTo("\ta\n\n\tb\n");
+        assertThat(mGenerator.indent("")).isEqualTo("");
+    }
+}
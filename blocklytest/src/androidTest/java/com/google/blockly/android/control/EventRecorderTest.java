@@ -0,0 +1,149 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.blockly.android.control;
+
+import com.google.blockly.android.BlocklyTestCase;
+import com.google.blockly.android.test.R;
+import com.google.blockly.model.Block;
+import com.google.blockly.model.BlockFactory;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Unit tests for {@link EventRecorder}.
+ */
+public class EventRecorderTest extends BlocklyTestCase {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    BlocklyController mController;
+    BlockFactory mBlockFactory;
+    EventRecorder mRecorder;
+
+    @Before
+    public void setUp() throws Exception {
+        configureForUIThread();
+        mController = new BlocklyController.Builder(getContext())
+                .addBlockDefinitions(R.raw.test_blocks)
+                .build();
+        mBlockFactory = mController.getBlockFactory();
+        mRecorder = new EventRecorder(3);
+        mController.setEventRecorder(mRecorder);
+    }
+
+    @Test
+    public void testRecordsWithoutCallbacks() {
+        Block first = mBlockFactory.obtainBlock("statement_no_input", "first");
+        Block second = mBlockFactory.obtainBlock("statement_no_input", "second");
+        mController.addRootBlock(first);
+        mController.addRootBlock(second);
+        mController.connect(second.getPreviousConnection(), first.getNextConnection());
+
+        List<EventRecorder.Entry> entries = mRecorder.getEntries();
+        assertThat(entries.size()).isEqualTo(3);
+        assertThat(entries.get(0).getType()).isEqualTo(BlocklyEvent.TYPE_CREATE);
+        assertThat(entries.get(0).getBlockId()).isEqualTo("first");
+        assertThat(entries.get(2).getType()).isEqualTo(BlocklyEvent.TYPE_MOVE);
+        assertThat(entries.get(2).getBlockId()).isEqualTo("second");
+        assertThat(entries.get(2).getDetail()).isEqualTo("first");  // New parent.
+        assertThat(entries.get(2).getGroupSequence())
+                .isGreaterThan(entries.get(0).getGroupSequence());
+        assertThat(entries.get(2).getTimestampNanos())
+                .isAtLeast(entries.get(0).getTimestampNanos());
+    }
+
+    @Test
+    public void testRecordsCreatesInTheirGroup() {
+        // No callback handles creates and deletes, so they are recorded without events.
+        Block parent = mBlockFactory.obtainBlock("statement_no_input", "parent");
+        mController.addRootBlock(parent);
+        mController.trashRootBlock(parent);
+
+        List<EventRecorder.Entry> entries = mRecorder.getEntries();
+        assertThat(entries.size()).isEqualTo(2);
+        assertThat(entries.get(0).getType()).isEqualTo(BlocklyEvent.TYPE_CREATE);
+        assertThat(entries.get(0).getBlockId()).isEqualTo("parent");
+        assertThat(entries.get(0).getTimestampNanos()).isGreaterThan(0L);
+        assertThat(entries.get(1).getType()).isEqualTo(BlocklyEvent.TYPE_DELETE);
+        assertThat(entries.get(1).getBlockId()).isEqualTo("parent");
+        assertThat(entries.get(1).getGroupSequence())
+                .isEqualTo(entries.get(0).getGroupSequence() + 1);
+    }
+
+    @Test
+    public void testTypesBitmask() {
+        EventRecorder recorder = new EventRecorder(3, BlocklyEvent.TYPE_MOVE);
+        mController.setEventRecorder(recorder);
+        Block first = mBlockFactory.obtainBlock("statement_no_input", "first");
+        Block second = mBlockFactory.obtainBlock("statement_no_input", "second");
+        mController.addRootBlock(first);
+        mController.addRootBlock(second);
+        mController.connect(second.getPreviousConnection(), first.getNextConnection());
+
+        List<EventRecorder.Entry> entries = recorder.getEntries();
+        assertThat(entries.size()).isEqualTo(1);
+        assertThat(entries.get(0).getType()).isEqualTo(BlocklyEvent.TYPE_MOVE);
+        assertThat(entries.get(0).getGroupSequence()).isEqualTo(0);
+    }
+
+    @Test
+    public void testOverwritesOldest() {
+        for (int i = 0; i < 5; ++i) {
+            mController.addRootBlock(mBlockFactory.obtainBlock("statement_no_input", "block" + i));
+        }
+
+        List<EventRecorder.Entry> entries = mRecorder.getEntries();
+        assertThat(mRecorder.size()).isEqualTo(3);
+        assertThat(entries.get(0).getBlockId()).isEqualTo("block2");
+        assertThat(entries.get(2).getBlockId()).isEqualTo("block4");
+
+        mRecorder.clear();
+        assertThat(mRecorder.getEntries()).isEmpty();
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        mController.addRootBlock(mBlockFactory.obtainBlock("statement_no_input", "first"));
+        mController.addRootBlock(mBlockFactory.obtainBlock("statement_no_input", "second"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mRecorder.writeTo(out);
+        List<EventRecorder.Entry> read =
+                EventRecorder.readFrom(new ByteArrayInputStream(out.toByteArray()));
+
+        List<EventRecorder.Entry> expected = mRecorder.getEntries();
+        assertThat(read.size()).isEqualTo(expected.size());
+        for (int i = 0; i < read.size(); ++i) {
+            assertThat(read.get(i).toString()).isEqualTo(expected.get(i).toString());
+        }
+    }
+
+    @Test
+    public void testReadInvalid() throws IOException {
+        thrown.expect(IOException.class);
+        EventRecorder.readFrom(new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 5, 6, 7, 8}));
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.blockly.android.control;
+
+import android.support.test.filters.LargeTest;
+import android.util.Log;
+
+import com.google.blockly.android.BlocklyTestCase;
+import com.google.blockly.android.test.R;
+import com.google.blockly.model.Block;
+import com.google.blockly.model.BlockFactory;
+
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Unit tests for {@link EventReplayer}, via {@link BlocklyController#applyEvents(List)}. Events
+ * fired by a source controller are serialized and applied to a mirror controller.
+ */
+public class EventReplayerTest extends BlocklyTestCase {
+    private static final String TAG = "EventReplayerTest";
+    // The replay rate needed to keep up with a local server relaying several editors.
+    private static final int MIN_EVENTS_PER_SECOND = 1000;
+
+    BlocklyController mSource;
+    BlocklyController mMirror;
+
+    List<BlocklyEvent> mSourceEvents = new ArrayList<>();
+    int mMirrorGroupCount = 0;
+
+    @Before
+    public void setUp() throws Exception {
+        configureForUIThread();
+        mSource = new BlocklyController.Builder(getContext())
+                .addBlockDefinitions(R.raw.test_blocks)
+                .build();
+        mSource.addCallback(new BlocklyController.EventsCallback() {
+            @Override
+            public int getTypesBitmask() {
+                return BlocklyEvent.TYPE_ALL;
+            }
+
+            @Override
+            public void onEventGroup(List<BlocklyEvent> events) {
+                mSourceEvents.addAll(events);
+            }
+        });
+
+        mMirror = new BlocklyController.Builder(getContext())
+                .addBlockDefinitions(R.raw.test_blocks)
+                .build();
+        mMirror.addCallback(new BlocklyController.EventsCallback() {
+            @Override
+            public int getTypesBitmask() {
+                return BlocklyEvent.TYPE_ALL;
+            }
+
+            @Override
+            public void onEventGroup(List<BlocklyEvent> events) {
+                ++mMirrorGroupCount;
+            }
+        });
+    }
+
+    @Test
+    public void testApplyCreate() throws JSONException {
+        mSource.addRootBlock(mSource.getBlockFactory().obtainBlock("statement_no_input", "first"));
+        assertThat(replaySourceEvents()).isEqualTo(1);
+
+        Block mirrored = mMirror.getBlockFactory().getBlock("first");
+        assertThat(mirrored).isNotNull();
+        assertThat(mirrored.getType()).isEqualTo("statement_no_input");
+        assertThat(mMirror.getWorkspace().isRootBlock(mirrored)).isTrue();
+        assertThat(mMirrorGroupCount).isEqualTo(1);
+
+        // Applying the same creation again is ignored.
+        mSource.addRootBlock(mSource.getBlockFactory().obtainBlock("statement_no_input", "second"));
+        mSourceEvents.add(0, new BlocklyEvent.CreateEvent(mSource.getWorkspace(),
+                mSource.getBlockFactory().getBlock("first")));
+        assertThat(replaySourceEvents()).isEqualTo(1);
+        assertThat(mMirror.getWorkspace().getRootBlocks().size()).isEqualTo(2);
+    }
+
+    @Test
+    public void testApplyMove() throws JSONException {
+        Block first = mSource.getBlockFactory().obtainBlock("statement_no_input", "first");
+        Block second = mSource.getBlockFactory().obtainBlock("statement_no_input", "second");
+        mSource.addRootBlock(first);
+        mSource.addRootBlock(second);
+        replaySourceEvents();
+
+        mSource.connect(second.getPreviousConnection(), first.getNextConnection());
+        assertThat(replaySourceEvents()).isEqualTo(1);
+        Block mirrorFirst = mMirror.getBlockFactory().getBlock("first");
+        Block mirrorSecond = mMirror.getBlockFactory().getBlock("second");
+        assertThat(mirrorFirst.getNextBlock()).isSameAs(mirrorSecond);
+        assertThat(mMirror.getWorkspace().isRootBlock(mirrorSecond)).isFalse();
+
+        mSource.extractBlockAsRoot(second);
+        replaySourceEvents();
+        assertThat(mirrorFirst.getNextBlock()).isNull();
+        assertThat(mMirror.getWorkspace().isRootBlock(mirrorSecond)).isTrue();
+    }
+
+    @Test
+    public void testApplyMoveToStatementInput() throws JSONException {
+        Block parent = mSource.getBlockFactory().obtainBlock("statement_statement_input", "parent");
+        Block child = mSource.getBlockFactory().obtainBlock("statement_no_input", "child");
+        mSource.addRootBlock(parent);
+        mSource.addRootBlock(child);
+        replaySourceEvents();
+
+        mSource.connect(child.getPreviousConnection(),
+                parent.getInputByName("statement input").getConnection());
+        assertThat(replaySourceEvents()).isEqualTo(1);
+        Block mirrorParent = mMirror.getBlockFactory().getBlock("parent");
+        Block mirrorChild = mMirror.getBlockFactory().getBlock("child");
+        assertThat(mirrorParent.getInputByName("statement input").getConnectedBlock())
+                .isSameAs(mirrorChild);
+        assertThat(mirrorParent.getNextBlock()).isNull();
+        assertThat(mMirror.getWorkspace().isRootBlock(mirrorChild)).isFalse();
+    }
+
+    @Test
+    public void testApplyDelete() throws JSONException {
+        Block block = mSource.getBlockFactory().obtainBlock("statement_no_input", "first");
+        mSource.addRootBlock(block);
+        replaySourceEvents();
+
+        mSource.trashRootBlock(block);
+        assertThat(replaySourceEvents()).isEqualTo(1);
+        assertThat(mMirror.getWorkspace().getRootBlocks()).isEmpty();
+    }
+
+    @Test
+    public void testApplyCreateAfterDelete() throws JSONException {
+        Block block = mSource.getBlockFactory().obtainBlock("statement_no_input", "first");
+        mSource.addRootBlock(block);
+        replaySourceEvents();
+        // Held like the trash or undo history would, so the factory still knows the deleted block.
+        Block deleted = mMirror.getBlockFactory().getBlock("first");
+
+        mSource.trashRootBlock(block);
+        mSource.addBlockFromTrash(block);
+        assertThat(replaySourceEvents()).isEqualTo(2);
+
+        Block recreated = mMirror.getBlockFactory().getBlock("first");
+        assertThat(recreated).isNotSameAs(deleted);
+        assertThat(mMirror.getWorkspace().isRootBlock(recreated)).isTrue();
+        assertThat(mMirror.getWorkspace().isRootBlock(deleted)).isFalse();
+    }
+
+    @LargeTest
+    @Test
+    public void testReplayThroughput() throws JSONException {
+        // Each pair of blocks is created, connected, disconnected and deleted: six events.
+        BlockFactory factory = mSource.getBlockFactory();
+        for (int i = 0; i < 500; ++i) {
+            Block first = factory.obtainBlock("statement_no_input", "first" + i);
+            Block second = factory.obtainBlock("statement_no_input", "second" + i);
+            mSource.addRootBlock(first);
+            mSource.addRootBlock(second);
+            mSource.connect(second.getPreviousConnection(), first.getNextConnection());
+            mSource.extractBlockAsRoot(second);
+            mSource.trashRootBlock(first);
+            mSource.trashRootBlock(second);
+        }
+        List<BlocklyEvent> events = new ArrayList<>(mSourceEvents.size());
+        for (BlocklyEvent event : mSourceEvents) {
+            events.add(BlocklyEvent.fromJson(event.toJsonString()));
+        }
+        mSourceEvents.clear();
+
+        long startNanos = System.nanoTime();
+        int applied = mMirror.applyEvents(events);
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        double eventsPerSecond = events.size() * 1e9 / elapsedNanos;
+        Log.i(TAG, "Replayed " + events.size() + " events at " + (int) eventsPerSecond
+                + " events/s.");
+        assertThat(applied).isEqualTo(events.size());
+        assertThat(mMirror.getWorkspace().getRootBlocks()).isEmpty();
+        assertThat(eventsPerSecond).isAtLeast((double) MIN_EVENTS_PER_SECOND);
+    }
+
+    @Test
+    public void testUnknownBlocksIgnored() throws JSONException {
+        Block block = mSource.getBlockFactory().obtainBlock("statement_no_input", "first");
+        mSource.addRootBlock(block);
+        mSourceEvents.clear();  // Mirror never sees the creation.
+
+        mSource.trashRootBlock(block);
+        assertThat(replaySourceEvents()).isEqualTo(0);
+        assertThat(mMirrorGroupCount).isEqualTo(0);
+    }
+
+    @Test
+    public void testMutateEventSkipped() throws JSONException {
+        Block block = mSource.getBlockFactory().obtainBlock("statement_no_input", "first");
+        mSource.addRootBlock(block);
+        replaySourceEvents();
+
+        mSourceEvents.add(BlocklyEvent.ChangeEvent.newMutateEvent(
+                mSource.getWorkspace(), block, null, "<mutation items=\"2\"></mutation>"));
+        assertThat(replaySourceEvents()).isEqualTo(0);
+    }
+
+    @Test
+    public void testReplayNotRecordedForUndo() throws JSONException {
+        mMirror.setUndoHistoryLimit(10);
+        mSource.addRootBlock(mSource.getBlockFactory().obtainBlock("statement_no_input", "first"));
+        replaySourceEvents();
+
+        assertThat(mMirror.canUndo()).isFalse();
+    }
+
+    @Test
+    public void testReplayClearsLocalUndoHistory() throws JSONException {
+        mMirror.setUndoHistoryLimit(10);
+        mMirror.addRootBlock(mMirror.getBlockFactory().obtainBlock("statement_no_input", "local"));
+        assertThat(mMirror.canUndo()).isTrue();
+
+        mSourceEvents.clear();
+        assertThat(replaySourceEvents()).isEqualTo(0);
+        assertThat(mMirror.canUndo()).isTrue();  // Nothing changed.
+
+        mSource.addRootBlock(mSource.getBlockFactory().obtainBlock("statement_no_input", "first"));
+        assertThat(replaySourceEvents()).isEqualTo(1);
+        assertThat(mMirror.canUndo()).isFalse();
+        assertThat(mMirror.canRedo()).isFalse();
+    }
+
+    /**
+     * Serializes all events fired by the source since the last call, and applies them to the
+     * mirror.
+     *
+     * @return The number of events applied.
+     */
+    private int replaySourceEvents() throws JSONException {
+        List<BlocklyEvent> deserialized = new ArrayList<>(mSourceEvents.size());
+        for (BlocklyEvent event : mSourceEvents) {
+            deserialized.add(BlocklyEvent.fromJson(event.toJsonString()));
+        }
+        mSourceEvents.clear();
+        return mMirror.applyEvents(deserialized);
+    }
+}
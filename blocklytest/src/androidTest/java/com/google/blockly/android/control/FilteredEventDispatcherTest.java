@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.blockly.android.control;
+
+import com.google.blockly.android.BlocklyTestCase;
+import com.google.blockly.android.test.R;
+import com.google.blockly.model.Block;
+import com.google.blockly.model.BlockFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Unit tests for callbacks registered with a {@link BlocklyEventFilter}.
+ */
+public class FilteredEventDispatcherTest extends BlocklyTestCase {
+    BlocklyController mController;
+    BlockFactory mBlockFactory;
+
+    @Before
+    public void setUp() throws Exception {
+        configureForUIThread();
+        mController = new BlocklyController.Builder(getContext())
+                .addBlockDefinitions(R.raw.test_blocks)
+                .build();
+        mBlockFactory = mController.getBlockFactory();
+    }
+
+    @Test
+    public void testFilterByBlockId() {
+        RecordingCallback callback = new RecordingCallback(BlocklyEvent.TYPE_ALL);
+        mController.addCallback(callback,
+                new BlocklyEventFilter.Builder().addBlockId("second").build());
+
+        mController.addRootBlock(mBlockFactory.obtainBlock("statement_no_input", "first"));
+        assertThat(callback.mGroups).isEmpty();
+
+        mController.addRootBlock(mBlockFactory.obtainBlock("statement_no_input", "second"));
+        assertThat(callback.mGroups.size()).isEqualTo(1);
+        assertThat(callback.mGroups.get(0).size()).isEqualTo(1);
+        assertThat(callback.mGroups.get(0).get(0).getBlockId()).isEqualTo("second");
+    }
+
+    @Test
+    public void testFilterByBlockType() {
+        RecordingCallback callback = new RecordingCallback(BlocklyEvent.TYPE_CREATE);
+        mController.addCallback(callback,
+                new BlocklyEventFilter.Builder().addBlockType("output_foo").build());
+
+        mController.addRootBlock(mBlockFactory.obtainBlock("statement_no_input", "first"));
+        mController.addRootBlock(mBlockFactory.obtainBlock("output_foo", "second"));
+        assertThat(callback.mGroups.size()).isEqualTo(1);
+        assertThat(callback.mGroups.get(0).get(0).getBlockId()).isEqualTo("second");
+    }
+
+    @Test
+    public void testFilterByTypeBitmask() {
+        RecordingCallback callback = new RecordingCallback(BlocklyEvent.TYPE_DELETE);
+        mController.addCallback(callback,
+                new BlocklyEventFilter.Builder().addBlockId("first").build());
+
+        Block block = mBlockFactory.obtainBlock("statement_no_input", "first");
+        mController.addRootBlock(block);
+        assertThat(callback.mGroups).isEmpty();
+
+        mController.trashRootBlock(block);
+        assertThat(callback.mGroups.size()).isEqualTo(1);
+        assertThat(callback.mGroups.get(0).get(0).getTypeId())
+                .isEqualTo(BlocklyEvent.TYPE_DELETE);
+    }
+
+    @Test
+    public void testFilterBySubtree() {
+        Block root = mBlockFactory.obtainBlock("statement_no_input", "root");
+        Block child = mBlockFactory.obtainBlock("statement_no_input", "child");
+        Block other = mBlockFactory.obtainBlock("statement_no_input", "other");
+        mController.addRootBlock(root);
+        mController.addRootBlock(child);
+        mController.addRootBlock(other);
+
+        RecordingCallback callback = new RecordingCallback(BlocklyEvent.TYPE_MOVE);
+        mController.addCallback(callback,
+                new BlocklyEventFilter.Builder().setSubtreeRoot("root").build());
+
+        mController.connect(child.getPreviousConnection(), root.getNextConnection());
+        assertThat(callback.mGroups.size()).isEqualTo(1);
+        assertThat(callback.mGroups.get(0).get(0).getBlockId()).isEqualTo("child");
+
+        // Descendants of descendants are also in the subtree.
+        mController.connect(other.getPreviousConnection(), child.getNextConnection());
+        assertThat(callback.mGroups.size()).isEqualTo(2);
+
+        // Blocks moved out of the subtree.
+        mController.extractBlockAsRoot(other);
+        assertThat(callback.mGroups.size()).isEqualTo(3);
+        assertThat(callback.mGroups.get(2).get(0).getBlockId()).isEqualTo("other");
+    }
+
+    @Test
+    public void testRemoveFilteredCallback() {
+        RecordingCallback callback = new RecordingCallback(BlocklyEvent.TYPE_ALL);
+        mController.addCallback(callback, new BlocklyEventFilter.Builder().build());
+        assertThat(mController.removeCallback(callback)).isTrue();
+
+        mController.addRootBlock(mBlockFactory.obtainBlock("statement_no_input", "first"));
+        assertThat(callback.mGroups).isEmpty();
+        assertThat(mController.removeCallback(callback)).isFalse();
+    }
+
+    private static class RecordingCallback implements BlocklyController.EventsCallback {
+        final int mTypes;
+        final List<List<BlocklyEvent>> mGroups = new ArrayList<>();
+
+        RecordingCallback(int types) {
+            mTypes = types;
+        }
+
+        @Override
+        public int getTypesBitmask() {
+            return mTypes;
+        }
+
+        @Override
+        public void onEventGroup(List<BlocklyEvent> events) {
+            mGroups.add(new ArrayList<>(events));
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.blockly.android.control;
+
+import com.google.blockly.android.BlocklyTestCase;
+import com.google.blockly.android.test.R;
+import com.google.blockly.model.Block;
+import com.google.blockly.model.BlockFactory;
+import com.google.blockly.model.Input;
+import com.google.blockly.model.Workspace;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Unit tests for {@link UndoManager}, via {@link BlocklyController#undo()} and
+ * {@link BlocklyController#redo()}.
+ */
+public class UndoManagerTest extends BlocklyTestCase {
+    BlocklyController mController;
+    BlockFactory mBlockFactory;
+    Workspace mWorkspace;
+
+    List<BlocklyEvent> mEventsFired = new ArrayList<>();
+    BlocklyController.EventsCallback mCallback = new BlocklyController.EventsCallback() {
+        @Override
+        public int getTypesBitmask() {
+            return BlocklyEvent.TYPE_ALL;
+        }
+
+        @Override
+        public void onEventGroup(List<BlocklyEvent> events) {
+            mEventsFired.addAll(events);
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        configureForUIThread();
+        mController = new BlocklyController.Builder(getContext())
+                .addBlockDefinitions(R.raw.test_blocks)
+                .setUndoHistoryLimit(3)
+                .build();
+        mController.addCallback(mCallback);
+        mBlockFactory = mController.getBlockFactory();
+        mWorkspace = mController.getWorkspace();
+    }
+
+    @Test
+    public void testUndoRedoAddRootBlock() {
+        Block block = mBlockFactory.obtainBlock("statement_no_input", "first");
+        mController.addRootBlock(block);
+        assertThat(mController.canUndo()).isTrue();
+        assertThat(mController.canRedo()).isFalse();
+
+        mEventsFired.clear();
+        assertThat(mController.undo()).isTrue();
+        assertThat(mWorkspace.getRootBlocks()).doesNotContain(block);
+        assertThat(mController.canUndo()).isFalse();
+        assertThat(mController.canRedo()).isTrue();
+        assertThat(mEventsFired).isNotEmpty();  // Other listeners still see the changes.
+
+        assertThat(mController.redo()).isTrue();
+        assertThat(mWorkspace.getRootBlocks()).contains(block);
+        assertThat(mController.canUndo()).isTrue();
+        assertThat(mController.canRedo()).isFalse();
+    }
+
+    @Test
+    public void testUndoRedoConnect() {
+        Block first = mBlockFactory.obtainBlock("statement_no_input", "first");
+        Block second = mBlockFactory.obtainBlock("statement_no_input", "second");
+        mController.addRootBlock(first);
+        mController.addRootBlock(second);
+        second.setPosition(42, 24);
+
+        mController.connect(second.getPreviousConnection(), first.getNextConnection());
+        assertThat(first.getNextBlock()).isSameAs(second);
+
+        assertThat(mController.undo()).isTrue();
+        assertThat(first.getNextBlock()).isNull();
+        assertThat(mWorkspace.isRootBlock(second)).isTrue();
+        assertThat(second.getPosition().x).isEqualTo(42f);
+        assertThat(second.getPosition().y).isEqualTo(24f);
+
+        assertThat(mController.redo()).isTrue();
+        assertThat(first.getNextBlock()).isSameAs(second);
+        assertThat(mWorkspace.isRootBlock(second)).isFalse();
+    }
+
+    @Test
+    public void testUndoRedoConnectToStatementInput() {
+        Block parent = mBlockFactory.obtainBlock("statement_statement_input", "parent");
+        Block child = mBlockFactory.obtainBlock("statement_no_input", "child");
+        mController.addRootBlock(parent);
+        mController.addRootBlock(child);
+        Input statementInput = parent.getInputByName("statement input");
+
+        mController.connect(child.getPreviousConnection(), statementInput.getConnection());
+        assertThat(statementInput.getConnectedBlock()).isSameAs(child);
+
+        assertThat(mController.undo()).isTrue();
+        assertThat(statementInput.getConnectedBlock()).isNull();
+        assertThat(mWorkspace.isRootBlock(child)).isTrue();
+
+        assertThat(mController.redo()).isTrue();
+        assertThat(statementInput.getConnectedBlock()).isSameAs(child);
+        assertThat(parent.getNextBlock()).isNull();
+
+        // Undoing a move out of the statement input puts the block back into the input.
+        mController.extractBlockAsRoot(child);
+        assertThat(mWorkspace.isRootBlock(child)).isTrue();
+        assertThat(mController.undo()).isTrue();
+        assertThat(statementInput.getConnectedBlock()).isSameAs(child);
+        assertThat(parent.getNextBlock()).isNull();
+    }
+
+    @Test
+    public void testUndoRedoSpliceIntoInput() {
+        Block parent = mBlockFactory.obtainBlock("simple_input_output", "parent");
+        Block original = mBlockFactory.obtainBlock("simple_input_output", "original");
+        Block spliced = mBlockFactory.obtainBlock("simple_input_output", "spliced");
+        mController.addRootBlock(parent);
+        mController.addRootBlock(original);
+        mController.addRootBlock(spliced);
+        spliced.setPosition(42, 24);
+        Input parentInput = parent.getInputByName("value");
+        Input splicedInput = spliced.getInputByName("value");
+        mController.connect(original.getOutputConnection(), parentInput.getConnection());
+
+        mEventsFired.clear();
+        mController.connect(spliced.getOutputConnection(), parentInput.getConnection());
+        assertThat(parentInput.getConnectedBlock()).isSameAs(spliced);
+        assertThat(splicedInput.getConnectedBlock()).isSameAs(original);
+        assertThat(mEventsFired).hasSize(2);  // Moves of both the spliced and original blocks.
+
+        assertThat(mController.undo()).isTrue();
+        assertThat(parentInput.getConnectedBlock()).isSameAs(original);
+        assertThat(splicedInput.getConnectedBlock()).isNull();
+        assertThat(mWorkspace.isRootBlock(spliced)).isTrue();
+        assertThat(spliced.getPosition().x).isEqualTo(42f);
+        assertThat(spliced.getPosition().y).isEqualTo(24f);
+
+        assertThat(mController.redo()).isTrue();
+        assertThat(parentInput.getConnectedBlock()).isSameAs(spliced);
+        assertThat(splicedInput.getConnectedBlock()).isSameAs(original);
+    }
+
+    @Test
+    public void testUndoRedoSpliceBumpsOriginal() {
+        Block parent = mBlockFactory.obtainBlock("simple_input_output", "parent");
+        Block original = mBlockFactory.obtainBlock("simple_input_output", "original");
+        Block spliced = mBlockFactory.obtainBlock("output_no_input", "spliced");
+        mController.addRootBlock(parent);
+        mController.addRootBlock(original);
+        mController.addRootBlock(spliced);
+        Input parentInput = parent.getInputByName("value");
+        mController.connect(original.getOutputConnection(), parentInput.getConnection());
+
+        // The spliced block has no input, so the original block is bumped back to the root.
+        mController.connect(spliced.getOutputConnection(), parentInput.getConnection());
+        assertThat(parentInput.getConnectedBlock()).isSameAs(spliced);
+        assertThat(mWorkspace.isRootBlock(original)).isTrue();
+        float bumpedX = original.getPosition().x;
+        float bumpedY = original.getPosition().y;
+
+        assertThat(mController.undo()).isTrue();
+        assertThat(parentInput.getConnectedBlock()).isSameAs(original);
+        assertThat(mWorkspace.isRootBlock(spliced)).isTrue();
+
+        assertThat(mController.redo()).isTrue();
+        assertThat(parentInput.getConnectedBlock()).isSameAs(spliced);
+        assertThat(mWorkspace.isRootBlock(original)).isTrue();
+        assertThat(original.getPosition().x).isEqualTo(bumpedX);
+        assertThat(original.getPosition().y).isEqualTo(bumpedY);
+    }
+
+    @Test
+    public void testUndoRedoBump() {
+        Block first = mBlockFactory.obtainBlock("statement_no_input", "first");
+        Block second = mBlockFactory.obtainBlock("statement_no_input", "second");
+        mController.addRootBlock(first);
+        mController.addRootBlock(second);
+        second.setPosition(42, 24);
+
+        mController.bumpBlock(first.getNextConnection(), second.getPreviousConnection());
+        float bumpedX = second.getPosition().x;
+        float bumpedY = second.getPosition().y;
+        assertThat(bumpedX != 42f || bumpedY != 24f).isTrue();
+
+        assertThat(mController.undo()).isTrue();
+        assertThat(second.getPosition().x).isEqualTo(42f);
+        assertThat(second.getPosition().y).isEqualTo(24f);
+
+        assertThat(mController.redo()).isTrue();
+        assertThat(second.getPosition().x).isEqualTo(bumpedX);
+        assertThat(second.getPosition().y).isEqualTo(bumpedY);
+    }
+
+    @Test
+    public void testUndoTrashRootBlock() {
+        Block block = mBlockFactory.obtainBlock("statement_no_input", "first");
+        mController.addRootBlock(block);
+        mController.trashRootBlock(block);
+        assertThat(mWorkspace.getTrashCategory().getBlocks()).contains(block);
+
+        assertThat(mController.undo()).isTrue();
+        assertThat(mWorkspace.getRootBlocks()).contains(block);
+        assertThat(mWorkspace.getTrashCategory().getBlocks()).doesNotContain(block);
+
+        assertThat(mController.redo()).isTrue();
+        assertThat(mWorkspace.getRootBlocks()).doesNotContain(block);
+        assertThat(mWorkspace.getTrashCategory().getBlocks()).contains(block);
+    }
+
+    @Test
+    public void testNewEventGroupClearsRedo() {
+        mController.addRootBlock(mBlockFactory.obtainBlock("statement_no_input", "first"));
+        mController.undo();
+        assertThat(mController.canRedo()).isTrue();
+
+        mController.addRootBlock(mBlockFactory.obtainBlock("statement_no_input", "second"));
+        assertThat(mController.canRedo()).isFalse();
+    }
+
+    @Test
+    public void testHistoryLimit() {
+        for (int i = 0; i < 5; ++i) {
+            mController.addRootBlock(mBlockFactory.obtainBlock("statement_no_input", "block" + i));
+        }
+
+        int undoCount = 0;
+        while (mController.undo()) {
+            ++undoCount;
+        }
+        assertThat(undoCount).isEqualTo(3);
+        assertThat(mWorkspace.getRootBlocks().size()).isEqualTo(2);
+    }
+
+    @Test
+    public void testDisableUndo() {
+        mController.addRootBlock(mBlockFactory.obtainBlock("statement_no_input", "first"));
+        mController.setUndoHistoryLimit(0);
+
+        assertThat(mController.canUndo()).isFalse();
+        assertThat(mController.undo()).isFalse();
+        assertThat(mWorkspace.getRootBlocks().size()).isEqualTo(1);
+    }
+}
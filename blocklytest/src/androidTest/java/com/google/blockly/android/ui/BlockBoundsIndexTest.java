@@ -0,0 +1,127 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.ui;
+
+import android.graphics.Rect;
+
+import com.google.blockly.android.BlocklyTestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Tests for {@link BlockBoundsIndex}.
+ */
+public class BlockBoundsIndexTest extends BlocklyTestCase {
+    private BlockBoundsIndex<String> mIndex;
+    private Set<String> mFound;
+
+    @Before
+    public void setUp() throws Exception {
+        mIndex = new BlockBoundsIndex<>(100);
+        mFound = new HashSet<>();
+    }
+
+    @Test
+    public void testQueryFindsIntersectingItems() {
+        mIndex.update("a", 0, 0, 50, 50);
+        mIndex.update("b", 250, 250, 450, 300);
+        mIndex.update("c", -120, -40, -20, 10);
+
+        mIndex.query(new Rect(40, 40, 260, 260), mFound);
+        assertThat(mFound).containsExactly("a", "b");
+
+        mFound.clear();
+        mIndex.query(new Rect(-30, 0, 10, 20), mFound);
+        assertThat(mFound).containsExactly("a", "c");
+
+        mFound.clear();
+        mIndex.query(new Rect(500, 500, 600, 600), mFound);
+        assertThat(mFound).isEmpty();
+
+        mFound.clear();
+        mIndex.query(new Rect(-10000, -10000, 10000, 10000), mFound);
+        assertThat(mFound).containsExactly("a", "b", "c");
+    }
+
+    @Test
+    public void testUpdateMovesItem() {
+        assertThat(mIndex.update("a", 0, 0, 50, 50)).isTrue();
+        assertThat(mIndex.update("a", 0, 0, 50, 50)).isFalse();
+        assertThat(mIndex.update("a", 1000, 1000, 1050, 1050)).isTrue();
+
+        mIndex.query(new Rect(0, 0, 100, 100), mFound);
+        assertThat(mFound).isEmpty();
+        mIndex.query(new Rect(1000, 1000, 1100, 1100), mFound);
+        assertThat(mFound).containsExactly("a");
+        assertThat(mIndex.getBounds("a")).isEqualTo(new Rect(1000, 1000, 1050, 1050));
+    }
+
+    @Test
+    public void testRemove() {
+        mIndex.update("a", 0, 0, 50, 50);
+        mIndex.update("b", 200, 200, 250, 250);
+
+        assertThat(mIndex.remove("a")).isTrue();
+        assertThat(mIndex.remove("a")).isFalse();
+        assertThat(mIndex.size()).isEqualTo(1);
+        assertThat(mIndex.getBounds("a")).isNull();
+        mIndex.query(new Rect(0, 0, 300, 300), mFound);
+        assertThat(mFound).containsExactly("b");
+    }
+
+    @Test
+    public void testGetUnion() {
+        Rect union = new Rect();
+        assertThat(mIndex.getUnion(union).isEmpty()).isTrue();
+
+        mIndex.update("a", 0, 0, 50, 50);
+        mIndex.update("b", -100, 200, 20, 250);
+        mIndex.update("empty", 1000, 1000, 1000, 1000);
+        assertThat(mIndex.getUnion(union)).isEqualTo(new Rect(-100, 0, 50, 250));
+
+        mIndex.remove("b");
+        assertThat(mIndex.getUnion(union)).isEqualTo(new Rect(0, 0, 50, 50));
+
+        mIndex.remove("a");
+        assertThat(mIndex.getUnion(union).isEmpty()).isTrue();
+    }
+
+    @Test
+    public void testUnionFollowsMovesAndSharedEdges() {
+        Rect union = new Rect();
+        mIndex.update("a", 0, 0, 100, 100);
+        mIndex.update("b", 0, 0, 100, 100);
+        mIndex.update("c", 500, 500, 600, 600);
+        assertThat(mIndex.getUnion(union)).isEqualTo(new Rect(0, 0, 600, 600));
+
+        // Another item still has the same left and top edges.
+        mIndex.update("a", 300, 300, 400, 400);
+        assertThat(mIndex.getUnion(union)).isEqualTo(new Rect(0, 0, 600, 600));
+
+        mIndex.update("b", 300, 300, 350, 350);
+        assertThat(mIndex.getUnion(union)).isEqualTo(new Rect(300, 300, 600, 600));
+
+        // Shrinking the outermost item shrinks the union.
+        mIndex.update("c", 500, 500, 550, 550);
+        assertThat(mIndex.getUnion(union)).isEqualTo(new Rect(300, 300, 550, 550));
+    }
+}
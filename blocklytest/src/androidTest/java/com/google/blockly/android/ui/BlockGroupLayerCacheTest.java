@@ -0,0 +1,145 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.ui;
+
+import android.view.View;
+
+import com.google.blockly.android.BlocklyTestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Tests for {@link BlockGroupLayerCache}.
+ */
+public class BlockGroupLayerCacheTest extends BlocklyTestCase {
+    private static final int SIZE = 100;
+    private static final int LAYER_BYTES = SIZE * SIZE * 4;
+    private static final int IDLE_FRAMES = 3;
+
+    private WorkspaceHelper mHelper;
+    private BlockGroupLayerCache mCache;
+
+    @Before
+    public void setUp() throws Exception {
+        configureForThemes();
+        mHelper = new WorkspaceHelper(getContext());
+        mCache = new BlockGroupLayerCache(2 * LAYER_BYTES);
+        mCache.setIdleFrames(IDLE_FRAMES);
+    }
+
+    @Test
+    public void testIdleGroupIsCached() {
+        BlockGroup group = createGroup();
+        List<BlockGroup> visible = Collections.singletonList(group);
+
+        // The first frame sees the group's initial layout.
+        mCache.onPreDraw(visible);
+        for (int i = 1; i < IDLE_FRAMES; i++) {
+            mCache.onPreDraw(visible);
+            assertThat(group.getLayerType()).isEqualTo(View.LAYER_TYPE_NONE);
+        }
+        mCache.onPreDraw(visible);
+        assertThat(group.getLayerType()).isEqualTo(View.LAYER_TYPE_HARDWARE);
+        assertThat(mCache.getUsedBytes()).isEqualTo(LAYER_BYTES);
+    }
+
+    @Test
+    public void testChangedGroupIsUncached() {
+        BlockGroup group = createGroup();
+        List<BlockGroup> visible = Collections.singletonList(group);
+        for (int i = 0; i <= IDLE_FRAMES; i++) {
+            mCache.onPreDraw(visible);
+        }
+        assertThat(mCache.isCached(group)).isTrue();
+
+        group.requestLayout();
+        mCache.onPreDraw(visible);
+        assertThat(mCache.isCached(group)).isFalse();
+        assertThat(group.getLayerType()).isEqualTo(View.LAYER_TYPE_NONE);
+        assertThat(mCache.getUsedBytes()).isEqualTo(0);
+
+        for (int i = 0; i < IDLE_FRAMES; i++) {
+            mCache.onPreDraw(visible);
+        }
+        assertThat(mCache.isCached(group)).isTrue();
+    }
+
+    @Test
+    public void testBudgetEvictsLeastRecentlyVisible() {
+        BlockGroup first = createGroup();
+        BlockGroup second = createGroup();
+        BlockGroup third = createGroup();
+
+        idle(Arrays.asList(first, second));
+        assertThat(mCache.getCachedCount()).isEqualTo(2);
+
+        // Only the second group stays visible, so the first is evicted for the third.
+        idle(Arrays.asList(second, third));
+        assertThat(mCache.isCached(first)).isFalse();
+        assertThat(first.getLayerType()).isEqualTo(View.LAYER_TYPE_NONE);
+        assertThat(mCache.isCached(second)).isTrue();
+        assertThat(mCache.isCached(third)).isTrue();
+        assertThat(mCache.getUsedBytes()).isEqualTo(2 * LAYER_BYTES);
+    }
+
+    @Test
+    public void testVisibleLayersAreNotEvicted() {
+        BlockGroup first = createGroup();
+        BlockGroup second = createGroup();
+        BlockGroup third = createGroup();
+
+        idle(Arrays.asList(first, second, third));
+        assertThat(mCache.getCachedCount()).isEqualTo(2);
+        assertThat(mCache.isCached(first)).isTrue();
+        assertThat(mCache.isCached(second)).isTrue();
+        assertThat(mCache.isCached(third)).isFalse();
+    }
+
+    @Test
+    public void testClearAndRemove() {
+        BlockGroup first = createGroup();
+        BlockGroup second = createGroup();
+        idle(Arrays.asList(first, second));
+
+        mCache.remove(first);
+        assertThat(first.getLayerType()).isEqualTo(View.LAYER_TYPE_NONE);
+        assertThat(mCache.getUsedBytes()).isEqualTo(LAYER_BYTES);
+
+        mCache.clear();
+        assertThat(second.getLayerType()).isEqualTo(View.LAYER_TYPE_NONE);
+        assertThat(mCache.getCachedCount()).isEqualTo(0);
+        assertThat(mCache.getUsedBytes()).isEqualTo(0);
+    }
+
+    private void idle(List<BlockGroup> visible) {
+        for (int i = 0; i <= IDLE_FRAMES; i++) {
+            mCache.onPreDraw(visible);
+        }
+    }
+
+    private BlockGroup createGroup() {
+        BlockGroup group = new BlockGroup(getContext(), mHelper);
+        group.layout(0, 0, SIZE, SIZE);
+        return group;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.ui;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.view.View;
+
+import com.google.blockly.android.BlocklyTestCase;
+import com.google.blockly.android.control.ConnectionManager;
+import com.google.blockly.android.test.R;
+import com.google.blockly.android.ui.vertical.VerticalBlockViewFactory;
+import com.google.blockly.model.Block;
+import com.google.blockly.model.BlockFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.blockly.android.ui.RenderingProfiler.PHASE_DRAW;
+import static com.google.blockly.android.ui.RenderingProfiler.PHASE_LAYOUT;
+import static com.google.blockly.android.ui.RenderingProfiler.PHASE_MEASURE;
+import static com.google.blockly.android.ui.RenderingProfiler.VIEW_BLOCK;
+import static com.google.blockly.android.ui.RenderingProfiler.VIEW_BLOCK_GROUP;
+import static com.google.blockly.android.ui.RenderingProfiler.VIEW_WORKSPACE;
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for {@link RenderingProfiler}.
+ */
+public class RenderingProfilerTest extends BlocklyTestCase {
+    private RenderingProfiler mProfiler;
+
+    @Before
+    public void setUp() throws Exception {
+        configureForThemes();
+        mProfiler = new RenderingProfiler();
+    }
+
+    @Test
+    public void testNestedViewsRecordSelfTimes() throws InterruptedException {
+        Block block = new Block.Builder("nested").build();
+
+        long outerStart = mProfiler.begin();
+        long innerStart = mProfiler.begin();
+        Thread.sleep(5);
+        mProfiler.endBlock(block, PHASE_MEASURE, innerStart);
+        long outerNanos = System.nanoTime() - outerStart;
+        mProfiler.end(VIEW_WORKSPACE, PHASE_MEASURE, outerStart);
+        completeFrame();
+
+        RenderingProfiler.FrameStats frame = mProfiler.getLastFrame();
+        assertThat(frame.getCount(VIEW_WORKSPACE, PHASE_MEASURE)).isEqualTo(1);
+        assertThat(frame.getCount(VIEW_BLOCK, PHASE_MEASURE)).isEqualTo(1);
+        assertThat(frame.getNanos(VIEW_BLOCK, PHASE_MEASURE)).isAtLeast(5000000L);
+        // The sleep is only attributed to the inner view.
+        assertThat(frame.getNanos(VIEW_WORKSPACE, PHASE_MEASURE))
+                .isLessThan(frame.getNanos(VIEW_BLOCK, PHASE_MEASURE));
+        assertThat(frame.getTotalNanos()).isAtMost(outerNanos + 1000000L);
+    }
+
+    @Test
+    public void testFrameCompletesWhenNextFrameIsDrawn() {
+        record(VIEW_WORKSPACE, PHASE_MEASURE);
+        record(VIEW_WORKSPACE, PHASE_LAYOUT);
+        assertThat(mProfiler.onPreDraw()).isFalse();  // Nothing was rendered before.
+        record(VIEW_WORKSPACE, PHASE_DRAW);
+        // Measures of the next frame are not part of the frame being drawn.
+        record(VIEW_BLOCK_GROUP, PHASE_MEASURE);
+        assertThat(mProfiler.getFrameCount()).isEqualTo(0);
+
+        assertThat(mProfiler.onPreDraw()).isTrue();
+        RenderingProfiler.FrameStats frame = mProfiler.getLastFrame();
+        assertThat(mProfiler.getFrameCount()).isEqualTo(1);
+        assertThat(frame.getCount(VIEW_WORKSPACE, PHASE_MEASURE)).isEqualTo(1);
+        assertThat(frame.getCount(VIEW_WORKSPACE, PHASE_LAYOUT)).isEqualTo(1);
+        assertThat(frame.getCount(VIEW_WORKSPACE, PHASE_DRAW)).isEqualTo(1);
+        assertThat(frame.getCount(VIEW_BLOCK_GROUP, PHASE_MEASURE)).isEqualTo(0);
+
+        assertThat(mProfiler.onPreDraw()).isTrue();
+        assertThat(frame.getCount(VIEW_BLOCK_GROUP, PHASE_MEASURE)).isEqualTo(1);
+        assertThat(frame.getCount(VIEW_WORKSPACE, PHASE_DRAW)).isEqualTo(0);
+    }
+
+    @Test
+    public void testJankFrames() throws InterruptedException {
+        mProfiler.setJankThresholdNanos(1000000L);
+        record(VIEW_WORKSPACE, PHASE_DRAW);
+        completeFrame();
+        assertThat(mProfiler.getJankFrameCount()).isEqualTo(0);
+
+        long start = mProfiler.begin();
+        Thread.sleep(2);
+        mProfiler.end(VIEW_WORKSPACE, PHASE_DRAW, start);
+        completeFrame();
+        assertThat(mProfiler.getFrameCount()).isEqualTo(2);
+        assertThat(mProfiler.getJankFrameCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSlowestBlockTypes() throws InterruptedException {
+        Block fast = new Block.Builder("fast").build();
+        Block slow = new Block.Builder("slow").build();
+        for (int i = 0; i < 3; i++) {
+            mProfiler.endBlock(fast, PHASE_DRAW, mProfiler.begin());
+        }
+        long start = mProfiler.begin();
+        Thread.sleep(2);
+        mProfiler.endBlock(slow, PHASE_DRAW, start);
+
+        List<RenderingProfiler.BlockTypeStats> slowest = mProfiler.getSlowestBlockTypes(1);
+        assertThat(slowest).hasSize(1);
+        assertThat(slowest.get(0).getType()).isEqualTo("slow");
+        assertThat(slowest.get(0).getCount()).isEqualTo(1);
+        assertThat(slowest.get(0).getMaxNanos()).isAtLeast(2000000L);
+
+        slowest = mProfiler.getSlowestBlockTypes(5);
+        assertThat(slowest).hasSize(2);
+        assertThat(slowest.get(1).getType()).isEqualTo("fast");
+        assertThat(slowest.get(1).getCount()).isEqualTo(3);
+
+        // Reused lists are cleared and truncated.
+        slowest = new ArrayList<>();
+        slowest.add(null);
+        mProfiler.getSlowestBlockTypes(1, slowest);
+        assertThat(slowest).hasSize(1);
+        assertThat(slowest.get(0).getType()).isEqualTo("slow");
+
+        mProfiler.reset();
+        assertThat(mProfiler.getSlowestBlockTypes(5)).isEmpty();
+    }
+
+    @Test
+    public void testBlockViewsAreProfiled() {
+        WorkspaceHelper helper = new WorkspaceHelper(getContext());
+        helper.setRenderingProfiler(mProfiler);
+        BlockViewFactory factory = new VerticalBlockViewFactory(getContext(), helper);
+        BlockFactory blockFactory = new BlockFactory(getContext(), new int[]{R.raw.test_blocks});
+        Block root = blockFactory.obtainBlock("statement_no_input", null);
+        root.getNextConnection().connect(
+                blockFactory.obtainBlock("statement_no_input", null).getPreviousConnection());
+
+        BlockGroup group =
+                factory.buildBlockGroupTree(root, mock(ConnectionManager.class), null);
+        group.measure(View.MeasureSpec.UNSPECIFIED, View.MeasureSpec.UNSPECIFIED);
+        group.layout(0, 0, group.getMeasuredWidth(), group.getMeasuredHeight());
+        mProfiler.onPreDraw();
+        Bitmap bitmap = Bitmap.createBitmap(
+                group.getWidth(), group.getHeight(), Bitmap.Config.ARGB_8888);
+        group.draw(new Canvas(bitmap));
+        bitmap.recycle();
+        assertThat(mProfiler.onPreDraw()).isTrue();
+
+        RenderingProfiler.FrameStats frame = mProfiler.getLastFrame();
+        for (int phase = PHASE_MEASURE; phase <= PHASE_DRAW; ++phase) {
+            assertThat(frame.getCount(VIEW_BLOCK_GROUP, phase)).isEqualTo(1);
+            assertThat(frame.getCount(VIEW_BLOCK, phase)).isEqualTo(2);
+        }
+        List<RenderingProfiler.BlockTypeStats> slowest = mProfiler.getSlowestBlockTypes(5);
+        assertThat(slowest).hasSize(1);
+        assertThat(slowest.get(0).getType()).isEqualTo("statement_no_input");
+        assertThat(slowest.get(0).getCount()).isEqualTo(6);
+    }
+
+    private void record(int viewType, int phase) {
+        mProfiler.end(viewType, phase, mProfiler.begin());
+    }
+
+    /**
+     * Moves the recorded measures and layouts into the drawn frame, and completes it.
+     */
+    private void completeFrame() {
+        mProfiler.onPreDraw();
+        mProfiler.onPreDraw();
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.ui;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.view.View;
+
+import com.google.blockly.android.TestWorkspaceViewActivity;
+import com.google.blockly.android.control.ConnectionManager;
+import com.google.blockly.android.test.R;
+import com.google.blockly.model.Block;
+import com.google.blockly.model.BlockFactory;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * {@link VirtualWorkspaceView} tests in the context of an attached Activity.
+ */
+public class VirtualWorkspaceViewTest {
+    private static final int BLOCK_SPACING = 400;  // In workspace units.
+
+    private TestWorkspaceViewActivity mActivity;
+    private Instrumentation mInstrumentation;
+    private BlockFactory mBlockFactory;
+    private WorkspaceHelper mHelper;
+    private VirtualWorkspaceView mVirtualWorkspaceView;
+    private CountingWorkspaceView mWorkspaceView;
+    private List<BlockGroup> mBlockGroups = new ArrayList<>();
+
+    @Rule
+    public ActivityTestRule<TestWorkspaceViewActivity> mActivityRule =
+            new ActivityTestRule<>(TestWorkspaceViewActivity.class);
+
+    @Before
+    public void setUp() {
+        mActivity = mActivityRule.getActivity();
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+
+        // To solve some issue with Dexmaker.  This allows us to use mockito.
+        System.setProperty("dexmaker.dexcache", mActivity.getCacheDir().getPath());
+
+        mBlockFactory = new BlockFactory(mActivity.mThemeWrapper, new int[]{R.raw.test_blocks});
+        mHelper = mActivity.mWorkspaceHelper;
+
+        runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                mVirtualWorkspaceView = new VirtualWorkspaceView(mActivity);
+                mWorkspaceView = new CountingWorkspaceView(mActivity);
+                mWorkspaceView.setId(com.google.blockly.android.R.id.workspace);
+                mVirtualWorkspaceView.addView(mWorkspaceView);
+                mVirtualWorkspaceView.onFinishInflate();
+                mActivity.mController.initWorkspaceView(mWorkspaceView);
+                mActivity.setContentView(mVirtualWorkspaceView);
+
+                // A diagonal line of blocks, much larger than the screen.
+                ConnectionManager connectionManager = mock(ConnectionManager.class);
+                for (int i = 0; i < 20; i++) {
+                    Block block = mBlockFactory.obtainBlock("statement_no_input", null);
+                    block.setPosition(i * BLOCK_SPACING, i * BLOCK_SPACING);
+                    BlockGroup bg = mActivity.mViewFactory.buildBlockGroupTree(
+                            block, connectionManager, null);
+                    mBlockGroups.add(bg);
+                    mWorkspaceView.addView(bg);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testScrollDoesNotMeasureOrLayout() {
+        final ViewPoint before = new ViewPoint();
+        runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                mVirtualWorkspaceView.scrollTo(0, 0);
+                mHelper.getVirtualViewCoordinates(mBlockGroups.get(1), before);
+            }
+        });
+        mWorkspaceView.mMeasureCount = 0;
+        mWorkspaceView.mLayoutCount = 0;
+
+        // Simulate the scroll steps of a fling, with a frame between each.
+        for (int i = 1; i <= 30; i++) {
+            final int scroll = i * 10;
+            runAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    mVirtualWorkspaceView.scrollTo(scroll, scroll);
+                }
+            });
+        }
+
+        assertThat(mWorkspaceView.mMeasureCount).isEqualTo(0);
+        assertThat(mWorkspaceView.mLayoutCount).isEqualTo(0);
+        assertThat(mWorkspaceView.getScrollX()).isEqualTo(300);
+        assertThat(mWorkspaceView.getScrollY()).isEqualTo(300);
+
+        // Blocks appear to move by the scroll distance, without being laid out again.
+        ViewPoint after = new ViewPoint();
+        mHelper.getVirtualViewCoordinates(mBlockGroups.get(1), after);
+        assertThat(after.x).isEqualTo(before.x - 300);
+        assertThat(after.y).isEqualTo(before.y - 300);
+    }
+
+    @Test
+    public void testCulledScrollShowsBlockGroupsInViewport() {
+        final BlockGroup last = mBlockGroups.get(mBlockGroups.size() - 1);
+        runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                mVirtualWorkspaceView.scrollTo(0, 0);
+                mWorkspaceView.setVisibilityCullingMargin(0);
+                mWorkspaceView.setVisibilityCullingEnabled(true);
+            }
+        });
+        assertThat(mBlockGroups.get(0).getVisibility()).isEqualTo(View.VISIBLE);
+        assertThat(last.getVisibility()).isEqualTo(View.INVISIBLE);
+        assertThat(mWorkspaceView.getHiddenBlockGroupCount()).isGreaterThan(0);
+
+        mWorkspaceView.mMeasureCount = 0;
+        runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                int lastPosition = mHelper.workspaceToVirtualViewUnits(
+                        (mBlockGroups.size() - 1) * BLOCK_SPACING);
+                mVirtualWorkspaceView.scrollTo(lastPosition, lastPosition);
+            }
+        });
+
+        assertThat(mWorkspaceView.mMeasureCount).isEqualTo(0);
+        assertThat(mBlockGroups.get(0).getVisibility()).isEqualTo(View.INVISIBLE);
+        assertThat(last.getVisibility()).isEqualTo(View.VISIBLE);
+
+        runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                mWorkspaceView.setVisibilityCullingEnabled(false);
+            }
+        });
+        assertThat(mWorkspaceView.getHiddenBlockGroupCount()).isEqualTo(0);
+        assertThat(mBlockGroups.get(0).getVisibility()).isEqualTo(View.VISIBLE);
+    }
+
+    @Test
+    public void testMovedBlockGroupUpdatesBoundingBox() {
+        final BlockGroup last = mBlockGroups.get(mBlockGroups.size() - 1);
+        final Rect before = mWorkspaceView.getBlocksBoundingBox(new Rect());
+        assertThat(before.bottom).isEqualTo(last.getBottom());
+
+        runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                last.getFirstBlock().setPosition(0, 0);
+                last.requestLayout();
+            }
+        });
+        BlockGroup secondToLast = mBlockGroups.get(mBlockGroups.size() - 2);
+        Rect after = mWorkspaceView.getBlocksBoundingBox(new Rect());
+        assertThat(after.bottom).isEqualTo(secondToLast.getBottom());
+        assertThat(after.bottom).isLessThan(before.bottom);
+    }
+
+    @Test
+    public void testLevelOfDetailDrawsBlockColor() {
+        final BlockGroup first = mBlockGroups.get(0);
+        final BlockView blockView = (BlockView) first.getChildAt(0);
+        final Bitmap bitmap = Bitmap.createBitmap(
+                mWorkspaceView.getWidth(), mWorkspaceView.getHeight(), Bitmap.Config.ARGB_8888);
+        runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                mVirtualWorkspaceView.scrollTo(0, 0);
+                mWorkspaceView.setLevelOfDetailScale(0.5f);
+            }
+        });
+        assertThat(mWorkspaceView.isDrawingLevelOfDetail()).isFalse();
+
+        runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                mWorkspaceView.setScaleX(0.25f);
+                mWorkspaceView.setScaleY(0.25f);
+                mWorkspaceView.draw(new Canvas(bitmap));
+            }
+        });
+        assertThat(mWorkspaceView.isDrawingLevelOfDetail()).isTrue();
+
+        // The block is drawn as a rectangle of its colour, without its fields.
+        View view = (View) blockView;
+        int x = first.getLeft() + view.getLeft() + view.getWidth() / 2;
+        int y = first.getTop() + view.getTop() + view.getHeight() / 2;
+        assertThat(bitmap.getPixel(x, y)).isEqualTo(blockView.getBlock().getColor());
+    }
+
+    @Test
+    public void testLevelOfDetailRedrawsChangedBlock() {
+        final View blockView = mBlockGroups.get(0).getChildAt(0);
+        runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                mVirtualWorkspaceView.scrollTo(0, 0);
+                mWorkspaceView.setLevelOfDetailScale(0.5f);
+                mWorkspaceView.setScaleX(0.25f);
+                mWorkspaceView.setScaleY(0.25f);
+            }
+        });
+        assertThat(mWorkspaceView.isDrawingLevelOfDetail()).isTrue();
+
+        // A block that is only redrawn, such as after a change of its colour.
+        mWorkspaceView.mDrawCount = 0;
+        runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                blockView.invalidate();
+            }
+        });
+        assertThat(mWorkspaceView.mDrawCount).isGreaterThan(0);
+
+        // A block that is laid out again, without invalidating itself.
+        mWorkspaceView.mDrawCount = 0;
+        runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                blockView.requestLayout();
+            }
+        });
+        assertThat(mWorkspaceView.mDrawCount).isGreaterThan(0);
+    }
+
+    private void runAndWait(Runnable runnable) {
+        mActivity.runOnUiThread(runnable);
+        mInstrumentation.waitForIdleSync();
+    }
+
+    /**
+     * WorkspaceView that counts its measure, layout, and draw passes.
+     */
+    private static class CountingWorkspaceView extends WorkspaceView {
+        int mMeasureCount = 0;
+        int mLayoutCount = 0;
+        int mDrawCount = 0;
+
+        CountingWorkspaceView(Context context) {
+            super(context);
+        }
+
+        @Override
+        public void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            ++mMeasureCount;
+            super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+        }
+
+        @Override
+        protected void onLayout(boolean changed, int l, int t, int r, int b) {
+            ++mLayoutCount;
+            super.onLayout(changed, l, t, r, b);
+        }
+
+        @Override
+        protected void dispatchDraw(Canvas canvas) {
+            ++mDrawCount;
+            super.dispatchDraw(canvas);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.ui.vector;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.NinePatch;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Build;
+import android.support.test.filters.LargeTest;
+import android.util.Log;
+import android.view.View;
+
+import com.google.blockly.android.BlocklyTestCase;
+import com.google.blockly.android.control.ConnectionManager;
+import com.google.blockly.android.test.R;
+import com.google.blockly.android.ui.BlockGroup;
+import com.google.blockly.android.ui.BlockViewFactory;
+import com.google.blockly.android.ui.WorkspaceHelper;
+import com.google.blockly.android.ui.vertical.VerticalBlockViewFactory;
+import com.google.blockly.model.Block;
+import com.google.blockly.model.BlockFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for {@link VectorBlockView}, including draw call and frame time comparisons with the
+ * 9-patch blocks of {@link VerticalBlockViewFactory}.
+ */
+public class VectorBlockViewTest extends BlocklyTestCase {
+    private static final String TAG = "VectorBlockViewTest";
+
+    private static final int STACK_SIZE = 10;
+    private static final int BENCHMARK_FRAMES = 30;
+    private static final String MANY_INPUTS_BLOCK = "statement_ten_inline_inputs";
+    private static final String MANY_INPUTS_BLOCK_JSON = "[{"
+            + "\"type\": \"" + MANY_INPUTS_BLOCK + "\","
+            + "\"message0\": \"%1 %2 %3 %4 %5 %6 %7 %8 %9 %10\","
+            + "\"args0\": ["
+            + "{\"type\": \"input_value\"}, {\"type\": \"input_value\"},"
+            + "{\"type\": \"input_value\"}, {\"type\": \"input_value\"},"
+            + "{\"type\": \"input_value\"}, {\"type\": \"input_value\"},"
+            + "{\"type\": \"input_value\"}, {\"type\": \"input_value\"},"
+            + "{\"type\": \"input_value\"}, {\"type\": \"input_value\"}],"
+            + "\"previousStatement\": null,"
+            + "\"nextStatement\": null,"
+            + "\"inputsInline\": true,"
+            + "\"colour\": 120"
+            + "}]";
+
+    private BlockFactory mBlockFactory;
+    private ConnectionManager mMockConnectionManager;
+
+    @Before
+    public void setUp() throws Exception {
+        configureForThemes();
+        mBlockFactory = new BlockFactory(getContext(), new int[]{R.raw.test_blocks});
+        mMockConnectionManager = mock(ConnectionManager.class);
+    }
+
+    @Test
+    public void testBlockIsDrawnWithOneFillAndOneStroke() {
+        VectorBlockViewFactory factory =
+                new VectorBlockViewFactory(getContext(), new WorkspaceHelper(getContext()));
+        Block block = mBlockFactory.obtainBlock("statement_value_input", null);
+        BlockGroup group = buildAndLayout(factory, block);
+        VectorBlockView blockView = (VectorBlockView) group.getChildAt(0);
+
+        CountingCanvas canvas = new CountingCanvas(group.getWidth(), group.getHeight());
+        blockView.onDraw(canvas);
+        assertThat(canvas.mPathCount).isEqualTo(2);
+        assertThat(canvas.mRectCount).isEqualTo(0);
+    }
+
+    @Test
+    public void testOutlineFitsBlock() {
+        VectorBlockViewFactory factory =
+                new VectorBlockViewFactory(getContext(), new WorkspaceHelper(getContext()));
+        Block block = mBlockFactory.obtainBlock("output_no_input", null);
+        BlockGroup group = buildAndLayout(factory, block);
+        VectorBlockView blockView = (VectorBlockView) group.getChildAt(0);
+
+        RectF bounds = new RectF();
+        blockView.getOutline().computeBounds(bounds, true);
+        // The "Output" tab is at the start of the view.
+        assertThat(bounds.left).isEqualTo(0f);
+        assertThat(bounds.top).isEqualTo(0f);
+        assertThat(bounds.right).isAtMost((float) blockView.getMeasuredWidth());
+        assertThat(bounds.bottom).isAtMost((float) blockView.getMeasuredHeight());
+    }
+
+    /**
+     * Draws the same stack of blocks with both renderers. The 9-patch renderer draws patches and
+     * fill rects for every input, while the vector renderer draws one fill and one stroke per
+     * block.
+     */
+    @Test
+    public void testDrawCallsAgainstVertical() throws IOException {
+        mBlockFactory.addBlocks(MANY_INPUTS_BLOCK_JSON);
+
+        CountingCanvas vertical = drawStack(
+                new VerticalBlockViewFactory(getContext(), new WorkspaceHelper(getContext())));
+        CountingCanvas vector = drawStack(
+                new VectorBlockViewFactory(getContext(), new WorkspaceHelper(getContext())));
+        assertThat(vector.getDrawCount()).isEqualTo(2 * STACK_SIZE);
+        assertThat(vector.getDrawCount() * 10).isAtMost(vertical.getDrawCount());
+    }
+
+    /**
+     * Draws the same stack of blocks with both renderers and logs the average frame time of each.
+     */
+    @LargeTest
+    @Test
+    public void testFrameTimeAgainstVertical() throws IOException {
+        mBlockFactory.addBlocks(MANY_INPUTS_BLOCK_JSON);
+
+        long verticalNanos = timeFrames(
+                new VerticalBlockViewFactory(getContext(), new WorkspaceHelper(getContext())));
+        long vectorNanos = timeFrames(
+                new VectorBlockViewFactory(getContext(), new WorkspaceHelper(getContext())));
+        Log.i(TAG, "Average frame time of " + STACK_SIZE + " blocks: vertical "
+                + (verticalNanos / 1000) + "us, vector " + (vectorNanos / 1000) + "us");
+        assertThat(verticalNanos).isGreaterThan(0L);
+        assertThat(vectorNanos).isGreaterThan(0L);
+    }
+
+    /**
+     * @return The canvas that counted the draw calls of a stack of blocks with many inputs.
+     */
+    private CountingCanvas drawStack(BlockViewFactory factory) {
+        BlockGroup group = buildStack(factory);
+        CountingCanvas canvas = new CountingCanvas(group.getWidth(), group.getHeight());
+        group.draw(canvas);
+        return canvas;
+    }
+
+    /**
+     * @return The average time to draw a stack of blocks with many inputs, in nanoseconds.
+     */
+    private long timeFrames(BlockViewFactory factory) {
+        BlockGroup group = buildStack(factory);
+        Bitmap bitmap = Bitmap.createBitmap(
+                group.getWidth(), group.getHeight(), Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+
+        group.draw(canvas);  // Warm up.
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_FRAMES; i++) {
+            group.draw(canvas);
+        }
+        long elapsed = System.nanoTime() - start;
+        bitmap.recycle();
+        return elapsed / BENCHMARK_FRAMES;
+    }
+
+    private BlockGroup buildStack(BlockViewFactory factory) {
+        Block root = mBlockFactory.obtainBlock(MANY_INPUTS_BLOCK, null);
+        Block last = root;
+        for (int i = 1; i < STACK_SIZE; i++) {
+            Block next = mBlockFactory.obtainBlock(MANY_INPUTS_BLOCK, null);
+            last.getNextConnection().connect(next.getPreviousConnection());
+            last = next;
+        }
+        return buildAndLayout(factory, root);
+    }
+
+    private BlockGroup buildAndLayout(BlockViewFactory factory, Block root) {
+        BlockGroup group = factory.buildBlockGroupTree(root, mMockConnectionManager, null);
+        group.measure(View.MeasureSpec.UNSPECIFIED, View.MeasureSpec.UNSPECIFIED);
+        group.layout(0, 0, group.getMeasuredWidth(), group.getMeasuredHeight());
+        return group;
+    }
+
+    /**
+     * Canvas that counts the paths, rects, patches and bitmaps drawn.
+     */
+    private static class CountingCanvas extends Canvas {
+        int mPathCount = 0;
+        int mRectCount = 0;
+        int mPatchCount = 0;
+        int mBitmapCount = 0;
+
+        CountingCanvas(int width, int height) {
+            super(Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888));
+        }
+
+        @Override
+        public void drawPath(Path path, Paint paint) {
+            ++mPathCount;
+            super.drawPath(path, paint);
+        }
+
+        @Override
+        public void drawRect(Rect rect, Paint paint) {
+            ++mRectCount;
+            super.drawRect(rect, paint);
+        }
+
+        @Override
+        public void drawRect(float left, float top, float right, float bottom, Paint paint) {
+            ++mRectCount;
+            super.drawRect(left, top, right, bottom, paint);
+        }
+
+        @Override
+        @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+        public void drawPatch(NinePatch patch, Rect dst, Paint paint) {
+            ++mPatchCount;
+            super.drawPatch(patch, dst, paint);
+        }
+
+        @Override
+        @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+        public void drawPatch(NinePatch patch, RectF dst, Paint paint) {
+            ++mPatchCount;
+            super.drawPatch(patch, dst, paint);
+        }
+
+        @Override
+        public void drawBitmap(Bitmap bitmap, float left, float top, Paint paint) {
+            ++mBitmapCount;
+            super.drawBitmap(bitmap, left, top, paint);
+        }
+
+        @Override
+        public void drawBitmap(Bitmap bitmap, Rect src, Rect dst, Paint paint) {
+            ++mBitmapCount;
+            super.drawBitmap(bitmap, src, dst, paint);
+        }
+
+        @Override
+        public void drawBitmap(Bitmap bitmap, Rect src, RectF dst, Paint paint) {
+            ++mBitmapCount;
+            super.drawBitmap(bitmap, src, dst, paint);
+        }
+
+        @Override
+        public void drawBitmap(Bitmap bitmap, Matrix matrix, Paint paint) {
+            ++mBitmapCount;
+            super.drawBitmap(bitmap, matrix, paint);
+        }
+
+        /**
+         * @return The number of paths, rects, patches and bitmaps drawn.
+         */
+        int getDrawCount() {
+            return mPathCount + mRectCount + mPatchCount + mBitmapCount;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.ui.vertical;
+
+import android.content.Context;
+import android.os.Debug;
+import android.view.View;
+
+import com.google.blockly.android.BlocklyTestCase;
+import com.google.blockly.android.control.ConnectionManager;
+import com.google.blockly.android.test.R;
+import com.google.blockly.android.ui.BlockGroup;
+import com.google.blockly.android.ui.BlockTouchHandler;
+import com.google.blockly.android.ui.WorkspaceHelper;
+import com.google.blockly.android.ui.WorkspaceView;
+import com.google.blockly.model.Block;
+import com.google.blockly.model.BlockFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for the measurement cache and the layout allocations of {@link BlockView}.
+ */
+public class BlockViewTest extends BlocklyTestCase {
+    private static final int SPEC = View.MeasureSpec.UNSPECIFIED;
+
+    private BlockFactory mBlockFactory;
+    private CountingViewFactory mViewFactory;
+    private ConnectionManager mMockConnectionManager;
+
+    @Before
+    public void setUp() throws Exception {
+        configureForThemes();
+        mBlockFactory = new BlockFactory(getContext(), new int[]{R.raw.test_blocks});
+        mViewFactory = new CountingViewFactory(getContext(), new WorkspaceHelper(getContext()));
+        mMockConnectionManager = mock(ConnectionManager.class);
+    }
+
+    @Test
+    public void testMovedBlockKeepsPatches() {
+        CountingBlockView blockView = buildAndLayout("statement_value_input");
+        assertThat(blockView.mPatchLayoutCount).isEqualTo(1);
+
+        int width = blockView.getMeasuredWidth();
+        int height = blockView.getMeasuredHeight();
+        blockView.layout(10, 20, 10 + width, 20 + height);
+        assertThat(blockView.mPatchLayoutCount).isEqualTo(1);
+    }
+
+    @Test
+    public void testForcedMeasureOfUnchangedBlockKeepsPatches() {
+        CountingBlockView blockView = buildAndLayout("statement_value_input");
+        int width = blockView.getMeasuredWidth();
+        int height = blockView.getMeasuredHeight();
+
+        blockView.forceLayout();
+        blockView.measure(SPEC, SPEC);
+        blockView.layout(0, 0, blockView.getMeasuredWidth(), blockView.getMeasuredHeight());
+        assertThat(blockView.getMeasuredWidth()).isEqualTo(width);
+        assertThat(blockView.getMeasuredHeight()).isEqualTo(height);
+        assertThat(blockView.mPatchLayoutCount).isEqualTo(1);
+    }
+
+    @Test
+    public void testChangedBlockLaysOutPatches() {
+        CountingBlockView blockView = buildAndLayout("statement_value_input");
+        Block block = blockView.getBlock();
+
+        block.setInputsInline(!block.getInputsInline());
+        blockView.forceLayout();
+        blockView.measure(SPEC, SPEC);
+        blockView.layout(0, 0, blockView.getMeasuredWidth(), blockView.getMeasuredHeight());
+        assertThat(blockView.mPatchLayoutCount).isEqualTo(2);
+    }
+
+    @Test
+    public void testRequestLayoutLaysOutPatches() {
+        CountingBlockView blockView = buildAndLayout("statement_value_input");
+
+        blockView.requestLayout();
+        blockView.measure(SPEC, SPEC);
+        blockView.layout(0, 0, blockView.getMeasuredWidth(), blockView.getMeasuredHeight());
+        assertThat(blockView.mPatchLayoutCount).isEqualTo(2);
+    }
+
+    @Test
+    public void testRelayoutOfExternalInputsDoesNotAllocate() {
+        assertRelayoutDoesNotAllocate("test_block_one_input_each_type");
+    }
+
+    @Test
+    public void testRelayoutOfInlineInputsDoesNotAllocate() {
+        assertRelayoutDoesNotAllocate("statement_multiple_inputs");
+    }
+
+    /**
+     * Measures and lays out an unchanged block again, including its inputs, patches and connector
+     * locations, and checks that nothing was allocated.
+     */
+    @SuppressWarnings("deprecation")
+    private void assertRelayoutDoesNotAllocate(String blockType) {
+        // A real ConnectionManager, since a mock allocates to record the connection updates.
+        CountingBlockView blockView = buildAndLayout(blockType, new ConnectionManager());
+        // Connector locations are only updated in a WorkspaceView.
+        blockView.setWorkspaceView(new WorkspaceView(getContext()));
+        // The first layout filled the pools. Lay out once more so that only the steady state is
+        // counted, not one-time costs such as class initialization or adding the connections.
+        remeasureAndLayout(blockView);
+
+        blockView.requestLayout();
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        blockView.measure(SPEC, SPEC);
+        blockView.layout(0, 0, blockView.getMeasuredWidth(), blockView.getMeasuredHeight());
+        Debug.stopAllocCounting();
+        assertThat(Debug.getThreadAllocCount()).isEqualTo(0);
+        assertThat(blockView.mPatchLayoutCount).isEqualTo(3);
+    }
+
+    private void remeasureAndLayout(BlockView blockView) {
+        blockView.requestLayout();
+        blockView.measure(SPEC, SPEC);
+        blockView.layout(0, 0, blockView.getMeasuredWidth(), blockView.getMeasuredHeight());
+    }
+
+    private CountingBlockView buildAndLayout(String blockType) {
+        return buildAndLayout(blockType, mMockConnectionManager);
+    }
+
+    private CountingBlockView buildAndLayout(String blockType,
+                                             ConnectionManager connectionManager) {
+        Block block = mBlockFactory.obtainBlock(blockType, null);
+        BlockGroup group = mViewFactory.buildBlockGroupTree(block, connectionManager, null);
+        CountingBlockView blockView = (CountingBlockView) group.getChildAt(0);
+        blockView.measure(SPEC, SPEC);
+        blockView.layout(0, 0, blockView.getMeasuredWidth(), blockView.getMeasuredHeight());
+        return blockView;
+    }
+
+    /**
+     * Factory that builds {@link CountingBlockView}s.
+     */
+    private static class CountingViewFactory extends VerticalBlockViewFactory {
+        CountingViewFactory(Context context, WorkspaceHelper helper) {
+            super(context, helper);
+        }
+
+        @Override
+        protected BlockView buildBlockView(Block block, List<InputView> inputViews,
+                                           ConnectionManager connectionManager,
+                                           BlockTouchHandler touchHandler) {
+            return new CountingBlockView(mContext, mHelper, this, block, inputViews,
+                    connectionManager, touchHandler);
+        }
+    }
+
+    /**
+     * BlockView that counts how often its patches are laid out.
+     */
+    private static class CountingBlockView extends BlockView {
+        int mPatchLayoutCount = 0;
+
+        CountingBlockView(Context context, WorkspaceHelper helper,
+                          VerticalBlockViewFactory factory, Block block,
+                          List<InputView> inputViews, ConnectionManager connectionManager,
+                          BlockTouchHandler touchHandler) {
+            super(context, helper, factory, block, inputViews, connectionManager, touchHandler);
+        }
+
+        @Override
+        protected void layoutPatchesAndConnectors() {
+            ++mPatchLayoutCount;
+            super.layoutPatchesAndConnectors();
+        }
+
+        /**
+         * Sets the {@link WorkspaceView}, which is the main effect of attaching to a window.
+         */
+        void setWorkspaceView(WorkspaceView workspaceView) {
+            mWorkspaceView = workspaceView;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.ui.vertical;
+
+import android.graphics.Color;
+import android.graphics.drawable.NinePatchDrawable;
+
+import com.google.blockly.android.BlocklyTestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Tests for {@link PatchManager}.
+ */
+public class PatchManagerTest extends BlocklyTestCase {
+    private PatchManager mPatchManager;
+
+    @Before
+    public void setUp() throws Exception {
+        mPatchManager = new PatchManager(getContext(), false, false);
+    }
+
+    @Test
+    public void testSharedColoredPatchesAreCachedByPatchAndColor() {
+        NinePatchDrawable red = mPatchManager.getSharedColoredPatchDrawable(
+                R.drawable.dummy_input, Color.RED);
+        assertThat(mPatchManager.getSharedColoredPatchDrawable(R.drawable.dummy_input, Color.RED))
+                .isSameAs(red);
+
+        NinePatchDrawable blue = mPatchManager.getSharedColoredPatchDrawable(
+                R.drawable.dummy_input, Color.BLUE);
+        NinePatchDrawable redShadow = mPatchManager.getSharedColoredPatchDrawable(
+                R.drawable.dummy_input_shadow, Color.RED);
+        assertThat(blue).isNotSameAs(red);
+        assertThat(redShadow).isNotSameAs(red);
+
+        // All drawables of a patch share its constant state, and so its bitmap.
+        assertThat(blue.getConstantState()).isSameAs(red.getConstantState());
+        assertThat(mPatchManager.getPatchDrawable(R.drawable.dummy_input).getConstantState())
+                .isSameAs(red.getConstantState());
+    }
+
+    @Test
+    public void testSharedPatchesAndColorFilters() {
+        assertThat(mPatchManager.getSharedPatchDrawable(R.drawable.dummy_input_border))
+                .isSameAs(mPatchManager.getSharedPatchDrawable(R.drawable.dummy_input_border));
+        assertThat(mPatchManager.getColorFilter(Color.RED))
+                .isSameAs(mPatchManager.getColorFilter(Color.RED));
+        assertThat(mPatchManager.getColorFilter(Color.RED))
+                .isNotSameAs(mPatchManager.getColorFilter(Color.BLUE));
+    }
+}
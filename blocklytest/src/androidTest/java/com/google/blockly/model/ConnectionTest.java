@@ -28,6 +28,7 @@ import static com.google.blockly.model.Connection.REASON_TARGET_NULL;
 import static com.google.blockly.model.Connection.REASON_WRONG_TYPE;
 
 import static com.google.blockly.utils.ConnectionSubject.assertThat;
+import static com.google.common.truth.Truth.assertThat;
 
 
 /**
@@ -78,6 +79,22 @@ public class ConnectionTest {
         blockBuilder.setShadow(false);
     }
 
+    @Test
+    public void testConnectAndDisconnectChangeContentVersion() {
+        int nextVersion = next.getBlock().getContentVersion();
+        int previousVersion = previous.getBlock().getContentVersion();
+
+        next.connect(previous);
+        assertThat(next.getBlock().getContentVersion()).isNotEqualTo(nextVersion);
+        assertThat(previous.getBlock().getContentVersion()).isNotEqualTo(previousVersion);
+
+        nextVersion = next.getBlock().getContentVersion();
+        previousVersion = previous.getBlock().getContentVersion();
+        next.disconnect();
+        assertThat(next.getBlock().getContentVersion()).isNotEqualTo(nextVersion);
+        assertThat(previous.getBlock().getContentVersion()).isNotEqualTo(previousVersion);
+    }
+
     @Test
     public void testCanConnectWithReason() {
         assertThat(input).connectingTo(null).returnsReason(REASON_TARGET_NULL);
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.blockly.model;
+
+import com.google.blockly.android.BlocklyTestCase;
+import com.google.blockly.android.control.BlocklyController;
+import com.google.blockly.android.test.R;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Tests for {@link WorkspaceSnapshot} and {@link BlockSnapshot}.
+ */
+public class WorkspaceSnapshotTest extends BlocklyTestCase {
+    private BlocklyController mController;
+    private BlockFactory mBlockFactory;
+    private Workspace mWorkspace;
+
+    @Before
+    public void setUp() throws Exception {
+        configureForUIThread();
+        mController = new BlocklyController.Builder(getContext())
+                .addBlockDefinitions(R.raw.test_blocks)
+                .build();
+        mBlockFactory = mController.getBlockFactory();
+        mWorkspace = mController.getWorkspace();
+    }
+
+    @Test
+    public void testUnchangedWorkspaceReturnsSameSnapshot() {
+        mController.addRootBlock(mBlockFactory.obtainBlock("statement_no_input", "first"));
+
+        WorkspaceSnapshot snapshot = mWorkspace.getSnapshot();
+        assertThat(snapshot.getRootBlocks().size()).isEqualTo(1);
+        assertThat(snapshot.getRootBlocks().get(0).getId()).isEqualTo("first");
+        assertThat(mWorkspace.getSnapshot()).isSameAs(snapshot);
+    }
+
+    @Test
+    public void testFieldChangeSharesOtherTrees() {
+        Block statement = mBlockFactory.obtainBlock("statement_value_input", "statement");
+        Block number = mBlockFactory.obtainBlock("math_number", "number");
+        Block other = mBlockFactory.obtainBlock("statement_no_input", "other");
+        mController.addRootBlock(statement);
+        mController.addRootBlock(number);
+        mController.addRootBlock(other);
+        mController.connect(number.getOutputConnection(),
+                statement.getInputByName("value").getConnection());
+
+        WorkspaceSnapshot before = mWorkspace.getSnapshot();
+        BlockSnapshot numberBefore = before.findBlock("number");
+        assertThat(numberBefore.getFieldValue("NUM")).isEqualTo("0");
+
+        number.getFieldByName("NUM").setFromString("42");
+        WorkspaceSnapshot after = mWorkspace.getSnapshot();
+
+        assertThat(after).isNotSameAs(before);
+        assertThat(after.getVersion()).isGreaterThan(before.getVersion());
+        assertThat(after.findBlock("number").getFieldValue("NUM")).isEqualTo("42");
+        assertThat(numberBefore.getFieldValue("NUM")).isEqualTo("0");  // Old snapshot unchanged.
+        // The parent is copied, the unrelated tree is shared.
+        assertThat(after.findBlock("statement")).isNotSameAs(before.findBlock("statement"));
+        assertThat(after.findBlock("other")).isSameAs(before.findBlock("other"));
+    }
+
+    @Test
+    public void testConnectionChange() {
+        Block first = mBlockFactory.obtainBlock("statement_no_input", "first");
+        Block second = mBlockFactory.obtainBlock("statement_no_input", "second");
+        mController.addRootBlock(first);
+        mController.addRootBlock(second);
+        WorkspaceSnapshot before = mWorkspace.getSnapshot();
+        assertThat(before.getRootBlocks().size()).isEqualTo(2);
+
+        mController.connect(second.getPreviousConnection(), first.getNextConnection());
+        WorkspaceSnapshot after = mWorkspace.getSnapshot();
+        assertThat(after.getRootBlocks().size()).isEqualTo(1);
+        assertThat(after.getRootBlocks().get(0).getNextBlock().getId()).isEqualTo("second");
+        assertThat(before.getRootBlocks().get(0).getNextBlock()).isNull();
+    }
+
+    @Test
+    public void testRootPosition() {
+        Block block = mBlockFactory.obtainBlock("statement_no_input", "first");
+        block.setPosition(10, 20);
+        mController.addRootBlock(block);
+        WorkspaceSnapshot before = mWorkspace.getSnapshot();
+
+        block.setPosition(30, 40);
+        BlockSnapshot after = mWorkspace.getSnapshot().getRootBlocks().get(0);
+        assertThat(after.getX()).isEqualTo(30f);
+        assertThat(after.getY()).isEqualTo(40f);
+        assertThat(before.getRootBlocks().get(0).getX()).isEqualTo(10f);
+    }
+
+    @Test
+    public void testTreeVersionPropagatesToAncestors() {
+        Block statement = mBlockFactory.obtainBlock("statement_value_input", "statement");
+        Block number = mBlockFactory.obtainBlock("math_number", "number");
+        Block other = mBlockFactory.obtainBlock("statement_no_input", "other");
+        mController.addRootBlock(statement);
+        mController.addRootBlock(number);
+        mController.addRootBlock(other);
+        mController.connect(number.getOutputConnection(),
+                statement.getInputByName("value").getConnection());
+        int statementVersion = statement.getTreeVersion();
+        int statementContentVersion = statement.getContentVersion();
+        int otherVersion = other.getTreeVersion();
+
+        number.getFieldByName("NUM").setFromString("42");
+        assertThat(number.getTreeVersion()).isEqualTo(statement.getTreeVersion());
+        assertThat(statement.getTreeVersion()).isNotEqualTo(statementVersion);
+        assertThat(statement.getContentVersion()).isEqualTo(statementContentVersion);
+        assertThat(other.getTreeVersion()).isEqualTo(otherVersion);
+    }
+
+    @Test
+    public void testReorderedRootsShared() {
+        Block first = mBlockFactory.obtainBlock("statement_no_input", "first");
+        Block second = mBlockFactory.obtainBlock("statement_no_input", "second");
+        Block third = mBlockFactory.obtainBlock("statement_no_input", "third");
+        mController.addRootBlock(first);
+        mController.addRootBlock(second);
+        mController.addRootBlock(third);
+        WorkspaceSnapshot before = mWorkspace.getSnapshot();
+
+        // Removing the first root shifts the others to new indices.
+        mController.trashRootBlock(first);
+        WorkspaceSnapshot after = mWorkspace.getSnapshot();
+        assertThat(after.getRootBlocks().size()).isEqualTo(2);
+        assertThat(after.findBlock("second")).isSameAs(before.findBlock("second"));
+        assertThat(after.findBlock("third")).isSameAs(before.findBlock("third"));
+    }
+}